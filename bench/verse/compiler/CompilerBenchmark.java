@@ -0,0 +1,150 @@
+package verse.compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import verse.compiler.lex.lexer;
+import verse.compiler.parse.descriptor_builder;
+import verse.compiler.parse.parse_cache;
+import verse.compiler.parse.parser;
+import verse.io.path_util;
+
+/**
+ * The compiler's phases over a {@link SyntheticTree} of 1k, 10k and 100k
+ * files, written to a temp folder once per trial.
+ *
+ * <ul>
+ * <li>lex: every .v file; the "megabytes" counter reads as MB/s.</li>
+ * <li>parse: lex and parse every file, descriptors included, without the
+ * parse cache; the "files" counter reads as files/s.</li>
+ * <li>resolve: build the unit graph and open the type index, given parsed
+ * files.</li>
+ * <li>build: a whole one-shot build with a cold parse cache, as
+ * <code>verse --no-daemon</code> runs it, minus JVM startup.</li>
+ * </ul>
+ *
+ * <p>100k files take a few GB of heap and minutes per build; narrow the run
+ * with <code>-p files=1000,10000</code> when that is too much.</p>
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompilerBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int files;
+
+    private Path folder;
+    private Path root;
+    private source_file[] code;
+    private source_file[] all;
+    private double code_megabytes;
+    private compilation parsed;
+
+    /** Throughput counters, reported per second alongside the score. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class rates {
+        public double megabytes;
+        public long files;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            files = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("verse-bench");
+        root = folder.resolve("synthetic.verse");
+        SyntheticTree.of_size(files).write(root);
+        parsed = new compilation(root, new parse_cache());
+        parsed.prepare();
+        List<source_file> v = new ArrayList<source_file>();
+        List<source_file> everything = new ArrayList<source_file>();
+        long bytes = 0;
+        for (source_file f: parsed.get_sources()) {
+            everything.add(f);
+            if (f.kind == source_kind.CODE) {
+                v.add(f);
+                bytes += f.length();
+            }
+        }
+        code = v.toArray(new source_file[v.size()]);
+        all = everything.toArray(new source_file[everything.size()]);
+        code_megabytes = bytes / (1024.0 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        path_util.delete(folder.toFile());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void lex(rates r, Blackhole bh) {
+        for (source_file f: code) {
+            bh.consume(lexer.lex(f));
+        }
+        r.megabytes += code_megabytes;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void parse(rates r, Blackhole bh) {
+        symbol_table symbols = new symbol_table();
+        for (source_file f: all) {
+            bh.consume(f.kind == source_kind.DESCRIPTOR
+                    ? descriptor_builder.build(f, symbols)
+                    : parser.parse(f, content_hash.of(f), symbols));
+        }
+        r.files += all.length;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public unit_graph resolve() throws IOException {
+        parsed.resolve();
+        return parsed.get_graph();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public compilation build() throws Exception {
+        compilation c = new compilation(root, new parse_cache());
+        c.run();
+        if (diagnostic.has_errors(c.get_diagnostics())) {
+            throw new IllegalStateException("synthetic tree didn't compile: " + c.get_diagnostics().get(0));
+        }
+        return c;
+    }
+}
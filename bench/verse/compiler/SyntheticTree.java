@@ -0,0 +1,240 @@
+package verse.compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes a synthetic verse tree for benchmarks, shaped like
+ * sample/bistro.verse: .lib units of a few .pkg folders each, holding .v
+ * files like psjbase.lib/property.v and yaml descriptors like consumer.yaml,
+ * plus a few .app units with a main.v and a cmdline.yaml. Files import
+ * classes from packages in earlier units, so the unit graph is a DAG several
+ * levels deep. The tree compiles without errors, with either backend.
+ *
+ * <p>The same arguments always write the same tree. To write one by hand:</p>
+ *
+ * <pre>
+ * java verse.compiler.SyntheticTree out/big.verse 10000 [packages] [classes per file]
+ * </pre>
+ */
+public class SyntheticTree {
+
+    static final int PACKAGES_PER_UNIT = 4;
+
+    /** One file in this many is a descriptor rather than a .v file. */
+    static final int DESCRIPTOR_EVERY = 4;
+
+    /** One unit in this many gets an .app unit built on it. */
+    static final int UNITS_PER_APP = 10;
+
+    private final int files;
+    private final int packages;
+    private final int classes;
+    private final long seed;
+
+    /**
+     * @param files    Source files to write, apps included.
+     * @param packages .pkg folders to spread the library files over.
+     * @param classes  Classes declared in each .v file.
+     */
+    public SyntheticTree(int files, int packages, int classes, long seed) {
+        if (files < 1 || packages < 1 || classes < 1) {
+            throw new IllegalArgumentException("files, packages and classes must be positive");
+        }
+        this.files = files;
+        this.packages = packages;
+        this.classes = classes;
+        this.seed = seed;
+    }
+
+    /**
+     * @return A tree of about 25 files per package and two classes per file.
+     */
+    public static SyntheticTree of_size(int files) {
+        return new SyntheticTree(files, Math.max(1, files / 25), 2, 42);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: SyntheticTree <folder> <files> [packages] [classes per file]");
+            System.exit(1);
+        }
+        int n = Integer.parseInt(args[1]);
+        SyntheticTree t = args.length > 2
+                ? new SyntheticTree(n, Integer.parseInt(args[2]), args.length > 3 ? Integer.parseInt(args[3]) : 2, 42)
+                : of_size(n);
+        long bytes = t.write(Paths.get(args[0]));
+        System.out.println(String.format("wrote %d files, %d bytes, to %s", n, bytes, args[0]));
+    }
+
+    private int get_units() {
+        return (packages + PACKAGES_PER_UNIT - 1) / PACKAGES_PER_UNIT;
+    }
+
+    private int get_apps() {
+        // Each app is two files; leave most of the budget to the libraries.
+        return Math.min(Math.max(1, get_units() / UNITS_PER_APP), (files - 1) / 4);
+    }
+
+    private int get_lib_files() {
+        return files - 2 * get_apps();
+    }
+
+    private static String unit_of_package(int p) {
+        return "u" + p / PACKAGES_PER_UNIT + ".lib";
+    }
+
+    private static String package_name(int p) {
+        return "com.synth.u" + p / PACKAGES_PER_UNIT + ".p" + p;
+    }
+
+    private static boolean is_descriptor(int file) {
+        return file % DESCRIPTOR_EVERY == DESCRIPTOR_EVERY - 1;
+    }
+
+    /**
+     * @return The first class a library file declares.
+     */
+    private static String class_name(int file) {
+        return is_descriptor(file) ? "d" + file : "C" + file + "_0";
+    }
+
+    /**
+     * Write the tree into root, which is created if need be.
+     *
+     * @return Bytes of source written.
+     */
+    public long write(Path root) throws IOException {
+        long bytes = 0;
+        int lib_files = get_lib_files();
+        for (int i = 0; i < lib_files; ++i) {
+            int p = i % packages;
+            Path folder = root.resolve(unit_of_package(p)).resolve(package_name(p) + ".pkg");
+            if (is_descriptor(i)) {
+                bytes += write(folder.resolve("d" + i + ".yaml"), descriptor(i));
+            } else {
+                bytes += write(folder.resolve("c" + i + ".v"), v_file(i, new Random(seed + i)));
+            }
+        }
+        for (int a = 0; a < get_apps(); ++a) {
+            Path folder = root.resolve("app" + a + ".app");
+            bytes += write(folder.resolve("main.v"), main_file(a, new Random(seed - a - 1)));
+            bytes += write(folder.resolve("cmdline.yaml"), cmdline(a));
+        }
+        return bytes;
+    }
+
+    private static long write(Path path, String text) throws IOException {
+        Files.createDirectories(path.getParent());
+        byte[] b = text.getBytes(source_file.UTF8);
+        Files.write(path, b);
+        return b.length;
+    }
+
+    /**
+     * @return A library file in a unit before the one file is in, or -1 if
+     * file is in the first unit.
+     */
+    private int pick_import(int file, Random r) {
+        int unit = (file % packages) / PACKAGES_PER_UNIT;
+        if (unit == 0) {
+            return -1;
+        }
+        int p = r.nextInt(Math.min(unit * PACKAGES_PER_UNIT, packages));
+        int rounds = (get_lib_files() - 1 - p) / packages + 1;
+        return p + packages * r.nextInt(rounds);
+    }
+
+    private String v_file(int file, Random r) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("###\nProprietary and confidential.\nAuthor: synthetic\n###\n\n");
+        sb.append("import:\n java.lang:\n  reflect: Method, Modifier\n");
+        sb.append(" java.util: Date, HashMap, Map, Properties\n");
+        int a = pick_import(file, r);
+        int b = pick_import(file, r);
+        if (a != -1) {
+            append_import(sb, a);
+            if (b != -1 && b % packages != a % packages) {
+                append_import(sb, b);
+            } else {
+                b = -1;
+            }
+        }
+        sb.append('\n');
+        for (int c = 0; c < classes; ++c) {
+            String name = "C" + file + "_" + c;
+            sb.append("\"\"\"\nSynthetic class ").append(name).append(", modeled on Property.\n\"\"\"\n");
+            sb.append("class ").append(name).append(":\n implements: Comparable<").append(name).append(">\n");
+            sb.append(" members:\n");
+            sb.append("  \"The name of this ").append(name).append(".\"\n  name: str -w\n\n");
+            sb.append("  \"\"\"\n  When it was made. Properties are read with\n  {@link Method reflection}.\n  \"\"\"\n");
+            sb.append("  created: Date\n\n");
+            sb.append("  retries: int = ").append(r.nextInt(10)).append("\n");
+            sb.append("  settings: Map<str, str> -w\n");
+            if (a != -1) {
+                sb.append("  first: ").append(class_name(a)).append('\n');
+            }
+            if (b != -1) {
+                sb.append("  second: ").append(class_name(b)).append('\n');
+            }
+            sb.append(" methods:\n");
+            sb.append("  \"\"\" Render a value for display. \"\"\"\n");
+            sb.append("  render(o: obj, type: Class<?>) +private >> str\n   :\n");
+            sb.append("    if o == null: return null\n");
+            sb.append("    elif o isa Date:\n     return DateUtil.format_standard_date((Date) o)\n");
+            sb.append("    for i: int; i < ").append(2 + r.nextInt(8)).append("; ++i:\n     x: long = i * 31L\n");
+            sb.append("    return o.to_string()\n\n");
+            sb.append("  compareTo(other: ").append(name).append(") >> int\n   :\n");
+            sb.append("    return name.compare_to(other.name)\n\n");
+        }
+        return sb.toString();
+    }
+
+    private void append_import(StringBuilder sb, int file) {
+        sb.append(' ').append(package_name(file % packages)).append(": ").append(class_name(file)).append('\n');
+    }
+
+    private String descriptor(int file) {
+        String name = "d" + file;
+        StringBuilder sb = new StringBuilder();
+        sb.append("descrip: synthetic descriptor ").append(file).append(", modeled on consumer\n");
+        sb.append("implements: Comparable<").append(name).append(">\n");
+        sb.append("members:\n");
+        sb.append("\tweight: unsigned int = 0\n");
+        sb.append("\tchild id: final str\n");
+        sb.append("\tdisplay name: str\n");
+        sb.append("\tparent: weakref obj\n");
+        sb.append("\tlimit: positive double = 1.5\n");
+        sb.append("\nmethods:\n");
+        sb.append("\tctor.1: [child id]\n");
+        sb.append("\tadjust weight: [delta: int]\n");
+        sb.append("\tcompare to: [other: ").append(name).append("]\n\t\treturns: int\n");
+        return sb.toString();
+    }
+
+    private String main_file(int app, Random r) {
+        StringBuilder sb = new StringBuilder("import:\n");
+        int lib_files = get_lib_files();
+        int[] picked = new int[Math.min(3, lib_files)];
+        for (int k = 0; k < picked.length; ++k) {
+            picked[k] = r.nextInt(lib_files);
+            sb.append(' ').append(package_name(picked[k] % packages)).append(": ").append(class_name(picked[k]))
+                    .append('\n');
+        }
+        sb.append("\n\"Entry point of app ").append(app).append(".\"\nclass Main").append(app).append(":\n members:\n");
+        for (int k = 0; k < picked.length; ++k) {
+            sb.append("  part_").append(k).append(": ").append(class_name(picked[k])).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String cmdline(int app) {
+        return "descrip: start synthetic app " + app + "\n"
+                + "flags:\n\tverbose:\n\t\taliases: v\n\ttrace:\n\t\thidden: true\n"
+                + "options:\n\tlog level:\n\t\tvalues: error, warning, debug\n\t\tdescrip: how much to log\n"
+                + "\t\tdefault: warning\n\tinput file:\n\t\tplaceholder: path\n\t\trepeatable: true\n";
+    }
+}
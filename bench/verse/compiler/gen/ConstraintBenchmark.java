@@ -0,0 +1,168 @@
+package verse.compiler.gen;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongToDoubleFunction;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import verse.compiler.diagnostic;
+import verse.compiler.parse.descriptor_builder;
+import verse.compiler.parse.import_decl;
+import verse.compiler.parse.parsed_file;
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+import verse.io.path_util;
+
+/**
+ * Compares the throughput of a generated setter, whose nonneg check is an
+ * inline primitive comparison, with the same setter checking through a
+ * boxed {@link verse.dbc.constraint}: once with a call site that only ever
+ * sees one constraint class, where escape analysis can remove the boxing,
+ * and once through one checker that every setter shares, as a runtime
+ * library would, which has seen several. Run it with the compiled sources
+ * on the classpath:
+ *
+ * <pre>java verse.compiler.gen.ConstraintBenchmark [calls per round]</pre>
+ */
+public class ConstraintBenchmark {
+
+    static final String BOXED = "package gen;\n"
+            + "import java.util.Collections;\nimport java.util.List;\nimport verse.dbc.*;\n"
+            + "public class boxed_meter {\n"
+            + "    private static final List<constraint<Double>> AMOUNT =\n"
+            + "            Collections.<constraint<Double>>singletonList(new gte<Double>(0.0));\n"
+            + "    private double amount;\n"
+            + "    public void set_amount(double value) {\n"
+            + "        for (constraint<Double> c: AMOUNT) {\n"
+            + "            if (!c.satisfied_by(value)) {\n"
+            + "                precondition.checkAndExplain(false, \"amount should be nonnegative, not %s\", value);\n"
+            + "            }\n"
+            + "        }\n"
+            + "        this.amount = value;\n"
+            + "    }\n"
+            + "    public void set_amount_shared(double value) {\n"
+            + "        check(AMOUNT, value, \"amount\");\n"
+            + "        this.amount = value;\n"
+            + "    }\n"
+            + "    public static <T> void check(List<constraint<T>> constraints, T value, String what) {\n"
+            + "        for (int i = 0; i < constraints.size(); ++i) {\n"
+            + "            if (!constraints.get(i).satisfied_by(value)) {\n"
+            + "                precondition.checkAndExplain(false, \"%s violates a constraint: %s\", what, value);\n"
+            + "            }\n"
+            + "        }\n"
+            + "    }\n"
+            + "    /** Let the shared checker see the constraint classes a real tree would use. */\n"
+            + "    public static void pollute() {\n"
+            + "        List<constraint<Double>> all = java.util.Arrays.<constraint<Double>>asList(\n"
+            + "                new gt<Double>(-1.0), new lt<Double>(1e9), new lte<Double>(1e9), new gte<Double>(0.0));\n"
+            + "        List<constraint<Long>> longs = java.util.Arrays.<constraint<Long>>asList(\n"
+            + "                new gt<Long>(-1L), new lte<Long>(1L << 40));\n"
+            + "        for (int i = 0; i < 100000; ++i) {\n"
+            + "            check(all, (double) (i & 1023), \"d\");\n"
+            + "            check(longs, (long) (i & 1023), \"l\");\n"
+            + "        }\n"
+            + "    }\n"
+            + "    public double get_amount() {\n"
+            + "        return amount;\n"
+            + "    }\n"
+            + "}\n";
+
+    static String driver(String name, String create, String setter) {
+        return "package gen;\n"
+                + "public class " + name + " implements java.util.function.LongToDoubleFunction {\n"
+                + "    public double applyAsDouble(long n) {\n"
+                + "        " + create + "\n"
+                + "        double sum = 0;\n"
+                + "        for (long i = 0; i < n; ++i) {\n"
+                + "            m." + setter + "((double) (i & 1023));\n"
+                + "            sum += m.get_amount();\n"
+                + "        }\n"
+                + "        return sum;\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    public static void main(String[] args) throws Exception {
+        long calls = args.length > 0 ? Long.parseLong(args[0]) : 20000000L;
+        source_file f = source_file.in_memory("meter.yaml", "members:\n\tamount: nonneg double\n"
+                .getBytes(source_file.UTF8));
+        parsed_file p = descriptor_builder.build(f, new symbol_table());
+        String meter = java_emitter.emit("gen", Collections.<import_decl>emptyList(), p.classes.get(0), f.path,
+                new ArrayList<diagnostic>());
+        Path dir = Files.createTempDirectory("constraint_benchmark");
+        try {
+            ClassLoader loader = compile(dir, "meter", meter, "boxed_meter", BOXED,
+                    "inline_driver", driver("inline_driver", "meter m = new meter();", "set_amount"),
+                    "boxed_driver", driver("boxed_driver", "boxed_meter m = new boxed_meter();", "set_amount"),
+                    "shared_driver", driver("shared_driver", "boxed_meter m = new boxed_meter();",
+                            "set_amount_shared"));
+            loader.loadClass("gen.boxed_meter").getMethod("pollute").invoke(null);
+            LongToDoubleFunction inline = (LongToDoubleFunction) loader.loadClass("gen.inline_driver")
+                    .getDeclaredConstructor().newInstance();
+            LongToDoubleFunction boxed = (LongToDoubleFunction) loader.loadClass("gen.boxed_driver")
+                    .getDeclaredConstructor().newInstance();
+            LongToDoubleFunction shared = (LongToDoubleFunction) loader.loadClass("gen.shared_driver")
+                    .getDeclaredConstructor().newInstance();
+            double inline_ns = measure(inline, calls);
+            double boxed_ns = measure(boxed, calls);
+            double shared_ns = measure(shared, calls);
+            report("inline primitive check", inline_ns, inline_ns);
+            report("constraint<T>, one class", boxed_ns, inline_ns);
+            report("constraint<T>, shared", shared_ns, inline_ns);
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    /**
+     * Compile classes of package gen with the system javac and load them.
+     */
+    static ClassLoader compile(Path dir, String... name_and_source) throws Exception {
+        List<String> args = new ArrayList<String>(Arrays.asList("-nowarn", "-cp",
+                System.getProperty("java.class.path"), "-d", dir.toString()));
+        for (int i = 0; i < name_and_source.length; i += 2) {
+            Path src = dir.resolve("gen").resolve(name_and_source[i] + ".java");
+            Files.createDirectories(src.getParent());
+            Files.write(src, name_and_source[i + 1].getBytes(source_file.UTF8));
+            args.add(src.toString());
+        }
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac.run(null, null, null, args.toArray(new String[args.size()])) != 0) {
+            throw new IllegalStateException("the benchmark's classes didn't compile");
+        }
+        return new URLClassLoader(new URL[] {dir.toUri().toURL()}, ConstraintBenchmark.class.getClassLoader());
+    }
+
+    static void report(String what, double ns, double inline_ns) {
+        System.out.printf("%-26s %6.2f ns/call %8.1f M calls/s %5.1fx%n", what, ns, 1e3 / ns, ns / inline_ns);
+    }
+
+    /**
+     * @return Median ns per call over ten rounds, after five to warm up.
+     */
+    static double measure(LongToDoubleFunction f, long calls) {
+        double[] rounds = new double[10];
+        double sink = 0;
+        for (int i = -5; i < rounds.length; ++i) {
+            long start = System.nanoTime();
+            sink += f.applyAsDouble(calls);
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) {
+                rounds[i] = (double) elapsed / calls;
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        Arrays.sort(rounds);
+        return rounds[rounds.length / 2];
+    }
+}
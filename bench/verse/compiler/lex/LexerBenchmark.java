@@ -0,0 +1,106 @@
+package verse.compiler.lex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import verse.compiler.source_file;
+
+/**
+ * Lexer throughput. Each invocation lexes a corpus of exactly 1 MiB of
+ * synthetic files shaped like psjbase.lib/property.v, so the ops/s score
+ * reads directly as MiB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+
+    static final int CORPUS_BYTES = 1024 * 1024;
+
+    /** Members and methods per synthetic class; controls average file size. */
+    @Param({"4", "32"})
+    public int members;
+
+    private source_file[] corpus;
+
+    @Setup
+    public void setUp() {
+        List<source_file> files = new ArrayList<source_file>();
+        int total = 0;
+        for (int i = 0; total < CORPUS_BYTES; ++i) {
+            byte[] b = synthesize(i, members).getBytes(source_file.UTF8);
+            if (total + b.length + 2 > CORPUS_BYTES) {
+                b = pad(CORPUS_BYTES - total);
+            }
+            files.add(source_file.in_memory("f" + i + ".v", b));
+            total += b.length;
+        }
+        corpus = files.toArray(new source_file[files.size()]);
+    }
+
+    @Benchmark
+    public void lex(Blackhole bh) {
+        for (source_file f: corpus) {
+            bh.consume(lexer.lex(f));
+        }
+    }
+
+    /**
+     * A file of comment lines that is exactly n bytes long.
+     */
+    static byte[] pad(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        while (sb.length() < n) {
+            int line = Math.min(n - sb.length(), 72);
+            sb.append('#');
+            for (int i = 2; i < line; ++i) {
+                sb.append('-');
+            }
+            if (line > 1) {
+                sb.append('\n');
+            }
+        }
+        return sb.toString().getBytes(source_file.UTF8);
+    }
+
+    static String synthesize(int seed, int members) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("###\nProprietary and confidential.\nAuthor: bench\n###\n\n");
+        sb.append("import:\n java.lang:\n  reflect: Constructor, Method, Modifier, Type\n");
+        sb.append(" java.util: Calendar, Date, HashMap, Map, Properties\n\n");
+        sb.append("\"\"\"\nSynthetic class ").append(seed).append(", modeled on Property.\n\"\"\"\n");
+        sb.append("class C").append(seed).append(":\n implements: Comparable<C").append(seed).append(">\n members:\n");
+        for (int m = 0; m < members; ++m) {
+            sb.append("  \"The value of field ").append(m).append(".\"\n");
+            sb.append("  field_").append(m).append(": Class<?> -w\n\n");
+        }
+        sb.append(" methods:\n");
+        for (int m = 0; m < members; ++m) {
+            sb.append("  \"\"\" Render field ").append(m).append(" for display. \"\"\"\n");
+            sb.append("  render_").append(m).append("(o: object, type: Class<?>) +private >> str\n   :\n");
+            sb.append("    if o == null: return null\n");
+            sb.append("    elif o isa Date:\n     return DateUtil.format_standard_date((Date) o)\n");
+            sb.append("    elif type.is_enum():\n     e: Enum<?> = (Enum<?>) o\n     return \"${e}/${e.ordinal}\"\n");
+            sb.append("    for i: int; i < ").append(m + 2).append("; ++i:\n     x: long = i * 31L\n");
+            sb.append("    return o.to_string()\n\n");
+        }
+        return sb.toString();
+    }
+}
@@ -1,27 +1,398 @@
 import verse.cli.cmd;
 import verse.cli.invalid_menu_exception;
 import verse.cli.menu;
+import verse.cli.option;
 import verse.cli.statement;
+import verse.compiler.backend;
+import verse.compiler.compilation;
+import verse.compiler.diagnostic;
+import verse.compiler.daemon.daemon_client;
+import verse.compiler.daemon.daemon_protocol;
+import verse.compiler.daemon.daemon_server;
+import verse.compiler.parse.parse_cache;
+import verse.compiler.phase;
+import verse.compiler.source_file;
+import verse.compiler.tasks.task;
+import verse.compiler.tasks.task_graph;
+import verse.compiler.tasks.task_report;
+import verse.compiler.tasks.task_runner;
+import verse.compiler.tasks.task_state;
+import verse.compiler.tree_watcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Run the verse compiler.
+ *
+ * <p>If a daemon started with "verse serve" is listening, a build is handed
+ * to it and this process only relays its output; otherwise the build runs
+ * here. Nothing on the forwarding path touches the compiler itself, so a
+ * forwarded build doesn't pay for its static init or JIT warm-up.</p>
+ *
+ * <p>"verse run" runs the tasks a tree's build.v declares, always here.</p>
  */
 public class app {
     public static void main(String[] args) {
         try {
             cmd cmd = menu.parse(args);
-            if (cmd.statement.name == "help") {
+            if (cmd.statement == verse.cli.menu.global_help) {
                 System.out.print(menu.get_help());
                 System.exit(0);
             }
-
-
+            if (cmd.statement == run) {
+                int code = run_tasks(Paths.get("").toAbsolutePath(), cmd, System.out, System.err);
+                if (code != 0) {
+                    fail(code);
+                }
+                return;
+            }
+            Path socket = Paths.get(cmd.get_option("socket"));
+            if (cmd.statement == serve) {
+                serve(socket, cmd.has_flag("stop"));
+                return;
+            }
+            Path cwd = Paths.get("").toAbsolutePath();
+            if (!cmd.has_flag("no-daemon") && !cmd.has_flag("watch")) {
+                Integer code = new daemon_client(socket).forward(cwd, args, System.out, System.err);
+                if (code != null) {
+                    if (code != 0) {
+                        fail(code);
+                    }
+                    return;
+                }
+            }
+            Path root = get_root(cwd, cmd);
+            parse_cache cache = parse_cache.load(compilation.get_parse_cache_path(root));
+            if (cmd.has_flag("watch")) {
+                watch(cwd, cmd, cache, System.out, System.err);
+            }
+            int code = build(cwd, cmd, cache, System.out, System.err);
+            if (code != 0) {
+                fail(code);
+            }
         } catch (Throwable t) {
             print(t);
             fail(-1);
         }
     }
 
+    /**
+     * @return The tree named by the first positional arg, or the current
+     * folder if there isn't one, resolved against cwd.
+     */
+    static Path get_root(Path cwd, cmd cmd) {
+        if (cmd.rest != null) {
+            for (String arg: cmd.rest) {
+                return cwd.resolve(arg).normalize();
+            }
+        }
+        return cwd;
+    }
+
+    /**
+     * @return The entries of --classpath, resolved against cwd.
+     */
+    static List<Path> get_classpath(Path cwd, cmd cmd) {
+        List<Path> entries = new ArrayList<Path>();
+        String value = cmd.get_option("classpath");
+        if (value != null) {
+            for (String entry: value.split(File.pathSeparator)) {
+                if (!entry.isEmpty()) {
+                    entries.add(cwd.resolve(entry).normalize());
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return The backend --backend names.
+     */
+    static backend get_backend(cmd cmd) {
+        String value = cmd.get_option("backend");
+        backend b = backend.from_name(value);
+        if (b == null) {
+            throw new IllegalArgumentException("--backend must be source or classes, not " + value);
+        }
+        return b;
+    }
+
+    /**
+     * @return The number of shards --shards asks for; 1 if it doesn't.
+     */
+    static int get_shards(cmd cmd) {
+        return get_count(cmd, "shards", 1);
+    }
+
+    /**
+     * @return The threads --jobs asks for -- in each worker, when the build
+     * is sharded. By default the cores are shared out among the workers.
+     */
+    static int get_jobs(cmd cmd) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return get_count(cmd, "jobs", Math.max(1, cores / get_shards(cmd)));
+    }
+
+    private static int get_count(cmd cmd, String option, int fallback) {
+        String value = cmd.get_option(option);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 1) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(String.format("--%s must be a positive number, not %s", option, value));
+    }
+
+    /**
+     * @return Where --timings-json says to write timings, resolved against
+     * cwd, or null.
+     */
+    static Path get_timings_json(Path cwd, cmd cmd) {
+        String value = cmd.get_option("timings-json");
+        return value == null ? null : cwd.resolve(value).normalize();
+    }
+
+    /**
+     * Compile the tree a command names and report on it, with phase timings
+     * if it asks for them.
+     *
+     * @return The exit code: 0 if there were no errors.
+     */
+    static int build(Path cwd, cmd cmd, parse_cache cache, PrintStream out, PrintStream err) throws Exception {
+        boolean timed = start_timings(cwd, cmd);
+        ForkJoinPool pool = open_pool(cmd);
+        try {
+            compilation c = open(cwd, cmd, pool, cache);
+            c.run();
+            return report(c, out, err);
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+            if (timed) {
+                report_timings(cwd, cmd, out);
+            }
+        }
+    }
+
+    /**
+     * @return The pool to compile on: the common pool, unless --jobs or
+     * --shards says otherwise. A sharded build's threads mostly wait for
+     * workers, so it has one for each unit the workers can take at once.
+     */
+    static ForkJoinPool open_pool(cmd cmd) {
+        int shards = get_shards(cmd);
+        if (shards == 1 && cmd.get_option("jobs") == null) {
+            return ForkJoinPool.commonPool();
+        }
+        return new ForkJoinPool(shards * get_jobs(cmd));
+    }
+
+    /**
+     * @return A compilation of the tree a command names, set up as its
+     * options say.
+     */
+    static compilation open(Path cwd, cmd cmd, ForkJoinPool pool, parse_cache cache) {
+        compilation c = new compilation(get_root(cwd, cmd), pool, cache);
+        c.set_classpath(get_classpath(cwd, cmd));
+        c.set_backend(get_backend(cmd));
+        c.set_shards(get_shards(cmd), get_jobs(cmd));
+        return c;
+    }
+
+    /**
+     * @return True if the command asks for timings, which are now on.
+     */
+    static boolean start_timings(Path cwd, cmd cmd) {
+        if (!cmd.has_flag("timings") && get_timings_json(cwd, cmd) == null) {
+            return false;
+        }
+        phase.start();
+        return true;
+    }
+
+    /**
+     * Print the table of phase timings if --timings asked for it, and write
+     * them as JSON if --timings-json did; then turn timing off.
+     */
+    static void report_timings(Path cwd, cmd cmd, PrintStream out) throws IOException {
+        phase.stop();
+        if (cmd.has_flag("timings")) {
+            out.println(phase.format());
+        }
+        Path json = get_timings_json(cwd, cmd);
+        if (json != null) {
+            Files.write(json, phase.to_json().getBytes(source_file.UTF8));
+        }
+    }
+
+    /**
+     * Build once, then again each time the tree changes, recompiling only
+     * the units the changes affect. Never returns normally.
+     */
+    static void watch(Path cwd, cmd cmd, parse_cache cache, PrintStream out, PrintStream err) throws Exception {
+        Path root = get_root(cwd, cmd);
+        // Watch before the first build, so edits made during it aren't lost.
+        tree_watcher watcher = new tree_watcher(root);
+        try {
+            boolean timed = start_timings(cwd, cmd);
+            compilation c = open(cwd, cmd, open_pool(cmd), cache);
+            c.run();
+            report(c, out, err);
+            if (timed) {
+                report_timings(cwd, cmd, out);
+            }
+            // What changed since c, the last build that ran; a failed rebuild
+            // leaves its changes here for the next attempt.
+            Set<String> changed = new HashSet<String>();
+            while (true) {
+                changed.addAll(watcher.await_changes(WATCH_DEBOUNCE_MILLIS));
+                timed = start_timings(cwd, cmd);
+                compilation n = c.next(changed);
+                try {
+                    n.run();
+                } catch (IOException e) {
+                    // A file deleted between the event and the reload, say.
+                    if (timed) {
+                        phase.stop();
+                    }
+                    err.println(String.format("Rebuild failed: %s; waiting for more changes.", e));
+                    continue;
+                }
+                c = n;
+                out.println(String.format("%d changed; recompiled %d of %d units",
+                        changed.size(), c.get_recompiled().size(), c.get_graph().get_units().size()));
+                changed.clear();
+                report(c, out, err);
+                if (timed) {
+                    report_timings(cwd, cmd, out);
+                }
+            }
+        } finally {
+            watcher.close();
+        }
+    }
+
+    /**
+     * How long the tree must be quiet before a watch rebuild starts.
+     */
+    static final long WATCH_DEBOUNCE_MILLIS = 150;
+
+    /**
+     * Save the parse cache and what was written, and print the schedule
+     * summary and diagnostics.
+     *
+     * @return The exit code: 0 if there were no errors.
+     */
+    static int report(compilation c, PrintStream out, PrintStream err) throws Exception {
+        c.get_parse_cache().save(compilation.get_parse_cache_path(c.root));
+        c.get_outputs().save();
+        out.println(c.get_schedule().format());
+        List<diagnostic> problems = c.get_diagnostics();
+        for (diagnostic d: problems) {
+            err.println(d.format(c.get_sources().get(d.path)));
+        }
+        return diagnostic.has_errors(problems) ? 1 : 0;
+    }
+
+    /**
+     * Run the tasks named on the command line, and the tasks they run after;
+     * with no names, every task in the tree's build.v.
+     *
+     * @return The exit code: 0 if every task ran or was up to date.
+     */
+    static int run_tasks(Path cwd, cmd cmd, PrintStream out, PrintStream err) throws Exception {
+        String value = cmd.get_option("root");
+        Path root = value == null ? cwd : cwd.resolve(value).normalize();
+        task_graph graph = task_graph.load(root);
+        if (!graph.get_diagnostics().isEmpty()) {
+            for (diagnostic d: graph.get_diagnostics()) {
+                err.println(d.format(graph.get_file()));
+            }
+            return 1;
+        }
+        List<String> names = new ArrayList<String>();
+        if (cmd.rest != null) {
+            for (String name: cmd.rest) {
+                names.add(name);
+            }
+        }
+        Path state_path = task_state.get_path(root);
+        task_state state = task_state.load(state_path);
+        ForkJoinPool pool = new ForkJoinPool(get_jobs(cmd));
+        try {
+            task_runner runner = new task_runner(pool, root, state, out);
+            runner.set_force(cmd.has_flag("force"));
+            task_report report = runner.run(graph, names);
+            for (Map.Entry<task, String> e: report.get_failures().entrySet()) {
+                err.println(String.format("task %s failed: %s", e.getKey().name, e.getValue()));
+            }
+            out.println(report.format());
+            return report.succeeded() ? 0 : 1;
+        } finally {
+            pool.shutdown();
+            state.save(state_path);
+        }
+    }
+
+    /**
+     * Parse caches the daemon keeps warm, one per tree it has built.
+     */
+    private static final ConcurrentHashMap<Path, parse_cache> warm_caches = new ConcurrentHashMap<Path, parse_cache>();
+
+    static void serve(Path socket, boolean stop) throws Exception {
+        if (stop) {
+            if (!new daemon_client(socket).stop()) {
+                System.err.println("No verse daemon is listening on " + socket + ".");
+            }
+            return;
+        }
+        daemon_server server = new daemon_server(socket, new daemon_server.request_handler() {
+            @Override
+            public int handle(Path cwd, String[] args, PrintStream out, PrintStream err) throws Exception {
+                cmd cmd = menu.parse(args);
+                if (cmd.statement != build) {
+                    err.println("The daemon only runs builds; " + Arrays.toString(args) + " must run locally.");
+                    return -1;
+                }
+                Path root = get_root(cwd, cmd);
+                parse_cache cache = warm_caches.get(root);
+                if (cache == null) {
+                    warm_caches.putIfAbsent(root, parse_cache.load(compilation.get_parse_cache_path(root)));
+                    cache = warm_caches.get(root);
+                }
+                // Builds of different trees overlap; builds of one tree take
+                // turns, since they share a cache and its file on disk.
+                synchronized (cache) {
+                    return build(cwd, cmd, cache, out, err);
+                }
+            }
+        });
+        server.start();
+        System.out.println("verse daemon listening on " + socket);
+        server.serve();
+        server.await_idle(60 * 1000);
+    }
+
     public static void fail(int exit_code) {
         System.exit(exit_code);
     }
@@ -30,15 +401,74 @@ public class app {
         System.err.print(t.toString());
     }
 
+    private static final statement serve;
+    private static final statement build;
+    private static final statement run;
     private static menu menu;
     static {
-        menu m = new menu("verse", "Compile a verse code.", null, menu.global_help);
+        statement sv = new statement("serve", "serve");
+        statement b = new statement("build");
+        statement r = new statement("run", "run");
+        option socket = new option();
+        socket.set_names(Arrays.asList("socket"));
+        socket.set_placeholder("path");
+        socket.set_default(daemon_protocol.get_default_socket_path().toString());
+        socket.set_descrip("Unix-domain socket the daemon listens on.");
+        b.set_rest_placeholder("root");
+        b.add_option(socket);
+        option classpath = new option();
+        classpath.set_names(Arrays.asList("classpath", "cp"));
+        classpath.set_placeholder("path");
+        classpath.set_descrip("Jars and class folders that imports may name classes from, besides the JDK.");
+        b.add_option(classpath);
+        option backend = new option();
+        backend.set_names(Arrays.asList("backend"));
+        backend.set_placeholder("source|classes");
+        backend.set_default("classes");
+        backend.set_descrip("Write generated classes as class files, or as Java source for javac.");
+        b.add_option(backend);
+        option timings_json = new option();
+        timings_json.set_names(Arrays.asList("timings-json"));
+        timings_json.set_placeholder("path");
+        timings_json.set_descrip("Write the time and allocation of each compiler phase to a JSON file.");
+        b.add_option(timings_json);
+        option jobs = new option();
+        jobs.set_names(Arrays.asList("jobs", "j"));
+        jobs.set_placeholder("n");
+        jobs.set_descrip("Threads to compile on; with --shards, threads in each worker.");
+        b.add_option(jobs);
+        option shards = new option();
+        shards.set_names(Arrays.asList("shards"));
+        shards.set_placeholder("n");
+        shards.set_descrip("Split the build among this many worker JVMs, each with its own heap.");
+        b.add_option(shards);
+        sv.add_option(socket);
+        r.set_rest_placeholder("task");
+        option root = new option();
+        root.set_names(Arrays.asList("root"));
+        root.set_placeholder("path");
+        root.set_descrip("Tree whose build.v declares the tasks; the current folder by default.");
+        r.add_option(root);
+        option task_jobs = new option();
+        task_jobs.set_names(Arrays.asList("jobs", "j"));
+        task_jobs.set_placeholder("n");
+        task_jobs.set_descrip("Tasks to run at once; one per core by default.");
+        r.add_option(task_jobs);
+        menu m = new menu("verse", "Compile a verse code.", null, sv, r, b, verse.cli.menu.global_help);
         try {
+            sv.add_flag("stop");
+            r.add_flag("force");
+            b.add_flag("no-daemon");
+            b.add_flag("watch");
+            b.add_flag("timings");
             m.validate();
         } catch (invalid_menu_exception e) {
             System.err.println(e.toString());
             System.exit(-1);
         }
+        serve = sv;
+        build = b;
+        run = r;
         menu = m;
     }
 }
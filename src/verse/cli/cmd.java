@@ -1,5 +1,7 @@
 package verse.cli;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -9,13 +11,54 @@ public class cmd {
 
     public final statement statement;
     public final Map<flag, Boolean> flags;
-    public final Map<option, String> options;
+    /**
+     * The values each option was given, in cmdline order; more than one
+     * only for a repeatable option.
+     */
+    public final Map<option, List<String>> options;
     public final Iterable<String> rest;
 
-    public cmd(statement statement, Map<flag, Boolean> flags, Map<option, String> options, Iterable<String> rest) {
+    public cmd(statement statement, Map<flag, Boolean> flags, Map<option, List<String>> options,
+            Iterable<String> rest) {
         this.statement = statement;
         this.flags = flags;
         this.options = options;
         this.rest = rest;
     }
+
+    /**
+     * @return True if any of the flag's names appeared on the cmdline.
+     */
+    public boolean has_flag(String name) {
+        for (Map.Entry<flag, Boolean> e: flags.entrySet()) {
+            for (String n: e.getKey().names) {
+                if (n.equals(name)) {
+                    return e.getValue();
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The option's value (or its default), or null if neither exists.
+     * For a repeatable option, the last value given.
+     */
+    public String get_option(String name) {
+        List<String> values = get_option_values(name);
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    /**
+     * @return Every value the option was given, in order (or its default),
+     * or an empty list if neither exists.
+     */
+    public List<String> get_option_values(String name) {
+        for (Map.Entry<option, List<String>> e: options.entrySet()) {
+            if (e.getKey().get_names().contains(name)) {
+                return e.getValue();
+            }
+        }
+        return Collections.emptyList();
+    }
 }
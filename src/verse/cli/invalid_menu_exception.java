@@ -11,6 +11,10 @@ public class invalid_menu_exception extends Exception {
     public invalid_menu_exception() {
     }
 
+    public invalid_menu_exception(String msg) {
+        super(msg);
+    }
+
     List<invalid_menu_exception> causes;
 
     List<invalid_menu_exception> get_causes() {
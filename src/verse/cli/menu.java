@@ -56,16 +56,19 @@ public class menu {
                 stmt.validate();
             } catch (invalid_menu_exception e) {
                 if (ex == null) {
-                    ex = new invalid_menu_exception();
-                    ex.add_cause(e);
+                    ex = new invalid_menu_exception(e.getMessage());
                 }
+                ex.add_cause(e);
             }
         }
-        if (ex.get_causes() != null) {
+        if (ex != null) {
             throw ex;
         }
     }
 
+    /**
+     * @return A cmd for the first statement, in menu order, that args fit.
+     */
     public cmd parse(String[] args) throws invalid_cmd_exception {
         cmd cmd = null;
         for (statement stmt: statements) {
@@ -84,24 +87,47 @@ public class menu {
         sb.append(LINE_SEP);
         sb.append("  ");
         sb.append(name);
-        sb.append(' ');
+        if (statement.keyword != null) {
+            sb.append(' ');
+            sb.append(statement.keyword);
+        }
         for (flag flg: statement.flags) {
-            String name = flg.names[0];
-            sb.append('[');
-            if (name.length() > 1) {
-                sb.append("--");
-            } else {
-                sb.append('-');
+            sb.append(" [");
+            append_switch(sb, flg.names[0]);
+            sb.append(']');
+        }
+        for (option opt: statement.options) {
+            sb.append(opt.get_required() ? " " : " [");
+            append_switch(sb, opt.get_names().get(0));
+            sb.append(" <");
+            sb.append(opt.get_placeholder() == null ? "value" : opt.get_placeholder());
+            sb.append('>');
+            if (!opt.get_required()) {
+                sb.append(']');
             }
-            sb.append(name);
+        }
+        if (statement.get_rest_placeholder() != null) {
+            sb.append(" [");
+            sb.append(statement.get_rest_placeholder());
             sb.append(']');
         }
+        sb.append(LINE_SEP);
         for (option opt: statement.options) {
-            String name = "opt"; //fix
-            sb.append("option ");
+            if (!str_util.is_null_or_empty(opt.get_descrip())) {
+                sb.append("    ");
+                append_switch(sb, opt.get_names().get(0));
+                sb.append(": ");
+                sb.append(opt.get_descrip());
+                sb.append(LINE_SEP);
+            }
         }
     }
 
+    private static void append_switch(StringBuilder sb, String name) {
+        sb.append(name.length() > 1 ? "--" : "-");
+        sb.append(name);
+    }
+
     public String get_help() {
         StringBuilder sb = new StringBuilder();
         sb.append(name);
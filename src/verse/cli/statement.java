@@ -1,7 +1,12 @@
 package verse.cli;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Describes the syntax of a potential {@link cmd}.
@@ -10,43 +15,173 @@ public class statement {
 
     public final String name;
 
+    /**
+     * Word that must come first on the cmdline to select this statement (as
+     * in "verse serve"), or null if the statement is selected by its flags
+     * and args alone.
+     */
+    public final String keyword;
+
     public statement(String name) {
+        this(name, null);
+    }
+
+    public statement(String name, String keyword) {
         this.name = name;
+        this.keyword = keyword;
     }
 
-    public List<flag> flags;
+    public List<flag> flags = new ArrayList<flag>();
 
     public List<flag> get_flags() {
         return flags;
     }
 
     public void add_flag(String... names) throws invalid_menu_exception {
-        if (flags == null) {
-            flags = new ArrayList<flag>();
-        }
         flags.add(new flag(names));
     }
 
-    public List<option> options;
+    public List<option> options = new ArrayList<option>();
 
     public List<option> get_options() {
         return options;
     }
 
     public void set_options(List<option> value) {
-        options = value;
+        options = value == null ? new ArrayList<option>() : value;
+    }
+
+    public void add_option(option value) {
+        options.add(value);
+    }
+
+    private String rest_placeholder;
+
+    /**
+     * @return How positional args are described in help, or null if the
+     * statement doesn't take any.
+     */
+    public String get_rest_placeholder() {
+        return rest_placeholder;
+    }
+
+    public void set_rest_placeholder(String value) {
+        rest_placeholder = value;
     }
 
     public void validate() throws invalid_menu_exception {
+        Set<String> seen = new HashSet<String>();
         for (flag flg: flags) {
-
+            for (String n: flg.names) {
+                if (!seen.add(n)) {
+                    throw new invalid_menu_exception(String.format("%s: -%s is defined twice.", name, n));
+                }
+            }
         }
         for (option opt: options) {
+            if (opt.get_names() == null || opt.get_names().isEmpty()) {
+                throw new invalid_menu_exception(String.format("%s: an option has no name.", name));
+            }
+            for (String n: opt.get_names()) {
+                if (!seen.add(n)) {
+                    throw new invalid_menu_exception(String.format("%s: -%s is defined twice.", name, n));
+                }
+            }
+        }
+    }
 
+    private flag find_flag(String n) {
+        for (flag flg: flags) {
+            for (String candidate: flg.names) {
+                if (candidate.equals(n)) {
+                    return flg;
+                }
+            }
         }
+        return null;
     }
 
-    public cmd parse(String[] args) throws invalid_cmd_exception {
+    private option find_option(String n) {
+        for (option opt: options) {
+            if (opt.get_names().contains(n)) {
+                return opt;
+            }
+        }
         return null;
     }
+
+    /**
+     * @return The cmd that args express, or null if args don't fit this
+     * statement (wrong keyword, a flag it doesn't have, or positional args
+     * it doesn't take) so the menu can try the next one.
+     * @throws invalid_cmd_exception If args select this statement but are
+     * malformed, such as an option without a value.
+     */
+    public cmd parse(String[] args) throws invalid_cmd_exception {
+        int i = 0;
+        if (keyword != null) {
+            if (args.length == 0 || !keyword.equals(args[0])) {
+                return null;
+            }
+            i = 1;
+        }
+        Map<flag, Boolean> flag_values = new LinkedHashMap<flag, Boolean>();
+        Map<option, List<String>> option_values = new LinkedHashMap<option, List<String>>();
+        List<String> rest = new ArrayList<String>();
+        boolean only_rest = false;
+        for (; i < args.length; ++i) {
+            String arg = args[i];
+            if (!only_rest && arg.equals("--")) {
+                only_rest = true;
+                continue;
+            }
+            if (!only_rest && arg.length() > 1 && arg.charAt(0) == '-') {
+                String n = arg.substring(arg.startsWith("--") ? 2 : 1);
+                String value = null;
+                int eq = n.indexOf('=');
+                if (eq >= 0) {
+                    value = n.substring(eq + 1);
+                    n = n.substring(0, eq);
+                }
+                flag flg = value == null ? find_flag(n) : null;
+                if (flg != null) {
+                    flag_values.put(flg, Boolean.TRUE);
+                    continue;
+                }
+                option opt = find_option(n);
+                if (opt == null) {
+                    return null;
+                }
+                if (value == null) {
+                    if (++i == args.length) {
+                        throw new invalid_cmd_exception(String.format("Option %s needs a value.", arg));
+                    }
+                    value = args[i];
+                }
+                List<String> values = option_values.get(opt);
+                if (values == null) {
+                    values = new ArrayList<String>();
+                    option_values.put(opt, values);
+                } else if (!opt.get_repeatable()) {
+                    throw new invalid_cmd_exception(String.format("Option %s was given more than once.", arg));
+                }
+                values.add(value);
+                continue;
+            }
+            if (rest_placeholder == null) {
+                return null;
+            }
+            rest.add(arg);
+        }
+        for (option opt: options) {
+            if (!option_values.containsKey(opt)) {
+                if (opt.get_default() != null) {
+                    option_values.put(opt, Collections.singletonList(opt.get_default()));
+                } else if (opt.get_required()) {
+                    throw new invalid_cmd_exception(String.format("Option --%s is required.", opt.get_names().get(0)));
+                }
+            }
+        }
+        return new cmd(this, flag_values, option_values, rest);
+    }
 }
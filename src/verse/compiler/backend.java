@@ -0,0 +1,29 @@
+package verse.compiler;
+
+/**
+ * What the compiler turns verse classes into.
+ */
+public enum backend {
+
+    /** Java source, for javac to compile. */
+    SOURCE,
+
+    /**
+     * Class files, written directly. Classes the class-file writer can't
+     * handle yet, such as cmdline parsers, are still written as source.
+     */
+    CLASSES;
+
+    /**
+     * @return The backend a command-line name ("source", "classes") names,
+     * or null if none does.
+     */
+    public static backend from_name(String name) {
+        for (backend b: values()) {
+            if (b.name().toLowerCase().equals(name)) {
+                return b;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,1040 @@
+package verse.compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import verse.compiler.gen.class_emitter;
+import verse.compiler.gen.class_plan;
+import verse.compiler.gen.cmdline_emitter;
+import verse.compiler.gen.java_compiler;
+import verse.compiler.gen.java_emitter;
+import verse.compiler.gen.jvm_types;
+import verse.compiler.parse.class_decl;
+import verse.compiler.parse.import_decl;
+import verse.compiler.parse.parse_cache;
+import verse.compiler.parse.parsed_file;
+import verse.dbc.precondition;
+import verse.util.BuildDiskLayout;
+
+/**
+ * One run of the compiler over one verse tree. Phases run in order; each
+ * phase leaves its results on this object for the phases after it.
+ */
+public class compilation {
+
+    public final Path root;
+
+    private final ForkJoinPool pool;
+    private final source_loader loader;
+    private final parse_cache parses;
+    private carried previous;
+    private final Set<String> changed;
+    private source_pool sources;
+    private Map<String, parsed_file> parsed;
+    private unit_graph graph;
+    private schedule_report schedule;
+    private Set<String> affected;
+    private final Set<String> recompiled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final symbol_table symbols;
+    private List<Path> classpath = Collections.emptyList();
+    private backend backend = verse.compiler.backend.CLASSES;
+    private type_index types;
+    /** Set by {@link #get_javac} from pool threads; read without its lock. */
+    private volatile java_compiler javac;
+    private boolean no_javac;
+    private final Map<unit, BitSet> declared = new ConcurrentHashMap<unit, BitSet>();
+
+    /** Simple names of the classes the tree declares, by package. */
+    private Map<String, Set<String>> package_classes;
+    private final Map<unit, List<diagnostic>> unit_diagnostics = new ConcurrentHashMap<unit, List<diagnostic>>();
+    private final List<diagnostic> schedule_diagnostics = new ArrayList<diagnostic>();
+    private int shards = 1;
+    private int shard_jobs = 1;
+
+    /** What each recompiled unit generated, when a shard worker keeps it. */
+    private Map<unit, Map<Path, byte[]>> kept;
+
+    private output_writer outputs;
+
+    /**
+     * @param parses Parse results to reuse. A one-shot build passes a cache
+     *               loaded from {@link #get_parse_cache_path}; a long-lived
+     *               process passes the same instance to every compilation.
+     */
+    public compilation(Path root, ForkJoinPool pool, parse_cache parses) {
+        precondition.checkNotNull(root, "root");
+        precondition.checkNotNull(pool, "pool");
+        precondition.checkNotNull(parses, "parses");
+        this.root = root;
+        this.pool = pool;
+        this.loader = new source_loader(pool);
+        this.parses = parses;
+        this.symbols = parses.get_symbols();
+        this.previous = null;
+        this.changed = null;
+    }
+
+    private compilation(compilation previous, Set<String> changed) {
+        this.root = previous.root;
+        this.pool = previous.pool;
+        this.loader = previous.loader;
+        this.parses = previous.parses;
+        this.symbols = previous.symbols;
+        this.classpath = previous.classpath;
+        this.backend = previous.backend;
+        this.shards = previous.shards;
+        this.shard_jobs = previous.shard_jobs;
+        this.outputs = previous.outputs;
+        this.previous = new carried(previous);
+        this.changed = changed;
+    }
+
+    public compilation(Path root, parse_cache parses) {
+        this(root, ForkJoinPool.commonPool(), parses);
+    }
+
+    /**
+     * @param changed Root-relative paths of files and folders that changed
+     *                since this compilation ran; "" means anything may have.
+     * @return A compilation of the same tree that, when run, rereads only
+     * what changed and recompiles only the units it touches plus the units
+     * that depend on those. Everything else is carried over from this one.
+     */
+    public compilation next(Set<String> changed) {
+        precondition.checkNotNull(changed, "changed");
+        precondition.checkAndExplain(graph != null, "a compilation must run before it can be followed");
+        return new compilation(this, new HashSet<String>(changed));
+    }
+
+    /**
+     * @return Where build output for a tree goes: its build aspect,
+     * "built.&lt;platform variant&gt;", named the same way as
+     * {@link BuildDiskLayout#getBuiltAspect()}. The loader never reads from it.
+     */
+    public static Path get_built_folder(Path root) {
+        return root.resolve("built." + BuildDiskLayout.getDefaulatPlatformVariant());
+    }
+
+    public static Path get_parse_cache_path(Path root) {
+        return get_built_folder(root).resolve("verse").resolve("parse.cache");
+    }
+
+    /**
+     * @return Where the Java source generated for a tree goes, in folders
+     * by package.
+     */
+    public static Path get_generated_folder(Path root) {
+        return get_built_folder(root).resolve("verse").resolve("java");
+    }
+
+    /**
+     * @return Where the class files generated for a tree go, in folders by
+     * package.
+     */
+    public static Path get_classes_folder(Path root) {
+        return get_built_folder(root).resolve("verse").resolve("classes");
+    }
+
+    public static Path get_type_index_path(Path root) {
+        return get_built_folder(root).resolve("verse").resolve("types.index");
+    }
+
+    public List<Path> get_classpath() {
+        return classpath;
+    }
+
+    public backend get_backend() {
+        return backend;
+    }
+
+    public void set_backend(backend value) {
+        precondition.checkNotNull(value, "value");
+        backend = value;
+    }
+
+    /**
+     * @param value Jars and class folders that imports may name classes
+     *              from, in addition to the JDK.
+     */
+    public void set_classpath(List<Path> value) {
+        precondition.checkNotNull(value, "value");
+        classpath = value;
+    }
+
+    public int get_shards() {
+        return shards;
+    }
+
+    /**
+     * Compile units in separate worker JVMs rather than on this process's
+     * pool. The unit DAG is split into shards by {@link shard_plan}, and
+     * each shard gets a worker, started the first time one of its units is
+     * ready; see {@link shard_coordinator}.
+     *
+     * @param count Number of shards; 1 compiles in this process.
+     * @param jobs  Threads each worker compiles units on.
+     */
+    public void set_shards(int count, int jobs) {
+        precondition.checkAndExplain(count >= 1, "count must be at least 1");
+        precondition.checkAndExplain(jobs >= 1, "jobs must be at least 1");
+        shards = count;
+        shard_jobs = jobs;
+    }
+
+    /**
+     * @return The index external imports were checked against, or null if
+     * the tree has none.
+     */
+    public type_index get_types() {
+        return types;
+    }
+
+    /**
+     * @return Everything read by the load phase, or null if it hasn't run.
+     */
+    public source_pool get_sources() {
+        return sources;
+    }
+
+    /**
+     * @return Parsed form of every .v file, by path, in path order.
+     */
+    public Map<String, parsed_file> get_parsed() {
+        return parsed;
+    }
+
+    public parse_cache get_parse_cache() {
+        return parses;
+    }
+
+    /**
+     * @return The writer generated files go through, loaded from
+     * {@link output_writer#get_path} on first use and shared with the
+     * compilations that follow this one. Its owner saves it.
+     */
+    public synchronized output_writer get_outputs() {
+        if (outputs == null) {
+            outputs = output_writer.load(root);
+        }
+        return outputs;
+    }
+
+    public unit_graph get_graph() {
+        return graph;
+    }
+
+    /**
+     * @return Timing of the per-unit phases, including the critical path.
+     */
+    public schedule_report get_schedule() {
+        return schedule;
+    }
+
+    /**
+     * @return Folders of the units whose work actually ran, as opposed to
+     * being carried over from the previous compilation.
+     */
+    public Set<String> get_recompiled() {
+        return Collections.unmodifiableSet(recompiled);
+    }
+
+    /**
+     * @return Names of the classes a unit declares, once it has compiled.
+     */
+    public Set<String> get_declared(unit u) {
+        BitSet ids = declared.get(u);
+        if (ids == null) {
+            return null;
+        }
+        Set<String> names = new HashSet<String>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            names.add(symbols.name(id));
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return Every problem found so far, ordered by file and position.
+     */
+    public List<diagnostic> get_diagnostics() {
+        List<diagnostic> all = new ArrayList<diagnostic>();
+        if (parsed != null) {
+            for (parsed_file p: parsed.values()) {
+                all.addAll(p.diagnostics);
+            }
+        }
+        if (graph != null) {
+            all.addAll(graph.get_diagnostics());
+        }
+        for (List<diagnostic> list: unit_diagnostics.values()) {
+            all.addAll(list);
+        }
+        all.addAll(schedule_diagnostics);
+        Collections.sort(all, new Comparator<diagnostic>() {
+            @Override
+            public int compare(diagnostic a, diagnostic b) {
+                int c = a.path.compareTo(b.path);
+                return c != 0 ? c : a.offset - b.offset;
+            }
+        });
+        return all;
+    }
+
+    /**
+     * Compile the tree. Afterwards this compilation no longer refers to
+     * the one it followed, so a watch loop holds one build at a time.
+     */
+    public void run() throws IOException, InterruptedException {
+        try {
+            prepare();
+            schedule();
+        } finally {
+            previous = null;
+        }
+    }
+
+    /**
+     * Everything before per-unit work: load, parse, and build the unit
+     * graph. A shard worker stops here and compiles units as it is told to.
+     */
+    void prepare() throws IOException {
+        load();
+        parse();
+        resolve();
+    }
+
+    void load() throws IOException {
+        long t = phase.LOAD.enter();
+        try {
+            sources = previous == null ? loader.load(root) : loader.reload(previous.sources, changed);
+        } finally {
+            phase.LOAD.exit(t);
+        }
+    }
+
+    /**
+     * Parse every .v file and descriptor, in parallel, reusing cached
+     * results for files whose content hasn't changed. Files the previous
+     * compilation had and the load phase didn't reread aren't even hashed.
+     */
+    void parse() {
+        List<source_file> code = new ArrayList<source_file>();
+        List<String> paths = new ArrayList<String>();
+        for (source_file f: sources) {
+            code.add(f);
+            paths.add(f.path);
+        }
+        parsed_file[] out = new parsed_file[code.size()];
+        pool.invoke(new parse_slice(code, out, 0, out.length));
+        Map<String, parsed_file> m = new LinkedHashMap<String, parsed_file>(out.length * 2);
+        for (parsed_file p: out) {
+            m.put(p.path, p);
+        }
+        parsed = Collections.unmodifiableMap(m);
+        parses.retain(paths);
+    }
+
+    /**
+     * Build the unit DAG from import: blocks, and work out which units a
+     * rebuild must recompile.
+     */
+    void resolve() throws IOException {
+        long t = phase.RESOLVE.enter();
+        try {
+            graph = unit_graph.build(sources, parsed);
+            package_classes = find_package_classes();
+            open_types();
+            if (previous != null) {
+                affected = find_affected();
+            }
+        } finally {
+            phase.RESOLVE.exit(t);
+        }
+    }
+
+    /**
+     * Compile units in dependency order, as many at once as the DAG and the
+     * pool allow -- here, or in shard workers.
+     */
+    void schedule() throws IOException, InterruptedException {
+        final shard_coordinator coordinator = shards > 1 ? new shard_coordinator(this, shards, shard_jobs) : null;
+        try {
+            schedule = new unit_scheduler(pool).run(graph, new unit_scheduler.unit_work() {
+                @Override
+                public void compile(unit u) throws Exception {
+                    if (carry_over(u)) {
+                        return;
+                    }
+                    if (coordinator != null) {
+                        compile_remote(coordinator, u);
+                    } else {
+                        compile_unit(u);
+                    }
+                }
+            });
+        } finally {
+            if (coordinator != null) {
+                coordinator.close();
+            }
+        }
+        for (Map.Entry<unit, Throwable> e: schedule.get_failures().entrySet()) {
+            schedule_diagnostics.add(new diagnostic(e.getKey().path, 0, "internal error: " + e.getValue()));
+        }
+        delete_removed_outputs();
+    }
+
+    /**
+     * Delete what units that are no longer in the tree generated -- a
+     * deleted or renamed .lib, say -- since no compile of theirs will.
+     */
+    private void delete_removed_outputs() {
+        output_writer w = get_outputs();
+        for (String owner: new ArrayList<String>(w.get_owners())) {
+            if (graph.get_unit(owner) != null) {
+                continue;
+            }
+            try {
+                forget_classes(w.finish(owner, true));
+            } catch (IOException e) {
+                schedule_diagnostics.add(new diagnostic(owner, 0, "can't delete old output: " + e));
+            }
+        }
+    }
+
+    private Map<String, Set<String>> find_package_classes() {
+        Map<String, Set<String>> m = new HashMap<String, Set<String>>();
+        for (unit u: graph.get_units()) {
+            for (Map.Entry<String, List<String>> e: get_package_classes(u).entrySet()) {
+                m.put(e.getKey(), new HashSet<String>(e.getValue()));
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return Simple names of the classes a unit declares, by package, in
+     * file order.
+     */
+    private Map<String, List<String>> get_package_classes(unit u) {
+        Map<String, List<String>> m = new LinkedHashMap<String, List<String>>();
+        for (String pkg: u.packages) {
+            m.put(pkg, new ArrayList<String>());
+        }
+        for (source_file f: u.files) {
+            List<String> names = m.get(u.package_of(f));
+            for (class_decl c: parsed.get(f.path).classes) {
+                names.add(c.name);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * What the types of generated classes may name: the classes the tree
+     * declares, and those of the type index, if there is one.
+     */
+    private final jvm_types.class_scope scope = new jvm_types.class_scope() {
+        @Override
+        public boolean knows(String pkg) {
+            return package_classes.containsKey(pkg) || (types != null && types.has_package(pkg));
+        }
+
+        @Override
+        public boolean has_class(String pkg, String name) {
+            Set<String> names = package_classes.get(pkg);
+            return names != null ? names.contains(name) : types != null && types.contains(pkg, name);
+        }
+    };
+
+    /**
+     * Open the type index if any import names a package the tree doesn't
+     * provide. A watch loop keeps using the previous compilation's index
+     * until the classpath changes.
+     */
+    private void open_types() throws IOException {
+        boolean external = false;
+        for (parsed_file p: parsed.values()) {
+            for (import_decl d: p.imports) {
+                external |= graph.get_provider(d.pkg) == null;
+            }
+        }
+        if (!external) {
+            return;
+        }
+        if (previous != null && previous.types != null && previous.types.key == type_index.key_of(classpath)) {
+            types = previous.types;
+        } else {
+            types = type_index.open(get_type_index_path(root), classpath);
+        }
+    }
+
+    /**
+     * @return Folders of the units that must be recompiled: those with a
+     * changed file, those that are new or didn't finish last time, and
+     * everything that depends on one of those -- now, or before the change.
+     */
+    private Set<String> find_affected() {
+        Deque<unit> todo = new ArrayDeque<unit>();
+        for (unit u: graph.get_units()) {
+            unit old = previous.graph.get_unit(u.path);
+            if (old == null || previous.declared.get(old) == null || touches(u.path)) {
+                todo.add(u);
+            } else {
+                for (unit d: old.deps) {
+                    if (touches(d.path)) {
+                        todo.add(u);
+                        break;
+                    }
+                }
+            }
+        }
+        Set<String> found = new HashSet<String>();
+        while (!todo.isEmpty()) {
+            unit u = todo.poll();
+            if (found.add(u.path)) {
+                todo.addAll(u.dependents);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return True if a changed path is, contains, or is inside a folder.
+     */
+    private boolean touches(String folder) {
+        for (String c: changed) {
+            if (c.isEmpty() || c.equals(folder) || c.startsWith(folder + "/") || folder.startsWith(c + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take a unit's results from the previous compilation if none of what
+     * it depends on changed.
+     *
+     * @return True if it did.
+     */
+    private boolean carry_over(unit u) {
+        if (affected == null || affected.contains(u.path)) {
+            return false;
+        }
+        unit old = previous.graph.get_unit(u.path);
+        declared.put(u, previous.declared.get(old));
+        List<diagnostic> old_diagnostics = previous.unit_diagnostics.get(old);
+        if (old_diagnostics != null) {
+            unit_diagnostics.put(u, old_diagnostics);
+        }
+        return true;
+    }
+
+    /**
+     * Have a shard worker compile a unit, then write what it generated and
+     * record what it declares, as if the unit had compiled here. The worker
+     * gets the unit's parses and a summary of each unit it imports from;
+     * it never loads the rest of the tree.
+     */
+    private void compile_remote(shard_coordinator coordinator, unit u) throws IOException, InterruptedException {
+        recompiled.add(u.path);
+        List<parsed_file> files = new ArrayList<parsed_file>(u.files.size());
+        for (source_file f: u.files) {
+            files.add(parsed.get(f.path));
+        }
+        List<shard_protocol.summary> deps = new ArrayList<shard_protocol.summary>(u.deps.size());
+        for (unit d: u.deps) {
+            deps.add(new shard_protocol.summary(d.path, get_package_classes(d), declared.get(d) != null));
+        }
+        shard_protocol.result r = coordinator.compile(u, files, deps);
+        set_declared(u, r.declared);
+        List<diagnostic> found = new ArrayList<diagnostic>(r.diagnostics);
+        diagnostic at = new diagnostic(u.path, 0, "");
+        for (Map.Entry<String, byte[]> e: r.outputs.entrySet()) {
+            write(u, root.resolve(e.getKey()), e.getValue(), at, found);
+        }
+        finish_outputs(u, found);
+        if (!found.isEmpty()) {
+            unit_diagnostics.put(u, found);
+        }
+    }
+
+    /**
+     * Record the classes a unit declares, by name.
+     */
+    void set_declared(unit u, Collection<String> names) {
+        BitSet ids = new BitSet();
+        for (String name: names) {
+            ids.set(symbols.intern(name));
+        }
+        declared.put(u, ids);
+    }
+
+    /**
+     * What a shard worker does instead of {@link #prepare}: nothing is
+     * loaded or parsed up front, as {@link #prepare_unit} brings in each
+     * unit it is sent. The type index is opened if the coordinator's build
+     * opened one, so that names resolve the same way in either process.
+     */
+    void prepare_worker(boolean open_types) throws IOException {
+        parsed = new ConcurrentHashMap<String, parsed_file>();
+        package_classes = new ConcurrentHashMap<String, Set<String>>();
+        if (open_types) {
+            types = type_index.open(get_type_index_path(root), classpath);
+        }
+    }
+
+    /**
+     * Read a unit's files for a shard worker, and stand in for the units it
+     * imports from with their summaries. The files' parses are already in
+     * the cache, put there as the request was read, unless a file has
+     * changed since.
+     *
+     * @return The unit, ready for {@link #compile_unit}; it belongs to no
+     * graph.
+     */
+    unit prepare_unit(shard_protocol.request r) throws IOException {
+        Path base = root.toAbsolutePath().normalize();
+        unit u = new unit(r.path.substring(r.path.lastIndexOf('/') + 1), r.path, -1);
+        for (String path: r.files) {
+            source_file f = source_loader.read(base, base.resolve(path));
+            parsed.put(f.path, parses.parse(f));
+            u.files.add(f);
+            u.packages.add(u.package_of(f));
+        }
+        for (shard_protocol.summary s: r.deps) {
+            unit d = new unit(s.path.substring(s.path.lastIndexOf('/') + 1), s.path, -1);
+            List<String> names = new ArrayList<String>();
+            for (Map.Entry<String, List<String>> e: s.classes.entrySet()) {
+                d.packages.add(e.getKey());
+                package_classes.put(e.getKey(), new HashSet<String>(e.getValue()));
+                names.addAll(e.getValue());
+            }
+            if (s.compiled) {
+                set_declared(d, names);
+            }
+            u.deps.add(d);
+        }
+        for (Map.Entry<String, List<String>> e: get_package_classes(u).entrySet()) {
+            package_classes.put(e.getKey(), new HashSet<String>(e.getValue()));
+        }
+        return u;
+    }
+
+    /**
+     * Forget a unit a shard worker has answered for, with the summaries it
+     * came with.
+     */
+    void release_unit(unit u) {
+        for (source_file f: u.files) {
+            parsed.remove(f.path);
+        }
+        for (unit d: u.deps) {
+            declared.remove(d);
+        }
+        declared.remove(u);
+        unit_diagnostics.remove(u);
+    }
+
+    /**
+     * Keep what recompiled units generate, for {@link #take_output}, instead
+     * of writing it.
+     */
+    void keep_output() {
+        kept = new ConcurrentHashMap<unit, Map<Path, byte[]>>();
+    }
+
+    /**
+     * @return What a unit generated since {@link #keep_output}, by path, in
+     * the order it was generated; the unit's entry is dropped.
+     */
+    Map<Path, byte[]> take_output(unit u) {
+        Map<Path, byte[]> m = kept.remove(u);
+        return m == null ? Collections.<Path, byte[]>emptyMap() : m;
+    }
+
+    /**
+     * @return The problems found in a unit after it compiled.
+     */
+    List<diagnostic> get_unit_diagnostics(unit u) {
+        List<diagnostic> found = unit_diagnostics.get(u);
+        return found == null ? Collections.<diagnostic>emptyList() : found;
+    }
+
+    /**
+     * Everything that happens to a unit once the units it imports from are
+     * done. Runs on a pool thread, concurrently with unrelated units.
+     */
+    void compile_unit(unit u) {
+        recompiled.add(u.path);
+        List<diagnostic> found = new ArrayList<diagnostic>();
+        long t = phase.RESOLVE.enter();
+        try {
+            // Sets of symbol ids, not names: a membership test is a bit probe.
+            BitSet ids = new BitSet();
+            for (source_file f: u.files) {
+                for (class_decl c: parsed.get(f.path).classes) {
+                    ids.set(symbols.intern(c.name));
+                }
+            }
+            declared.put(u, ids);
+            check_unit_imports(u, found);
+        } finally {
+            phase.RESOLVE.exit(t);
+        }
+        if (found.isEmpty()) {
+            Map<class_decl, class_plan> plans = null;
+            t = phase.CHECK.enter();
+            try {
+                if (parsed_cleanly(u)) {
+                    plans = plan_unit(u, found);
+                }
+            } finally {
+                phase.CHECK.exit(t);
+            }
+            // A class with a problem in its plan would be written wrong, or fail
+            // in javac with a less helpful message; the unit waits for a fix.
+            if (plans != null && !diagnostic.has_errors(found)) {
+                t = phase.EMIT.enter();
+                try {
+                    emit_unit(u, plans, found);
+                } finally {
+                    phase.EMIT.exit(t);
+                }
+            }
+        }
+        if (kept == null) {
+            finish_outputs(u, found);
+        }
+        if (!found.isEmpty()) {
+            unit_diagnostics.put(u, found);
+        }
+    }
+
+    /**
+     * Delete the files a unit generated before and didn't this time, such
+     * as those of a class it no longer declares. A unit with errors keeps
+     * what it last generated along with anything new.
+     */
+    private void finish_outputs(unit u, List<diagnostic> found) {
+        try {
+            forget_classes(get_outputs().finish(u.path, !diagnostic.has_errors(found)));
+        } catch (IOException e) {
+            found.add(new diagnostic(u.path, 0, "can't delete old output: " + e));
+        }
+    }
+
+    /**
+     * Drop deleted class files from the compiler's memory, so later
+     * compiles, in this build or the ones after it, don't see them.
+     */
+    private void forget_classes(List<Path> deleted) {
+        java_compiler j = javac;
+        if (j == null || deleted.isEmpty()) {
+            return;
+        }
+        Path folder = get_classes_folder(root);
+        List<String> names = new ArrayList<String>();
+        for (Path p: deleted) {
+            String name = p.getFileName().toString();
+            if (p.startsWith(folder) && name.endsWith(".class")) {
+                String rel = folder.relativize(p).toString().replace('\\', '/');
+                names.add(rel.substring(0, rel.length() - ".class".length()).replace('/', '.'));
+            }
+        }
+        j.remove_classes(names);
+    }
+
+    /**
+     * Names imported from another unit of the tree must be declared there.
+     * Names imported from a package of the JDK or classpath must be classes
+     * in it. A package that is neither is assumed to come from a library
+     * the build wasn't told about, and isn't checked.
+     */
+    private void check_unit_imports(unit u, List<diagnostic> found) {
+        for (source_file f: u.files) {
+            parsed_file p = parsed.get(f.path);
+            if (p == null) {
+                continue;
+            }
+            for (import_decl d: p.imports) {
+                unit from = get_provider(u, d.pkg);
+                if (from == null) {
+                    check_external_import(f, d, found);
+                    continue;
+                }
+                if (from == u) {
+                    continue;
+                }
+                BitSet there = declared.get(from);
+                if (there == null) {
+                    continue;
+                }
+                for (String name: d.names) {
+                    int id = symbols.find(name);
+                    if (id == symbol_table.NONE || !there.get(id)) {
+                        found.add(new diagnostic(f.path, d.offset, String.format(
+                                "%s is not declared in package %s (%s)", name, d.pkg, from.name)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The unit that provides a package a file of u imports, or
+     * null if no unit of the tree does.
+     */
+    private unit get_provider(unit u, String pkg) {
+        if (graph != null) {
+            return graph.get_provider(pkg);
+        }
+        // A shard worker has no graph, but the provider of any package u
+        // imports is u or one of its deps.
+        for (unit d: u.deps) {
+            if (d.packages.contains(pkg)) {
+                return d;
+            }
+        }
+        return u.packages.contains(pkg) ? u : null;
+    }
+
+    private boolean parsed_cleanly(unit u) {
+        for (source_file f: u.files) {
+            if (!parsed.get(f.path).diagnostics.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return What to generate for each class the unit declares, except
+     * cmdline descriptors, whose parsers are checked as they are written.
+     */
+    private Map<class_decl, class_plan> plan_unit(unit u, List<diagnostic> found) {
+        Map<class_decl, class_plan> plans = new HashMap<class_decl, class_plan>();
+        for (source_file f: u.files) {
+            parsed_file p = parsed.get(f.path);
+            for (class_decl c: p.classes) {
+                if (c.switches.isEmpty()) {
+                    plans.put(c, class_plan.of(u.package_of(f), p.imports, c, f.path, found, scope));
+                }
+            }
+        }
+        return plans;
+    }
+
+    /**
+     * Write each class the unit declares: as class files under
+     * {@link #get_classes_folder} if the backend is {@link backend#CLASSES}
+     * and the class-file writer supports the class, else as Java source
+     * under {@link #get_generated_folder}. A cmdline descriptor becomes a
+     * parser, which is always source. The unit's source is then compiled
+     * in-process into the same classes folder; if this runtime has no
+     * javac, it is left for one.
+     */
+    private void emit_unit(unit u, Map<class_decl, class_plan> plans, List<diagnostic> found) {
+        Path java_folder = get_generated_folder(root);
+        Path classes_folder = get_classes_folder(root);
+        Map<String, String> sources = new LinkedHashMap<String, String>();
+        Map<String, diagnostic> origins = new HashMap<String, diagnostic>();
+        Map<String, byte[]> emitted = new LinkedHashMap<String, byte[]>();
+        for (source_file f: u.files) {
+            String pkg = u.package_of(f);
+            parsed_file p = parsed.get(f.path);
+            for (class_decl c: p.classes) {
+                String name = pkg + "." + c.name;
+                diagnostic origin = new diagnostic(f.path, c.offset, "");
+                origins.put(name, origin);
+                String text;
+                if (!c.switches.isEmpty()) {
+                    text = cmdline_emitter.emit(pkg, p.imports, c, f.path, found);
+                } else {
+                    class_plan plan = plans.get(c);
+                    if (backend == verse.compiler.backend.CLASSES && class_emitter.supports(plan)) {
+                        emitted.putAll(class_emitter.emit(plan));
+                        continue;
+                    }
+                    text = java_emitter.emit(plan);
+                }
+                write(u, java_folder.resolve(pkg.replace('.', '/')).resolve(c.name + ".java"),
+                        text.getBytes(source_file.UTF8), origin, found);
+                sources.put(name, text);
+            }
+        }
+        write_classes(u, classes_folder, emitted, origins, found);
+        if (sources.isEmpty() && javac == null) {
+            // Later compiles find these on disk, in the classes folder.
+            return;
+        }
+        java_compiler j;
+        try {
+            j = get_javac();
+        } catch (IOException e) {
+            found.add(new diagnostic(u.path, 0, "can't start javac: " + e));
+            return;
+        }
+        if (j == null) {
+            return;
+        }
+        j.add_classes(emitted);
+        if (sources.isEmpty()) {
+            return;
+        }
+        java_compiler.result r = j.compile(sources);
+        write_classes(u, classes_folder, r.classes, origins, found);
+        diagnostic first = origins.get(sources.keySet().iterator().next());
+        for (Map.Entry<String, List<String>> e: r.errors.entrySet()) {
+            diagnostic at = origins.containsKey(e.getKey()) ? origins.get(e.getKey()) : first;
+            for (String message: e.getValue()) {
+                found.add(new diagnostic(at.path, at.offset, message));
+            }
+        }
+    }
+
+    /**
+     * @return The compiler for generated source, shared by every unit of
+     * this build and, while the classpath stays the same, by the builds
+     * after it; or null if this runtime has no javac.
+     */
+    private synchronized java_compiler get_javac() throws IOException {
+        if (javac != null || no_javac) {
+            return javac;
+        }
+        if (previous != null && previous.javac != null && previous.classpath.equals(classpath)) {
+            javac = previous.javac;
+            return javac;
+        }
+        // Classes earlier builds wrote are on the classpath too, for units
+        // whose classes aren't in memory because they weren't rebuilt.
+        List<Path> entries = new ArrayList<Path>(classpath);
+        entries.add(get_classes_folder(root));
+        Files.createDirectories(get_classes_folder(root));
+        javac = java_compiler.open(entries);
+        no_javac = javac == null;
+        return javac;
+    }
+
+    /**
+     * @param origins Where each top-level class was declared, by binary name.
+     */
+    private void write_classes(unit u, Path folder, Map<String, byte[]> classes, Map<String, diagnostic> origins,
+            List<diagnostic> found) {
+        for (Map.Entry<String, byte[]> e: classes.entrySet()) {
+            String name = e.getKey();
+            int nested = name.indexOf('$');
+            diagnostic at = origins.get(nested == -1 ? name : name.substring(0, nested));
+            write(u, folder.resolve(name.replace('.', '/') + ".class"), e.getValue(), at, found);
+        }
+    }
+
+    /**
+     * @param u  The unit the file was generated for.
+     * @param at Where the class written was declared.
+     */
+    private void write(unit u, Path out, byte[] bytes, diagnostic at, List<diagnostic> found) {
+        if (kept != null) {
+            Map<Path, byte[]> m = kept.get(u);
+            if (m == null) {
+                m = new LinkedHashMap<Path, byte[]>();
+                kept.put(u, m);
+            }
+            m.put(out, bytes);
+            return;
+        }
+        try {
+            get_outputs().write(u.path, out, bytes);
+        } catch (IOException e) {
+            found.add(new diagnostic(at.path, at.offset, String.format("can't write %s: %s", out, e)));
+        }
+    }
+
+    private void check_external_import(source_file f, import_decl d, List<diagnostic> found) {
+        if (types == null || !types.has_package(d.pkg)) {
+            return;
+        }
+        for (String name: d.names) {
+            if (!types.contains(d.pkg, name)) {
+                found.add(new diagnostic(f.path, d.offset, String.format(
+                        "%s is not a class in package %s", name, d.pkg)));
+            }
+        }
+    }
+
+    /**
+     * What a rebuild takes from the compilation it follows: that one's
+     * results, but not the compilation itself, which would chain every
+     * earlier build behind it.
+     */
+    private static final class carried {
+        final source_pool sources;
+        final Map<String, parsed_file> parsed;
+        final unit_graph graph;
+        final Map<unit, BitSet> declared;
+        final Map<unit, List<diagnostic>> unit_diagnostics;
+        final List<Path> classpath;
+        final java_compiler javac;
+        final type_index types;
+
+        carried(compilation c) {
+            this.sources = c.sources;
+            this.parsed = c.parsed;
+            this.graph = c.graph;
+            this.declared = c.declared;
+            this.unit_diagnostics = c.unit_diagnostics;
+            this.classpath = c.classpath;
+            this.javac = c.javac;
+            this.types = c.types;
+        }
+    }
+
+    private class parse_slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<source_file> files;
+        private final parsed_file[] out;
+        private final int begin;
+        private final int end;
+
+        parse_slice(List<source_file> files, parsed_file[] out, int begin, int end) {
+            this.files = files;
+            this.out = out;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin > 16) {
+                int mid = (begin + end) >>> 1;
+                invokeAll(new parse_slice(files, out, begin, mid), new parse_slice(files, out, mid, end));
+                return;
+            }
+            for (int i = begin; i < end; ++i) {
+                source_file f = files.get(i);
+                if (previous != null && previous.sources.get(f.path) == f) {
+                    out[i] = previous.parsed.get(f.path);
+                } else {
+                    out[i] = parses.parse(f);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package verse.compiler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fast, non-cryptographic 64-bit hash of file content, used to decide
+ * whether anything derived from a file can be reused. It reads 8 bytes per
+ * step and mixes with the murmur3 finalizer, so hashing runs at memory speed.
+ * Cached results are keyed by path as well as hash, so an accidental
+ * collision would have to happen between two versions of the same file.
+ */
+public final class content_hash {
+
+    private content_hash() {
+    }
+
+    private static final long M = 0x9E3779B97F4A7C15L;
+
+    public static long of(source_file f) {
+        return of(f.get_bytes());
+    }
+
+    /**
+     * Hash the bytes between position and limit. The buffer's position is
+     * not changed.
+     */
+    public static long of(ByteBuffer b) {
+        ByteBuffer view = b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = view.position();
+        int n = view.limit();
+        long h = (n - i) * M;
+        for (; i + 8 <= n; i += 8) {
+            h = (h ^ mix(view.getLong(i))) * M;
+        }
+        long tail = 0;
+        for (int shift = 0; i < n; ++i, shift += 8) {
+            tail |= (view.get(i) & 0xFFL) << shift;
+        }
+        h = (h ^ mix(tail)) * M;
+        return mix(h);
+    }
+
+    public static long of(byte[] b) {
+        return of(ByteBuffer.wrap(b));
+    }
+
+    static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    public static String to_hex(long h) {
+        String s = Long.toHexString(h);
+        while (s.length() < 16) {
+            s = "0" + s;
+        }
+        return s;
+    }
+}
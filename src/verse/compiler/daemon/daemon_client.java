@@ -0,0 +1,103 @@
+package verse.compiler.daemon;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import verse.dbc.precondition;
+
+/**
+ * The thin end of daemon mode: hands an invocation to a running
+ * {@link daemon_server} and relays what it prints. It deliberately touches
+ * none of the compiler, so a forwarded build costs a JVM start and a
+ * connection, not static init and JIT warm-up.
+ */
+public class daemon_client {
+
+    private final Path socket;
+
+    public daemon_client(Path socket) {
+        precondition.checkNotNull(socket, "socket");
+        this.socket = socket;
+    }
+
+    /**
+     * @return A connection to the daemon, or null if none is listening.
+     * @throws IOException if the socket, or its folder, isn't this user's;
+     *                     whoever made it would hear what is sent.
+     */
+    private SocketChannel connect() throws IOException {
+        if (!Files.exists(socket)) {
+            return null;
+        }
+        daemon_protocol.check_owner(socket);
+        SocketChannel ch = null;
+        try {
+            ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+            ch.connect(UnixDomainSocketAddress.of(socket));
+            return ch;
+        } catch (IOException e) {
+            // A socket file with nobody behind it is left over from a daemon
+            // that died; the caller falls back to compiling in-process.
+            close(ch);
+            return null;
+        }
+    }
+
+    private static void close(SocketChannel ch) {
+        if (ch != null) {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                // nothing useful to do
+            }
+        }
+    }
+
+    public boolean is_running() throws IOException {
+        SocketChannel ch = connect();
+        close(ch);
+        return ch != null;
+    }
+
+    /**
+     * Run args in the daemon as if they had been typed in cwd.
+     *
+     * @return The exit code, or null if no daemon is listening.
+     */
+    public Integer forward(Path cwd, String[] args, OutputStream out, OutputStream err) throws IOException {
+        return send(daemon_protocol.RUN, cwd, args, out, err);
+    }
+
+    /**
+     * Ask the daemon to finish the requests it has and exit.
+     *
+     * @return False if no daemon is listening.
+     */
+    public boolean stop() throws IOException {
+        return send(daemon_protocol.STOP, null, new String[0], null, null) != null;
+    }
+
+    private Integer send(byte kind, Path cwd, String[] args, OutputStream out, OutputStream err) throws IOException {
+        SocketChannel ch = connect();
+        if (ch == null) {
+            return null;
+        }
+        try {
+            DataOutputStream req = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch)));
+            daemon_protocol.write_request(req, kind, cwd == null ? "" : cwd.toAbsolutePath().toString(), args);
+            DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+            return daemon_protocol.read_reply(in, out, err);
+        } finally {
+            close(ch);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package verse.compiler.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * What a {@link daemon_client} and a {@link daemon_server} say to each other.
+ *
+ * <p>The client opens a connection per invocation and sends one request: a
+ * magic number, a request kind, its working folder, and its args. The server
+ * answers with frames; OUT and ERR frames carry bytes for the client's
+ * stdout and stderr, and an EXIT frame carries the exit code and ends the
+ * conversation.</p>
+ *
+ * <p>This class is loaded by the client before anything else in the
+ * compiler, so it must stay cheap to initialize.</p>
+ */
+public class daemon_protocol {
+
+    static final int MAGIC = 0x56445231; // "VDR1"
+
+    static final byte RUN = 1;
+    static final byte STOP = 2;
+
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    static final byte EXIT = 3;
+
+    private daemon_protocol() {
+    }
+
+    /**
+     * @return The socket a daemon listens on unless told otherwise: one per
+     * user, in $XDG_RUNTIME_DIR, which only that user may enter; or, without
+     * one, in a folder of the temp folder that the daemon makes for its user
+     * alone.
+     */
+    public static Path get_default_socket_path() {
+        String runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isEmpty()) {
+            return Paths.get(runtime, "verse.sock");
+        }
+        return Paths.get(System.getProperty("java.io.tmpdir"), "verse-" + System.getProperty("user.name"),
+                "daemon.sock");
+    }
+
+    private static final Set<PosixFilePermission> OTHERS = EnumSet.of(
+            PosixFilePermission.GROUP_READ, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_EXECUTE,
+            PosixFilePermission.OTHERS_READ, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_EXECUTE);
+
+    /**
+     * Make sure a socket's folder is this user's alone: owned by this user,
+     * and closed to everyone else. Whoever can make a socket where a client
+     * looks for one receives its args and working folder; whoever can
+     * connect to the daemon builds as its user. On a file system without
+     * POSIX permissions, the folder's own access control has to do.
+     *
+     * @param create Make the folder, private, if it doesn't exist.
+     * @throws IOException if the folder belongs to someone else or is open
+     *                     to others.
+     */
+    static void check_folder(Path socket, boolean create) throws IOException {
+        Path folder = socket.toAbsolutePath().getParent();
+        PosixFileAttributeView view = Files.getFileAttributeView(folder, PosixFileAttributeView.class);
+        if (view == null) {
+            return;
+        }
+        if (create && !Files.exists(folder)) {
+            Files.createDirectories(folder, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rwx------")));
+        }
+        PosixFileAttributes a = view.readAttributes();
+        if (!a.owner().equals(get_user(folder))) {
+            throw new IOException(String.format("%s belongs to %s; a verse daemon's socket must be in a folder "
+                    + "of your own.", folder, a.owner().getName()));
+        }
+        Set<PosixFilePermission> open = EnumSet.copyOf(a.permissions());
+        open.retainAll(OTHERS);
+        if (!open.isEmpty()) {
+            throw new IOException(String.format("%s is open to other users (%s); a verse daemon's socket must be "
+                    + "in a folder only you can enter.", folder, PosixFilePermissions.toString(a.permissions())));
+        }
+    }
+
+    /**
+     * Make sure a socket, and its folder, are this user's, before telling
+     * whoever listens on it anything.
+     *
+     * @throws IOException if either is someone else's.
+     */
+    static void check_owner(Path socket) throws IOException {
+        check_folder(socket, false);
+        PosixFileAttributeView view = Files.getFileAttributeView(socket, PosixFileAttributeView.class);
+        if (view == null) {
+            return;
+        }
+        UserPrincipal owner = view.readAttributes().owner();
+        if (!owner.equals(get_user(socket))) {
+            throw new IOException(String.format("%s belongs to %s, not you; not forwarding to it.",
+                    socket, owner.getName()));
+        }
+    }
+
+    private static UserPrincipal get_user(Path p) throws IOException {
+        return p.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    static void write_request(DataOutputStream out, byte kind, String cwd, String[] args) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(kind);
+        out.writeUTF(cwd);
+        out.writeInt(args.length);
+        for (String arg: args) {
+            out.writeUTF(arg);
+        }
+        out.flush();
+    }
+
+    /**
+     * Turns writes into OUT or ERR frames. Several of these share one
+     * connection, so frames are written under the connection's lock.
+     */
+    static class frame_stream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte tag;
+
+        frame_stream(DataOutputStream out, byte tag) {
+            this.out = out;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(tag);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Copy frames to out and err until the EXIT frame.
+     *
+     * @return The exit code.
+     */
+    static int read_reply(DataInputStream in, OutputStream out, OutputStream err) throws IOException {
+        byte[] buf = new byte[8192];
+        while (true) {
+            byte tag = in.readByte();
+            if (tag == EXIT) {
+                return in.readInt();
+            }
+            if (tag != OUT && tag != ERR) {
+                throw new IOException("Unexpected frame " + tag + " from daemon.");
+            }
+            OutputStream to = tag == OUT ? out : err;
+            int len = in.readInt();
+            while (len > 0) {
+                int n = in.read(buf, 0, Math.min(len, buf.length));
+                if (n < 0) {
+                    throw new IOException("Daemon closed the connection mid-frame.");
+                }
+                to.write(buf, 0, n);
+                len -= n;
+            }
+            to.flush();
+        }
+    }
+}
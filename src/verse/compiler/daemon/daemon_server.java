@@ -0,0 +1,211 @@
+package verse.compiler.daemon;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import verse.dbc.precondition;
+
+/**
+ * A long-lived compiler process. It listens on a Unix-domain socket and runs
+ * each invocation a {@link daemon_client} forwards, in-process, so repeated
+ * builds share warm JIT code, loaded classes, and whatever the handler keeps
+ * between requests (parse caches, for one).
+ *
+ * <p>Each connection gets its own thread; requests for different trees run
+ * concurrently. Whoever can connect can make the daemon read and write files
+ * as its user, so the socket goes in a folder only that user can enter,
+ * checked or made so before the socket is bound; the socket file itself is
+ * then made accessible to its owner only, as well.</p>
+ */
+public class daemon_server implements Closeable {
+
+    /**
+     * Runs one forwarded invocation. Must not call System.exit or write to
+     * System.out; everything meant for the client goes to out and err.
+     */
+    public interface request_handler {
+        int handle(Path cwd, String[] args, PrintStream out, PrintStream err) throws Exception;
+    }
+
+    public final Path socket;
+
+    private final request_handler handler;
+    private final ExecutorService threads;
+    private ServerSocketChannel channel;
+    private volatile boolean stopping;
+
+    public daemon_server(Path socket, request_handler handler) {
+        precondition.checkNotNull(socket, "socket");
+        precondition.checkNotNull(handler, "handler");
+        this.socket = socket;
+        this.handler = handler;
+        this.threads = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "verse-daemon-request");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Bind the socket. A socket file left by a daemon that died is replaced;
+     * one that a live daemon is listening on is an error, and so is a
+     * folder that isn't the user's alone.
+     */
+    public void start() throws IOException {
+        daemon_protocol.check_folder(socket, true);
+        if (Files.exists(socket)) {
+            if (new daemon_client(socket).is_running()) {
+                throw new IOException("A verse daemon is already listening on " + socket + ".");
+            }
+            Files.delete(socket);
+        }
+        channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(socket));
+        try {
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; rely on the folder's permissions.
+        }
+    }
+
+    /**
+     * Accept connections until {@link #close} is called or a client sends a
+     * stop request.
+     */
+    public void serve() throws IOException {
+        try {
+            while (!stopping) {
+                final SocketChannel ch;
+                try {
+                    ch = channel.accept();
+                } catch (ClosedChannelException e) {
+                    // Closed during accept, or by a stop request just before it.
+                    if (stopping) {
+                        break;
+                    }
+                    throw e;
+                }
+                try {
+                    threads.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            answer(ch);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Accepted just as a stop request closed the pool.
+                    ch.close();
+                    break;
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    public boolean is_stopping() {
+        return stopping;
+    }
+
+    /**
+     * Stop accepting, let requests already running finish, and remove the
+     * socket file.
+     */
+    @Override
+    public void close() throws IOException {
+        stopping = true;
+        threads.shutdown();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * Wait for requests that were running when the daemon was stopped.
+     */
+    public boolean await_idle(long millis) throws InterruptedException {
+        return threads.awaitTermination(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void answer(SocketChannel ch) {
+        try {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+            DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch)));
+            if (in.readInt() != daemon_protocol.MAGIC) {
+                return;
+            }
+            byte kind = in.readByte();
+            String cwd = in.readUTF();
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; ++i) {
+                args[i] = in.readUTF();
+            }
+            int code = 0;
+            if (kind == daemon_protocol.STOP) {
+                stopping = true;
+                channel.close();
+            } else {
+                code = run(Paths.get(cwd), args, reply);
+            }
+            synchronized (reply) {
+                reply.writeByte(daemon_protocol.EXIT);
+                reply.writeInt(code);
+                reply.flush();
+            }
+        } catch (IOException e) {
+            // The client went away; it has no one to report to.
+        } finally {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                // nothing useful to do
+            }
+        }
+    }
+
+    private int run(Path cwd, String[] args, DataOutputStream reply) throws IOException {
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new daemon_protocol.frame_stream(reply, daemon_protocol.OUT)), false, "UTF-8");
+        PrintStream err = new PrintStream(new BufferedOutputStream(
+                new daemon_protocol.frame_stream(reply, daemon_protocol.ERR)), false, "UTF-8");
+        int code;
+        try {
+            code = handler.handle(cwd, args, out, err);
+        } catch (Throwable t) {
+            err.println(t.toString());
+            code = -1;
+        }
+        out.flush();
+        err.flush();
+        if (out.checkError() || err.checkError()) {
+            throw new IOException("Lost connection to client.");
+        }
+        return code;
+    }
+}
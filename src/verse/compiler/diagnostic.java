@@ -0,0 +1,56 @@
+package verse.compiler;
+
+/**
+ * A problem found in a source file. Positions are byte offsets; they are
+ * turned into line numbers only when the diagnostic is displayed. Errors
+ * fail a build; warnings are only reported.
+ */
+public class diagnostic {
+
+    public final String path;
+    public final int offset;
+    public final String message;
+    public final boolean is_warning;
+
+    public diagnostic(String path, int offset, String message) {
+        this(path, offset, message, false);
+    }
+
+    public diagnostic(String path, int offset, String message, boolean is_warning) {
+        this.path = path;
+        this.offset = offset;
+        this.message = message;
+        this.is_warning = is_warning;
+    }
+
+    /**
+     * @return True if any of the diagnostics is an error.
+     */
+    public static boolean has_errors(Iterable<diagnostic> diagnostics) {
+        for (diagnostic d: diagnostics) {
+            if (!d.is_warning) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return "path:line: message", with line numbers counted in the file the
+     * diagnostic refers to, and "warning: " before the message of a warning.
+     * If file is null (the diagnostic is about a folder, say), there is no
+     * line number.
+     */
+    public String format(source_file file) {
+        String text = is_warning ? "warning: " + message : message;
+        if (file == null) {
+            return String.format("%s: %s", path, text);
+        }
+        return String.format("%s:%d: %s", path, file.get_line(offset), text);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%d: %s%s", path, offset, is_warning ? "warning: " : "", message);
+    }
+}
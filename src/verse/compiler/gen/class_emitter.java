@@ -0,0 +1,743 @@
+package verse.compiler.gen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import verse.compiler.gen.class_plan.ctor_plan;
+import verse.compiler.gen.class_plan.field_plan;
+import verse.compiler.gen.class_plan.method_plan;
+import verse.compiler.gen.class_plan.param_plan;
+import verse.compiler.gen.code_builder.label;
+import verse.compiler.gen.constraint_lowering.check;
+
+/**
+ * Writes the class a {@link class_plan} describes straight to class files,
+ * the same class {@link java_emitter} writes as source, so a build needs
+ * no javac pass over generated code.
+ *
+ * <p>Checks compile to what javac makes of their source: a primitive
+ * compare (<code>dcmpl</code>, <code>lcmp</code>, or the int itself) that
+ * branches past the failure path, and only the failure path boxes the
+ * value. One thing differs: a singleton's <code>create()</code> is
+ * package-private rather than private, since without nestmates (see
+ * {@link class_file}) its holder class couldn't call it otherwise.</p>
+ *
+ * <p>Member initializers are Java text. Only literals, and
+ * {@link string_template}s whose expressions name earlier members, can be
+ * compiled here; see {@link #supports}.</p>
+ */
+public class class_emitter {
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String PRECONDITION = "verse/dbc/precondition";
+    private static final String WEAK = "java/lang/ref/WeakReference";
+    private static final String PROPERTY = "verse/util/property";
+    private static final java_type STRING = java_type.of("String");
+    private static final java_type CHAR_SEQUENCE = java_type.of("CharSequence");
+
+    /** {@link #literal} of an initializer that isn't one. */
+    private static final Object NOT_LITERAL = new Object();
+
+    private final class_plan p;
+    private final jvm_types types;
+    private final String name;
+    private final class_file cf;
+    private final Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+
+    private class_emitter(class_plan p) {
+        this.p = p;
+        this.types = p.get_types();
+        this.name = p.pkg.replace('.', '/') + "/" + p.c.name;
+        List<String> interfaces = new ArrayList<String>();
+        StringBuilder signature = new StringBuilder("L" + OBJECT + ";");
+        boolean generic = false;
+        for (java_type i: p.interfaces) {
+            String d = types.descriptor(i);
+            interfaces.add(d.substring(1, d.length() - 1));
+            String s = types.signature(i);
+            generic |= s != null;
+            signature.append(s != null ? s : d);
+        }
+        int access = class_file.ACC_PUBLIC | class_file.ACC_SUPER | (p.is_abstract ? class_file.ACC_ABSTRACT : 0);
+        this.cf = new class_file(access, name, OBJECT, interfaces, generic ? signature.toString() : null);
+    }
+
+    /**
+     * @return Whether the class can be written as class files: every
+     * initializer is a literal of its member's type, and every type
+     * is one {@link jvm_types} can spell, and every ctor parameter that sets
+     * a member of another type holds a reference. If not, it must go
+     * through {@link java_emitter} and javac, which converts or complains.
+     */
+    public static boolean supports(class_plan p) {
+        jvm_types types = p.get_types();
+        try {
+            for (field_plan f: p.fields) {
+                types.descriptor(f.type);
+                if (f.template != null ? !supports(p, f, f.template)
+                        : f.m.initializer != null && literal(f.m.initializer, f.type) == NOT_LITERAL) {
+                    return false;
+                }
+            }
+            for (method_plan m: p.methods) {
+                types.descriptor(m.return_type);
+                for (param_plan a: m.params) {
+                    types.descriptor(a.type);
+                }
+            }
+            for (ctor_plan ctor: p.ctors) {
+                for (param_plan a: ctor.params) {
+                    types.descriptor(a.type);
+                    if (a.sets != null && a.sets.type != a.type
+                            && (a.type.is_primitive() || a.sets.type.is_primitive())) {
+                        return false;
+                    }
+                }
+            }
+            for (java_type i: p.interfaces) {
+                types.descriptor(i);
+            }
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether a template initializes a member that holds a string
+     * and names only members declared before it, which are initialized
+     * first; anything else goes through javac.
+     */
+    private static boolean supports(class_plan p, field_plan f, string_template t) {
+        if (f.type != STRING && f.type != java_type.OBJECT && f.type != CHAR_SEQUENCE) {
+            return false;
+        }
+        for (string_template.part part: t.parts) {
+            if (part.is_expression && referenced(p, f, part.text) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The member declared before f whose name is expr, unless it
+     * is a weakref; else null.
+     */
+    private static field_plan referenced(class_plan p, field_plan f, String expr) {
+        for (field_plan g: p.fields) {
+            if (g == f) {
+                break;
+            }
+            if (g.name.equals(expr) && !g.weak) {
+                return g;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The class files of the planned class and of the classes
+     * nested in it, by binary name (<code>pkg.X</code>,
+     * <code>pkg.X$holder</code>).
+     */
+    public static Map<String, byte[]> emit(class_plan p) {
+        class_emitter e = new class_emitter(p);
+        e.emit_class();
+        return e.classes;
+    }
+
+    private void emit_class() {
+        for (field_plan f: p.fields) {
+            int access = class_file.ACC_PRIVATE | (f.is_final ? class_file.ACC_FINAL : 0);
+            cf.add_field(access, f.name, types.descriptor(storage_type(f)), types.signature(storage_type(f)));
+        }
+        for (ctor_plan ctor: p.ctors) {
+            emit_ctor(ctor);
+        }
+        if (p.singleton) {
+            emit_singleton();
+        }
+        for (field_plan f: p.fields) {
+            emit_accessors(f);
+        }
+        if (!p.properties.isEmpty()) {
+            emit_properties();
+        }
+        for (method_plan m: p.methods) {
+            emit_method(m);
+        }
+        classes.put(binary_name(name), cf.to_bytes());
+    }
+
+    private static String binary_name(String internal_name) {
+        return internal_name.replace('/', '.');
+    }
+
+    private static java_type storage_type(field_plan f) {
+        return f.weak ? java_type.get("java.lang.ref.WeakReference", Collections.singletonList(f.type), 0) : f.type;
+    }
+
+    private static int access_flag(String access) {
+        return access.equals("private") ? class_file.ACC_PRIVATE : access.equals("protected")
+                ? class_file.ACC_PROTECTED : class_file.ACC_PUBLIC;
+    }
+
+    private List<java_type> param_types(List<param_plan> params) {
+        List<java_type> result = new ArrayList<java_type>(params.size());
+        for (param_plan a: params) {
+            result.add(a.type);
+        }
+        return result;
+    }
+
+    private void emit_ctor(ctor_plan ctor) {
+        List<java_type> param_types = param_types(ctor.params);
+        int[] slots = new int[ctor.params.size()];
+        int locals = 1;
+        for (int i = 0; i < slots.length; ++i) {
+            slots[i] = locals;
+            locals += jvm_types.size(ctor.params.get(i).type.kind);
+        }
+        code_builder c = new code_builder(cf, locals);
+        c.load('L', 0).invoke(code_builder.INVOKESPECIAL, OBJECT, "<init>", "()V");
+        // Field initializers run after super(), before the ctor's body.
+        for (field_plan f: p.fields) {
+            if (f.m.initializer != null) {
+                c.load('L', 0);
+                store_initializer(c, f);
+            }
+        }
+        for (int i = 0; i < slots.length; ++i) {
+            param_plan a = ctor.params.get(i);
+            emit_checks(c, a.checks, a.type.kind, slots[i]);
+        }
+        for (int i = 0; i < slots.length; ++i) {
+            param_plan a = ctor.params.get(i);
+            if (a.sets != null) {
+                c.load('L', 0);
+                store(c, a.sets, a.type.kind, slots[i]);
+            }
+        }
+        c.return_('V');
+        cf.add_method(access_flag(p.ctor_access), "<init>", types.method_descriptor(java_type.VOID, param_types),
+                types.method_signature(java_type.VOID, param_types), Collections.<String>emptyList(), c);
+    }
+
+    /**
+     * With <code>this</code> on the stack, store a local in a field.
+     */
+    private void store(code_builder c, field_plan f, char kind, int slot) {
+        if (f.weak) {
+            c.type(code_builder.NEW, WEAK).op(code_builder.DUP).load(kind, slot)
+                    .invoke(code_builder.INVOKESPECIAL, WEAK, "<init>", "(L" + OBJECT + ";)V");
+        } else {
+            c.load(kind, slot);
+        }
+        c.field(code_builder.PUTFIELD, name, f.name, types.descriptor(storage_type(f)));
+    }
+
+    /**
+     * With <code>this</code> on the stack, store a field's initializer, a
+     * literal or a template, in it.
+     */
+    private void store_initializer(code_builder c, field_plan f) {
+        if (f.weak) {
+            c.type(code_builder.NEW, WEAK).op(code_builder.DUP);
+        }
+        if (f.template != null) {
+            push_template(c, f);
+        } else {
+            push(c, literal(f.m.initializer, f.type), f.type);
+        }
+        if (f.weak) {
+            c.invoke(code_builder.INVOKESPECIAL, WEAK, "<init>", "(L" + OBJECT + ";)V");
+        }
+        c.field(code_builder.PUTFIELD, name, f.name, types.descriptor(storage_type(f)));
+    }
+
+    /**
+     * Push the string a field's template makes: its text appended to a
+     * StringBuilder presized for the text and 16 chars per expression,
+     * with each member appended by the overload for its type.
+     */
+    private void push_template(code_builder c, field_plan f) {
+        string_template t = f.template;
+        String constant = t.get_constant();
+        if (constant != null) {
+            c.ldc(constant);
+            return;
+        }
+        String builder = "java/lang/StringBuilder";
+        String returns = ")L" + builder + ";";
+        int expressions = 0;
+        for (string_template.part part: t.parts) {
+            expressions += part.is_expression ? 1 : 0;
+        }
+        c.type(code_builder.NEW, builder).op(code_builder.DUP).push(t.get_text_length() + 16 * expressions)
+                .invoke(code_builder.INVOKESPECIAL, builder, "<init>", "(I)V");
+        for (string_template.part part: t.parts) {
+            if (!part.is_expression) {
+                c.ldc(part.text).invoke(code_builder.INVOKEVIRTUAL, builder, "append", "(Ljava/lang/String;" + returns);
+                continue;
+            }
+            field_plan g = referenced(p, f, part.text);
+            char kind = g.type.kind;
+            c.load('L', 0).field(code_builder.GETFIELD, name, g.name, types.descriptor(g.type));
+            String arg = kind == 'B' || kind == 'S' ? "I" : g.type.is_primitive() ? String.valueOf(kind)
+                    : g.type == STRING ? "Ljava/lang/String;" : "L" + OBJECT + ";";
+            c.invoke(code_builder.INVOKEVIRTUAL, builder, "append", "(" + arg + returns);
+        }
+        c.invoke(code_builder.INVOKEVIRTUAL, builder, "toString", "()Ljava/lang/String;");
+    }
+
+    private void push(code_builder c, Object value, java_type type) {
+        char kind = type.kind;
+        if (value == null) {
+            c.op(code_builder.ACONST_NULL);
+        } else if (value instanceof String) {
+            c.ldc((String) value);
+        } else if (kind == 'J') {
+            long v = ((Number) value).longValue();
+            if (v == 0) {
+                c.op(code_builder.LCONST_0);
+            } else {
+                c.ldc(cf.long_(v), 2);
+            }
+        } else if (kind == 'F') {
+            c.ldc(cf.float_(((Number) value).floatValue()), 1);
+        } else if (kind == 'D') {
+            c.ldc(cf.double_(((Number) value).doubleValue()), 2);
+        } else if (value instanceof Boolean) {
+            c.push((Boolean) value ? 1 : 0);
+        } else if (value instanceof Character) {
+            c.push((Character) value);
+        } else {
+            c.push(((Number) value).intValue());
+        }
+    }
+
+    /**
+     * The bytecode of {@link constraint_lowering#emit_source}: compare the
+     * primitive and branch past the failure, which boxes the value for the
+     * message.
+     */
+    private void emit_checks(code_builder c, List<check> checks, char kind, int slot) {
+        for (check k: checks) {
+            if (k.kind == constraint_lowering.kind.NONNULL) {
+                c.load(kind, slot).ldc(k.what).invoke(code_builder.INVOKESTATIC, PRECONDITION, "checkNotNull",
+                        "(L" + OBJECT + ";Ljava/lang/String;)V");
+                continue;
+            }
+            c.load(kind, slot);
+            if (kind == 'J') {
+                c.op(code_builder.LCONST_0).op(code_builder.LCMP);
+            } else if (kind == 'F') {
+                // fcmpl and dcmpl give -1 for NaN, so NaN fails too.
+                c.op(code_builder.FCONST_0).op(code_builder.FCMPL);
+            } else if (kind == 'D') {
+                c.op(code_builder.DCONST_0).op(code_builder.DCMPL);
+            }
+            label ok = new label();
+            c.jump(k.kind == constraint_lowering.kind.POSITIVE ? code_builder.IFGT : code_builder.IFGE, ok);
+            c.push(0).ldc(k.get_message()).push(1).type(code_builder.ANEWARRAY, OBJECT)
+                    .op(code_builder.DUP).push(0).load(kind, slot);
+            box(c, kind);
+            c.op(code_builder.AASTORE).invoke(code_builder.INVOKESTATIC, PRECONDITION, "checkAndExplain",
+                    "(ZLjava/lang/String;[L" + OBJECT + ";)V");
+            c.place(ok);
+        }
+    }
+
+    private static void box(code_builder c, char kind) {
+        String box = kind == 'J' ? "Long" : kind == 'F' ? "Float" : kind == 'D' ? "Double" : kind == 'B' ? "Byte"
+                : kind == 'S' ? "Short" : kind == 'C' ? "Character" : kind == 'Z' ? "Boolean" : "Integer";
+        c.invoke(code_builder.INVOKESTATIC, "java/lang/" + box, "valueOf",
+                "(" + kind + ")Ljava/lang/" + box + ";");
+    }
+
+    private void emit_singleton() {
+        String self = "L" + name + ";";
+        String factory = name + "$factory";
+        if (p.needs_factory) {
+            class_file f = new class_file(class_file.ACC_PUBLIC | class_file.ACC_INTERFACE | class_file.ACC_ABSTRACT,
+                    factory, OBJECT, Collections.<String>emptyList(), null);
+            f.add_method(class_file.ACC_PUBLIC | class_file.ACC_ABSTRACT, "create", "()" + self, null,
+                    Collections.<String>emptyList(), null);
+            int flags = class_file.ACC_PUBLIC | class_file.ACC_STATIC | class_file.ACC_INTERFACE
+                    | class_file.ACC_ABSTRACT;
+            f.add_inner_class(factory, name, "factory", flags);
+            cf.add_inner_class(factory, name, "factory", flags);
+            classes.put(binary_name(factory), f.to_bytes());
+
+            int hidden = class_file.ACC_PRIVATE | class_file.ACC_STATIC | class_file.ACC_VOLATILE;
+            cf.add_field(hidden, "the_factory", "L" + factory + ";", null);
+            cf.add_field(hidden, "created", "Z", null);
+            String before = p.c.name + ".set_factory() must come before get_instance()";
+
+            code_builder set = new code_builder(cf, 1);
+            set.load('L', 0).ldc("value").invoke(code_builder.INVOKESTATIC, PRECONDITION, "checkNotNull",
+                    "(L" + OBJECT + ";Ljava/lang/String;)V");
+            set.field(code_builder.GETSTATIC, name, "created", "Z").push(1).op(code_builder.IXOR);
+            no_args_check(set, before);
+            set.load('L', 0).field(code_builder.PUTSTATIC, name, "the_factory", "L" + factory + ";");
+            set.return_('V');
+            cf.add_method(class_file.ACC_PUBLIC | class_file.ACC_STATIC, "set_factory", "(L" + factory + ";)V",
+                    null, Collections.<String>emptyList(), set);
+
+            code_builder create = new code_builder(cf, 1);
+            create.field(code_builder.GETSTATIC, name, "the_factory", "L" + factory + ";").astore(0);
+            label ready = new label();
+            create.load('L', 0).jump(code_builder.IFNONNULL, ready).push(0);
+            no_args_check(create, before);
+            create.place(ready);
+            create.push(1).field(code_builder.PUTSTATIC, name, "created", "Z");
+            create.load('L', 0).invoke(code_builder.INVOKEINTERFACE, factory, "create", "()" + self);
+            create.return_('L');
+            cf.add_method(class_file.ACC_STATIC, "create", "()" + self, null, Collections.<String>emptyList(),
+                    create);
+        } else {
+            code_builder create = new code_builder(cf, 0);
+            create.type(code_builder.NEW, name).op(code_builder.DUP)
+                    .invoke(code_builder.INVOKESPECIAL, name, "<init>", "()V").return_('L');
+            cf.add_method(class_file.ACC_STATIC, "create", "()" + self, null, Collections.<String>emptyList(),
+                    create);
+        }
+        if (p.phoenix) {
+            emit_phoenix(self);
+            return;
+        }
+        String holder = name + "$holder";
+        class_file h = new class_file(class_file.ACC_SUPER, holder, OBJECT, Collections.<String>emptyList(), null);
+        h.add_field(class_file.ACC_STATIC | class_file.ACC_FINAL, "INSTANCE", self, null);
+        code_builder init = new code_builder(h, 0);
+        init.invoke(code_builder.INVOKESTATIC, name, "create", "()" + self)
+                .field(code_builder.PUTSTATIC, holder, "INSTANCE", self).return_('V');
+        h.add_method(class_file.ACC_STATIC, "<clinit>", "()V", null, Collections.<String>emptyList(), init);
+        h.add_inner_class(holder, name, "holder", class_file.ACC_PRIVATE | class_file.ACC_STATIC);
+        cf.add_inner_class(holder, name, "holder", class_file.ACC_PRIVATE | class_file.ACC_STATIC);
+        classes.put(binary_name(holder), h.to_bytes());
+
+        code_builder get = new code_builder(cf, 0);
+        get.field(code_builder.GETSTATIC, holder, "INSTANCE", self).return_('L');
+        cf.add_method(class_file.ACC_PUBLIC | class_file.ACC_STATIC, "get_instance", "()" + self, null,
+                Collections.<String>emptyList(), get);
+    }
+
+    /**
+     * With a boolean on the stack, call checkAndExplain with no args.
+     */
+    private static void no_args_check(code_builder c, String contract) {
+        c.ldc(contract).push(0).type(code_builder.ANEWARRAY, OBJECT).invoke(code_builder.INVOKESTATIC,
+                PRECONDITION, "checkAndExplain", "(ZLjava/lang/String;[L" + OBJECT + ";)V");
+    }
+
+    private void emit_phoenix(String self) {
+        String ref = "java/util/concurrent/atomic/AtomicReference";
+        String ref_type = "L" + ref + ";";
+        cf.add_field(class_file.ACC_PRIVATE | class_file.ACC_STATIC | class_file.ACC_FINAL, "INSTANCE", ref_type,
+                "L" + ref + "<" + self + ">;");
+        code_builder init = new code_builder(cf, 0);
+        init.type(code_builder.NEW, ref).op(code_builder.DUP).invoke(code_builder.INVOKESPECIAL, ref, "<init>", "()V")
+                .field(code_builder.PUTSTATIC, name, "INSTANCE", ref_type).return_('V');
+        cf.add_method(class_file.ACC_STATIC, "<clinit>", "()V", null, Collections.<String>emptyList(), init);
+
+        code_builder get = new code_builder(cf, 0);
+        label missing = new label();
+        current(get, ref).op(code_builder.DUP).jump(code_builder.IFNULL, missing).return_('L');
+        get.place(missing).op(code_builder.POP)
+                .invoke(code_builder.INVOKESTATIC, name, "create_first", "()" + self).return_('L');
+        cf.add_method(class_file.ACC_PUBLIC | class_file.ACC_STATIC, "get_instance", "()" + self, null,
+                Collections.<String>emptyList(), get);
+
+        // The first instance is made once, under the class's lock.
+        code_builder first = new code_builder(cf, 0);
+        label made = new label();
+        current(first, ref).astore(0);
+        first.load('L', 0).jump(code_builder.IFNONNULL, made);
+        first.invoke(code_builder.INVOKESTATIC, name, "create", "()" + self).astore(0);
+        first.field(code_builder.GETSTATIC, name, "INSTANCE", ref_type).load('L', 0)
+                .invoke(code_builder.INVOKEVIRTUAL, ref, "set", "(L" + OBJECT + ";)V");
+        first.place(made).load('L', 0).return_('L');
+        cf.add_method(class_file.ACC_PRIVATE | class_file.ACC_STATIC | class_file.ACC_SYNCHRONIZED, "create_first",
+                "()" + self, null, Collections.<String>emptyList(), first);
+
+        // dead is local 0, current 1, fresh 2.
+        code_builder rebirth = new code_builder(cf, 1);
+        label live = new label();
+        label replace = new label();
+        current(rebirth, ref).astore(1);
+        rebirth.load('L', 1).jump(code_builder.IFNONNULL, live)
+                .invoke(code_builder.INVOKESTATIC, name, "create_first", "()" + self).return_('L');
+        rebirth.place(live).load('L', 1).load('L', 0).jump(code_builder.IF_ACMPEQ, replace).load('L', 1)
+                .return_('L');
+        rebirth.place(replace).invoke(code_builder.INVOKESTATIC, name, "create", "()" + self).astore(2);
+        label lost = new label();
+        rebirth.field(code_builder.GETSTATIC, name, "INSTANCE", ref_type).load('L', 0).load('L', 2)
+                .invoke(code_builder.INVOKEVIRTUAL, ref, "compareAndSet", "(L" + OBJECT + ";L" + OBJECT + ";)Z")
+                .jump(code_builder.IFEQ, lost).load('L', 2).return_('L');
+        rebirth.place(lost);
+        current(rebirth, ref).return_('L');
+        cf.add_method(class_file.ACC_PUBLIC | class_file.ACC_STATIC, "rebirth", "(" + self + ")" + self, null,
+                Collections.<String>emptyList(), rebirth);
+    }
+
+    /**
+     * Push INSTANCE.get(), cast back to the class.
+     */
+    private code_builder current(code_builder c, String ref) {
+        return c.field(code_builder.GETSTATIC, name, "INSTANCE", "L" + ref + ";")
+                .invoke(code_builder.INVOKEVIRTUAL, ref, "get", "()L" + OBJECT + ";")
+                .type(code_builder.CHECKCAST, name);
+    }
+
+    private void emit_accessors(field_plan f) {
+        if (!f.accessible) {
+            return;
+        }
+        char kind = f.type.kind;
+        code_builder get = new code_builder(cf, 1);
+        get.load('L', 0).field(code_builder.GETFIELD, name, f.name, types.descriptor(storage_type(f)));
+        if (f.weak) {
+            label set = new label();
+            get.op(code_builder.DUP).jump(code_builder.IFNONNULL, set).op(code_builder.POP)
+                    .op(code_builder.ACONST_NULL).return_('L');
+            get.place(set).invoke(code_builder.INVOKEVIRTUAL, WEAK, "get", "()L" + OBJECT + ";");
+            get.type(code_builder.CHECKCAST, erased(f.type));
+        }
+        get.return_(kind);
+        List<String> none = Collections.emptyList();
+        List<java_type> no_params = Collections.emptyList();
+        cf.add_method(class_file.ACC_PUBLIC, "get_" + f.m.name, types.method_descriptor(f.type, no_params),
+                types.method_signature(f.type, no_params), none, get);
+        if (!f.writable) {
+            return;
+        }
+        code_builder set = new code_builder(cf, 1 + jvm_types.size(kind));
+        emit_checks(set, f.checks, kind, 1);
+        set.load('L', 0);
+        store(set, f, kind, 1);
+        set.return_('V');
+        List<java_type> param = Collections.singletonList(f.type);
+        cf.add_method(class_file.ACC_PUBLIC, "set_" + f.m.name, types.method_descriptor(java_type.VOID, param),
+                types.method_signature(java_type.VOID, param), none, set);
+    }
+
+    /**
+     * @return The internal name a checkcast or class constant takes for a
+     * reference type.
+     */
+    private String erased(java_type t) {
+        String descriptor = types.descriptor(t);
+        return descriptor.charAt(0) == '[' ? descriptor : descriptor.substring(1, descriptor.length() - 1);
+    }
+
+    /**
+     * The properties class {@link java_emitter} writes as source. Its
+     * switches on the index become compare-and-branch chains, and get and
+     * set take Object, as javac's bridges would.
+     */
+    private void emit_properties() {
+        String table = name + "$properties";
+        String self = "L" + name + ";";
+        String list = "java/util/List";
+        String list_signature = "L" + list + "<L" + PROPERTY + "<" + self + ">;>;";
+        String ctor = "(ILjava/lang/String;Ljava/lang/Class;ZLjava/lang/String;[Ljava/lang/String;)V";
+        class_file t = new class_file(class_file.ACC_SUPER | class_file.ACC_FINAL, table, PROPERTY,
+                Collections.<String>emptyList(), "L" + PROPERTY + "<" + self + ">;");
+        t.add_field(class_file.ACC_STATIC | class_file.ACC_FINAL, "ALL", "L" + list + ";", list_signature);
+        t.add_field(class_file.ACC_PRIVATE | class_file.ACC_FINAL, "index", "I", null);
+        List<String> none = Collections.emptyList();
+        List<field_plan> properties = p.properties;
+
+        code_builder init = new code_builder(t, 0);
+        init.push(properties.size()).type(code_builder.ANEWARRAY, PROPERTY);
+        for (int i = 0; i < properties.size(); ++i) {
+            field_plan f = properties.get(i);
+            init.op(code_builder.DUP).push(i).type(code_builder.NEW, table).op(code_builder.DUP).push(i)
+                    .ldc(f.m.name);
+            if (f.type.is_primitive()) {
+                init.field(code_builder.GETSTATIC, "java/lang/" + java_types.box(f.type.name), "TYPE",
+                        "Ljava/lang/Class;");
+            } else {
+                init.ldc(t.class_ref(erased(f.type)), 1);
+            }
+            init.push(f.writable ? 1 : 0);
+            String doc = java_emitter.property_doc(f);
+            if (doc == null) {
+                init.op(code_builder.ACONST_NULL);
+            } else {
+                init.ldc(doc);
+            }
+            List<String> qualifiers = java_emitter.property_qualifiers(f);
+            init.push(qualifiers.size()).type(code_builder.ANEWARRAY, "java/lang/String");
+            for (int j = 0; j < qualifiers.size(); ++j) {
+                init.op(code_builder.DUP).push(j).ldc(qualifiers.get(j)).op(code_builder.AASTORE);
+            }
+            init.invoke(code_builder.INVOKESPECIAL, table, "<init>", ctor).op(code_builder.AASTORE);
+        }
+        init.invoke(code_builder.INVOKESTATIC, "java/util/Arrays", "asList", "([L" + OBJECT + ";)L" + list + ";")
+                .invoke(code_builder.INVOKESTATIC, "java/util/Collections", "unmodifiableList",
+                        "(L" + list + ";)L" + list + ";")
+                .field(code_builder.PUTSTATIC, table, "ALL", "L" + list + ";").return_('V');
+        t.add_method(class_file.ACC_STATIC, "<clinit>", "()V", null, none, init);
+
+        // this, index, name, type, writable, doc, qualifiers.
+        code_builder c = new code_builder(t, 7);
+        c.load('L', 0).load('L', 2).load('L', 3).load('I', 4).load('L', 5).load('L', 6)
+                .invoke(code_builder.INVOKESPECIAL, PROPERTY, "<init>",
+                        "(Ljava/lang/String;Ljava/lang/Class;ZLjava/lang/String;[Ljava/lang/String;)V");
+        c.load('L', 0).load('I', 1).field(code_builder.PUTFIELD, table, "index", "I").return_('V');
+        t.add_method(class_file.ACC_PRIVATE, "<init>", ctor, null, none, c);
+
+        List<java_type> no_params = Collections.emptyList();
+        code_builder get = new code_builder(t, 2);
+        for (int i = 0; i < properties.size(); ++i) {
+            field_plan f = properties.get(i);
+            label next = new label();
+            get.load('L', 0).field(code_builder.GETFIELD, table, "index", "I").push(i)
+                    .jump(code_builder.IF_ICMPNE, next);
+            get.load('L', 1).type(code_builder.CHECKCAST, name).invoke(code_builder.INVOKEVIRTUAL, name,
+                    "get_" + f.m.name, types.method_descriptor(f.type, no_params));
+            if (f.type.is_primitive()) {
+                box(get, f.type.kind);
+            }
+            get.return_('L').place(next);
+        }
+        String assertion = "java/lang/AssertionError";
+        get.type(code_builder.NEW, assertion).op(code_builder.DUP).load('L', 0)
+                .field(code_builder.GETFIELD, table, "index", "I")
+                .invoke(code_builder.INVOKESPECIAL, assertion, "<init>", "(I)V").op(code_builder.ATHROW);
+        t.add_method(class_file.ACC_PUBLIC, "get", "(L" + OBJECT + ";)L" + OBJECT + ";", null, none, get);
+
+        code_builder set = new code_builder(t, 3);
+        boolean any_writable = false;
+        for (int i = 0; i < properties.size(); ++i) {
+            field_plan f = properties.get(i);
+            if (!f.writable) {
+                continue;
+            }
+            any_writable = true;
+            label next = new label();
+            set.load('L', 0).field(code_builder.GETFIELD, table, "index", "I").push(i)
+                    .jump(code_builder.IF_ICMPNE, next);
+            set.load('L', 1).type(code_builder.CHECKCAST, name).load('L', 2);
+            if (f.type.is_primitive()) {
+                String box = "java/lang/" + java_types.box(f.type.name);
+                set.type(code_builder.CHECKCAST, box).invoke(code_builder.INVOKEVIRTUAL, box,
+                        f.type.name + "Value", "()" + f.type.kind);
+            } else {
+                set.type(code_builder.CHECKCAST, erased(f.type));
+            }
+            List<java_type> param = Collections.singletonList(f.type);
+            set.invoke(code_builder.INVOKEVIRTUAL, name, "set_" + f.m.name,
+                    types.method_descriptor(java_type.VOID, param)).return_('V').place(next);
+        }
+        if (any_writable) {
+            String descriptor = "(L" + OBJECT + ";L" + OBJECT + ";)V";
+            set.load('L', 0).load('L', 1).load('L', 2).invoke(code_builder.INVOKESPECIAL, PROPERTY, "set",
+                    descriptor).return_('V');
+            t.add_method(class_file.ACC_PUBLIC, "set", descriptor, null, none, set);
+        }
+
+        int flags = class_file.ACC_PRIVATE | class_file.ACC_STATIC | class_file.ACC_FINAL;
+        t.add_inner_class(table, name, "properties", flags);
+        cf.add_inner_class(table, name, "properties", flags);
+        classes.put(binary_name(table), t.to_bytes());
+
+        code_builder all = new code_builder(cf, 0);
+        all.field(code_builder.GETSTATIC, table, "ALL", "L" + list + ";").return_('L');
+        cf.add_method(class_file.ACC_PUBLIC | class_file.ACC_STATIC, "get_properties", "()L" + list + ";",
+                "()" + list_signature, none, all);
+    }
+
+    private void emit_method(method_plan m) {
+        List<java_type> param_types = param_types(m.params);
+        List<String> thrown = new ArrayList<String>(m.thrown.size());
+        for (java_type t: m.thrown) {
+            thrown.add(types.internal_name(t.name));
+        }
+        int access = (m.is_private ? class_file.ACC_PRIVATE : class_file.ACC_PUBLIC)
+                | (m.is_abstract ? class_file.ACC_ABSTRACT : 0);
+        code_builder c = null;
+        if (!m.is_abstract) {
+            int locals = 1;
+            for (java_type t: param_types) {
+                locals += jvm_types.size(t.kind);
+            }
+            String unsupported = "java/lang/UnsupportedOperationException";
+            c = new code_builder(cf, locals);
+            c.type(code_builder.NEW, unsupported).op(code_builder.DUP)
+                    .ldc(m.m.name + ": verse method bodies are not translated yet")
+                    .invoke(code_builder.INVOKESPECIAL, unsupported, "<init>", "(Ljava/lang/String;)V")
+                    .op(code_builder.ATHROW);
+        }
+        cf.add_method(access, m.name, types.method_descriptor(m.return_type, param_types),
+                types.method_signature(m.return_type, param_types), thrown, c);
+    }
+
+    /**
+     * @return The value of a Java literal, as a String, Boolean, Character,
+     * Integer, Long, Float, Double, or null; or {@link #NOT_LITERAL} if
+     * text is something else, or a literal that a member of type can't
+     * hold without a conversion javac would insert.
+     */
+    static Object literal(String text, java_type type) {
+        String t = text.trim();
+        char kind = type.kind;
+        boolean reference = kind == 'L' || kind == '[';
+        if (t.equals("null")) {
+            return reference ? null : NOT_LITERAL;
+        }
+        if (t.equals("true") || t.equals("false")) {
+            return kind == 'Z' ? (Object) Boolean.valueOf(t) : NOT_LITERAL;
+        }
+        if (t.length() >= 2 && t.charAt(0) == '"' && t.charAt(t.length() - 1) == '"') {
+            boolean fits = type == STRING || type == java_type.OBJECT || type == CHAR_SEQUENCE;
+            String s = string_template.unescape(t.substring(1, t.length() - 1), '"');
+            return fits && s != null ? s : NOT_LITERAL;
+        }
+        if (t.length() >= 3 && t.charAt(0) == '\'' && t.charAt(t.length() - 1) == '\'') {
+            String s = string_template.unescape(t.substring(1, t.length() - 1), '\'');
+            return kind == 'C' && s != null && s.length() == 1 ? (Object) s.charAt(0) : NOT_LITERAL;
+        }
+        return number(t.replace("_", ""), kind);
+    }
+
+    private static Object number(String t, char kind) {
+        if (t.isEmpty() || !(Character.isDigit(t.charAt(0)) || t.charAt(0) == '-' || t.charAt(0) == '.')) {
+            return NOT_LITERAL;
+        }
+        char suffix = Character.toLowerCase(t.charAt(t.length() - 1));
+        boolean hex = t.startsWith("0x") || t.startsWith("-0x") || t.startsWith("0X") || t.startsWith("-0X");
+        try {
+            if (!hex && (suffix == 'f' || suffix == 'd' || t.indexOf('.') != -1 || t.indexOf('e') != -1
+                    || t.indexOf('E') != -1)) {
+                String digits = suffix == 'f' || suffix == 'd' ? t.substring(0, t.length() - 1) : t;
+                if (suffix == 'f') {
+                    return kind == 'F' || kind == 'D' ? (Object) Float.valueOf(digits) : NOT_LITERAL;
+                }
+                return kind == 'D' ? (Object) Double.valueOf(digits) : NOT_LITERAL;
+            }
+            if (suffix == 'l') {
+                long v = Long.decode(t.substring(0, t.length() - 1));
+                return kind == 'J' || kind == 'F' || kind == 'D' ? (Object) v : NOT_LITERAL;
+            }
+            // Long.decode would read a leading 0 as octal; so does Java.
+            long v = Long.decode(t);
+            if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+                return NOT_LITERAL;
+            }
+            // An int constant narrows to a smaller type it fits in.
+            boolean fits = kind == 'I' || kind == 'J' || kind == 'F' || kind == 'D'
+                    || kind == 'B' && v == (byte) v || kind == 'S' && v == (short) v
+                    || kind == 'C' && v == (char) v;
+            return fits ? (Object) (int) v : NOT_LITERAL;
+        } catch (NumberFormatException e) {
+            return NOT_LITERAL;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package verse.compiler.gen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one class file: the constant pool, fields, methods, and the few
+ * attributes generated classes need (Code, StackMapTable, Exceptions,
+ * Signature, InnerClasses).
+ *
+ * <p>Classes are written as version 52 (Java 8), the release
+ * {@link java_compiler} compiles generated source for, so both backends
+ * produce the same class files. Each method with branches gets the frames
+ * that version's verifier requires, computed by {@link stack_map}. There
+ * are no nestmates: a nested class can't reach the private members of its
+ * outer class.</p>
+ */
+public class class_file {
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_PROTECTED = 0x0004;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+    /** ACC_SUPER's bit, on a method. */
+    public static final int ACC_SYNCHRONIZED = 0x0020;
+    public static final int ACC_VOLATILE = 0x0040;
+    public static final int ACC_INTERFACE = 0x0200;
+    public static final int ACC_ABSTRACT = 0x0400;
+
+    private static final int VERSION = 52;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream pool_bytes = new ByteArrayOutputStream(1024);
+    private final DataOutputStream pool = new DataOutputStream(pool_bytes);
+    private final Map<String, Integer> pool_index = new HashMap<String, Integer>();
+
+    /** Each entry's key, by index; the second slot of a long or double is null. */
+    private final List<String> pool_keys = new ArrayList<String>();
+    private int pool_count = 1;
+
+    private final ByteArrayOutputStream methods_bytes = new ByteArrayOutputStream(2048);
+    private final DataOutputStream methods = new DataOutputStream(methods_bytes);
+    private int field_count;
+    private int method_count;
+
+    private final ByteArrayOutputStream fields_bytes = new ByteArrayOutputStream(512);
+    private final DataOutputStream fields = new DataOutputStream(fields_bytes);
+    private final List<int[]> inner_classes = new ArrayList<int[]>();
+
+    public final String name;
+    private final int access;
+    private final String super_name;
+    private final List<String> interfaces;
+    private final String signature;
+
+    /**
+     * @param name       Internal name of the class.
+     * @param super_name Internal name of its superclass.
+     * @param interfaces Internal names of the interfaces it implements.
+     * @param signature  Generic signature, or null.
+     */
+    public class_file(int access, String name, String super_name, List<String> interfaces, String signature) {
+        this.access = access;
+        this.name = name;
+        this.super_name = super_name;
+        this.interfaces = interfaces;
+        this.signature = signature;
+    }
+
+    /**
+     * Pool entries are shared: asking again for one that is there returns
+     * its index.
+     */
+    private int entry(String key, int tag, Object a, Object b) {
+        Integer index = pool_index.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            // Refer to parts first, so they land before the entry itself.
+            int ia = 0;
+            int ib = 0;
+            if (tag == CONSTANT_FIELDREF || tag == CONSTANT_METHODREF || tag == CONSTANT_INTERFACE_METHODREF) {
+                ia = class_ref((String) a);
+                ib = (Integer) b;
+            } else if (tag == CONSTANT_NAME_AND_TYPE) {
+                ia = utf8((String) a);
+                ib = utf8((String) b);
+            } else if (tag == CONSTANT_CLASS || tag == CONSTANT_STRING) {
+                ia = utf8((String) a);
+            }
+            pool.writeByte(tag);
+            switch (tag) {
+            case CONSTANT_UTF8:
+                pool.writeUTF((String) a);
+                break;
+            case CONSTANT_INTEGER:
+                pool.writeInt((Integer) a);
+                break;
+            case CONSTANT_FLOAT:
+                pool.writeFloat((Float) a);
+                break;
+            case CONSTANT_LONG:
+                pool.writeLong((Long) a);
+                break;
+            case CONSTANT_DOUBLE:
+                pool.writeDouble((Double) a);
+                break;
+            case CONSTANT_CLASS:
+            case CONSTANT_STRING:
+                pool.writeShort(ia);
+                break;
+            default:
+                pool.writeShort(ia);
+                pool.writeShort(ib);
+                break;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        index = pool_count;
+        if (pool_keys.isEmpty()) {
+            // Index 0 is unused.
+            pool_keys.add(null);
+        }
+        pool_keys.add(key);
+        // Longs and doubles take two slots.
+        if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) {
+            pool_keys.add(null);
+            pool_count += 2;
+        } else {
+            pool_count += 1;
+        }
+        if (pool_count > 0xffff) {
+            throw new IllegalStateException(name + ": constant pool overflow");
+        }
+        pool_index.put(key, index);
+        return index;
+    }
+
+    /**
+     * @return What an entry holds, as "S" and a string's value, "C" and a
+     * class's name, "I", "F", "J" or "D" and a number, or "f", "m" or "i"
+     * and an owner, member and descriptor.
+     */
+    String key_of(int index) {
+        return pool_keys.get(index);
+    }
+
+    public int utf8(String value) {
+        return entry("U" + value, CONSTANT_UTF8, value, null);
+    }
+
+    public int class_ref(String internal_name) {
+        return entry("C" + internal_name, CONSTANT_CLASS, internal_name, null);
+    }
+
+    public int string(String value) {
+        return entry("S" + value, CONSTANT_STRING, value, null);
+    }
+
+    public int integer(int value) {
+        return entry("I" + value, CONSTANT_INTEGER, value, null);
+    }
+
+    public int float_(float value) {
+        return entry("F" + Float.floatToRawIntBits(value), CONSTANT_FLOAT, value, null);
+    }
+
+    public int long_(long value) {
+        return entry("J" + value, CONSTANT_LONG, value, null);
+    }
+
+    public int double_(double value) {
+        return entry("D" + Double.doubleToRawLongBits(value), CONSTANT_DOUBLE, value, null);
+    }
+
+    private int name_and_type(String member, String descriptor) {
+        return entry("N" + member + ' ' + descriptor, CONSTANT_NAME_AND_TYPE, member, descriptor);
+    }
+
+    public int field_ref(String owner, String member, String descriptor) {
+        return entry("f" + owner + '.' + member + ' ' + descriptor, CONSTANT_FIELDREF, owner,
+                name_and_type(member, descriptor));
+    }
+
+    public int method_ref(String owner, String member, String descriptor) {
+        return entry("m" + owner + '.' + member + descriptor, CONSTANT_METHODREF, owner,
+                name_and_type(member, descriptor));
+    }
+
+    public int interface_method_ref(String owner, String member, String descriptor) {
+        return entry("i" + owner + '.' + member + descriptor, CONSTANT_INTERFACE_METHODREF, owner,
+                name_and_type(member, descriptor));
+    }
+
+    /**
+     * @param signature Generic signature, or null.
+     */
+    public void add_field(int access, String member, String descriptor, String signature) {
+        try {
+            fields.writeShort(access);
+            fields.writeShort(utf8(member));
+            fields.writeShort(utf8(descriptor));
+            write_signature(fields, signature);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        ++field_count;
+    }
+
+    /**
+     * @param signature Generic signature, or null.
+     * @param thrown    Internal names of the checked exceptions it declares.
+     * @param code      Its body, or null if it is abstract.
+     */
+    public void add_method(int access, String member, String descriptor, String signature, List<String> thrown,
+            code_builder code) {
+        try {
+            methods.writeShort(access);
+            methods.writeShort(utf8(member));
+            methods.writeShort(utf8(descriptor));
+            int attributes = (code != null ? 1 : 0) + (thrown.isEmpty() ? 0 : 1) + (signature != null ? 1 : 0);
+            methods.writeShort(attributes);
+            if (code != null) {
+                byte[] bytes = code.to_bytes();
+                byte[] frames = stack_map.compute(this, access, member, descriptor, bytes, code.get_max_locals());
+                int code_name = utf8("Code");
+                int frames_name = frames != null ? utf8("StackMapTable") : 0;
+                methods.writeShort(code_name);
+                methods.writeInt(12 + bytes.length + (frames != null ? 6 + frames.length : 0));
+                methods.writeShort(code.get_max_stack());
+                methods.writeShort(code.get_max_locals());
+                methods.writeInt(bytes.length);
+                methods.write(bytes);
+                // No exception table.
+                methods.writeShort(0);
+                methods.writeShort(frames != null ? 1 : 0);
+                if (frames != null) {
+                    methods.writeShort(frames_name);
+                    methods.writeInt(frames.length);
+                    methods.write(frames);
+                }
+            }
+            if (!thrown.isEmpty()) {
+                methods.writeShort(utf8("Exceptions"));
+                methods.writeInt(2 + 2 * thrown.size());
+                methods.writeShort(thrown.size());
+                for (String t: thrown) {
+                    methods.writeShort(class_ref(t));
+                }
+            }
+            if (signature != null) {
+                methods.writeShort(utf8("Signature"));
+                methods.writeInt(2);
+                methods.writeShort(utf8(signature));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        ++method_count;
+    }
+
+    /**
+     * Record a member class. Both the outer class and the member must
+     * record it.
+     *
+     * @param simple_name The member's name inside outer.
+     */
+    public void add_inner_class(String inner, String outer, String simple_name, int access) {
+        inner_classes.add(new int[] {class_ref(inner), class_ref(outer), utf8(simple_name), access});
+    }
+
+    private void write_signature(DataOutputStream out, String signature) throws IOException {
+        if (signature == null) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(1);
+        out.writeShort(utf8("Signature"));
+        out.writeInt(2);
+        out.writeShort(utf8(signature));
+    }
+
+    public byte[] to_bytes() {
+        try {
+            // Everything the header and attributes refer to must be in the
+            // pool before the pool is written.
+            int this_index = class_ref(name);
+            int super_index = class_ref(super_name);
+            int[] interface_indexes = new int[interfaces.size()];
+            for (int i = 0; i < interface_indexes.length; ++i) {
+                interface_indexes[i] = class_ref(interfaces.get(i));
+            }
+            int signature_name = signature != null ? utf8("Signature") : 0;
+            int signature_index = signature != null ? utf8(signature) : 0;
+            int inner_name = inner_classes.isEmpty() ? 0 : utf8("InnerClasses");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    pool_bytes.size() + fields_bytes.size() + methods_bytes.size() + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(pool_count);
+            pool_bytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(this_index);
+            out.writeShort(super_index);
+            out.writeShort(interface_indexes.length);
+            for (int i: interface_indexes) {
+                out.writeShort(i);
+            }
+            out.writeShort(field_count);
+            fields_bytes.writeTo(out);
+            out.writeShort(method_count);
+            methods_bytes.writeTo(out);
+            out.writeShort((signature != null ? 1 : 0) + (inner_classes.isEmpty() ? 0 : 1));
+            if (signature != null) {
+                out.writeShort(signature_name);
+                out.writeInt(2);
+                out.writeShort(signature_index);
+            }
+            if (!inner_classes.isEmpty()) {
+                out.writeShort(inner_name);
+                out.writeInt(2 + 8 * inner_classes.size());
+                out.writeShort(inner_classes.size());
+                for (int[] c: inner_classes) {
+                    for (int v: c) {
+                        out.writeShort(v);
+                    }
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package verse.compiler.gen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import verse.compiler.diagnostic;
+import verse.compiler.gen.constraint_lowering.check;
+import verse.compiler.parse.class_decl;
+import verse.compiler.parse.doc_ref;
+import verse.compiler.parse.import_decl;
+import verse.compiler.parse.member_decl;
+import verse.compiler.parse.method_decl;
+import verse.compiler.parse.param_decl;
+
+/**
+ * What to generate for one class, worked out once so that the
+ * {@link java_emitter} and the {@link class_emitter} produce the same
+ * class. Problems, such as qualifiers that don't fit a member's type, are
+ * reported while planning.
+ *
+ * <ul>
+ * <li>A <code>final</code> member has no setter, and must be set by every
+ * constructor unless it has an initializer. A class that declares no
+ * <code>ctor</code> gets one taking its uninitialized final members.</li>
+ * <li>A <code>weakref</code> member is stored in a
+ * {@link java.lang.ref.WeakReference}; its getter may return null.</li>
+ * <li>A member flagged <code>-w</code> has no setter; one marked
+ * <code>+private</code> has no accessors.</li>
+ * <li>A member initialized by a string with <code>${...}</code> in it
+ * gets a {@link string_template}, which compiles to one concatenation.</li>
+ * <li>A member with no type, such as <code>job queue: final</code>, is of
+ * the class its name names.</li>
+ * <li>A method may not share its name and arity with a generated one,
+ * such as a member's getter.</li>
+ * <li>Every class a signature names must be imported, in
+ * <code>java.lang</code>, or declared in the class's package, as
+ * {@link jvm_types} resolves it.</li>
+ * <li>A ctor parameter that sets a member must be assignable to it, as
+ * {@link java_type#is_assignable} judges.</li>
+ * <li>Methods without a body (those of descriptors) are abstract, which
+ * makes the class abstract. Verse method bodies aren't translated yet;
+ * their methods throw {@link UnsupportedOperationException}, and the class
+ * gets a warning that names them.</li>
+ * <li>An <code>override</code> of <code>to string</code>,
+ * <code>hash code</code> or <code>equals</code> becomes the Java method
+ * of Object it overrides, with that method's return type if none is
+ * given. In a class with no <code>implements:</code>, any other override
+ * has nothing to override.</li>
+ * </ul>
+ *
+ * <p><code>semantics: singleton</code> adds a <code>get_instance()</code>
+ * backed by an initialization-on-demand holder: the JVM runs the holder's
+ * initializer once, on first use, and every later call is a plain static
+ * load with no lock. A <code>phoenix</code> can't use a holder, whose failed
+ * initializer can't be retried; it makes its first instance under the
+ * class's lock, and adds a <code>rebirth(dead)</code> that replaces a failed
+ * instance with a compare-and-set. A class
+ * that can't be made with <code>new X()</code> -- it is abstract, or its
+ * ctor takes arguments -- gets a <code>factory</code> to install first.</p>
+ *
+ * <p>A class with accessible members gets a static
+ * <code>get_properties()</code>: a {@link verse.util.property} per member
+ * that calls its accessors directly, with the member's doc and qualifiers,
+ * so binding code needs no reflection. The table is built on first use,
+ * in a holder like a singleton's.</p>
+ */
+public class class_plan {
+
+    /** How a member is stored, checked, and reached. */
+    public static class field_plan {
+        public member_decl m;
+
+        /** Java identifier. */
+        public String name;
+
+        /** Type of the value, as {@link java_types#of} translates it. */
+        public java_type type;
+
+        public boolean is_final;
+        public boolean weak;
+        public boolean writable;
+        public boolean accessible;
+
+        /** Checks of a value stored in the member. */
+        public List<check> checks;
+
+        /** The initializer, if it is an interpolated string; else null. */
+        public string_template template;
+    }
+
+    public static class param_plan {
+        /** Java identifier. */
+        public String name;
+        public java_type type;
+        public List<check> checks;
+
+        /** The member a ctor parameter sets, or null. */
+        public field_plan sets;
+    }
+
+    public static class ctor_plan {
+        public doc_ref doc;
+        public List<param_plan> params = new ArrayList<param_plan>();
+    }
+
+    public static class method_plan {
+        public method_decl m;
+
+        /** Java identifier. */
+        public String name;
+
+        /** Return type, void if none. */
+        public java_type return_type;
+
+        public List<param_plan> params = new ArrayList<param_plan>();
+        public List<java_type> thrown = new ArrayList<java_type>();
+        public boolean is_abstract;
+        public boolean is_private;
+    }
+
+    public final String pkg;
+    public final List<import_decl> imports;
+    public final class_decl c;
+    public final String path;
+    public final List<field_plan> fields = new ArrayList<field_plan>();
+    public final List<ctor_plan> ctors = new ArrayList<ctor_plan>();
+    public final List<method_plan> methods = new ArrayList<method_plan>();
+    public final List<java_type> interfaces = new ArrayList<java_type>();
+    public boolean is_abstract;
+    public boolean singleton;
+    public boolean phoenix;
+    public boolean needs_factory;
+
+    /** The members get_properties() lists, in order; empty for none. */
+    public final List<field_plan> properties = new ArrayList<field_plan>();
+
+    /** "public", or for singletons "private" or "protected". */
+    public String ctor_access = "public";
+
+    /**
+     * True if the ctors are Java's implicit one; {@link #ctors} then holds
+     * it anyway, with no parameters.
+     */
+    public boolean implicit_ctor;
+
+    /** Object's overridable methods, by verse name: Java name, return type, and parameter count. */
+    private static final Map<String, Object[]> OBJECT_METHODS = new HashMap<String, Object[]>();
+
+    static {
+        OBJECT_METHODS.put("to_string", new Object[] {"toString", java_types.of("str"), 0});
+        OBJECT_METHODS.put("hash_code", new Object[] {"hashCode", java_types.of("int"), 0});
+        OBJECT_METHODS.put("equals", new Object[] {"equals", java_types.of("bool"), 1});
+    }
+
+    private final List<diagnostic> diagnostics;
+    private final jvm_types.class_scope scope;
+    private jvm_types types;
+    private final Map<String, field_plan> by_name = new LinkedHashMap<String, field_plan>();
+    private final Set<String> reported = new HashSet<String>();
+
+    private class_plan(String pkg, List<import_decl> imports, class_decl c, String path,
+            List<diagnostic> diagnostics, jvm_types.class_scope scope) {
+        this.pkg = pkg;
+        this.imports = imports;
+        this.c = c;
+        this.path = path;
+        this.diagnostics = diagnostics;
+        this.scope = scope;
+    }
+
+    /**
+     * @param imports     The import: block of the file c was declared in.
+     * @param path        The file c was declared in, for diagnostics.
+     * @param diagnostics Receives problems.
+     * @param scope       The classes of the tree and its classpath, which
+     *                    the types c names must be among.
+     */
+    public static class_plan of(String pkg, List<import_decl> imports, class_decl c, String path,
+            List<diagnostic> diagnostics, jvm_types.class_scope scope) {
+        class_plan p = new class_plan(pkg, imports, c, path, diagnostics, scope);
+        p.plan();
+        p.check_types();
+        return p;
+    }
+
+    /**
+     * Plan a class on its own, as if it were the only class of its package.
+     */
+    public static class_plan of(String pkg, List<import_decl> imports, class_decl c, String path,
+            List<diagnostic> diagnostics) {
+        return of(pkg, imports, c, path, diagnostics, jvm_types.only(pkg, Collections.singleton(c.name)));
+    }
+
+    /**
+     * @return How the class's types are spelled in class files, shared by
+     * everything that emits it.
+     */
+    public jvm_types get_types() {
+        if (types == null) {
+            types = new jvm_types(pkg, imports, scope);
+        }
+        return types;
+    }
+
+    private void problem(int offset, String message) {
+        diagnostics.add(new diagnostic(path, offset, message));
+    }
+
+    private void warn(int offset, String message) {
+        diagnostics.add(new diagnostic(path, offset, message, true));
+    }
+
+    private List<check> lower(List<String> qualifiers, java_type type, String what, int offset) {
+        List<String> problems = new ArrayList<String>();
+        List<check> checks = constraint_lowering.lower(qualifiers, type, what, problems);
+        // A member's qualifiers are checked in its setter and its ctors; say what's wrong once.
+        for (String p: problems) {
+            if (reported.add(offset + what + p)) {
+                problem(offset, what + ": " + p);
+            }
+        }
+        return checks;
+    }
+
+    private void plan() {
+        for (member_decl m: c.members) {
+            field_plan f = new field_plan();
+            f.m = m;
+            f.name = java_types.identifier(m.name);
+            f.type = java_types.of(m.type != null ? m.type : m.name);
+            f.is_final = m.modifiers.contains("final");
+            f.weak = m.modifiers.contains("weakref");
+            f.writable = !f.is_final && !m.flags.contains("-w");
+            f.accessible = !m.modifiers.contains("+private");
+            if (f.weak && f.type.is_primitive()) {
+                problem(m.offset, String.format("%s: weakref needs a reference type, not %s", m.name, f.type));
+                f.weak = false;
+            }
+            f.checks = lower(m.modifiers, f.type, m.name, m.offset);
+            if (m.initializer != null) {
+                plan_template(f);
+            }
+            fields.add(f);
+            by_name.put(m.name, f);
+        }
+        for (field_plan f: fields) {
+            if (f.accessible) {
+                properties.add(f);
+            }
+        }
+        field_plan clash = by_name.get("properties");
+        if (clash != null && clash.accessible) {
+            problem(clash.m.offset, "properties: get_properties() is generated; name the member something else");
+            properties.clear();
+        }
+        for (String i: c.interfaces) {
+            interfaces.add(java_types.of(i));
+        }
+        is_abstract = c.semantics.contains("abstract");
+        List<method_decl> declared_ctors = new ArrayList<method_decl>();
+        StringBuilder untranslated = new StringBuilder();
+        for (method_decl m: c.methods) {
+            if (m.name.equals("ctor") || m.name.startsWith("ctor.")) {
+                declared_ctors.add(m);
+            } else {
+                methods.add(plan_method(m));
+                is_abstract |= m.body_start == -1;
+                if (m.body_start != -1) {
+                    untranslated.append(untranslated.length() == 0 ? "" : ", ").append(m.name);
+                }
+            }
+        }
+        if (untranslated.length() > 0) {
+            warn(c.offset, String.format("%s: verse method bodies aren't translated yet; %s throw%s "
+                    + "UnsupportedOperationException", c.name, untranslated,
+                    untranslated.indexOf(",") == -1 ? "s" : ""));
+        }
+        singleton = c.semantics.contains("singleton");
+        phoenix = c.semantics.contains("phoenix");
+        if (phoenix && !singleton) {
+            problem(c.offset, String.format("%s: phoenix needs singleton", c.name));
+        }
+        needs_factory = is_abstract || !has_no_arg_ctor(declared_ctors);
+        if (singleton) {
+            // Only the factory, or subclasses, may make more.
+            ctor_access = needs_factory ? "protected" : "private";
+        }
+        if (declared_ctors.isEmpty()) {
+            plan_default_ctor();
+        }
+        for (method_decl m: declared_ctors) {
+            plan_ctor(m);
+        }
+        check_clashes();
+    }
+
+    /**
+     * A method may not take the name and number of parameters of one the
+     * class generates for it: javac would reject the source, and a class
+     * file would hold two methods only their return types tell apart.
+     */
+    private void check_clashes() {
+        Map<String, String> generated = new HashMap<String, String>();
+        for (field_plan f: fields) {
+            if (f.accessible) {
+                generated.put("get_" + f.m.name + "/0", "member " + f.m.name);
+                if (f.writable) {
+                    generated.put("set_" + f.m.name + "/1", "member " + f.m.name);
+                }
+            }
+        }
+        if (singleton) {
+            generated.put("get_instance/0", "singleton");
+            generated.put("create/0", "singleton");
+            if (phoenix) {
+                generated.put("create_first/0", "phoenix");
+                generated.put("rebirth/1", "phoenix");
+            }
+            if (needs_factory) {
+                generated.put("set_factory/1", "singleton");
+            }
+        }
+        if (!properties.isEmpty()) {
+            generated.put("get_properties/0", "the property table");
+        }
+        for (method_plan m: methods) {
+            String by = generated.get(m.name + "/" + m.params.size());
+            if (by != null) {
+                problem(m.m.offset, String.format("%s: %s() is generated for %s; name the method something else",
+                        m.m.name, m.name, by));
+            }
+        }
+    }
+
+    /**
+     * Every class the generated class's signatures name must resolve, as
+     * {@link jvm_types} resolves it; otherwise it would refer to a class
+     * that doesn't exist, and fail when loaded rather than now.
+     */
+    private void check_types() {
+        for (field_plan f: fields) {
+            check_type(f.type, f.m.name, f.m.offset);
+        }
+        for (java_type i: interfaces) {
+            check_type(i, c.name, c.offset);
+        }
+        for (method_plan m: methods) {
+            check_type(m.return_type, m.m.name, m.m.offset);
+            for (param_plan a: m.params) {
+                check_type(a.type, m.m.name, m.m.offset);
+            }
+            for (java_type t: m.thrown) {
+                check_type(t, m.m.name, m.m.offset);
+            }
+        }
+    }
+
+    private void check_type(java_type t, String what, int offset) {
+        String name = get_types().find_unknown(t);
+        if (name == null || !reported.add(offset + what + name)) {
+            return;
+        }
+        if (name.indexOf('.') != -1) {
+            problem(offset, String.format("%s: there is no class %s", what, name));
+        } else {
+            problem(offset, String.format("%s: can't find class %s; it isn't imported, in java.lang, or in package %s",
+                    what, name, pkg));
+        }
+    }
+
+    private void plan_template(field_plan f) {
+        try {
+            f.template = string_template.parse(f.m.initializer);
+        } catch (IllegalArgumentException e) {
+            problem(f.m.offset, f.m.name + ": " + e.getMessage());
+        }
+        if (f.template != null && f.type.is_primitive()) {
+            problem(f.m.offset, String.format("%s: a string can't initialize a member of type %s", f.m.name, f.type));
+            f.template = null;
+        }
+    }
+
+    /**
+     * A class without a ctor gets one that sets its final members, or
+     * Java's implicit one if it has none to set.
+     */
+    private void plan_default_ctor() {
+        ctor_plan ctor = new ctor_plan();
+        for (field_plan f: fields) {
+            if (f.is_final && f.m.initializer == null) {
+                param_plan p = new param_plan();
+                p.name = f.name;
+                p.type = f.type;
+                p.checks = f.checks;
+                p.sets = f;
+                ctor.params.add(p);
+            }
+        }
+        implicit_ctor = ctor.params.isEmpty() && ctor_access.equals("public");
+        ctors.add(ctor);
+    }
+
+    private void plan_ctor(method_decl m) {
+        ctor_plan ctor = new ctor_plan();
+        ctor.doc = m.doc;
+        Set<String> assigned = new HashSet<String>();
+        for (param_decl d: m.params) {
+            field_plan f = by_name.get(d.name);
+            param_plan p = new param_plan();
+            p.name = java_types.identifier(d.name);
+            p.type = d.type != null ? java_types.of(d.type) : f != null ? f.type : java_type.OBJECT;
+            p.checks = new ArrayList<check>(lower(d.modifiers, p.type, d.name, m.offset));
+            check_type(p.type, m.name, m.offset);
+            if (f != null) {
+                if (!java_type.is_assignable(p.type, f.type)) {
+                    problem(m.offset, String.format("%s: a parameter of type %s can't set member %s of type %s",
+                            m.name, p.type, f.m.name, f.type));
+                }
+                // Whatever the parameter's type, what it stores must meet the
+                // qualifiers of the member it sets.
+                p.checks.addAll(lower(f.m.modifiers, f.type, d.name, f.m.offset));
+                p.sets = f;
+                assigned.add(d.name);
+            }
+            ctor.params.add(p);
+        }
+        ctors.add(ctor);
+        for (field_plan f: fields) {
+            if (f.is_final && f.m.initializer == null && !assigned.contains(f.m.name)) {
+                problem(m.offset, String.format("%s doesn't set final member %s", m.name, f.m.name));
+            }
+        }
+    }
+
+    private method_plan plan_method(method_decl m) {
+        method_plan p = new method_plan();
+        p.m = m;
+        p.name = java_types.identifier(m.name);
+        p.return_type = m.return_type != null ? java_types.of(m.return_type) : java_type.VOID;
+        for (param_decl d: m.params) {
+            param_plan pp = new param_plan();
+            pp.name = java_types.identifier(d.name);
+            pp.type = d.type != null ? java_types.of(d.type) : java_type.OBJECT;
+            pp.checks = Collections.emptyList();
+            p.params.add(pp);
+        }
+        for (String t: m.thrown) {
+            p.thrown.add(java_types.of(t));
+        }
+        p.is_abstract = m.body_start == -1;
+        // An abstract method must be overridable.
+        p.is_private = !p.is_abstract && m.modifiers.contains("+private");
+        if (m.modifiers.contains("override")) {
+            plan_override(p);
+        }
+        return p;
+    }
+
+    private void plan_override(method_plan p) {
+        method_decl m = p.m;
+        Object[] o = OBJECT_METHODS.get(m.name);
+        if (o == null || (Integer) o[2] != p.params.size()) {
+            if (interfaces.isEmpty()) {
+                problem(m.offset, String.format("%s: marked override, but %s has no supertype with a method "
+                        + "to override", m.name, c.name));
+            }
+            return;
+        }
+        java_type returns = (java_type) o[1];
+        if (m.return_type == null) {
+            p.return_type = returns;
+        } else if (p.return_type != returns) {
+            problem(m.offset, String.format("%s: overrides %s(), which returns %s, not %s", m.name, o[0], returns,
+                    p.return_type));
+        }
+        for (param_plan a: p.params) {
+            if (a.type != java_type.OBJECT) {
+                problem(m.offset, String.format("%s: overrides %s(Object), so %s must be obj", m.name, o[0],
+                        a.name));
+            }
+        }
+        p.name = (String) o[0];
+    }
+
+    /**
+     * @return Whether <code>new X()</code> works: a declared ctor takes no
+     * parameters, or none is declared and there are no final members
+     * for the default one to take.
+     */
+    private boolean has_no_arg_ctor(List<method_decl> declared_ctors) {
+        for (method_decl m: declared_ctors) {
+            if (m.params.isEmpty()) {
+                return true;
+            }
+        }
+        if (!declared_ctors.isEmpty()) {
+            return false;
+        }
+        for (field_plan f: fields) {
+            if (f.is_final && f.m.initializer == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,486 @@
+package verse.compiler.gen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import verse.compiler.diagnostic;
+import verse.compiler.parse.class_decl;
+import verse.compiler.parse.import_decl;
+import verse.compiler.parse.switch_decl;
+
+/**
+ * Generates a dedicated parser for a cmdline descriptor, so a program can
+ * read its command line without building {@link verse.cli.menu} and
+ * {@link verse.cli.statement} objects and interpreting them on every start.
+ * Everything those would work out at startup is worked out here instead:
+ *
+ * <ul>
+ * <li>Names and aliases are found with a {@link perfect_hash}, so a switch
+ * costs one hash, one table load, and one equals.</li>
+ * <li>Positional values go straight to the option at their position,
+ * through a table indexed by position.</li>
+ * <li>Validators become methods: <code>`code`</code> is compiled as a
+ * boolean expression of <code>it</code>, the value, in the scope of the
+ * cmdline object; <code>/regex/</code> is a precompiled pattern that must
+ * be found in the value.</li>
+ * <li><code>values:</code> lists are a string switch; help text is a
+ * constant.</li>
+ * </ul>
+ *
+ * <p>The generated class has a <code>parse(String...)</code> that returns an
+ * instance, or throws {@link verse.cli.invalid_cmd_exception} with the
+ * messages {@link verse.cli.statement} uses. Flags are get_ methods
+ * returning boolean; options return their value, or a list if they are
+ * repeatable.</p>
+ */
+public class cmdline_emitter {
+
+    /** Switches are tracked in the bits of a long. */
+    public static final int MAX_SWITCHES = 64;
+
+    private final String pkg;
+    private final List<import_decl> imports;
+    private final class_decl c;
+    private final String path;
+    private final List<diagnostic> diagnostics;
+    private final List<switch_decl> switches;
+    private final java_writer out = new java_writer();
+    private int flag_count;
+
+    private cmdline_emitter(String pkg, List<import_decl> imports, class_decl c, String path,
+            List<diagnostic> diagnostics) {
+        this.pkg = pkg;
+        this.imports = imports;
+        this.c = c;
+        this.path = path;
+        this.diagnostics = diagnostics;
+        this.switches = c.switches;
+    }
+
+    /**
+     * @param c A class with {@link class_decl#switches}.
+     * @return The source of pkg.c, a parser for the switches.
+     */
+    public static String emit(String pkg, List<import_decl> imports, class_decl c, String path,
+            List<diagnostic> diagnostics) {
+        cmdline_emitter e = new cmdline_emitter(pkg, imports, c, path, diagnostics);
+        e.emit_class();
+        return e.out.toString();
+    }
+
+    private void problem(int offset, String message) {
+        diagnostics.add(new diagnostic(path, offset, message));
+    }
+
+    /**
+     * @return What a switch is called on the command line, without dashes.
+     */
+    static String long_name(switch_decl s) {
+        return s.name.replace('_', '-');
+    }
+
+    static String spell(String key) {
+        return (key.length() == 1 ? "-" : "--") + key;
+    }
+
+    private static String field(switch_decl s) {
+        return java_types.identifier(s.name);
+    }
+
+    private void emit_class() {
+        if (switches.size() > MAX_SWITCHES) {
+            problem(c.offset, String.format("a cmdline can have at most %d flags and options, not %d",
+                    MAX_SWITCHES, switches.size()));
+            return;
+        }
+        List<String> keys = new ArrayList<String>();
+        List<Integer> ids = new ArrayList<Integer>();
+        Map<String, switch_decl> owners = new HashMap<String, switch_decl>();
+        Map<Integer, switch_decl> by_position = new HashMap<Integer, switch_decl>();
+        for (int id = 0; id < switches.size(); ++id) {
+            switch_decl s = switches.get(id);
+            if (s.is_flag) {
+                ++flag_count;
+            }
+            List<String> names = new ArrayList<String>();
+            names.add(long_name(s));
+            names.addAll(s.aliases);
+            for (String key: names) {
+                switch_decl other = owners.put(key, s);
+                if (other == null) {
+                    keys.add(key);
+                    ids.add(id);
+                } else if (other != s) {
+                    problem(s.offset, String.format("%s is already a name of %s", spell(key), long_name(other)));
+                }
+            }
+            if (s.position > 0) {
+                switch_decl other = by_position.put(s.position, s);
+                if (other != null) {
+                    problem(s.offset, String.format("%s and %s both have position %d", long_name(other),
+                            long_name(s), s.position));
+                }
+            }
+            if (s.default_value != null && s.repeatable) {
+                problem(s.offset, String.format("%s: a repeatable option can't have a default", long_name(s)));
+            }
+            if (s.default_value != null && !s.values.isEmpty() && !s.values.contains(s.default_value)) {
+                problem(s.offset, String.format("%s: default %s is not one of its values", long_name(s),
+                        s.default_value));
+            }
+        }
+        int[] positions = new int[by_position.size()];
+        for (int p = 1; p <= positions.length; ++p) {
+            switch_decl s = by_position.get(p);
+            if (s == null) {
+                problem(c.offset, String.format("no option has position %d", p));
+                return;
+            }
+            positions[p - 1] = switches.indexOf(s);
+        }
+        perfect_hash hash = perfect_hash.find(keys);
+
+        out.line("package %s;", pkg);
+        out.blank();
+        for (import_decl d: imports) {
+            for (String name: d.names) {
+                out.line("import %s.%s;", d.pkg, name);
+            }
+        }
+        out.line("import java.util.ArrayList;");
+        out.line("import java.util.Collections;");
+        out.line("import java.util.List;");
+        out.line("import java.util.regex.Pattern;");
+        out.blank();
+        out.line("import verse.cli.invalid_cmd_exception;");
+        out.blank();
+        out.doc(c.doc);
+        out.line("public final class %s {", c.name);
+        out.indent();
+        out.blank();
+        out.line("/** Usage, as generated from the descriptor. */");
+        out.line("public static final String HELP = %s;", java_writer.quote(help()));
+        out.blank();
+        out.line("// Switch ids by the perfect hash of each name and alias; flags come first.");
+        out.line("private static final int FLAGS = %d;", flag_count);
+        out.line("private static final int MASK = %d;", hash.mask);
+        StringBuilder key_table = new StringBuilder();
+        StringBuilder id_table = new StringBuilder();
+        for (int i = 0; i < hash.slots.length; ++i) {
+            int k = hash.slots[i];
+            key_table.append(i == 0 ? "" : ", ").append(k == -1 ? "null" : java_writer.quote(keys.get(k)));
+            id_table.append(i == 0 ? "" : ", ").append(k == -1 ? -1 : ids.get(k));
+        }
+        out.line("private static final String[] KEYS = {%s};", key_table);
+        out.line("private static final int[] IDS = {%s};", id_table);
+        out.blank();
+        StringBuilder position_table = new StringBuilder();
+        for (int i = 0; i < positions.length; ++i) {
+            position_table.append(i == 0 ? "" : ", ").append(positions[i]);
+        }
+        out.line("/** Ids of the options that values without a switch fill, in order. */");
+        out.line("private static final int[] POSITIONS = {%s};", position_table);
+        for (switch_decl s: switches) {
+            if (s.validator != null && s.validator.startsWith("/")) {
+                String regex = s.validator.substring(1, s.validator.length() - 1);
+                out.line("private static final Pattern %s_PATTERN = Pattern.compile(%s);",
+                        s.name.toUpperCase(), java_writer.quote(regex));
+            }
+        }
+
+        out.blank();
+        for (switch_decl s: switches) {
+            if (s.is_flag) {
+                out.line("private boolean %s;", field(s));
+            } else if (s.repeatable) {
+                out.line("private final List<String> %s = new ArrayList<String>();", field(s));
+            } else {
+                out.line("private String %s%s;", field(s),
+                        s.default_value == null ? "" : " = " + java_writer.quote(s.default_value));
+            }
+        }
+        out.line("private long given;");
+        out.blank();
+        out.line("private %s() {", c.name);
+        out.line("}");
+        emit_getters();
+        emit_parse();
+        emit_set_flag();
+        emit_set_option();
+        emit_validators();
+        out.blank();
+        hash.emit_hash(out);
+        emit_to_string();
+        out.dedent();
+        out.line("}");
+    }
+
+    private String help() {
+        StringBuilder sb = new StringBuilder();
+        if (c.doc != null) {
+            sb.append(c.doc.get_text()).append("\n\n");
+        }
+        for (switch_decl s: switches) {
+            if (s.hidden) {
+                continue;
+            }
+            StringBuilder line = new StringBuilder("  ");
+            for (String a: s.aliases) {
+                line.append(spell(a)).append(", ");
+            }
+            line.append(spell(long_name(s)));
+            if (!s.is_flag) {
+                String placeholder = s.placeholder;
+                if (placeholder == null) {
+                    placeholder = s.values.isEmpty() ? "value" : join(s.values, "|");
+                }
+                line.append(" <").append(placeholder).append('>');
+            }
+            List<String> notes = new ArrayList<String>();
+            if (s.required) {
+                notes.add("required");
+            }
+            if (s.position > 0) {
+                notes.add("position " + s.position);
+            }
+            if (s.repeatable) {
+                notes.add("repeatable");
+            }
+            if (s.placeholder != null && !s.values.isEmpty()) {
+                notes.add("one of " + join(s.values, ", "));
+            }
+            if (s.default_value != null) {
+                notes.add("default " + s.default_value);
+            }
+            if (s.doc != null) {
+                line.append("\n      ").append(s.doc.get_text());
+            }
+            if (!notes.isEmpty()) {
+                line.append(s.doc != null ? " (" : "\n      (").append(join(notes, "; ")).append(')');
+            }
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String join(List<String> items, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (String item: items) {
+            sb.append(sb.length() == 0 ? "" : separator).append(item);
+        }
+        return sb.toString();
+    }
+
+    private void emit_getters() {
+        for (switch_decl s: switches) {
+            out.blank();
+            out.doc(s.doc);
+            if (s.is_flag) {
+                out.line("public boolean get_%s() {", s.name);
+                out.indent();
+                out.line("return %s;", field(s));
+            } else if (s.repeatable) {
+                out.line("public List<String> get_%s() {", s.name);
+                out.indent();
+                out.line("return Collections.unmodifiableList(%s);", field(s));
+            } else {
+                out.line("public String get_%s() {", s.name);
+                out.indent();
+                out.line("return %s;", field(s));
+            }
+            out.dedent();
+            out.line("}");
+        }
+    }
+
+    private void emit_parse() {
+        out.blank();
+        out.line("public static %s parse(String... args) throws invalid_cmd_exception {", c.name);
+        out.indent();
+        out.line("%s c = new %s();", c.name, c.name);
+        out.line("int position = 0;");
+        out.line("boolean only_positional = false;");
+        out.line("for (int i = 0; i < args.length; ++i) {");
+        out.indent();
+        out.line("String arg = args[i];");
+        out.line("if (!only_positional && arg.equals(\"--\")) {");
+        out.indent().line("only_positional = true;").line("continue;").dedent();
+        out.line("}");
+        out.line("if (only_positional || arg.length() < 2 || arg.charAt(0) != '-') {");
+        out.indent();
+        out.line("if (position == POSITIONS.length) {");
+        out.indent().line("throw new invalid_cmd_exception(String.format(\"Unexpected argument %s.\", arg));")
+                .dedent();
+        out.line("}");
+        out.line("c.set_option(POSITIONS[position++], arg, arg);");
+        out.line("continue;");
+        out.dedent();
+        out.line("}");
+        out.line("String n = arg.substring(arg.startsWith(\"--\") ? 2 : 1);");
+        out.line("String value = null;");
+        out.line("int eq = n.indexOf('=');");
+        out.line("if (eq >= 0) {");
+        out.indent().line("value = n.substring(eq + 1);").line("n = n.substring(0, eq);")
+                .line("arg = arg.substring(0, arg.length() - value.length() - 1);").dedent();
+        out.line("}");
+        out.line("int slot = hash(n) & MASK;");
+        out.line("if (!n.equals(KEYS[slot])) {");
+        out.indent().line("throw new invalid_cmd_exception(String.format(\"Unknown flag or option %s.\", arg));")
+                .dedent();
+        out.line("}");
+        out.line("int id = IDS[slot];");
+        out.line("if (id < FLAGS) {");
+        out.indent();
+        out.line("if (value != null) {");
+        out.indent().line("throw new invalid_cmd_exception(String.format(\"Flag %s takes no value.\", arg));")
+                .dedent();
+        out.line("}");
+        out.line("c.set_flag(id);");
+        out.dedent();
+        out.line("} else {");
+        out.indent();
+        out.line("if (value == null) {");
+        out.indent();
+        out.line("if (++i == args.length) {");
+        out.indent().line("throw new invalid_cmd_exception(String.format(\"Option %s needs a value.\", arg));")
+                .dedent();
+        out.line("}");
+        out.line("value = args[i];");
+        out.dedent();
+        out.line("}");
+        out.line("c.set_option(id, value, arg);");
+        out.dedent();
+        out.line("}");
+        out.dedent();
+        out.line("}");
+        for (int id = 0; id < switches.size(); ++id) {
+            switch_decl s = switches.get(id);
+            if (s.required) {
+                out.line("if ((c.given & %s) == 0) {", bit(id));
+                out.indent().line("throw new invalid_cmd_exception(%s);",
+                        java_writer.quote(String.format("Option --%s is required.", long_name(s)))).dedent();
+                out.line("}");
+            }
+        }
+        out.line("return c;");
+        out.dedent();
+        out.line("}");
+    }
+
+    private static String bit(int id) {
+        return "(1L << " + id + ")";
+    }
+
+    private void emit_set_flag() {
+        out.blank();
+        out.line("private void set_flag(int id) {");
+        out.indent();
+        if (flag_count > 0) {
+            out.line("switch (id) {");
+            for (int id = 0; id < flag_count; ++id) {
+                out.line("case %d:", id);
+                out.indent().line("%s = true;", field(switches.get(id))).line("break;").dedent();
+            }
+            out.line("}");
+        }
+        out.line("given |= 1L << id;");
+        out.dedent();
+        out.line("}");
+    }
+
+    private void emit_set_option() {
+        out.blank();
+        out.line("private void set_option(int id, String value, String arg) throws invalid_cmd_exception {");
+        out.indent();
+        if (flag_count < switches.size()) {
+            out.line("switch (id) {");
+            for (int id = flag_count; id < switches.size(); ++id) {
+                switch_decl s = switches.get(id);
+                out.line("case %d:", id);
+                out.indent();
+                if (!s.repeatable) {
+                    out.line("if ((given & %s) != 0) {", bit(id));
+                    out.indent().line("throw new invalid_cmd_exception(String.format("
+                            + "\"Option %s was given more than once.\", arg));").dedent();
+                    out.line("}");
+                }
+                if (!s.values.isEmpty()) {
+                    out.line("switch (value) {");
+                    for (String v: s.values) {
+                        out.line("case %s:", java_writer.quote(v));
+                    }
+                    out.indent().line("break;").dedent();
+                    out.line("default:");
+                    out.indent().line("throw new invalid_cmd_exception(String.format(%s, arg, value));",
+                            java_writer.quote("Option %s must be one of " + join(s.values, ", ") + "; not %s."))
+                            .dedent();
+                    out.line("}");
+                }
+                if (s.validator != null) {
+                    out.line("if (!validate_%s(value)) {", s.name);
+                    out.indent().line("throw new invalid_cmd_exception(String.format("
+                            + "\"Option %s: %s is not valid.\", arg, value));").dedent();
+                    out.line("}");
+                }
+                out.line(s.repeatable ? "%s.add(value);" : "%s = value;", field(s));
+                out.line("break;");
+                out.dedent();
+            }
+            out.line("}");
+        }
+        out.line("given |= 1L << id;");
+        out.dedent();
+        out.line("}");
+    }
+
+    private void emit_validators() {
+        for (switch_decl s: switches) {
+            if (s.validator == null) {
+                continue;
+            }
+            out.blank();
+            out.line("private boolean validate_%s(String it) {", s.name);
+            out.indent();
+            if (s.validator.startsWith("/")) {
+                out.line("return %s_PATTERN.matcher(it).find();", s.name.toUpperCase());
+            } else {
+                out.line("return %s;", s.validator.substring(1, s.validator.length() - 1).trim());
+            }
+            out.dedent();
+            out.line("}");
+        }
+    }
+
+    /**
+     * The switches that were given, as they could be given again; masked
+     * values are shown as asterisks.
+     */
+    private void emit_to_string() {
+        out.blank();
+        out.line("@Override");
+        out.line("public String toString() {");
+        out.indent();
+        out.line("StringBuilder sb = new StringBuilder();");
+        for (int id = 0; id < switches.size(); ++id) {
+            switch_decl s = switches.get(id);
+            String spelled = java_writer.quote(" --" + long_name(s) + (s.is_flag ? "" : "="));
+            if (s.is_flag) {
+                out.line("if (%s) {", field(s));
+                out.indent().line("sb.append(%s);", spelled).dedent();
+            } else if (s.repeatable) {
+                out.line("for (String v: %s) {", field(s));
+                out.indent().line("sb.append(%s).append(%s);", spelled, s.masked ? "\"****\"" : "v").dedent();
+            } else {
+                out.line("if ((given & %s) != 0) {", bit(id));
+                out.indent().line("sb.append(%s).append(%s);", spelled, s.masked ? "\"****\"" : field(s))
+                        .dedent();
+            }
+            out.line("}");
+        }
+        out.line("return sb.length() == 0 ? \"\" : sb.substring(1);");
+        out.dedent();
+        out.line("}");
+    }
+}
@@ -0,0 +1,385 @@
+package verse.compiler.gen;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Assembles the bytecode of one method for a {@link class_file}, tracking
+ * the operand stack so the Code attribute can declare its depth.
+ *
+ * <p>Branches may jump forward to a {@link label} that is placed later;
+ * their offsets are patched when it is. Offsets are 16 bits, which is
+ * plenty for generated accessors and constructors.</p>
+ */
+public class code_builder {
+
+    public static final int NOP = 0x00;
+    public static final int ACONST_NULL = 0x01;
+    public static final int ICONST_0 = 0x03;
+    public static final int ICONST_1 = 0x04;
+    public static final int LCONST_0 = 0x09;
+    public static final int FCONST_0 = 0x0b;
+    public static final int DCONST_0 = 0x0e;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC = 0x12;
+    public static final int LDC_W = 0x13;
+    public static final int LDC2_W = 0x14;
+    public static final int ILOAD = 0x15;
+    public static final int LLOAD = 0x16;
+    public static final int FLOAD = 0x17;
+    public static final int DLOAD = 0x18;
+    public static final int ALOAD = 0x19;
+    public static final int ISTORE = 0x36;
+    public static final int ASTORE = 0x3a;
+    public static final int AASTORE = 0x53;
+    public static final int POP = 0x57;
+    public static final int DUP = 0x59;
+    public static final int IXOR = 0x82;
+    public static final int LCMP = 0x94;
+    public static final int FCMPL = 0x95;
+    public static final int DCMPL = 0x97;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IFGE = 0x9c;
+    public static final int IFGT = 0x9d;
+    public static final int IF_ICMPNE = 0xa0;
+    public static final int IF_ACMPEQ = 0xa5;
+    public static final int GOTO = 0xa7;
+    public static final int IRETURN = 0xac;
+    public static final int LRETURN = 0xad;
+    public static final int FRETURN = 0xae;
+    public static final int DRETURN = 0xaf;
+    public static final int ARETURN = 0xb0;
+    public static final int RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2;
+    public static final int PUTSTATIC = 0xb3;
+    public static final int GETFIELD = 0xb4;
+    public static final int PUTFIELD = 0xb5;
+    public static final int INVOKEVIRTUAL = 0xb6;
+    public static final int INVOKESPECIAL = 0xb7;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int INVOKEINTERFACE = 0xb9;
+    public static final int NEW = 0xbb;
+    public static final int ANEWARRAY = 0xbd;
+    public static final int ATHROW = 0xbf;
+    public static final int CHECKCAST = 0xc0;
+    public static final int IFNULL = 0xc6;
+    public static final int IFNONNULL = 0xc7;
+
+    /** A place in the code that branches can jump to. */
+    public static class label {
+        private int position = -1;
+
+        /** Stack depth on arrival; -1 until something jumps here. */
+        private int depth = -1;
+
+        /** Offsets of the branch instructions waiting for the position. */
+        private int[] pending = new int[2];
+        private int pending_count;
+    }
+
+    private final class_file cf;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream(64);
+    private int depth;
+    private int max_stack;
+    private int max_locals;
+
+    /** False after a goto, return, or throw, until a label is placed. */
+    private boolean reachable = true;
+
+    /**
+     * @param locals Slots taken by <code>this</code> and the parameters.
+     */
+    public code_builder(class_file cf, int locals) {
+        this.cf = cf;
+        this.max_locals = locals;
+    }
+
+    public int get_max_stack() {
+        return max_stack;
+    }
+
+    public int get_max_locals() {
+        return max_locals;
+    }
+
+    public byte[] to_bytes() {
+        return code.toByteArray();
+    }
+
+    private void stack(int delta) {
+        depth += delta;
+        if (depth < 0) {
+            throw new IllegalStateException(cf.name + ": operand stack underflow");
+        }
+        max_stack = Math.max(max_stack, depth);
+    }
+
+    private void u1(int b) {
+        code.write(b);
+    }
+
+    private void u2(int v) {
+        code.write(v >>> 8);
+        code.write(v);
+    }
+
+    /**
+     * @return Slot change of pushing the result of a descriptor's method
+     * less popping its arguments.
+     */
+    private static int call_delta(String descriptor) {
+        int delta = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            delta -= jvm_types.size(c);
+            while (descriptor.charAt(i) == '[') {
+                ++i;
+            }
+            if (descriptor.charAt(i) == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            ++i;
+        }
+        return delta + jvm_types.size(descriptor.charAt(i + 1));
+    }
+
+    /**
+     * An instruction with no operands.
+     */
+    public code_builder op(int opcode) {
+        u1(opcode);
+        switch (opcode) {
+        case ACONST_NULL:
+        case ICONST_0:
+        case ICONST_1:
+        case FCONST_0:
+        case DUP:
+            stack(1);
+            break;
+        case LCONST_0:
+        case DCONST_0:
+            stack(2);
+            break;
+        case POP:
+        case IXOR:
+        case FCMPL:
+        case IRETURN:
+        case FRETURN:
+        case ARETURN:
+        case ATHROW:
+            stack(-1);
+            break;
+        case AASTORE:
+            stack(-3);
+            break;
+        case LCMP:
+        case DCMPL:
+            stack(-3);
+            break;
+        case LRETURN:
+        case DRETURN:
+            stack(-2);
+            break;
+        case RETURN:
+        case NOP:
+            break;
+        default:
+            throw new IllegalArgumentException("not a simple instruction: " + opcode);
+        }
+        if (opcode >= IRETURN && opcode <= RETURN || opcode == ATHROW) {
+            reachable = false;
+        }
+        return this;
+    }
+
+    /**
+     * Push an int constant in the fewest bytes.
+     */
+    public code_builder push(int value) {
+        if (value >= -1 && value <= 5) {
+            u1(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            u1(BIPUSH);
+            u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            u1(SIPUSH);
+            u2(value);
+        } else {
+            return ldc(cf.integer(value), 1);
+        }
+        stack(1);
+        return this;
+    }
+
+    /**
+     * Push a constant from the pool.
+     *
+     * @param size 2 for longs and doubles, else 1.
+     */
+    public code_builder ldc(int index, int size) {
+        if (size == 2) {
+            u1(LDC2_W);
+            u2(index);
+        } else if (index <= 0xff) {
+            u1(LDC);
+            u1(index);
+        } else {
+            u1(LDC_W);
+            u2(index);
+        }
+        stack(size);
+        return this;
+    }
+
+    public code_builder ldc(String value) {
+        return ldc(cf.string(value), 1);
+    }
+
+    /**
+     * Load a local of the type a descriptor starts with.
+     */
+    public code_builder load(char kind, int slot) {
+        int opcode = kind == 'J' ? LLOAD : kind == 'F' ? FLOAD : kind == 'D' ? DLOAD
+                : kind == 'L' || kind == '[' ? ALOAD : ILOAD;
+        local(opcode, slot);
+        stack(jvm_types.size(kind));
+        return this;
+    }
+
+    public code_builder astore(int slot) {
+        local(ASTORE, slot);
+        stack(-1);
+        return this;
+    }
+
+    private void local(int opcode, int slot) {
+        if (slot > 0xff) {
+            throw new IllegalStateException(cf.name + ": too many locals");
+        }
+        if (slot <= 3) {
+            // iload_0 and friends: 4 short forms per opcode, from 0x1a for
+            // loads and 0x3b for stores.
+            int base = opcode < ISTORE ? 0x1a + 4 * (opcode - ILOAD) : 0x3b + 4 * (opcode - ISTORE);
+            u1(base + slot);
+        } else {
+            u1(opcode);
+            u1(slot);
+        }
+        max_locals = Math.max(max_locals, slot + (opcode == LLOAD || opcode == DLOAD ? 2 : 1));
+    }
+
+    /**
+     * Return a value of the type a descriptor starts with.
+     */
+    public code_builder return_(char kind) {
+        return op(kind == 'V' ? RETURN : kind == 'J' ? LRETURN : kind == 'F' ? FRETURN : kind == 'D' ? DRETURN
+                : kind == 'L' || kind == '[' ? ARETURN : IRETURN);
+    }
+
+    /**
+     * GETFIELD, PUTFIELD, GETSTATIC or PUTSTATIC.
+     */
+    public code_builder field(int opcode, String owner, String name, String descriptor) {
+        u1(opcode);
+        u2(cf.field_ref(owner, name, descriptor));
+        int size = jvm_types.size(descriptor.charAt(0));
+        stack(opcode == GETSTATIC ? size : opcode == PUTSTATIC ? -size : opcode == GETFIELD ? size - 1
+                : -size - 1);
+        return this;
+    }
+
+    /**
+     * INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC or INVOKEINTERFACE.
+     */
+    public code_builder invoke(int opcode, String owner, String name, String descriptor) {
+        u1(opcode);
+        int delta = call_delta(descriptor);
+        if (opcode == INVOKEINTERFACE) {
+            u2(cf.interface_method_ref(owner, name, descriptor));
+            // The count of argument slots, receiver included, then a zero.
+            u1(1 - delta + jvm_types.size(descriptor.charAt(descriptor.indexOf(')') + 1)));
+            u1(0);
+        } else {
+            u2(cf.method_ref(owner, name, descriptor));
+        }
+        stack(opcode == INVOKESTATIC ? delta : delta - 1);
+        return this;
+    }
+
+    /**
+     * NEW, ANEWARRAY or CHECKCAST.
+     */
+    public code_builder type(int opcode, String internal_name) {
+        u1(opcode);
+        u2(cf.class_ref(internal_name));
+        if (opcode == NEW) {
+            stack(1);
+        }
+        return this;
+    }
+
+    /**
+     * A conditional branch, or GOTO.
+     */
+    public code_builder jump(int opcode, label target) {
+        int at = code.size();
+        u1(opcode);
+        stack(opcode == GOTO ? 0 : opcode >= IF_ACMPEQ - 6 && opcode <= IF_ACMPEQ + 1 ? -2 : -1);
+        arrive(target);
+        if (target.position != -1) {
+            u2(target.position - at);
+        } else {
+            if (target.pending_count == target.pending.length) {
+                int[] grown = new int[target.pending.length * 2];
+                System.arraycopy(target.pending, 0, grown, 0, target.pending_count);
+                target.pending = grown;
+            }
+            target.pending[target.pending_count++] = at;
+            u2(0);
+        }
+        if (opcode == GOTO) {
+            reachable = false;
+        }
+        return this;
+    }
+
+    private void arrive(label target) {
+        if (target.depth == -1) {
+            target.depth = depth;
+        } else if (target.depth != depth) {
+            throw new IllegalStateException(cf.name + ": inconsistent stack depth at a label");
+        }
+    }
+
+    /**
+     * Place a label here and patch the branches that jump to it.
+     */
+    public code_builder place(label target) {
+        if (reachable) {
+            arrive(target);
+        } else {
+            depth = target.depth == -1 ? 0 : target.depth;
+        }
+        reachable = true;
+        target.position = code.size();
+        byte[] bytes = null;
+        for (int i = 0; i < target.pending_count; ++i) {
+            int offset = target.position - target.pending[i];
+            if (offset > Short.MAX_VALUE) {
+                throw new IllegalStateException(cf.name + ": method too long for 16-bit branches");
+            }
+            if (bytes == null) {
+                bytes = code.toByteArray();
+            }
+            bytes[target.pending[i] + 1] = (byte) (offset >>> 8);
+            bytes[target.pending[i] + 2] = (byte) offset;
+        }
+        if (bytes != null) {
+            code.reset();
+            code.write(bytes, 0, bytes.length);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,102 @@
+package verse.compiler.gen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lowers the value qualifiers of descriptors -- <code>nonneg</code>,
+ * <code>positive</code>, <code>unsigned</code>, <code>nonnull</code> -- to
+ * checks inlined into generated constructors and setters.
+ *
+ * <p>The runtime equivalents in <code>verse.dbc</code> ({@link verse.dbc.gte}
+ * and friends) are generic over <code>Comparable&lt;T&gt;</code>, so checking
+ * a <code>double</code> through them boxes it on every call. A lowered check
+ * is a primitive comparison; the value is only boxed on the way to
+ * reporting a violation.</p>
+ */
+public class constraint_lowering {
+
+    public enum kind {
+        NONNULL,
+        NONNEG,
+        POSITIVE
+    }
+
+    /** One qualifier, lowered for a value of a given type. */
+    public static class check {
+        public final kind kind;
+
+        /** The value's type, as {@link java_types#of} translates it. */
+        public final java_type type;
+
+        /** The name violations are reported under. */
+        public final String what;
+
+        check(kind kind, java_type type, String what) {
+            this.kind = kind;
+            this.type = type;
+            this.what = what;
+        }
+
+        /**
+         * @return The message a violation reports, with %s for the value.
+         */
+        public String get_message() {
+            return String.format("%s should be %s, not %%s", what,
+                    kind == constraint_lowering.kind.POSITIVE ? "positive" : "nonnegative");
+        }
+    }
+
+    /**
+     * @param problems Receives a message for each qualifier that doesn't fit
+     *                 the type.
+     * @return Checks for the qualifiers that ask for one, in order.
+     */
+    public static List<check> lower(List<String> qualifiers, java_type type, String what, List<String> problems) {
+        List<check> checks = new ArrayList<check>(2);
+        boolean integral = type.is_integral();
+        boolean floating = type.is_floating();
+        for (String q: qualifiers) {
+            if (q.equals("nonnull")) {
+                if (type.is_primitive()) {
+                    problems.add(String.format("nonnull doesn't apply to %s, which is never null", type));
+                } else {
+                    checks.add(new check(kind.NONNULL, type, what));
+                }
+            } else if (q.equals("nonneg") || q.equals("positive") || q.equals("unsigned")) {
+                if (!integral && !floating) {
+                    problems.add(String.format("%s needs a primitive number, not %s", q, type));
+                } else if (q.equals("unsigned") && !integral) {
+                    problems.add(String.format("unsigned needs an integral type, not %s", type));
+                } else {
+                    checks.add(new check(q.equals("positive") ? kind.POSITIVE : kind.NONNEG, type, what));
+                }
+            }
+        }
+        return checks;
+    }
+
+    /**
+     * Append the Java source of a check.
+     *
+     * @param expr Java expression for the value, usually a parameter.
+     */
+    public static void emit_source(check c, String expr, java_writer out) {
+        if (c.kind == kind.NONNULL) {
+            out.line("precondition.checkNotNull(%s, \"%s\");", expr, c.what);
+            return;
+        }
+        boolean strict = c.kind == kind.POSITIVE;
+        String zero = c.type.kind == 'F' ? "0f" : c.type.kind == 'J' ? "0L" : "0";
+        if (c.type.is_integral()) {
+            out.line("if (%s %s %s) {", expr, strict ? "<=" : "<", zero);
+        } else {
+            // Negated rather than inverted, so NaN fails too.
+            out.line("if (!(%s %s %s)) {", expr, strict ? ">" : ">=", zero);
+        }
+        out.indent();
+        out.line("precondition.checkAndExplain(false, %s, %s);", java_writer.quote(c.get_message()), expr);
+        out.dedent();
+        out.line("}");
+    }
+}
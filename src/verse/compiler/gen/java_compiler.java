@@ -0,0 +1,275 @@
+package verse.compiler.gen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import verse.dbc.precondition;
+
+/**
+ * Compiles generated Java source in this process, through
+ * {@link JavaCompiler}, instead of forking javac or writing temp files.
+ *
+ * <p>One instance serves every unit of a build, and a watch loop or the
+ * daemon keeps it for the builds after that. Its file manager hands javac
+ * sources from memory and keeps what javac writes in memory too; those
+ * classes, and any added with {@link #add_classes}, are on the classpath
+ * of every later compile, so a unit sees the classes of the units it
+ * imports from without reading them back from disk. A class compiled
+ * again replaces the old one, but only once its compile has succeeded; a
+ * compile with errors leaves the last good classes in place.
+ * {@link #remove_classes} drops the classes of generated files that were
+ * deleted.</p>
+ *
+ * <p>Each tree's compilations have their own compiler. javac's file
+ * manager isn't safe for concurrent use, so that tree's compiles take
+ * turns; adding and removing classes doesn't wait for them.</p>
+ */
+public class java_compiler {
+
+    /** A generated source, or a class javac wrote or was given. */
+    private static class memory_file extends SimpleJavaFileObject {
+        final String binary_name;
+        final String text;
+        byte[] bytes;
+
+        memory_file(String binary_name, Kind kind, String text, byte[] bytes) {
+            super(uri(binary_name, kind), kind);
+            this.binary_name = binary_name;
+            this.text = text;
+            this.bytes = bytes;
+        }
+
+        private static URI uri(String binary_name, Kind kind) {
+            try {
+                return new URI("mem", null, "/" + binary_name.replace('.', '/') + kind.extension, null);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(binary_name, e);
+            }
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return text;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    private class memory_file_manager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        /** What the current compile wrote, by binary name. */
+        Map<String, byte[]> written;
+
+        memory_file_manager(StandardJavaFileManager files) {
+            super(files);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind,
+                FileObject sibling) throws IOException {
+            if (kind != JavaFileObject.Kind.CLASS) {
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+            return new memory_file(className, kind, null, null) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            written.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                boolean recurse) throws IOException {
+            Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+            if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+                return listed;
+            }
+            List<JavaFileObject> result = new ArrayList<JavaFileObject>();
+            String prefix = packageName.isEmpty() ? "" : packageName + ".";
+            for (memory_file f: classes.values()) {
+                String rest = f.binary_name.substring(0, Math.max(f.binary_name.lastIndexOf('.') + 1, 0));
+                if (f.binary_name.startsWith(prefix) && (recurse || rest.equals(prefix))) {
+                    result.add(f);
+                }
+            }
+            for (JavaFileObject f: listed) {
+                result.add(f);
+            }
+            return result;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            if (file instanceof memory_file) {
+                return ((memory_file) file).binary_name;
+            }
+            return super.inferBinaryName(location, file);
+        }
+    }
+
+    /** The problems and output of one {@link #compile}. */
+    public static class result {
+        /** Classes javac wrote, by binary name. */
+        public final Map<String, byte[]> classes;
+
+        /**
+         * Errors by the binary name of the source they are in; errors in
+         * no particular source are under "".
+         */
+        public final Map<String, List<String>> errors;
+
+        result(Map<String, byte[]> classes, Map<String, List<String>> errors) {
+            this.classes = classes;
+            this.errors = errors;
+        }
+    }
+
+    // Release 8 is class file version 52, what class_file writes; without
+    // it, output would target whichever JDK runs the build.
+    private static final List<String> OPTIONS = Arrays.asList("-nowarn", "-g", "-proc:none", "-implicit:none",
+            "--release", "8");
+
+    private final JavaCompiler javac;
+    private final memory_file_manager files;
+    private final Map<String, memory_file> classes = new ConcurrentHashMap<String, memory_file>();
+
+    /** Held while javac runs; see the class comment. */
+    private final Object turn = new Object();
+
+    private java_compiler(JavaCompiler javac, List<Path> classpath) throws IOException {
+        this.javac = javac;
+        StandardJavaFileManager standard = javac.getStandardFileManager(null, Locale.ROOT, null);
+        List<File> entries = new ArrayList<File>();
+        entries.add(get_runtime_location().toFile());
+        for (Path p: classpath) {
+            entries.add(p.toFile());
+        }
+        standard.setLocation(StandardLocation.CLASS_PATH, entries);
+        this.files = new memory_file_manager(standard);
+    }
+
+    /**
+     * @param classpath Jars and class folders that generated code may use,
+     *                  besides the JDK and the verse runtime.
+     * @return A compiler, or null if this runtime has no javac (a JRE).
+     */
+    public static java_compiler open(List<Path> classpath) throws IOException {
+        precondition.checkNotNull(classpath, "classpath");
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        return javac == null ? null : new java_compiler(javac, classpath);
+    }
+
+    /**
+     * @return The jar or class folder that holds the verse runtime
+     * (verse.dbc, verse.cli) that generated code calls into.
+     */
+    static Path get_runtime_location() {
+        try {
+            return Paths.get(precondition.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Make classes that were generated without javac visible to later
+     * compiles.
+     *
+     * @param added Class files by binary name.
+     */
+    public void add_classes(Map<String, byte[]> added) {
+        for (Map.Entry<String, byte[]> e: added.entrySet()) {
+            classes.put(e.getKey(), new memory_file(e.getKey(), JavaFileObject.Kind.CLASS, null, e.getValue()));
+        }
+    }
+
+    /**
+     * Forget classes that no longer exist, so later compiles can't see
+     * them.
+     *
+     * @param removed Binary names.
+     */
+    public void remove_classes(Collection<String> removed) {
+        for (String name: removed) {
+            classes.remove(name);
+        }
+    }
+
+    /**
+     * @param sources Java source by the binary name of its top-level class.
+     */
+    public result compile(Map<String, String> sources) {
+        List<JavaFileObject> units = new ArrayList<JavaFileObject>(sources.size());
+        for (Map.Entry<String, String> e: sources.entrySet()) {
+            units.add(new memory_file(e.getKey(), JavaFileObject.Kind.SOURCE, e.getValue(), null));
+        }
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<JavaFileObject>();
+        Map<String, byte[]> written = new LinkedHashMap<String, byte[]>();
+        synchronized (turn) {
+            files.written = written;
+            try {
+                javac.getTask(null, files, collector, OPTIONS, null, units).call();
+            } finally {
+                files.written = null;
+            }
+        }
+        Map<String, List<String>> errors = new LinkedHashMap<String, List<String>>();
+        for (Diagnostic<? extends JavaFileObject> d: collector.getDiagnostics()) {
+            if (d.getKind() != Diagnostic.Kind.ERROR) {
+                continue;
+            }
+            String where = d.getSource() instanceof memory_file ? ((memory_file) d.getSource()).binary_name : "";
+            List<String> list = errors.get(where);
+            if (list == null) {
+                list = new ArrayList<String>();
+                errors.put(where, list);
+            }
+            String message = d.getMessage(Locale.ROOT);
+            list.add(d.getLineNumber() > 0 ? String.format("line %d of generated source: %s", d.getLineNumber(),
+                    message) : message);
+        }
+        if (!errors.isEmpty()) {
+            // A unit with errors contributes nothing, as with any failed javac run.
+            written.clear();
+        }
+        add_classes(written);
+        return new result(written, errors);
+    }
+}
@@ -0,0 +1,453 @@
+package verse.compiler.gen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import verse.compiler.diagnostic;
+import verse.compiler.gen.class_plan.ctor_plan;
+import verse.compiler.gen.class_plan.field_plan;
+import verse.compiler.gen.class_plan.method_plan;
+import verse.compiler.gen.class_plan.param_plan;
+import verse.compiler.gen.constraint_lowering.check;
+import verse.compiler.parse.class_decl;
+import verse.compiler.parse.import_decl;
+
+/**
+ * Generates the Java source of one class: a private field per member,
+ * constructors, get_/set_ accessors and the table get_properties()
+ * returns, with value qualifiers lowered to inline checks by
+ * {@link constraint_lowering}. What goes into the class
+ * is worked out by {@link class_plan}; {@link class_emitter} writes the
+ * same class straight to bytecode.
+ */
+public class java_emitter {
+
+    private final class_plan p;
+    private final java_writer out = new java_writer();
+
+    private java_emitter(class_plan p) {
+        this.p = p;
+    }
+
+    /**
+     * @param imports     The import: block of the file c was declared in.
+     * @param path        The file c was declared in, for diagnostics.
+     * @param diagnostics Receives problems, such as qualifiers that don't
+     *                    fit a member's type.
+     * @return The source of pkg.c.
+     */
+    public static String emit(String pkg, List<import_decl> imports, class_decl c, String path,
+            List<diagnostic> diagnostics) {
+        return emit(class_plan.of(pkg, imports, c, path, diagnostics));
+    }
+
+    /**
+     * @return The source of the planned class.
+     */
+    public static String emit(class_plan p) {
+        java_emitter e = new java_emitter(p);
+        e.emit_class();
+        return e.out.toString();
+    }
+
+    private void emit_class() {
+        class_decl c = p.c;
+        out.line("package %s;", p.pkg);
+        out.blank();
+        for (import_decl d: p.imports) {
+            for (String name: d.names) {
+                out.line("import %s.%s;", d.pkg, name);
+            }
+        }
+        out.line("import verse.dbc.precondition;");
+        out.blank();
+        out.doc(c.doc);
+        StringBuilder header = new StringBuilder("public ");
+        if (p.is_abstract) {
+            header.append("abstract ");
+        }
+        header.append("class ").append(c.name);
+        for (int i = 0; i < p.interfaces.size(); ++i) {
+            header.append(i == 0 ? " implements " : ", ").append(p.interfaces.get(i));
+        }
+        out.line(header.append(" {").toString());
+        out.indent();
+        for (field_plan f: p.fields) {
+            emit_field(f);
+        }
+        if (!p.implicit_ctor) {
+            for (ctor_plan ctor: p.ctors) {
+                emit_ctor(ctor);
+            }
+        }
+        if (p.singleton) {
+            emit_singleton();
+        }
+        for (field_plan f: p.fields) {
+            emit_accessors(f);
+        }
+        if (!p.properties.isEmpty()) {
+            emit_properties();
+        }
+        for (method_plan m: p.methods) {
+            emit_method(m);
+        }
+        out.dedent();
+        out.line("}");
+    }
+
+    private String storage_type(field_plan f) {
+        return f.weak ? "java.lang.ref.WeakReference<" + f.type + ">" : f.type.toString();
+    }
+
+    private String store(field_plan f, String expr) {
+        return f.weak ? "new java.lang.ref.WeakReference<" + f.type + ">(" + expr + ")" : expr;
+    }
+
+    private void emit_field(field_plan f) {
+        out.blank();
+        out.doc(f.m.doc);
+        String value = f.template != null ? concat(f.template) : f.m.initializer;
+        String init = value != null ? " = " + store(f, value) : "";
+        out.line("private %s%s %s%s;", f.is_final ? "final " : "", storage_type(f), f.name, init);
+    }
+
+    /**
+     * @return A template as one Java concatenation, which javac compiles
+     * to an invokedynamic call site.
+     */
+    private static String concat(string_template t) {
+        String constant = t.get_constant();
+        if (constant != null) {
+            return java_writer.quote(constant);
+        }
+        StringBuilder sb = new StringBuilder();
+        // Without a string first, a + b would add two chars or numbers.
+        if (t.parts.get(0).is_expression && (t.parts.size() == 1 || t.parts.get(1).is_expression)) {
+            sb.append("\"\"");
+        }
+        for (string_template.part part: t.parts) {
+            sb.append(sb.length() == 0 ? "" : " + ");
+            sb.append(part.is_expression ? "(" + part.text + ")" : java_writer.quote(part.text));
+        }
+        return sb.toString();
+    }
+
+    private void emit_ctor(ctor_plan ctor) {
+        StringBuilder params = new StringBuilder();
+        for (param_plan a: ctor.params) {
+            params.append(params.length() == 0 ? "" : ", ").append(a.type).append(' ').append(a.name);
+        }
+        out.blank();
+        out.doc(ctor.doc);
+        out.line("%s %s(%s) {", p.ctor_access, p.c.name, params);
+        out.indent();
+        for (param_plan a: ctor.params) {
+            emit_checks(a.checks, a.name);
+        }
+        for (param_plan a: ctor.params) {
+            if (a.sets != null) {
+                out.line("this.%s = %s;", a.sets.name, store(a.sets, a.name));
+            }
+        }
+        out.dedent();
+        out.line("}");
+    }
+
+    private void emit_singleton() {
+        String name = p.c.name;
+        if (p.needs_factory) {
+            out.blank();
+            out.line("/**");
+            out.line(" * Makes the instance. Install one with set_factory() before the first");
+            out.line(" * get_instance().");
+            out.line(" */");
+            out.line("public interface factory {");
+            out.indent().line("%s create();", name).dedent();
+            out.line("}");
+            out.blank();
+            out.line("private static volatile factory the_factory;");
+            out.line("private static volatile boolean created;");
+            out.blank();
+            out.line("public static void set_factory(factory value) {");
+            out.indent();
+            out.line("precondition.checkNotNull(value, \"value\");");
+            out.line("precondition.checkAndExplain(!created, \"%s.set_factory() must come before get_instance()\");",
+                    name);
+            out.line("the_factory = value;");
+            out.dedent();
+            out.line("}");
+        }
+        out.blank();
+        out.line("private static %s create() {", name);
+        out.indent();
+        if (p.needs_factory) {
+            out.line("factory f = the_factory;");
+            out.line("precondition.checkAndExplain(f != null, \"%s.set_factory() must come before get_instance()\");",
+                    name);
+            out.line("created = true;");
+            out.line("return f.create();");
+        } else {
+            out.line("return new %s();", name);
+        }
+        out.dedent();
+        out.line("}");
+        if (!p.phoenix) {
+            out.blank();
+            out.line("// Initialization-on-demand holder: the JVM runs its initializer once, on");
+            out.line("// first use; every read after that is a static load with no lock.");
+            out.line("private static class holder {");
+            out.indent().line("static final %s INSTANCE = create();", name).dedent();
+            out.line("}");
+            out.blank();
+            out.line("public static %s get_instance() {", name);
+            out.indent().line("return holder.INSTANCE;").dedent();
+            out.line("}");
+            return;
+        }
+        // A holder whose initializer throws is unusable for good, which is
+        // exactly what a phoenix must survive; so it starts empty, is filled
+        // once under the class's lock, and is replaced by compare-and-set.
+        String ref = "java.util.concurrent.atomic.AtomicReference<" + name + ">";
+        out.blank();
+        out.line("private static final %s INSTANCE = new %s();", ref, ref);
+        out.blank();
+        out.line("public static %s get_instance() {", name);
+        out.indent();
+        out.line("%s s = INSTANCE.get();", name);
+        out.line("return s != null ? s : create_first();");
+        out.dedent();
+        out.line("}");
+        out.blank();
+        out.line("// Only one caller makes the first instance; if it fails, the next tries.");
+        out.line("private static synchronized %s create_first() {", name);
+        out.indent();
+        out.line("%s s = INSTANCE.get();", name);
+        out.line("if (s == null) {");
+        out.indent();
+        out.line("s = create();");
+        out.line("INSTANCE.set(s);");
+        out.dedent();
+        out.line("}");
+        out.line("return s;");
+        out.dedent();
+        out.line("}");
+        out.blank();
+        out.line("/**");
+        out.line(" * Replace an instance that has failed. Every caller that reports the");
+        out.line(" * same dead instance gets the same replacement; a caller whose instance");
+        out.line(" * was already replaced just gets the current one.");
+        out.line(" */");
+        out.line("public static %s rebirth(%s dead) {", name, name);
+        out.indent();
+        out.line("%s current = INSTANCE.get();", name);
+        out.line("if (current == null) {");
+        out.indent().line("return create_first();").dedent();
+        out.line("}");
+        out.line("if (current != dead) {");
+        out.indent().line("return current;").dedent();
+        out.line("}");
+        out.line("%s fresh = create();", name);
+        out.line("return INSTANCE.compareAndSet(dead, fresh) ? fresh : INSTANCE.get();");
+        out.dedent();
+        out.line("}");
+    }
+
+    private void emit_accessors(field_plan f) {
+        if (!f.accessible) {
+            return;
+        }
+        out.blank();
+        out.line("public %s get_%s() {", f.type, f.m.name);
+        out.indent();
+        if (f.weak) {
+            out.line("return %s == null ? null : %s.get();", f.name, f.name);
+        } else {
+            out.line("return %s;", f.name);
+        }
+        out.dedent();
+        out.line("}");
+        if (!f.writable) {
+            return;
+        }
+        out.blank();
+        out.line("public void set_%s(%s value) {", f.m.name, f.type);
+        out.indent();
+        emit_checks(f.checks, "value");
+        out.line("this.%s = %s;", f.name, store(f, "value"));
+        out.dedent();
+        out.line("}");
+    }
+
+    /**
+     * One subclass of {@link verse.util.property} for all the members,
+     * switching on an index, so a loop over the table calls the same two
+     * methods for every member.
+     */
+    private void emit_properties() {
+        String name = p.c.name;
+        String element = "verse.util.property<" + name + ">";
+        out.blank();
+        out.line("private static final class properties extends %s {", element);
+        out.indent();
+        out.line("static final java.util.List<%s> ALL = java.util.Collections.unmodifiableList(", element);
+        out.indent().indent();
+        out.line("java.util.Arrays.<%s>asList(", element);
+        for (int i = 0; i < p.properties.size(); ++i) {
+            field_plan f = p.properties.get(i);
+            StringBuilder args = new StringBuilder();
+            args.append(i).append(", ").append(java_writer.quote(f.m.name)).append(", ")
+                    .append(class_literal(f.type)).append(", ").append(f.writable).append(", ");
+            String doc = property_doc(f);
+            args.append(doc == null ? "null" : java_writer.quote(doc));
+            for (String q: property_qualifiers(f)) {
+                args.append(", ").append(java_writer.quote(q));
+            }
+            out.line("new properties(%s)%s", args, i + 1 < p.properties.size() ? "," : "));");
+        }
+        out.dedent().dedent();
+        out.blank();
+        out.line("private final int index;");
+        out.blank();
+        out.line("private properties(int index, String name, Class<?> type, boolean writable, String doc,");
+        out.line("        String... qualifiers) {");
+        out.indent();
+        out.line("super(name, type, writable, doc, qualifiers);");
+        out.line("this.index = index;");
+        out.dedent();
+        out.line("}");
+        out.blank();
+        out.line("@Override");
+        out.line("public Object get(%s target) {", name);
+        out.indent();
+        out.line("switch (index) {");
+        for (int i = 0; i < p.properties.size(); ++i) {
+            out.line("case %d: return target.get_%s();", i, p.properties.get(i).m.name);
+        }
+        out.line("default: throw new AssertionError(index);");
+        out.line("}");
+        out.dedent();
+        out.line("}");
+        boolean any_writable = false;
+        boolean unchecked = false;
+        for (field_plan f: p.properties) {
+            any_writable |= f.writable;
+            unchecked |= f.writable && is_unchecked_cast(f.type);
+        }
+        if (any_writable) {
+            out.blank();
+            out.line("@Override");
+            if (unchecked) {
+                out.line("@SuppressWarnings(\"unchecked\")");
+            }
+            out.line("public void set(%s target, Object value) {", name);
+            out.indent();
+            out.line("switch (index) {");
+            for (int i = 0; i < p.properties.size(); ++i) {
+                field_plan f = p.properties.get(i);
+                if (f.writable) {
+                    String cast = f.type.is_primitive() ? java_types.box(f.type.name) : f.type.toString();
+                    out.line("case %d: target.set_%s((%s) value); return;", i, f.m.name, cast);
+                }
+            }
+            out.line("default: super.set(target, value);");
+            out.line("}");
+            out.dedent();
+            out.line("}");
+        }
+        out.dedent();
+        out.line("}");
+        out.blank();
+        out.line("/**");
+        out.line(" * @return A property per accessible member, in order; built on first use.");
+        out.line(" */");
+        out.line("public static java.util.List<%s> get_properties() {", element);
+        out.indent().line("return properties.ALL;").dedent();
+        out.line("}");
+    }
+
+    /**
+     * @return True if casting <code>Object</code> to t is unchecked: t has a type argument other than
+     *         <code>?</code>.
+     */
+    private static boolean is_unchecked_cast(java_type t) {
+        for (java_type a: t.args) {
+            if (a.wildcard != '*' || a.bound != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The erased type's class literal, such as <code>int.class</code>.
+     */
+    private static String class_literal(java_type t) {
+        StringBuilder sb = new StringBuilder(t.name);
+        for (int i = 0; i < t.dims; ++i) {
+            sb.append("[]");
+        }
+        return sb.append(".class").toString();
+    }
+
+    /**
+     * @return A member's doc as {@link verse.util.property#doc} holds it:
+     * lines trimmed, as javadoc gets them, and joined by "\n"; or null.
+     */
+    static String property_doc(field_plan f) {
+        String doc = f.m.doc == null ? null : f.m.doc.get_text();
+        if (doc == null || doc.trim().isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(doc.length());
+        for (String l: doc.trim().split("\n")) {
+            sb.append(sb.length() == 0 ? "" : "\n").append(l.trim());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return A member's flags, then its modifiers.
+     */
+    static List<String> property_qualifiers(field_plan f) {
+        List<String> all = new ArrayList<String>(f.m.flags.size() + f.m.modifiers.size());
+        all.addAll(f.m.flags);
+        all.addAll(f.m.modifiers);
+        return all;
+    }
+
+    private void emit_method(method_plan m) {
+        StringBuilder sig = new StringBuilder();
+        sig.append(m.is_private ? "private" : "public").append(m.is_abstract ? " abstract " : " ");
+        sig.append(m.return_type).append(' ').append(m.name).append('(');
+        for (int i = 0; i < m.params.size(); ++i) {
+            param_plan a = m.params.get(i);
+            sig.append(i == 0 ? "" : ", ").append(a.type).append(' ').append(a.name);
+        }
+        sig.append(')');
+        for (int i = 0; i < m.thrown.size(); ++i) {
+            sig.append(i == 0 ? " throws " : ", ").append(m.thrown.get(i));
+        }
+        out.blank();
+        out.doc(m.m.doc);
+        if (m.m.modifiers.contains("override")) {
+            out.line("@Override");
+        }
+        if (m.is_abstract) {
+            out.line(sig.append(';').toString());
+            return;
+        }
+        out.line(sig.append(" {").toString());
+        out.indent();
+        out.line("throw new UnsupportedOperationException(\"%s: verse method bodies are not translated yet\");",
+                m.m.name);
+        out.dedent();
+        out.line("}");
+    }
+
+    private void emit_checks(List<check> checks, String expr) {
+        for (check k: checks) {
+            constraint_lowering.emit_source(k, expr, out);
+        }
+    }
+}
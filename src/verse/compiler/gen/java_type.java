@@ -0,0 +1,393 @@
+package verse.compiler.gen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Java type as generated code spells it, hash-consed: there is one
+ * java_type for each distinct type, however many members, parameters and
+ * type arguments name it, so two types are equal only if they are the same
+ * object. A type's spelling, erasure kind and the like are worked out once,
+ * when it is first made, and whatever {@link jvm_types} or
+ * {@link #is_assignable} derive from it is memoized by identity.
+ *
+ * <p>A type is a name with type arguments and array dimensions, or a
+ * wildcard with an optional bound. Text that doesn't parse as a type
+ * becomes an opaque type, which {@link jvm_types} refuses to spell, so such
+ * classes go through javac, which reports the problem.</p>
+ */
+public final class java_type {
+
+    /** {@link #wildcard} of a type that isn't a wildcard. */
+    public static final char NOT_WILDCARD = 0;
+
+    private static final Map<String, Character> PRIMITIVES = new HashMap<String, Character>();
+    private static final Map<String, String> BOXES = new HashMap<String, String>();
+
+    static {
+        PRIMITIVES.put("void", 'V');
+        PRIMITIVES.put("boolean", 'Z');
+        PRIMITIVES.put("byte", 'B');
+        PRIMITIVES.put("short", 'S');
+        PRIMITIVES.put("char", 'C');
+        PRIMITIVES.put("int", 'I');
+        PRIMITIVES.put("long", 'J');
+        PRIMITIVES.put("float", 'F');
+        PRIMITIVES.put("double", 'D');
+        BOXES.put("Boolean", "boolean");
+        BOXES.put("Byte", "byte");
+        BOXES.put("Short", "short");
+        BOXES.put("Character", "char");
+        BOXES.put("Integer", "int");
+        BOXES.put("Long", "long");
+        BOXES.put("Float", "float");
+        BOXES.put("Double", "double");
+    }
+
+    private static final ConcurrentHashMap<key, java_type> BY_KEY = new ConcurrentHashMap<key, java_type>();
+    private static final ConcurrentHashMap<String, java_type> BY_SPELLING = new ConcurrentHashMap<String, java_type>();
+    private static final ConcurrentHashMap<Long, Boolean> ASSIGNABLE = new ConcurrentHashMap<Long, Boolean>();
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    /** Class or primitive name, dotted; "?" for a wildcard. */
+    public final String name;
+
+    public final List<java_type> args;
+    public final int dims;
+
+    /** '*' for <code>?</code>, '+' for <code>? extends</code>, '-' for <code>? super</code>. */
+    public final char wildcard;
+
+    /** A wildcard's bound, or null. */
+    public final java_type bound;
+
+    /** True for text that isn't a type. */
+    public final boolean opaque;
+
+    /** The first character of the erased descriptor: 'I', 'L', '[' and so on. */
+    public final char kind;
+
+    /** {@link #kind} of the type's elements, for an array; else kind. */
+    public final char element_kind;
+
+    /** True if this type or any type in it has type arguments. */
+    public final boolean generic;
+
+    /** Dense and unique, for keying memos by pairs of types. */
+    final int id;
+
+    private final String spelling;
+
+    public static final java_type VOID = get("void", Collections.<java_type>emptyList(), 0);
+    public static final java_type OBJECT = get("Object", Collections.<java_type>emptyList(), 0);
+
+    private java_type(String name, List<java_type> args, int dims, char wildcard, java_type bound, boolean opaque) {
+        this.name = name;
+        this.args = args;
+        this.dims = dims;
+        this.wildcard = wildcard;
+        this.bound = bound;
+        this.opaque = opaque;
+        Character p = PRIMITIVES.get(name);
+        this.element_kind = p != null && wildcard == NOT_WILDCARD ? p : 'L';
+        this.kind = dims > 0 ? '[' : element_kind;
+        boolean g = !args.isEmpty() || (bound != null && bound.generic);
+        for (java_type a: args) {
+            g |= a.generic;
+        }
+        this.generic = g;
+        this.id = ids.getAndIncrement();
+        this.spelling = spell();
+    }
+
+    private String spell() {
+        StringBuilder sb = new StringBuilder();
+        if (wildcard != NOT_WILDCARD) {
+            sb.append('?');
+            if (bound != null) {
+                sb.append(wildcard == '+' ? " extends " : " super ").append(bound.spelling);
+            }
+            return sb.toString();
+        }
+        sb.append(name);
+        if (!args.isEmpty()) {
+            sb.append('<');
+            for (int i = 0; i < args.size(); ++i) {
+                sb.append(i == 0 ? "" : ", ").append(args.get(i).spelling);
+            }
+            sb.append('>');
+        }
+        for (int i = 0; i < dims; ++i) {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The one type with this name, type arguments and dimensions.
+     */
+    public static java_type get(String name, List<java_type> args, int dims) {
+        return intern(new key(name, args, dims, NOT_WILDCARD, null, false));
+    }
+
+    /**
+     * @param bound Null for <code>?</code>.
+     * @param kind  '+' for extends, '-' for super; ignored without a bound.
+     */
+    public static java_type wildcard(char kind, java_type bound) {
+        return intern(new key("?", Collections.<java_type>emptyList(), 0, bound == null ? '*' : kind, bound, false));
+    }
+
+    private static java_type intern(key k) {
+        java_type t = BY_KEY.get(k);
+        if (t == null) {
+            // The caller's list may change; the interned type keeps a copy.
+            List<java_type> args = k.args.isEmpty() ? Collections.<java_type>emptyList()
+                    : Collections.unmodifiableList(new ArrayList<java_type>(k.args));
+            java_type made = new java_type(k.name, args, k.dims, k.wildcard, k.bound, k.opaque);
+            t = BY_KEY.putIfAbsent(new key(k.name, args, k.dims, k.wildcard, k.bound, k.opaque), made);
+            if (t == null) {
+                t = made;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return The type Java source spells as text, such as
+     * <code>Map&lt;String, List&lt;? extends Number&gt;&gt;[]</code>.
+     * Spacing doesn't matter.
+     */
+    public static java_type of(String text) {
+        java_type t = BY_SPELLING.get(text);
+        if (t == null) {
+            t = parse(text);
+            BY_SPELLING.putIfAbsent(text, t);
+        }
+        return t;
+    }
+
+    private static java_type parse(String text) {
+        parser p = new parser(text);
+        try {
+            java_type t = p.type();
+            p.skip_spaces();
+            if (p.i == text.length()) {
+                return t;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // unbalanced; opaque
+        } catch (IllegalArgumentException e) {
+            // not a name; opaque
+        }
+        return intern(new key(text, Collections.<java_type>emptyList(), 0, NOT_WILDCARD, null, true));
+    }
+
+    public boolean is_primitive() {
+        return kind != 'L' && kind != '[' && kind != 'V';
+    }
+
+    public boolean is_integral() {
+        return kind == 'B' || kind == 'S' || kind == 'I' || kind == 'J' || kind == 'C';
+    }
+
+    public boolean is_floating() {
+        return kind == 'F' || kind == 'D';
+    }
+
+    /**
+     * @return Whether javac would let a value of type from be assigned to a
+     * variable of type to: the same type, a primitive widening, boxing or
+     * unboxing. Two reference types are assumed assignable, since that
+     * takes a class hierarchy generated code doesn't have; javac decides.
+     * Results are memoized per pair.
+     */
+    public static boolean is_assignable(java_type from, java_type to) {
+        if (from == to) {
+            return true;
+        }
+        Long pair = ((long) from.id << 32) | to.id;
+        Boolean b = ASSIGNABLE.get(pair);
+        if (b == null) {
+            b = assignable(from, to);
+            ASSIGNABLE.putIfAbsent(pair, b);
+        }
+        return b;
+    }
+
+    private static boolean assignable(java_type from, java_type to) {
+        if (from.opaque || to.opaque) {
+            return true;
+        }
+        if (from.is_primitive() && to.is_primitive()) {
+            return widens(from.kind, to.kind);
+        }
+        if (from.is_primitive()) {
+            String box = to.dims == 0 && to.args.isEmpty() ? to.name : null;
+            return box != null && (from.name.equals(BOXES.get(box)) || box.equals("Object")
+                    || box.equals("java.lang.Object") || box.equals("Number") && from.kind != 'Z' && from.kind != 'C'
+                    || box.equals("java.io.Serializable") || box.equals("Comparable"));
+        }
+        if (to.is_primitive()) {
+            String unboxed = from.dims == 0 ? BOXES.get(from.name) : null;
+            return unboxed != null && widens(PRIMITIVES.get(unboxed), to.kind);
+        }
+        return true;
+    }
+
+    private static final String WIDENING = "BSIJFD";
+
+    private static boolean widens(char from, char to) {
+        if (from == to) {
+            return true;
+        }
+        if (from == 'C') {
+            return to == 'I' || to == 'J' || to == 'F' || to == 'D';
+        }
+        int a = WIDENING.indexOf(from);
+        int b = WIDENING.indexOf(to);
+        // short doesn't widen to char, nor byte; char is handled above.
+        return a != -1 && b != -1 && a < b;
+    }
+
+    /**
+     * @return The Java spelling, with ", " between type arguments.
+     */
+    @Override
+    public String toString() {
+        return spelling;
+    }
+
+    /**
+     * Structural identity of a type whose parts are already interned, so
+     * parts compare by reference.
+     */
+    private static final class key {
+        final String name;
+        final List<java_type> args;
+        final int dims;
+        final char wildcard;
+        final java_type bound;
+        final boolean opaque;
+        final int hash;
+
+        key(String name, List<java_type> args, int dims, char wildcard, java_type bound, boolean opaque) {
+            this.name = name;
+            this.args = args;
+            this.dims = dims;
+            this.wildcard = wildcard;
+            this.bound = bound;
+            this.opaque = opaque;
+            int h = name.hashCode() * 31 + dims;
+            h = h * 31 + wildcard;
+            h = h * 31 + (bound == null ? 0 : bound.id);
+            for (java_type a: args) {
+                h = h * 31 + a.id;
+            }
+            this.hash = opaque ? ~h : h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof key)) {
+                return false;
+            }
+            key k = (key) o;
+            if (hash != k.hash || dims != k.dims || wildcard != k.wildcard || bound != k.bound
+                    || opaque != k.opaque || args.size() != k.args.size() || !name.equals(k.name)) {
+                return false;
+            }
+            for (int i = 0; i < args.size(); ++i) {
+                if (args.get(i) != k.args.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Recursive descent over names, type arguments (wildcards included) and
+     * array suffixes.
+     */
+    private static class parser {
+        private final String text;
+        int i;
+
+        parser(String text) {
+            this.text = text;
+        }
+
+        java_type type() {
+            skip_spaces();
+            int begin = i;
+            while (i < text.length() && (Character.isJavaIdentifierPart(text.charAt(i)) || text.charAt(i) == '.')) {
+                ++i;
+            }
+            String name = text.substring(begin, i);
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("not a type: " + text);
+            }
+            List<java_type> args = Collections.emptyList();
+            skip_spaces();
+            if (i < text.length() && text.charAt(i) == '<') {
+                ++i;
+                List<java_type> list = new ArrayList<java_type>(2);
+                while (true) {
+                    list.add(argument());
+                    skip_spaces();
+                    char c = text.charAt(i++);
+                    if (c == '>') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw new IllegalArgumentException("not a type: " + text);
+                    }
+                }
+                args = list;
+                skip_spaces();
+            }
+            int dims = 0;
+            while (text.startsWith("[]", i)) {
+                ++dims;
+                i += 2;
+                skip_spaces();
+            }
+            return get(name, args, dims);
+        }
+
+        private java_type argument() {
+            skip_spaces();
+            if (text.charAt(i) != '?') {
+                return type();
+            }
+            ++i;
+            skip_spaces();
+            if (text.startsWith("extends", i)) {
+                i += "extends".length();
+                return wildcard('+', type());
+            }
+            if (text.startsWith("super", i)) {
+                i += "super".length();
+                return wildcard('-', type());
+            }
+            return wildcard('*', null);
+        }
+
+        void skip_spaces() {
+            while (i < text.length() && text.charAt(i) == ' ') {
+                ++i;
+            }
+        }
+    }
+}
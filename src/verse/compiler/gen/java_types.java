@@ -0,0 +1,108 @@
+package verse.compiler.gen;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spells verse types as Java types. Verse's own names (<code>str</code>,
+ * <code>obj</code>, <code>bool</code>, <code>date</code>) are replaced
+ * wherever they appear, including inside type arguments, where primitives
+ * are boxed. A bare <code>[]</code> is a list of anything.
+ *
+ * <p>Verse types come out of the parser as canonical strings, so the same
+ * few spellings recur throughout a tree; each is translated once, to its
+ * hash-consed {@link java_type}.</p>
+ */
+public class java_types {
+
+    private static final Map<String, String> NAMES = new HashMap<String, String>();
+    private static final Map<String, String> BOXES = new HashMap<String, String>();
+
+    static {
+        NAMES.put("str", "String");
+        NAMES.put("obj", "Object");
+        NAMES.put("bool", "boolean");
+        NAMES.put("date", "java.util.Date");
+        BOXES.put("boolean", "Boolean");
+        BOXES.put("byte", "Byte");
+        BOXES.put("short", "Short");
+        BOXES.put("char", "Character");
+        BOXES.put("int", "Integer");
+        BOXES.put("long", "Long");
+        BOXES.put("float", "Float");
+        BOXES.put("double", "Double");
+    }
+
+    public static final Set<String> KEYWORDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void",
+            "volatile", "while", "true", "false", "null")));
+
+    private static final ConcurrentHashMap<String, java_type> TRANSLATED = new ConcurrentHashMap<String, java_type>();
+
+    public static java_type of(String verse_type) {
+        java_type t = TRANSLATED.get(verse_type);
+        if (t == null) {
+            t = java_type.of(spell(verse_type));
+            TRANSLATED.putIfAbsent(verse_type, t);
+        }
+        return t;
+    }
+
+    private static String spell(String verse_type) {
+        if (verse_type.equals("[]")) {
+            return "java.util.List<Object>";
+        }
+        StringBuilder sb = new StringBuilder(verse_type.length() + 16);
+        int depth = 0;
+        int i = 0;
+        while (i < verse_type.length()) {
+            char c = verse_type.charAt(i);
+            if (Character.isJavaIdentifierStart(c)) {
+                int begin = i;
+                while (i < verse_type.length() && (Character.isJavaIdentifierPart(verse_type.charAt(i))
+                        || verse_type.charAt(i) == '.')) {
+                    ++i;
+                }
+                String word = verse_type.substring(begin, i);
+                String mapped = NAMES.containsKey(word) ? NAMES.get(word) : word;
+                boolean array = verse_type.startsWith("[]", i);
+                if (depth > 0 && !array && BOXES.containsKey(mapped)) {
+                    mapped = BOXES.get(mapped);
+                }
+                sb.append(mapped);
+                continue;
+            }
+            if (c == '<') {
+                ++depth;
+            } else if (c == '>') {
+                --depth;
+            }
+            sb.append(c);
+            ++i;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The box of a primitive type, such as Integer for int; or null.
+     */
+    public static String box(String primitive) {
+        return BOXES.get(primitive);
+    }
+
+    /**
+     * @return name, or name + "_" if it is a Java keyword.
+     */
+    public static String identifier(String name) {
+        return KEYWORDS.contains(name) ? name + "_" : name;
+    }
+}
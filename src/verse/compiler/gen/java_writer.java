@@ -0,0 +1,101 @@
+package verse.compiler.gen;
+
+import verse.compiler.parse.doc_ref;
+
+/**
+ * Builds Java source a line at a time, indenting by four spaces.
+ */
+public class java_writer {
+
+    private final StringBuilder sb = new StringBuilder(4096);
+    private int depth;
+
+    /**
+     * Append a line; with args, line is a {@link String#format} pattern.
+     */
+    public java_writer line(String line, Object... args) {
+        for (int i = 0; i < depth; ++i) {
+            sb.append("    ");
+        }
+        sb.append(args.length == 0 ? line : String.format(line, args)).append('\n');
+        return this;
+    }
+
+    public java_writer blank() {
+        sb.append('\n');
+        return this;
+    }
+
+    public java_writer indent() {
+        ++depth;
+        return this;
+    }
+
+    public java_writer dedent() {
+        --depth;
+        return this;
+    }
+
+    /**
+     * Append a declaration's javadoc; this is where a doc's text is first
+     * read from its source.
+     */
+    public java_writer doc(doc_ref doc) {
+        return doc(doc == null ? null : doc.get_text());
+    }
+
+    /**
+     * Append a javadoc comment, or nothing if doc is null or empty.
+     */
+    public java_writer doc(String doc) {
+        if (doc == null || doc.trim().isEmpty()) {
+            return this;
+        }
+        line("/**");
+        for (String l: doc.trim().split("\n")) {
+            String t = l.trim().replace("*/", "*&#47;");
+            line(t.isEmpty() ? " *" : " * " + t);
+        }
+        return line(" */");
+    }
+
+    /**
+     * @return s as a Java string literal, quotes included.
+     */
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                // A unicode escape would end the literal: javac reads those first.
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < ' ' || c > '~') {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
@@ -0,0 +1,300 @@
+package verse.compiler.gen;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import verse.compiler.parse.import_decl;
+
+/**
+ * Spells the Java types of one generated class the way class files do:
+ * internal names (<code>java/lang/String</code>), erased descriptors
+ * (<code>Ljava/util/List;</code>), and generic signatures
+ * (<code>Ljava/util/List&lt;Ljava/lang/Object;&gt;;</code>).
+ *
+ * <p>A simple name resolves the way javac would resolve it in the
+ * generated source: to a class the file imports, then to a class of
+ * <code>java.lang</code>, then to a class the {@link class_scope} has in
+ * the same package. A name that is none of those isn't spelled at all, so
+ * no class file ever refers to a class that doesn't exist; see
+ * {@link #find_unknown}. A qualified name whose first part is capitalized,
+ * like <code>Map.Entry</code>, names a nested class.</p>
+ *
+ * <p>Types are {@link java_type}s, so each distinct type's descriptor and
+ * signature is worked out once per class, however often it recurs.</p>
+ */
+public class jvm_types {
+
+    /**
+     * The classes names may resolve to besides the JDK's: those the tree
+     * declares, and those in the type index of its classpath.
+     */
+    public interface class_scope {
+        /**
+         * @return True if the scope knows every class of pkg.
+         */
+        boolean knows(String pkg);
+
+        /**
+         * @return True if pkg, which the scope knows, has a top-level class
+         * with this simple name.
+         */
+        boolean has_class(String pkg, String name);
+    }
+
+    /**
+     * @return A scope that knows one package, holding just the named
+     * classes; as for a class planned on its own.
+     */
+    public static class_scope only(final String pkg, Collection<String> names) {
+        final Set<String> classes = new HashSet<String>(names);
+        return new class_scope() {
+            @Override
+            public boolean knows(String p) {
+                return p.equals(pkg);
+            }
+
+            @Override
+            public boolean has_class(String p, String name) {
+                return p.equals(pkg) && classes.contains(name);
+            }
+        };
+    }
+
+    private final String pkg;
+    private final class_scope scope;
+    private final Map<String, String> imported = new HashMap<String, String>();
+    private final Map<String, String> resolved = new HashMap<String, String>();
+    private final Map<java_type, String> descriptors = new IdentityHashMap<java_type, String>();
+    private final Map<java_type, String> signatures = new IdentityHashMap<java_type, String>();
+
+    /**
+     * @param pkg     The package of the generated class.
+     * @param imports The import: block of the file it was declared in.
+     * @param scope   The classes its package and others hold.
+     */
+    public jvm_types(String pkg, List<import_decl> imports, class_scope scope) {
+        this.pkg = pkg;
+        this.scope = scope;
+        for (import_decl d: imports) {
+            for (String name: d.names) {
+                imported.put(name, d.pkg + "." + name);
+            }
+        }
+    }
+
+    /**
+     * @return The internal name of a class: "String" is "java/lang/String".
+     * @throws IllegalArgumentException if there is no such class.
+     */
+    public String internal_name(String name) {
+        String r = lookup(name);
+        if (r == null) {
+            throw new IllegalArgumentException("can't find class " + name);
+        }
+        return r;
+    }
+
+    /**
+     * @return The name of the first class t names, type arguments included,
+     * that doesn't resolve -- as written, or just its first part if that is
+     * what doesn't -- or null if every one does. Opaque types are javac's
+     * to report.
+     */
+    public String find_unknown(java_type t) {
+        if (t.opaque) {
+            return null;
+        }
+        if (t.bound != null) {
+            return find_unknown(t.bound);
+        }
+        if (t.wildcard == java_type.NOT_WILDCARD && t.element_kind == 'L' && lookup(t.name) == null) {
+            int dot = t.name.indexOf('.');
+            return dot != -1 && Character.isUpperCase(t.name.charAt(0)) ? t.name.substring(0, dot) : t.name;
+        }
+        for (java_type a: t.args) {
+            String unknown = find_unknown(a);
+            if (unknown != null) {
+                return unknown;
+            }
+        }
+        return null;
+    }
+
+    private String lookup(String name) {
+        if (resolved.containsKey(name)) {
+            return resolved.get(name);
+        }
+        String r = resolve(name);
+        resolved.put(name, r);
+        return r;
+    }
+
+    /**
+     * @return The internal name, or null if the name doesn't resolve.
+     */
+    private String resolve(String name) {
+        int dot = name.indexOf('.');
+        String first = dot == -1 ? name : name.substring(0, dot);
+        if (dot != -1 && !Character.isUpperCase(first.charAt(0))) {
+            String internal = to_internal(name, 0);
+            int end = internal.indexOf('$');
+            String top = end == -1 ? internal : internal.substring(0, end);
+            int slash = top.lastIndexOf('/');
+            if (slash == -1) {
+                return null;
+            }
+            String p = top.substring(0, slash).replace('/', '.');
+            // A package nobody indexed is a library the build wasn't told
+            // about, as for imports; it is taken at its word.
+            if (scope.knows(p) && !scope.has_class(p, top.substring(slash + 1))) {
+                return null;
+            }
+            return internal;
+        }
+        String outer;
+        if (imported.containsKey(first)) {
+            outer = imported.get(first);
+        } else if (in_java_lang(first)) {
+            outer = "java.lang." + first;
+        } else if (scope.has_class(pkg, first)) {
+            outer = pkg + "." + first;
+        } else {
+            return null;
+        }
+        String internal = outer.replace('.', '/');
+        return dot == -1 ? internal : internal + name.substring(dot).replace('.', '$');
+    }
+
+    /**
+     * Dots up to the first capitalized part separate packages; after it,
+     * classes.
+     */
+    private static String to_internal(String qualified, int from) {
+        StringBuilder sb = new StringBuilder(qualified.length());
+        boolean nested = false;
+        for (String part: qualified.substring(from).split("\\.")) {
+            if (sb.length() > 0) {
+                sb.append(nested ? '$' : '/');
+            }
+            sb.append(part);
+            nested |= Character.isUpperCase(part.charAt(0));
+        }
+        return sb.toString();
+    }
+
+    private static boolean in_java_lang(String name) {
+        try {
+            // The bootstrap loader: only the JDK's own java.lang counts.
+            Class.forName("java.lang." + name, false, null);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The erased descriptor of t.
+     * @throws IllegalArgumentException if t is opaque.
+     */
+    public String descriptor(java_type t) {
+        String d = descriptors.get(t);
+        if (d == null) {
+            StringBuilder sb = new StringBuilder();
+            append(t, sb, false);
+            d = sb.toString();
+            descriptors.put(t, d);
+        }
+        return d;
+    }
+
+    /**
+     * @return The generic signature of t, or null if it has no type
+     * arguments and its descriptor says it all.
+     */
+    public String signature(java_type t) {
+        if (!t.generic) {
+            return null;
+        }
+        String s = signatures.get(t);
+        if (s == null) {
+            StringBuilder sb = new StringBuilder();
+            append(t, sb, true);
+            s = sb.toString();
+            signatures.put(t, s);
+        }
+        return s;
+    }
+
+    /**
+     * @return The descriptor of a method.
+     */
+    public String method_descriptor(java_type return_type, List<java_type> param_types) {
+        StringBuilder sb = new StringBuilder("(");
+        for (java_type t: param_types) {
+            sb.append(descriptor(t));
+        }
+        return sb.append(')').append(descriptor(return_type)).toString();
+    }
+
+    /**
+     * @return The generic signature of a method, or null if none of its
+     * types has type arguments.
+     */
+    public String method_signature(java_type return_type, List<java_type> param_types) {
+        boolean generic = return_type.generic;
+        for (java_type t: param_types) {
+            generic |= t.generic;
+        }
+        if (!generic) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("(");
+        for (java_type t: param_types) {
+            sb.append(t.generic ? signature(t) : descriptor(t));
+        }
+        sb.append(')');
+        sb.append(return_type.generic ? signature(return_type) : descriptor(return_type));
+        return sb.toString();
+    }
+
+    private void append(java_type t, StringBuilder out, boolean generic) {
+        if (t.opaque) {
+            throw new IllegalArgumentException("not a type: " + t);
+        }
+        if (t.wildcard != java_type.NOT_WILDCARD) {
+            out.append(t.bound == null ? '*' : t.wildcard);
+            if (t.bound != null) {
+                append(t.bound, out, generic);
+            }
+            return;
+        }
+        for (int i = 0; i < t.dims; ++i) {
+            out.append('[');
+        }
+        if (t.element_kind != 'L') {
+            out.append(t.element_kind);
+            return;
+        }
+        out.append('L').append(internal_name(t.name));
+        if (generic && !t.args.isEmpty()) {
+            out.append('<');
+            for (java_type a: t.args) {
+                append(a, out, true);
+            }
+            out.append('>');
+        }
+        out.append(';');
+    }
+
+    /**
+     * @return How many local variable or stack slots a value of a type takes.
+     */
+    public static int size(char kind) {
+        return kind == 'V' ? 0 : kind == 'J' || kind == 'D' ? 2 : 1;
+    }
+}
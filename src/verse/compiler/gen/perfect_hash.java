@@ -0,0 +1,93 @@
+package verse.compiler.gen;
+
+import java.util.Arrays;
+import java.util.List;
+
+import verse.dbc.precondition;
+
+/**
+ * A collision-free hash over a fixed set of keys, found at compile time so
+ * generated code can look a key up with one hash, one table load, and one
+ * equals. The table is the smallest power of two that a seed can be found
+ * for, starting at the number of keys; {@link #emit_hash} writes the same
+ * function into generated code.
+ */
+public class perfect_hash {
+
+    private static final int SEEDS_PER_SIZE = 1 << 16;
+
+    public final int seed;
+
+    /** Table size minus one. */
+    public final int mask;
+
+    /** Index of each slot's key in the input, or -1 for an empty slot. */
+    public final int[] slots;
+
+    private perfect_hash(int seed, int mask, int[] slots) {
+        this.seed = seed;
+        this.mask = mask;
+        this.slots = slots;
+    }
+
+    /**
+     * @param keys Distinct keys.
+     */
+    public static perfect_hash find(List<String> keys) {
+        precondition.checkNotNull(keys, "keys");
+        int size = 1;
+        while (size < keys.size()) {
+            size <<= 1;
+        }
+        for (; ; size <<= 1) {
+            int[] slots = new int[size];
+            for (int seed = 1; seed <= SEEDS_PER_SIZE; ++seed) {
+                if (place(keys, seed, size - 1, slots)) {
+                    return new perfect_hash(seed, size - 1, slots);
+                }
+            }
+        }
+    }
+
+    private static boolean place(List<String> keys, int seed, int mask, int[] slots) {
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < keys.size(); ++i) {
+            int slot = hash(keys.get(i), seed) & mask;
+            if (slots[slot] != -1) {
+                return false;
+            }
+            slots[slot] = i;
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over UTF-16 units, started from the seed, with the high bits
+     * folded down.
+     */
+    public static int hash(CharSequence s, int seed) {
+        int h = seed;
+        for (int i = 0; i < s.length(); ++i) {
+            h = (h ^ s.charAt(i)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Write a <code>private static int hash(String s)</code> that computes
+     * {@link #hash} with this seed.
+     */
+    public void emit_hash(java_writer out) {
+        out.line("private static int hash(String s) {");
+        out.indent();
+        out.line("int h = 0x%08x;", seed);
+        out.line("for (int i = 0; i < s.length(); ++i) {");
+        out.indent();
+        out.line("h = (h ^ s.charAt(i)) * 0x01000193;");
+        out.dedent();
+        out.line("}");
+        out.line("return h ^ (h >>> 16);");
+        out.dedent();
+        out.line("}");
+    }
+}
@@ -0,0 +1,466 @@
+package verse.compiler.gen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Computes a method's StackMapTable from its finished bytecode, by running
+ * the instructions {@link code_builder} emits over the types of the locals
+ * and the operand stack until every branch target's types settle.
+ *
+ * <p>Types are strings: "I", "F", "J" and "D" for primitives, "N" for
+ * null, "T" for an unusable local, "U" for a constructor's
+ * <code>this</code> before <code>super()</code>, "u&lt;offset&gt;" for the
+ * result of the <code>new</code> at offset before its constructor runs, and
+ * "L&lt;internal name&gt;" or an array descriptor for references. Two
+ * different reference types merge to Object, which is all generated code
+ * needs: it never branches over values of unrelated classes.</p>
+ */
+final class stack_map {
+
+    private static final String OBJECT = "Ljava/lang/Object";
+
+    private final class_file cf;
+    private final byte[] code;
+
+    /** Types on entry to each instruction, by offset; null if not reached yet. */
+    private final frame[] in;
+
+    /** Offsets something jumps to, or that follow a goto, return or throw. */
+    private final TreeSet<Integer> targets = new TreeSet<Integer>();
+
+    private static final class frame {
+        final String[] locals;
+        final List<String> stack;
+
+        frame(String[] locals, List<String> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        frame copy() {
+            return new frame(locals.clone(), new ArrayList<String>(stack));
+        }
+
+        String pop() {
+            return stack.remove(stack.size() - 1);
+        }
+
+        void pop(int n) {
+            for (int i = 0; i < n; ++i) {
+                pop();
+            }
+        }
+    }
+
+    private stack_map(class_file cf, byte[] code) {
+        this.cf = cf;
+        this.code = code;
+        this.in = new frame[code.length];
+    }
+
+    /**
+     * @return The StackMapTable attribute's body -- the entry count, then
+     * a full frame per entry -- or null if the method has no branches.
+     */
+    static byte[] compute(class_file cf, int access, String member, String descriptor, byte[] code,
+            int max_locals) {
+        stack_map m = new stack_map(cf, code);
+        String[] locals = new String[max_locals];
+        Arrays.fill(locals, "T");
+        int slot = 0;
+        if ((access & class_file.ACC_STATIC) == 0) {
+            locals[slot++] = member.equals("<init>") ? "U" : "L" + cf.name;
+        }
+        for (int i = 1; descriptor.charAt(i) != ')'; i = next_type(descriptor, i)) {
+            String t = of_descriptor(descriptor.substring(i, next_type(descriptor, i)));
+            locals[slot] = t;
+            slot += t.equals("J") || t.equals("D") ? 2 : 1;
+        }
+        m.run(new frame(locals, new ArrayList<String>()));
+        return m.encode();
+    }
+
+    private void run(frame start) {
+        Deque<Integer> todo = new ArrayDeque<Integer>();
+        in[0] = start;
+        todo.add(0);
+        while (!todo.isEmpty()) {
+            int at = todo.poll();
+            frame f = in[at].copy();
+            int op = code[at] & 0xff;
+            int next = step(at, op, f);
+            if (is_branch(op)) {
+                int target = at + (short) u2(at + 1);
+                targets.add(target);
+                flow(target, f, todo);
+            }
+            if (op == code_builder.GOTO || ends(op)) {
+                if (next < code.length) {
+                    targets.add(next);
+                }
+            } else {
+                flow(next, f, todo);
+            }
+        }
+        for (int t: targets) {
+            if (in[t] == null) {
+                throw new IllegalStateException(cf.name + ": unreachable code at " + t);
+            }
+        }
+    }
+
+    private void flow(int to, frame f, Deque<Integer> todo) {
+        if (to >= code.length) {
+            throw new IllegalStateException(cf.name + ": code runs off its end");
+        }
+        frame old = in[to];
+        if (old == null) {
+            in[to] = f.copy();
+            todo.add(to);
+            return;
+        }
+        if (old.stack.size() != f.stack.size()) {
+            throw new IllegalStateException(cf.name + ": inconsistent stack depth at " + to);
+        }
+        boolean changed = false;
+        for (int i = 0; i < old.locals.length; ++i) {
+            String m = merge(old.locals[i], f.locals[i], "T");
+            changed |= !m.equals(old.locals[i]);
+            old.locals[i] = m;
+        }
+        for (int i = 0; i < old.stack.size(); ++i) {
+            String m = merge(old.stack.get(i), f.stack.get(i), null);
+            if (m == null) {
+                throw new IllegalStateException(cf.name + ": inconsistent stack types at " + to);
+            }
+            changed |= !m.equals(old.stack.get(i));
+            old.stack.set(i, m);
+        }
+        if (changed) {
+            todo.add(to);
+        }
+    }
+
+    private static String merge(String a, String b, String otherwise) {
+        if (a.equals(b)) {
+            return a;
+        }
+        boolean ra = is_reference(a) || a.equals("N");
+        boolean rb = is_reference(b) || b.equals("N");
+        if (!ra || !rb) {
+            return otherwise;
+        }
+        return a.equals("N") ? b : b.equals("N") ? a : OBJECT;
+    }
+
+    private static boolean is_reference(String t) {
+        return t.charAt(0) == 'L' || t.charAt(0) == '[';
+    }
+
+    private static boolean is_branch(int op) {
+        return op >= code_builder.IFEQ && op <= code_builder.GOTO || op == code_builder.IFNULL
+                || op == code_builder.IFNONNULL;
+    }
+
+    private static boolean ends(int op) {
+        return op >= code_builder.IRETURN && op <= code_builder.RETURN || op == code_builder.ATHROW;
+    }
+
+    private int u2(int at) {
+        return (code[at] & 0xff) << 8 | code[at + 1] & 0xff;
+    }
+
+    /**
+     * Apply one instruction to f.
+     *
+     * @return The offset of the next instruction.
+     */
+    private int step(int at, int op, frame f) {
+        switch (op) {
+        case code_builder.NOP:
+            return at + 1;
+        case code_builder.ACONST_NULL:
+            f.stack.add("N");
+            return at + 1;
+        case code_builder.BIPUSH:
+            f.stack.add("I");
+            return at + 2;
+        case code_builder.SIPUSH:
+            f.stack.add("I");
+            return at + 3;
+        case code_builder.LDC:
+            f.stack.add(constant_type(code[at + 1] & 0xff));
+            return at + 2;
+        case code_builder.LDC_W:
+        case code_builder.LDC2_W:
+            f.stack.add(constant_type(u2(at + 1)));
+            return at + 3;
+        case code_builder.AASTORE:
+            f.pop(3);
+            return at + 1;
+        case code_builder.POP:
+            f.pop();
+            return at + 1;
+        case code_builder.DUP:
+            f.stack.add(f.stack.get(f.stack.size() - 1));
+            return at + 1;
+        case code_builder.IXOR:
+        case code_builder.LCMP:
+        case code_builder.FCMPL:
+        case code_builder.DCMPL:
+            f.pop(2);
+            f.stack.add("I");
+            return at + 1;
+        case code_builder.IF_ACMPEQ:
+        case code_builder.IF_ACMPEQ + 1:
+            f.pop(2);
+            return at + 3;
+        case code_builder.GOTO:
+            return at + 3;
+        case code_builder.IFNULL:
+        case code_builder.IFNONNULL:
+            f.pop();
+            return at + 3;
+        case code_builder.GETSTATIC:
+        case code_builder.PUTSTATIC:
+        case code_builder.GETFIELD:
+        case code_builder.PUTFIELD: {
+            String key = cf.key_of(u2(at + 1));
+            String t = of_descriptor(key.substring(key.lastIndexOf(' ') + 1));
+            if (op == code_builder.PUTSTATIC || op == code_builder.PUTFIELD) {
+                f.pop();
+            }
+            if (op == code_builder.GETFIELD || op == code_builder.PUTFIELD) {
+                f.pop();
+            }
+            if (op == code_builder.GETSTATIC || op == code_builder.GETFIELD) {
+                f.stack.add(t);
+            }
+            return at + 3;
+        }
+        case code_builder.INVOKEVIRTUAL:
+        case code_builder.INVOKESPECIAL:
+        case code_builder.INVOKESTATIC:
+        case code_builder.INVOKEINTERFACE:
+            invoke(at, op, f);
+            return at + (op == code_builder.INVOKEINTERFACE ? 5 : 3);
+        case code_builder.NEW:
+            f.stack.add("u" + at);
+            return at + 3;
+        case code_builder.ANEWARRAY: {
+            f.pop();
+            String element = class_at(u2(at + 1));
+            f.stack.add("[" + (element.charAt(0) == '[' ? element : "L" + element + ";"));
+            return at + 3;
+        }
+        case code_builder.CHECKCAST:
+            f.pop();
+            f.stack.add(reference(class_at(u2(at + 1))));
+            return at + 3;
+        default:
+            break;
+        }
+        if (op >= code_builder.ICONST_0 - 1 && op <= code_builder.ICONST_0 + 5) {
+            f.stack.add("I");
+        } else if (op >= code_builder.LCONST_0 && op < code_builder.FCONST_0) {
+            f.stack.add("J");
+        } else if (op >= code_builder.FCONST_0 && op < code_builder.DCONST_0) {
+            f.stack.add("F");
+        } else if (op >= code_builder.DCONST_0 && op <= code_builder.DCONST_0 + 1) {
+            f.stack.add("D");
+        } else if (op >= code_builder.ILOAD && op <= code_builder.ALOAD) {
+            load(f, op - code_builder.ILOAD, code[at + 1] & 0xff);
+            return at + 2;
+        } else if (op >= 0x1a && op <= 0x2d) {
+            load(f, (op - 0x1a) / 4, (op - 0x1a) % 4);
+        } else if (op >= code_builder.ISTORE && op <= code_builder.ASTORE) {
+            store(f, code[at + 1] & 0xff);
+            return at + 2;
+        } else if (op >= 0x3b && op <= 0x4e) {
+            store(f, (op - 0x3b) % 4);
+        } else if (is_branch(op)) {
+            // IFEQ to IFLE take one int, IF_ICMPEQ to IF_ICMPLE two.
+            f.pop(op < code_builder.IF_ICMPNE - 1 ? 1 : 2);
+            return at + 3;
+        } else if (ends(op)) {
+            if (op != code_builder.RETURN) {
+                f.pop();
+            }
+        } else {
+            throw new IllegalStateException(cf.name + ": unexpected opcode " + op + " at " + at);
+        }
+        return at + 1;
+    }
+
+    /**
+     * @param kind 0 to 4 for int, long, float, double and reference.
+     */
+    private static void load(frame f, int kind, int slot) {
+        f.stack.add(kind == 4 ? f.locals[slot] : "IJFD".substring(kind, kind + 1));
+    }
+
+    private static void store(frame f, int slot) {
+        String t = f.pop();
+        f.locals[slot] = t;
+        if (t.equals("J") || t.equals("D")) {
+            f.locals[slot + 1] = "T";
+        }
+    }
+
+    private void invoke(int at, int op, frame f) {
+        String key = cf.key_of(u2(at + 1));
+        String descriptor = key.substring(key.indexOf('('));
+        for (int i = 1; descriptor.charAt(i) != ')'; i = next_type(descriptor, i)) {
+            f.pop();
+        }
+        if (op != code_builder.INVOKESTATIC) {
+            String receiver = f.pop();
+            if (op == code_builder.INVOKESPECIAL && key.substring(0, key.indexOf('(')).endsWith(".<init>")) {
+                String made = receiver.equals("U") ? "L" + cf.name
+                        : reference(class_at(u2(Integer.parseInt(receiver.substring(1)) + 1)));
+                for (int i = 0; i < f.locals.length; ++i) {
+                    if (f.locals[i].equals(receiver)) {
+                        f.locals[i] = made;
+                    }
+                }
+                for (int i = 0; i < f.stack.size(); ++i) {
+                    if (f.stack.get(i).equals(receiver)) {
+                        f.stack.set(i, made);
+                    }
+                }
+            }
+        }
+        String returns = descriptor.substring(descriptor.indexOf(')') + 1);
+        if (!returns.equals("V")) {
+            f.stack.add(of_descriptor(returns));
+        }
+    }
+
+    private String class_at(int index) {
+        return cf.key_of(index).substring(1);
+    }
+
+    private String constant_type(int index) {
+        switch (cf.key_of(index).charAt(0)) {
+        case 'S':
+            return "Ljava/lang/String";
+        case 'C':
+            return "Ljava/lang/Class";
+        default:
+            // I, F, J or D: the key's tag is the type's.
+            return cf.key_of(index).substring(0, 1);
+        }
+    }
+
+    /**
+     * @return The type of a class_ref's name: an internal name or an array
+     * descriptor.
+     */
+    private static String reference(String name) {
+        return name.charAt(0) == '[' ? name : "L" + name;
+    }
+
+    private static String of_descriptor(String d) {
+        switch (d.charAt(0)) {
+        case 'Z':
+        case 'B':
+        case 'C':
+        case 'S':
+        case 'I':
+            return "I";
+        case 'L':
+            return d.substring(0, d.length() - 1);
+        default:
+            // F, J, D, or an array descriptor.
+            return d;
+        }
+    }
+
+    private static int next_type(String descriptor, int i) {
+        while (descriptor.charAt(i) == '[') {
+            ++i;
+        }
+        return descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+    }
+
+    private byte[] encode() {
+        if (targets.isEmpty()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * targets.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(targets.size());
+            int last = -1;
+            for (int t: targets) {
+                frame f = in[t];
+                out.writeByte(255);
+                out.writeShort(t - last - 1);
+                last = t;
+                List<String> locals = new ArrayList<String>();
+                for (int i = 0; i < f.locals.length; ++i) {
+                    locals.add(f.locals[i]);
+                    if (f.locals[i].equals("J") || f.locals[i].equals("D")) {
+                        ++i;
+                    }
+                }
+                while (!locals.isEmpty() && locals.get(locals.size() - 1).equals("T")) {
+                    locals.remove(locals.size() - 1);
+                }
+                out.writeShort(locals.size());
+                for (String l: locals) {
+                    write_type(out, l);
+                }
+                out.writeShort(f.stack.size());
+                for (String s: f.stack) {
+                    write_type(out, s);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void write_type(DataOutputStream out, String t) throws IOException {
+        switch (t.charAt(0)) {
+        case 'T':
+            out.writeByte(0);
+            break;
+        case 'I':
+            out.writeByte(1);
+            break;
+        case 'F':
+            out.writeByte(2);
+            break;
+        case 'D':
+            out.writeByte(3);
+            break;
+        case 'J':
+            out.writeByte(4);
+            break;
+        case 'N':
+            out.writeByte(5);
+            break;
+        case 'U':
+            out.writeByte(6);
+            break;
+        case 'u':
+            out.writeByte(8);
+            out.writeShort(Integer.parseInt(t.substring(1)));
+            break;
+        default:
+            out.writeByte(7);
+            out.writeShort(cf.class_ref(t.charAt(0) == 'L' ? t.substring(1) : t));
+            break;
+        }
+    }
+}
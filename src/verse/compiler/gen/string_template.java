@@ -0,0 +1,229 @@
+package verse.compiler.gen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A string literal with <code>${...}</code> in it, such as
+ * <code>"${e}/${e.ordinal}"</code>, split into text and expressions.
+ *
+ * <p>Text is decoded from its escapes (<code>\$</code> among them), and
+ * adjacent text is folded into one part, including any expression that is
+ * itself a literal: <code>"a${"b"}${1}c"</code> is just "ab1c". What is
+ * left compiles to one concatenation: javac turns the source
+ * {@link java_emitter} writes into an <code>invokedynamic</code>
+ * StringConcatFactory call site, and {@link class_emitter} appends to a
+ * StringBuilder presized for the text.</p>
+ */
+public final class string_template {
+
+    /** Text, or the source of an expression. */
+    public static final class part {
+        public final String text;
+        public final boolean is_expression;
+
+        part(String text, boolean is_expression) {
+            this.text = text;
+            this.is_expression = is_expression;
+        }
+
+        @Override
+        public String toString() {
+            return is_expression ? "${" + text + "}" : text;
+        }
+    }
+
+    /** Never empty; no two text parts in a row. */
+    public final List<part> parts;
+
+    private string_template(List<part> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * @param literal Source text of an initializer or other expression.
+     * @return The template, or null if literal isn't one quoted string
+     * with <code>${</code> or <code>\$</code> in it.
+     * @throws IllegalArgumentException if a <code>${</code> doesn't close
+     * or holds nothing.
+     */
+    public static string_template parse(String literal) {
+        String t = literal.trim();
+        if (t.length() < 2 || (t.charAt(0) != '"' && t.charAt(0) != '\'') || t.charAt(t.length() - 1) != t.charAt(0)
+                || !(t.contains("${") || t.contains("\\$"))) {
+            return null;
+        }
+        char quote = t.charAt(0);
+        int end = t.length() - 1;
+        List<part> parts = new ArrayList<part>();
+        StringBuilder text = new StringBuilder();
+        int run = 1;
+        int i = 1;
+        while (i < end) {
+            char c = t.charAt(i);
+            if (c == quote) {
+                // "a" + "${b}" is an expression, not a literal.
+                return null;
+            }
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c != '$' || i + 1 >= end || t.charAt(i + 1) != '{') {
+                ++i;
+                continue;
+            }
+            decode(t.substring(run, i), quote, text);
+            int close = close(t, i + 2, end);
+            String expr = t.substring(i + 2, close).trim();
+            if (expr.isEmpty()) {
+                throw new IllegalArgumentException("${} holds no expression");
+            }
+            String constant = constant(expr);
+            if (constant != null) {
+                text.append(constant);
+            } else {
+                if (text.length() > 0) {
+                    parts.add(new part(text.toString(), false));
+                    text.setLength(0);
+                }
+                parts.add(new part(expr, true));
+            }
+            i = run = close + 1;
+        }
+        decode(t.substring(run, Math.min(i, end)), quote, text);
+        if (text.length() > 0 || parts.isEmpty()) {
+            parts.add(new part(text.toString(), false));
+        }
+        return new string_template(Collections.unmodifiableList(parts));
+    }
+
+    private static void decode(String raw, char quote, StringBuilder text) {
+        String s = unescape(raw, quote);
+        if (s == null) {
+            throw new IllegalArgumentException("the string has an escape that is neither Java's nor \\$");
+        }
+        text.append(s);
+    }
+
+    /**
+     * @return The index of the <code>}</code> that closes an expression
+     * starting at from, past any braces and quoted strings within it.
+     */
+    private static int close(String t, int from, int end) {
+        int depth = 0;
+        char in_quote = 0;
+        for (int i = from; i < end; ++i) {
+            char c = t.charAt(i);
+            if (in_quote != 0) {
+                if (c == '\\') {
+                    ++i;
+                } else if (c == in_quote) {
+                    in_quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                in_quote = c;
+            } else if (c == '{') {
+                ++depth;
+            } else if (c == '}') {
+                if (depth == 0) {
+                    return i;
+                }
+                --depth;
+            }
+        }
+        throw new IllegalArgumentException("${ isn't closed");
+    }
+
+    /**
+     * @return What a literal expression concatenates as, or null if expr
+     * isn't a string, char, decimal int or boolean literal.
+     */
+    private static String constant(String expr) {
+        char first = expr.charAt(0);
+        if ((first == '"' || first == '\'') && expr.length() >= 2 && expr.charAt(expr.length() - 1) == first) {
+            String s = unescape(expr.substring(1, expr.length() - 1), first);
+            return s != null && (first == '"' || s.length() == 1) ? s : null;
+        }
+        if (expr.equals("true") || expr.equals("false")) {
+            return expr;
+        }
+        if (expr.length() <= 9 && expr.matches("-?(0|[1-9][0-9]*)")) {
+            return expr;
+        }
+        return null;
+    }
+
+    /**
+     * @return The template's text, if it has no expressions left; else null.
+     */
+    public String get_constant() {
+        return parts.size() == 1 && !parts.get(0).is_expression ? parts.get(0).text : null;
+    }
+
+    /**
+     * @return How many chars of text the template has, for presizing.
+     */
+    public int get_text_length() {
+        int n = 0;
+        for (part p: parts) {
+            n += p.is_expression ? 0 : p.text.length();
+        }
+        return n;
+    }
+
+    /**
+     * @return The characters a quoted literal stands for, or null if it
+     * has an escape this doesn't handle or an unescaped quote. Besides
+     * Java's escapes, <code>\$</code> stands for a dollar sign.
+     */
+    static String unescape(String s, char quote) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == quote) {
+                return null;
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (++i == s.length()) {
+                return null;
+            }
+            c = s.charAt(i);
+            switch (c) {
+            case 'n': sb.append('\n'); break;
+            case 't': sb.append('\t'); break;
+            case 'r': sb.append('\r'); break;
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case '\\': case '\'': case '"': case '$': sb.append(c); break;
+            case 'u':
+                if (i + 4 >= s.length()) {
+                    return null;
+                }
+                try {
+                    sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                i += 4;
+                break;
+            default:
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (part p: parts) {
+            sb.append(p);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,422 @@
+package verse.compiler.lex;
+
+import java.nio.ByteBuffer;
+
+import verse.compiler.source_file;
+
+/**
+ * Turns a <code>.v</code> file into a {@link token_stream}.
+ *
+ * <p>Layout follows the same rules as python: a line's indentation is
+ * compared to the indentation stack to synthesize INDENT/DEDENT tokens; blank
+ * and comment-only lines don't count; newlines inside (), [] and {} are
+ * ignored, so parameter lists may span lines. Tabs advance to the next
+ * multiple of {@link #TAB_WIDTH}.</p>
+ *
+ * <p>A few tokens depend on the whitespace around them. <code>-w</code> and
+ * <code>+private</code> are a FLAG and a MODIFIER only when the sign follows
+ * whitespace and is glued to a letter. <code>&gt;&gt;</code> is an ARROW only
+ * when it stands alone between spaces, so that the close of
+ * <code>Map&lt;K, List&lt;V&gt;&gt;</code> still lexes as two GTs.</p>
+ *
+ * <p>The lexer scans bytes and never builds a String. Problems become
+ * {@link token_kind#ERROR} tokens rather than exceptions, so one bad line
+ * doesn't hide the diagnostics for the rest of the file.</p>
+ */
+public class lexer {
+
+    public static final int TAB_WIDTH = 8;
+
+    private final source_file file;
+    private final ByteBuffer src;
+    private final int n;
+    private token_stream out;
+
+    private int[] indents = new int[16];
+    private int depth;
+    private int nesting;
+
+    public lexer(source_file file) {
+        this.file = file;
+        this.src = file.get_bytes();
+        this.n = src.limit();
+    }
+
+    public static token_stream lex(source_file file) {
+        return new lexer(file).run();
+    }
+
+    public token_stream run() {
+        // Real code averages about one token per 5 bytes.
+        out = new token_stream(file, n / 5 + 16);
+        indents[0] = 0;
+        depth = 0;
+        nesting = 0;
+        int i = 0;
+        boolean at_line_start = true;
+        while (i < n) {
+            if (at_line_start && nesting == 0) {
+                int col = 0;
+                int j = i;
+                while (j < n) {
+                    byte b = src.get(j);
+                    if (b == ' ') {
+                        ++col;
+                    } else if (b == '\t') {
+                        col = (col / TAB_WIDTH + 1) * TAB_WIDTH;
+                    } else {
+                        break;
+                    }
+                    ++j;
+                }
+                if (j >= n) {
+                    i = j;
+                    break;
+                }
+                byte b = src.get(j);
+                if (b == '\n' || b == '\r') {
+                    i = j + 1;
+                    continue;
+                }
+                if (b == '#') {
+                    i = skip_comment(j);
+                    continue;
+                }
+                indent(col, j);
+                at_line_start = false;
+                i = j;
+                continue;
+            }
+            byte b = src.get(i);
+            switch (b) {
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\f':
+                ++i;
+                break;
+            case '\n':
+                if (nesting == 0) {
+                    out.add(token_kind.NEWLINE, i, 1);
+                    at_line_start = true;
+                }
+                ++i;
+                break;
+            case '#':
+                i = skip_comment(i);
+                break;
+            case '"':
+                i = string(i);
+                break;
+            case '\'':
+                i = quoted(i, '\'', token_kind.STRING);
+                break;
+            case '`':
+                i = quoted(i, '`', token_kind.CODE);
+                break;
+            default:
+                if (is_ident_start(b)) {
+                    i = ident(i);
+                } else if (b >= '0' && b <= '9') {
+                    i = number(i);
+                } else {
+                    i = punct(i, b);
+                }
+                break;
+            }
+        }
+        int last = out.size() == 0 ? token_kind.NEWLINE : out.kind(out.size() - 1);
+        if (last != token_kind.NEWLINE && last != token_kind.DEDENT && last != token_kind.INDENT) {
+            out.add(token_kind.NEWLINE, n, 0);
+        }
+        while (depth > 0) {
+            out.add(token_kind.DEDENT, n, 0);
+            --depth;
+        }
+        out.add(token_kind.EOF, n, 0);
+        return out;
+    }
+
+    private void indent(int col, int at) {
+        if (col > indents[depth]) {
+            push_indent(col);
+            out.add(token_kind.INDENT, at, 0);
+            return;
+        }
+        while (col < indents[depth]) {
+            --depth;
+            out.add(token_kind.DEDENT, at, 0);
+        }
+        if (col != indents[depth]) {
+            // Dedent to a column that no enclosing block used. Report it, then
+            // treat the line as a new block so INDENT/DEDENT stay balanced.
+            out.add(token_kind.ERROR, at, 0);
+            push_indent(col);
+            out.add(token_kind.INDENT, at, 0);
+        }
+    }
+
+    private void push_indent(int col) {
+        if (++depth == indents.length) {
+            int[] bigger = new int[indents.length * 2];
+            System.arraycopy(indents, 0, bigger, 0, indents.length);
+            indents = bigger;
+        }
+        indents[depth] = col;
+    }
+
+    /**
+     * Skip a <code>#</code> comment, or a <code>###</code> block comment that
+     * runs to the next <code>###</code>.
+     *
+     * @return Offset of the newline that ends the comment (or of EOF). For
+     * a block comment, the rest of the closing line is skipped as well.
+     */
+    private int skip_comment(int i) {
+        if (i + 2 < n && src.get(i + 1) == '#' && src.get(i + 2) == '#') {
+            int j = i + 3;
+            while (j + 2 < n && !(src.get(j) == '#' && src.get(j + 1) == '#' && src.get(j + 2) == '#')) {
+                ++j;
+            }
+            if (j + 2 >= n) {
+                out.add(token_kind.ERROR, i, n - i);
+                return n;
+            }
+            i = j + 3;
+        }
+        while (i < n && src.get(i) != '\n') {
+            ++i;
+        }
+        return i;
+    }
+
+    private int string(int i) {
+        if (i + 2 < n && src.get(i + 1) == '"' && src.get(i + 2) == '"') {
+            int j = i + 3;
+            while (j + 2 < n && !(src.get(j) == '"' && src.get(j + 1) == '"' && src.get(j + 2) == '"')) {
+                ++j;
+            }
+            if (j + 2 >= n) {
+                out.add(token_kind.ERROR, i, n - i);
+                return n;
+            }
+            out.add(token_kind.DOCSTRING, i, j + 3 - i);
+            return j + 3;
+        }
+        return quoted(i, '"', token_kind.STRING);
+    }
+
+    /**
+     * Scan a literal that must close on the line where it opens. Backslash
+     * escapes the next byte.
+     */
+    private int quoted(int i, char close, int kind) {
+        int j = i + 1;
+        while (j < n) {
+            byte b = src.get(j);
+            if (b == close) {
+                out.add(kind, i, j + 1 - i);
+                return j + 1;
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (b == '\\') {
+                ++j;
+            }
+            ++j;
+        }
+        j = Math.min(j, n);
+        out.add(token_kind.ERROR, i, j - i);
+        return j;
+    }
+
+    private static boolean is_ident_start(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_';
+    }
+
+    private static boolean is_ident_part(byte b) {
+        return is_ident_start(b) || (b >= '0' && b <= '9');
+    }
+
+    private int ident(int i) {
+        int j = i + 1;
+        while (j < n && is_ident_part(src.get(j))) {
+            ++j;
+        }
+        out.add(token_kind.IDENT, i, j - i);
+        return j;
+    }
+
+    private int number(int i) {
+        int j = i + 1;
+        if (src.get(i) == '0' && j < n && (src.get(j) == 'x' || src.get(j) == 'X')) {
+            ++j;
+            while (j < n && is_ident_part(src.get(j))) {
+                ++j;
+            }
+        } else {
+            while (j < n && src.get(j) >= '0' && src.get(j) <= '9') {
+                ++j;
+            }
+            if (j + 1 < n && src.get(j) == '.' && src.get(j + 1) >= '0' && src.get(j + 1) <= '9') {
+                j += 2;
+                while (j < n && src.get(j) >= '0' && src.get(j) <= '9') {
+                    ++j;
+                }
+            }
+            if (j < n && (src.get(j) == 'e' || src.get(j) == 'E')) {
+                int k = j + 1;
+                if (k < n && (src.get(k) == '+' || src.get(k) == '-')) {
+                    ++k;
+                }
+                if (k < n && src.get(k) >= '0' && src.get(k) <= '9') {
+                    j = k;
+                    while (j < n && src.get(j) >= '0' && src.get(j) <= '9') {
+                        ++j;
+                    }
+                }
+            }
+            // Type suffix: 10L, 1.5f...
+            while (j < n && is_ident_start(src.get(j))) {
+                ++j;
+            }
+        }
+        out.add(token_kind.NUMBER, i, j - i);
+        return j;
+    }
+
+    private boolean after_space(int i) {
+        if (i == 0) {
+            return true;
+        }
+        byte p = src.get(i - 1);
+        return p == ' ' || p == '\t';
+    }
+
+    private byte peek(int i) {
+        return i < n ? src.get(i) : 0;
+    }
+
+    private int punct(int i, byte b) {
+        byte next = peek(i + 1);
+        switch (b) {
+        case '(':
+            ++nesting;
+            out.add(token_kind.LPAREN, i, 1);
+            return i + 1;
+        case ')':
+            close();
+            out.add(token_kind.RPAREN, i, 1);
+            return i + 1;
+        case '[':
+            ++nesting;
+            out.add(token_kind.LBRACKET, i, 1);
+            return i + 1;
+        case ']':
+            close();
+            out.add(token_kind.RBRACKET, i, 1);
+            return i + 1;
+        case '{':
+            ++nesting;
+            out.add(token_kind.LBRACE, i, 1);
+            return i + 1;
+        case '}':
+            close();
+            out.add(token_kind.RBRACE, i, 1);
+            return i + 1;
+        case ':':
+            out.add(token_kind.COLON, i, 1);
+            return i + 1;
+        case ',':
+            out.add(token_kind.COMMA, i, 1);
+            return i + 1;
+        case '.':
+            out.add(token_kind.DOT, i, 1);
+            return i + 1;
+        case ';':
+            out.add(token_kind.SEMI, i, 1);
+            return i + 1;
+        case '?':
+            out.add(token_kind.QUESTION, i, 1);
+            return i + 1;
+        case '-':
+        case '+':
+            if (is_ident_start(next) && after_space(i)) {
+                int j = i + 2;
+                while (j < n && is_ident_part(src.get(j))) {
+                    ++j;
+                }
+                out.add(b == '-' ? token_kind.FLAG : token_kind.MODIFIER, i, j - i);
+                return j;
+            }
+            if (next == b || next == '=') {
+                out.add(token_kind.OPERATOR, i, 2);
+                return i + 2;
+            }
+            out.add(token_kind.OPERATOR, i, 1);
+            return i + 1;
+        case '>':
+            if (next == '>' && after_space(i)) {
+                byte after = peek(i + 2);
+                if (after == ' ' || after == '\t') {
+                    out.add(token_kind.ARROW, i, 2);
+                    return i + 2;
+                }
+            }
+            if (next == '=') {
+                out.add(token_kind.OPERATOR, i, 2);
+                return i + 2;
+            }
+            out.add(token_kind.GT, i, 1);
+            return i + 1;
+        case '<':
+            if (next == '=') {
+                out.add(token_kind.OPERATOR, i, 2);
+                return i + 2;
+            }
+            out.add(token_kind.LT, i, 1);
+            return i + 1;
+        case '=':
+            if (next == '=') {
+                out.add(token_kind.OPERATOR, i, 2);
+                return i + 2;
+            }
+            out.add(token_kind.ASSIGN, i, 1);
+            return i + 1;
+        case '!':
+        case '*':
+        case '/':
+        case '%':
+        case '^':
+            if (next == '=') {
+                out.add(token_kind.OPERATOR, i, 2);
+                return i + 2;
+            }
+            out.add(token_kind.OPERATOR, i, 1);
+            return i + 1;
+        case '&':
+        case '|':
+            if (next == b || next == '=') {
+                out.add(token_kind.OPERATOR, i, 2);
+                return i + 2;
+            }
+            out.add(token_kind.OPERATOR, i, 1);
+            return i + 1;
+        case '~':
+        case '@':
+        case '$':
+            out.add(token_kind.OPERATOR, i, 1);
+            return i + 1;
+        default:
+            out.add(token_kind.ERROR, i, 1);
+            return i + 1;
+        }
+    }
+
+    private void close() {
+        if (nesting > 0) {
+            --nesting;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package verse.compiler.lex;
+
+/**
+ * The kinds of token that {@link lexer} produces. Kinds are plain ints rather
+ * than an enum so that a {@link token_stream} can hold them in an
+ * <code>int[]</code>.
+ */
+public final class token_kind {
+
+    private token_kind() {
+    }
+
+    public static final int EOF = 0;
+    public static final int NEWLINE = 1;
+    public static final int INDENT = 2;
+    public static final int DEDENT = 3;
+
+    /** A name or keyword: <code>members</code>, <code>get_time</code>, <code>Method</code>. */
+    public static final int IDENT = 4;
+    public static final int NUMBER = 5;
+
+    /** A <code>"..."</code> or <code>'...'</code> literal, which may contain <code>${...}</code>. */
+    public static final int STRING = 6;
+
+    /** A <code>"""..."""</code> literal; may span lines. */
+    public static final int DOCSTRING = 7;
+
+    /** A <code>`...`</code> code literal. */
+    public static final int CODE = 8;
+
+    /** A member flag such as <code>-w</code>. */
+    public static final int FLAG = 9;
+
+    /** A modifier such as <code>+private</code>. */
+    public static final int MODIFIER = 10;
+
+    /** <code>&gt;&gt;</code>, introducing a return type. */
+    public static final int ARROW = 11;
+
+    public static final int COLON = 12;
+    public static final int COMMA = 13;
+    public static final int DOT = 14;
+    public static final int SEMI = 15;
+    public static final int LPAREN = 16;
+    public static final int RPAREN = 17;
+    public static final int LBRACKET = 18;
+    public static final int RBRACKET = 19;
+    public static final int LBRACE = 20;
+    public static final int RBRACE = 21;
+    public static final int LT = 22;
+    public static final int GT = 23;
+    public static final int ASSIGN = 24;
+    public static final int QUESTION = 25;
+
+    /** Any other operator: <code>==</code>, <code>!</code>, <code>++</code>, <code>&amp;&amp;</code>... */
+    public static final int OPERATOR = 26;
+
+    /** Something the lexer couldn't make sense of; the parser reports it. */
+    public static final int ERROR = 27;
+
+    public static final int COUNT = 28;
+
+    private static final String[] NAMES = {
+        "EOF", "NEWLINE", "INDENT", "DEDENT", "IDENT", "NUMBER", "STRING",
+        "DOCSTRING", "CODE", "FLAG", "MODIFIER", "ARROW", "COLON", "COMMA",
+        "DOT", "SEMI", "LPAREN", "RPAREN", "LBRACKET", "RBRACKET", "LBRACE",
+        "RBRACE", "LT", "GT", "ASSIGN", "QUESTION", "OPERATOR", "ERROR"
+    };
+
+    public static String name(int kind) {
+        return (kind >= 0 && kind < COUNT) ? NAMES[kind] : "?" + kind;
+    }
+}
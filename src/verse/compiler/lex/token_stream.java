@@ -0,0 +1,128 @@
+package verse.compiler.lex;
+
+import java.util.Arrays;
+
+import verse.compiler.source_file;
+
+/**
+ * The tokens of one source file, stored as three parallel <code>int[]</code>s
+ * (kind, start offset, length) that point back into the file's buffer. A
+ * stream of n tokens costs 12n bytes plus slack, and no per-token objects;
+ * text is only materialized when a caller asks for it.
+ */
+public class token_stream {
+
+    public final source_file file;
+
+    private int[] kinds;
+    private int[] starts;
+    private int[] lengths;
+    private int count;
+
+    public token_stream(source_file file, int initial_capacity) {
+        this.file = file;
+        int cap = Math.max(initial_capacity, 16);
+        kinds = new int[cap];
+        starts = new int[cap];
+        lengths = new int[cap];
+    }
+
+    void add(int kind, int start, int length) {
+        if (count == kinds.length) {
+            int cap = count * 2;
+            kinds = Arrays.copyOf(kinds, cap);
+            starts = Arrays.copyOf(starts, cap);
+            lengths = Arrays.copyOf(lengths, cap);
+        }
+        kinds[count] = kind;
+        starts[count] = start;
+        lengths[count] = length;
+        ++count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int kind(int i) {
+        return kinds[i];
+    }
+
+    /**
+     * @return Byte offset of token i in {@link #file}.
+     */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    public int end(int i) {
+        return starts[i] + lengths[i];
+    }
+
+    /**
+     * Compare a token's bytes to ASCII text without allocating.
+     */
+    public boolean is(int i, String text) {
+        int n = lengths[i];
+        if (n != text.length()) {
+            return false;
+        }
+        int s = starts[i];
+        for (int j = 0; j < n; ++j) {
+            if (file.byte_at(s + j) != text.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The text of token i. Allocates; not for hot loops.
+     */
+    public String text(int i) {
+        return file.get_text(starts[i], lengths[i]);
+    }
+
+    /**
+     * @return How many {@link token_kind#ERROR} tokens the stream holds.
+     */
+    public int count_errors() {
+        int n = 0;
+        for (int i = 0; i < count; ++i) {
+            if (kinds[i] == token_kind.ERROR) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Release the slack left over from growing.
+     */
+    public void trim() {
+        if (count < kinds.length) {
+            kinds = Arrays.copyOf(kinds, count);
+            starts = Arrays.copyOf(starts, count);
+            lengths = Arrays.copyOf(lengths, count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(token_kind.name(kinds[i]));
+            if (lengths[i] > 0 && kinds[i] != token_kind.NEWLINE) {
+                sb.append('(').append(text(i)).append(')');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,323 @@
+package verse.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes generated files, but only those whose content changed. A file
+ * that would be rewritten with the bytes it already has is left alone,
+ * so its timestamp doesn't change and nothing downstream -- javac, jar
+ * tasks, an IDE -- sees a change that isn't one.
+ *
+ * <p>For each file it writes, the writer remembers the {@link content_hash}
+ * of what it wrote and the size and modification time the file had after.
+ * New content is hashed in memory and compared with that; the file on disk
+ * is only read if it has changed since, or was written by someone else.
+ * A changed file goes to a temp file in the same folder that is then
+ * renamed over it, so a reader never sees half of one.</p>
+ *
+ * <p>A file can have an owner -- the unit it was generated for. Once an
+ * owner has written everything it now generates, {@link #finish} deletes
+ * the files it wrote before and didn't this time, such as those of a class
+ * it no longer declares.</p>
+ *
+ * <p>What was written is kept in built.&lt;variant&gt;/verse/outputs.state
+ * between builds; a daemon or watch loop keeps one writer across its
+ * compilations. Writes are thread-safe.</p>
+ */
+public class output_writer {
+
+    static final int FORMAT_VERSION = 2;
+    private static final int MAGIC = 0x564f5731; // "VOW1"
+
+    /** What a file held, and looked like, after it was last written. */
+    private static final class entry {
+        final long hash;
+        final long size;
+        final long modified;
+
+        /** Who wrote it; "" for no one in particular. */
+        final String owner;
+
+        entry(long hash, long size, long modified, String owner) {
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+            this.owner = owner;
+        }
+    }
+
+    private final Path root;
+    private final ConcurrentHashMap<String, entry> by_path = new ConcurrentHashMap<String, entry>();
+
+    /** Paths by owner, as of the entries. */
+    private final ConcurrentHashMap<String, Set<String>> by_owner = new ConcurrentHashMap<String, Set<String>>();
+
+    /** Paths each owner has written since its last {@link #finish}. */
+    private final ConcurrentHashMap<String, Set<String>> rounds = new ConcurrentHashMap<String, Set<String>>();
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /**
+     * @param root The tree whose built folder the files go in; paths are
+     *             remembered relative to it.
+     */
+    public output_writer(Path root) {
+        this.root = root;
+    }
+
+    public static Path get_path(Path root) {
+        return compilation.get_built_folder(root).resolve("verse").resolve("outputs.state");
+    }
+
+    /**
+     * Make out hold bytes, creating its folder if need be.
+     *
+     * @return true if the file was written; false if it already held bytes.
+     */
+    public boolean write(Path out, byte[] bytes) throws IOException {
+        return write("", out, bytes);
+    }
+
+    /**
+     * Make out hold bytes for an owner, which takes the file over from any
+     * other.
+     *
+     * @return true if the file was written; false if it already held bytes.
+     */
+    public boolean write(String owner, Path out, byte[] bytes) throws IOException {
+        long hash = content_hash.of(bytes);
+        String key = key(out);
+        if (!owner.isEmpty()) {
+            Set<String> round = rounds.get(owner);
+            if (round == null) {
+                round = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                Set<String> raced = rounds.putIfAbsent(owner, round);
+                round = raced == null ? round : raced;
+            }
+            round.add(key);
+        }
+        BasicFileAttributes now = attributes(out);
+        if (now != null && now.size() == bytes.length) {
+            entry last = by_path.get(key);
+            boolean untouched = last != null && last.size == now.size()
+                    && last.modified == now.lastModifiedTime().toMillis();
+            if (untouched ? last.hash == hash : content_hash.of(Files.readAllBytes(out)) == hash) {
+                if (!untouched || !last.owner.equals(owner)) {
+                    remember(key, hash, now, owner);
+                }
+                skipped.incrementAndGet();
+                return false;
+            }
+        }
+        Files.createDirectories(out.getParent());
+        Path tmp = Files.createTempFile(out.getParent(), out.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, bytes);
+            Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        remember(key, hash, Files.readAttributes(out, BasicFileAttributes.class), owner);
+        written.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * End an owner's round of writes.
+     *
+     * @param complete True if the owner wrote everything it now generates:
+     *                 the files it wrote before and not this round are
+     *                 deleted. If false -- it failed part way, say -- they
+     *                 are kept along with the new ones.
+     * @return The files that were deleted.
+     */
+    public List<Path> finish(String owner, boolean complete) throws IOException {
+        Set<String> round = rounds.remove(owner);
+        Set<String> had = by_owner.get(owner);
+        if (!complete || had == null) {
+            return Collections.emptyList();
+        }
+        List<Path> deleted = new ArrayList<Path>();
+        for (String key: new ArrayList<String>(had)) {
+            if (round == null || !round.contains(key)) {
+                Path p = root.resolve(key);
+                Files.deleteIfExists(p);
+                forget(key);
+                deleted.add(p);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return Everyone who owns a file, as of the last save or write.
+     */
+    public Set<String> get_owners() {
+        return Collections.unmodifiableSet(by_owner.keySet());
+    }
+    private String key(Path out) {
+        Path p = out.toAbsolutePath();
+        Path r = root.toAbsolutePath();
+        return (p.startsWith(r) ? r.relativize(p) : p).toString().replace('\\', '/');
+    }
+
+    private static BasicFileAttributes attributes(Path p) throws IOException {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void remember(String key, long hash, BasicFileAttributes a, String owner) {
+        entry old = by_path.put(key, new entry(hash, a.size(), a.lastModifiedTime().toMillis(), owner));
+        if (old != null && !old.owner.equals(owner)) {
+            disown(old.owner, key);
+        }
+        own(owner, key);
+        dirty.set(true);
+    }
+
+    private void forget(String key) {
+        entry old = by_path.remove(key);
+        if (old != null) {
+            disown(old.owner, key);
+            dirty.set(true);
+        }
+    }
+
+    private void own(String owner, String key) {
+        if (owner.isEmpty()) {
+            return;
+        }
+        Set<String> keys = by_owner.get(owner);
+        if (keys == null) {
+            keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            Set<String> raced = by_owner.putIfAbsent(owner, keys);
+            keys = raced == null ? keys : raced;
+        }
+        keys.add(key);
+    }
+
+    private void disown(String owner, String key) {
+        Set<String> keys = by_owner.get(owner);
+        if (keys != null) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * @return How many files this writer has written.
+     */
+    public int get_written() {
+        return written.get();
+    }
+
+    /**
+     * @return How many writes this writer has skipped because the file
+     * already held the content.
+     */
+    public int get_skipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Load the state {@link #save} wrote for a tree. A missing, unreadable,
+     * or corrupt file just means every output is compared with what's on
+     * disk once.
+     */
+    public static output_writer load(Path root) {
+        output_writer w = new output_writer(root);
+        Path file = get_path(root);
+        if (!Files.isRegularFile(file)) {
+            return w;
+        }
+        try {
+            InputStream in = Files.newInputStream(file);
+            try {
+                DataInputStream din = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+                if (din.readInt() != MAGIC || din.readInt() != FORMAT_VERSION) {
+                    return w;
+                }
+                int n = din.readInt();
+                if (n < 0) {
+                    throw new IOException("Negative count: " + n);
+                }
+                for (int i = 0; i < n; ++i) {
+                    String key = din.readUTF();
+                    // Fail here, not in finish(), on a key that isn't a path.
+                    root.resolve(key);
+                    entry e = new entry(din.readLong(), din.readLong(), din.readLong(), din.readUTF());
+                    w.by_path.put(key, e);
+                    w.own(e.owner, key);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            w.by_path.clear();
+            w.by_owner.clear();
+        } catch (RuntimeException e) {
+            w.by_path.clear();
+            w.by_owner.clear();
+        }
+        return w;
+    }
+
+    /**
+     * Write the state if anything was written or checked since it was
+     * loaded or last saved, through a temp file renamed over the old one.
+     *
+     * @return true if anything was written.
+     */
+    public boolean save() throws IOException {
+        if (!dirty.getAndSet(false)) {
+            return false;
+        }
+        Path file = get_path(root);
+        Files.createDirectories(file.getParent());
+        Map<String, entry> sorted = new TreeMap<String, entry>(by_path);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        OutputStream out = Files.newOutputStream(tmp);
+        try {
+            DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            dout.writeInt(MAGIC);
+            dout.writeInt(FORMAT_VERSION);
+            dout.writeInt(sorted.size());
+            for (Map.Entry<String, entry> e: sorted.entrySet()) {
+                dout.writeUTF(e.getKey());
+                dout.writeLong(e.getValue().hash);
+                dout.writeLong(e.getValue().size);
+                dout.writeLong(e.getValue().modified);
+                dout.writeUTF(e.getValue().owner);
+            }
+            dout.flush();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+}
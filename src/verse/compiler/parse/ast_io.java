@@ -0,0 +1,102 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+
+/**
+ * Helpers shared by the syntax tree classes when they write themselves to,
+ * or read themselves from, the on-disk {@link parse_cache}.
+ */
+final class ast_io {
+
+    /** The most bytes or items reserved for a count before they have been read. */
+    private static final int MAX_RESERVE = 4096;
+
+    private ast_io() {
+    }
+
+    /**
+     * Read a count written with writeInt. A corrupt stream can claim any
+     * count, so callers reserve room for at most {@link #reserve} of it up
+     * front and let the reads themselves run into the end of the input.
+     */
+    static int read_count(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            throw new IOException("Negative count: " + n);
+        }
+        return n;
+    }
+
+    static int reserve(int n) {
+        return Math.min(n, MAX_RESERVE);
+    }
+
+    /**
+     * Write a string that may be null or longer than writeUTF allows (a long
+     * docstring, say). Length -1 means null.
+     */
+    static void write_string(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(source_file.UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String read_string(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n == -1) {
+            return null;
+        } else if (n < 0) {
+            throw new IOException("Negative length: " + n);
+        }
+        // Grow as the bytes arrive, so a bad length costs at most twice what
+        // is actually left to read.
+        byte[] b = new byte[reserve(n)];
+        in.readFully(b);
+        while (b.length < n) {
+            int done = b.length;
+            b = Arrays.copyOf(b, (int) Math.min(n, 2L * done));
+            in.readFully(b, done, b.length - done);
+        }
+        return new String(b, source_file.UTF8);
+    }
+
+    static void write_strings(DataOutput out, List<String> items) throws IOException {
+        out.writeInt(items.size());
+        for (String s: items) {
+            out.writeUTF(s);
+        }
+    }
+
+    /**
+     * Read a name or type written with writeUTF, as its canonical String.
+     */
+    static String read_symbol(DataInput in, symbol_table symbols) throws IOException {
+        return symbols.name(symbols.intern(in.readUTF()));
+    }
+
+    static String read_nullable_symbol(DataInput in, symbol_table symbols) throws IOException {
+        String s = read_string(in);
+        return s == null ? null : symbols.name(symbols.intern(s));
+    }
+
+    static List<String> read_symbols(DataInput in, symbol_table symbols) throws IOException {
+        int n = read_count(in);
+        List<String> items = new ArrayList<String>(reserve(n));
+        for (int i = 0; i < n; ++i) {
+            items.add(read_symbol(in, symbols));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,85 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import verse.compiler.symbol_table;
+
+/**
+ * A <code>class</code> declared in a <code>.v</code> file or described by a
+ * descriptor. A class may have several <code>members:</code> and
+ * <code>methods:</code> blocks; they are merged here in source order.
+ */
+public class class_decl {
+
+    public final String name;
+    public final List<String> interfaces;
+    public final List<String> semantics;
+    public final List<member_decl> members;
+    public final List<method_decl> methods;
+
+    /** Flags, then options, of a cmdline descriptor; empty for other classes. */
+    public final List<switch_decl> switches;
+
+    public final doc_ref doc;
+    public final int offset;
+
+    public class_decl(String name, List<String> interfaces, List<String> semantics,
+            List<member_decl> members, List<method_decl> methods, List<switch_decl> switches, doc_ref doc,
+            int offset) {
+        this.name = name;
+        this.interfaces = interfaces;
+        this.semantics = semantics;
+        this.members = members;
+        this.methods = methods;
+        this.switches = switches;
+        this.doc = doc;
+        this.offset = offset;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        ast_io.write_strings(out, interfaces);
+        ast_io.write_strings(out, semantics);
+        out.writeInt(members.size());
+        for (member_decl m: members) {
+            m.write(out);
+        }
+        out.writeInt(methods.size());
+        for (method_decl m: methods) {
+            m.write(out);
+        }
+        out.writeInt(switches.size());
+        for (switch_decl s: switches) {
+            s.write(out);
+        }
+        doc_ref.write(out, doc);
+        out.writeInt(offset);
+    }
+
+    static class_decl read(DataInput in, symbol_table symbols) throws IOException {
+        String name = ast_io.read_symbol(in, symbols);
+        List<String> interfaces = ast_io.read_symbols(in, symbols);
+        List<String> semantics = ast_io.read_symbols(in, symbols);
+        int n = ast_io.read_count(in);
+        List<member_decl> members = new ArrayList<member_decl>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            members.add(member_decl.read(in, symbols));
+        }
+        n = ast_io.read_count(in);
+        List<method_decl> methods = new ArrayList<method_decl>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            methods.add(method_decl.read(in, symbols));
+        }
+        n = ast_io.read_count(in);
+        List<switch_decl> switches = new ArrayList<switch_decl>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            switches.add(switch_decl.read(in, symbols));
+        }
+        return new class_decl(name, interfaces, semantics, members, methods, switches, doc_ref.read(in),
+                in.readInt());
+    }
+}
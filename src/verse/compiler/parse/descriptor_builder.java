@@ -0,0 +1,433 @@
+package verse.compiler.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import verse.compiler.content_hash;
+import verse.compiler.diagnostic;
+import verse.compiler.phase;
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+
+/**
+ * Turns the events of a {@link descriptor_reader} into the same syntax tree
+ * the {@link parser} makes for <code>.v</code> files: one {@link class_decl},
+ * named after the descriptor file. Names with spaces, such as
+ * "inventory amount", become identifiers ("inventory_amount"). Qualifiers
+ * such as <code>final</code> and <code>nonneg</code> become modifiers;
+ * whatever else is left of a member's value is its type.
+ *
+ * <p>The <code>flags:</code> and <code>options:</code> of a cmdline
+ * descriptor become the class's {@link switch_decl}s.</p>
+ */
+public class descriptor_builder implements descriptor_handler {
+
+    /** Words in a member or parameter spec that qualify it rather than name its type. */
+    public static final Set<String> QUALIFIERS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "final", "nonneg", "positive", "nonnull", "unsigned", "weakref", "override")));
+
+    private final source_file file;
+    private final symbol_table symbols;
+    private final String class_name;
+    private final List<String> interfaces = new ArrayList<String>();
+    private final List<String> semantics = new ArrayList<String>();
+    private final List<member_decl> members = new ArrayList<member_decl>();
+    private final List<method_decl> methods = new ArrayList<method_decl>();
+    private final List<switch_decl> flags = new ArrayList<switch_decl>();
+    private final List<switch_decl> options = new ArrayList<switch_decl>();
+    private final List<diagnostic> diagnostics = new ArrayList<diagnostic>();
+    private doc_ref doc;
+    private descriptor_key section;
+
+    // The entry whose attributes are being read; finished by the next entry
+    // or section, or by the end of the file.
+    private String entry_name;
+    private String entry_value;
+    private int entry_offset = -1;
+    private doc_ref entry_doc;
+    private String entry_returns;
+    private List<String> entry_throws;
+    private pending_switch entry_switch;
+
+    /** Attributes of a flag or option, as they are read. */
+    private static class pending_switch {
+        List<String> aliases = Collections.emptyList();
+        String placeholder;
+        String default_value;
+        List<String> values = Collections.emptyList();
+        String validator;
+        int position;
+        boolean repeatable;
+        boolean required;
+        boolean hidden;
+        boolean masked;
+    }
+
+    public descriptor_builder(source_file file, symbol_table symbols) {
+        this.file = file;
+        this.symbols = symbols;
+        String file_name = file.path.substring(file.path.lastIndexOf('/') + 1);
+        int dot = file_name.lastIndexOf('.');
+        this.class_name = symbol(dot == -1 ? file_name : file_name.substring(0, dot));
+    }
+
+    public static parsed_file build(source_file file, symbol_table symbols) {
+        return build(file, content_hash.of(file), symbols);
+    }
+
+    public static parsed_file build(source_file file, long hash, symbol_table symbols) {
+        long t = phase.PARSE.enter();
+        try {
+            descriptor_builder b = new descriptor_builder(file, symbols);
+            new descriptor_reader(file, symbols, b).run();
+            return b.get_result(hash);
+        } finally {
+            phase.PARSE.exit(t);
+        }
+    }
+
+    public parsed_file get_result(long hash) {
+        finish_entry();
+        List<class_decl> classes = new ArrayList<class_decl>(1);
+        List<switch_decl> switches = new ArrayList<switch_decl>(flags.size() + options.size());
+        switches.addAll(flags);
+        switches.addAll(options);
+        classes.add(new class_decl(class_name, interfaces, semantics, members, methods, switches, doc, 0));
+        return new parsed_file(file.path, hash, Collections.<import_decl>emptyList(), classes,
+                Collections.<task_decl>emptyList(), diagnostics);
+    }
+
+    private String symbol(String s) {
+        return symbols.name(symbols.intern(s));
+    }
+
+    private String identifier(String name) {
+        return symbol(name.trim().replace(' ', '_'));
+    }
+
+    @Override
+    public void error(int offset, String message) {
+        diagnostics.add(new diagnostic(file.path, offset, message));
+    }
+
+    @Override
+    public void section(descriptor_key key, String value, int offset) {
+        finish_entry();
+        section = key;
+        switch (key) {
+        case DESCRIP:
+            doc = doc_ref.of(value);
+            break;
+        case IMPLEMENTS:
+            for (String item: split(value, offset)) {
+                interfaces.add(symbol(item));
+            }
+            break;
+        case SEMANTICS:
+            for (String item: split(value, offset)) {
+                semantics.add(symbol(item));
+            }
+            break;
+        case CTOR:
+            methods.add(new method_decl(symbol("ctor"), params(value, offset), null,
+                    Collections.<String>emptyList(), Collections.<String>emptyList(), null, offset, -1, -1));
+            break;
+        default:
+            if (!value.isEmpty()) {
+                error(offset, String.format("%s: takes entries on the lines below it", key.word));
+            }
+        }
+    }
+
+    @Override
+    public void entry(String name, String value, int offset) {
+        finish_entry();
+        if (section != descriptor_key.MEMBERS && section != descriptor_key.METHODS
+                && section != descriptor_key.FLAGS && section != descriptor_key.OPTIONS) {
+            error(offset, String.format("%s: takes no entries", section.word));
+            return;
+        }
+        entry_name = name;
+        entry_value = value;
+        entry_offset = offset;
+        if (section == descriptor_key.FLAGS || section == descriptor_key.OPTIONS) {
+            entry_switch = new pending_switch();
+            if (value != null && !value.isEmpty()) {
+                error(offset, String.format("%s: takes attributes on the lines below it", name));
+            }
+        }
+    }
+
+    @Override
+    public void attribute(String name, String value, int offset) {
+        if (entry_offset == -1) {
+            return;
+        }
+        if (entry_switch != null && !name.equals("descrip")) {
+            switch_attribute(name, value == null ? "" : value, offset);
+        } else if (name.equals("descrip")) {
+            entry_doc = doc_ref.of(value);
+        } else if (section == descriptor_key.METHODS && name.equals("returns") && value != null) {
+            String type = value.endsWith(":") ? value.substring(0, value.length() - 1).trim() : value;
+            entry_returns = type.isEmpty() ? null : symbol(type);
+        } else if (section == descriptor_key.METHODS && name.equals("throws") && value != null) {
+            entry_throws = new ArrayList<String>();
+            for (String item: split(value, offset)) {
+                entry_throws.add(symbol(item));
+            }
+        } else {
+            error(offset, String.format("%s is not an attribute of %s", name,
+                    section == descriptor_key.METHODS ? "a method" : "a member"));
+        }
+    }
+
+    private void switch_attribute(String name, String value, int offset) {
+        pending_switch s = entry_switch;
+        boolean flag = section == descriptor_key.FLAGS;
+        if (name.equals("aliases")) {
+            s.aliases = new ArrayList<String>();
+            for (String item: split(value, offset)) {
+                s.aliases.add(symbol(item));
+            }
+        } else if (name.equals("hidden")) {
+            s.hidden = bool(name, value, offset);
+        } else if (name.equals("masked")) {
+            s.masked = bool(name, value, offset);
+        } else if (flag) {
+            error(offset, String.format("%s is not an attribute of a flag", name));
+        } else if (name.equals("placeholder")) {
+            s.placeholder = value;
+        } else if (name.equals("default")) {
+            s.default_value = value.equals("null") ? null : value;
+        } else if (name.equals("values")) {
+            s.values = new ArrayList<String>();
+            for (String item: split(value, offset)) {
+                s.values.add(symbol(item));
+            }
+        } else if (name.equals("validator")) {
+            boolean code = value.length() > 1 && value.startsWith("`") && value.endsWith("`");
+            boolean regex = value.length() > 1 && value.startsWith("/") && value.endsWith("/");
+            if (!code && !regex) {
+                error(offset, "validator: expected `code` or /regex/");
+            }
+            s.validator = value;
+        } else if (name.equals("position")) {
+            try {
+                s.position = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                s.position = -1;
+            }
+            if (s.position < 1) {
+                error(offset, String.format("position: expected a number from 1 up, not %s", value));
+                s.position = 0;
+            }
+        } else if (name.equals("repeatable")) {
+            s.repeatable = bool(name, value, offset);
+        } else if (name.equals("required")) {
+            if (value.startsWith("//") || value.startsWith("`")) {
+                // A cmdline parser decides this when it is generated; it has
+                // nothing to call at run time.
+                error(offset, String.format("required: %s would decide at run time, which isn't supported; "
+                        + "expected true or false", value));
+            } else {
+                s.required = bool(name, value, offset);
+            }
+        } else {
+            error(offset, String.format("%s is not an attribute of an option", name));
+        }
+    }
+
+    private boolean bool(String name, String value, int offset) {
+        if (!value.equals("true") && !value.equals("false")) {
+            error(offset, String.format("%s: expected true or false, not %s", name, value));
+        }
+        return value.equals("true");
+    }
+
+    private void finish_entry() {
+        if (entry_offset == -1) {
+            return;
+        }
+        if (entry_switch != null) {
+            pending_switch s = entry_switch;
+            boolean flag = section == descriptor_key.FLAGS;
+            (flag ? flags : options).add(new switch_decl(identifier(entry_name), flag, s.aliases, entry_doc,
+                    s.placeholder, s.default_value, s.values, s.validator, s.position, s.repeatable, s.required,
+                    s.hidden, s.masked, entry_offset));
+        }
+        if (section == descriptor_key.MEMBERS) {
+            spec s = spec(entry_value == null ? "" : entry_value, entry_offset, true);
+            members.add(new member_decl(identifier(entry_name), s.type, Collections.<String>emptyList(),
+                    s.modifiers, s.initializer, entry_doc, entry_offset));
+        } else if (section == descriptor_key.METHODS) {
+            String v = entry_value == null ? "" : entry_value;
+            List<param_decl> params = Collections.emptyList();
+            if (v.startsWith("[")) {
+                int close = matching(v, 0);
+                if (close == -1) {
+                    error(entry_offset, "unterminated [");
+                    close = v.length() - 1;
+                }
+                params = params(v.substring(0, close + 1), entry_offset);
+                v = v.substring(close + 1).trim();
+            }
+            List<String> modifiers = spec(v, entry_offset, false).modifiers;
+            List<String> thrown = entry_throws == null ? Collections.<String>emptyList() : entry_throws;
+            methods.add(new method_decl(identifier(entry_name), params, entry_returns, thrown, modifiers,
+                    entry_doc, entry_offset, -1, -1));
+        }
+        entry_name = null;
+        entry_value = null;
+        entry_offset = -1;
+        entry_doc = null;
+        entry_returns = null;
+        entry_throws = null;
+        entry_switch = null;
+    }
+
+    /**
+     * What a member, parameter, or method spec says: qualifiers, a type,
+     * and for members an initializer.
+     */
+    private static class spec {
+        String type;
+        List<String> modifiers = new ArrayList<String>();
+        String initializer;
+    }
+
+    private spec spec(String text, int offset, boolean allow_type) {
+        spec s = new spec();
+        int eq = find_top_level(text, '=');
+        if (eq != -1) {
+            s.initializer = text.substring(eq + 1).trim();
+            text = text.substring(0, eq).trim();
+        }
+        StringBuilder type = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            while (i < text.length() && text.charAt(i) == ' ') {
+                ++i;
+            }
+            if (i == text.length()) {
+                break;
+            }
+            int begin = i;
+            if (text.charAt(i) == '{') {
+                int close = matching(text, i);
+                if (close == -1) {
+                    error(offset, "unterminated {");
+                    break;
+                }
+                s.modifiers.add(symbol(text.substring(i, close + 1)));
+                i = close + 1;
+                continue;
+            }
+            int depth = 0;
+            while (i < text.length() && (depth > 0 || text.charAt(i) != ' ')) {
+                char c = text.charAt(i);
+                if (c == '<' || c == '[' || c == '(') {
+                    ++depth;
+                } else if ((c == '>' || c == ']' || c == ')') && depth > 0) {
+                    --depth;
+                }
+                ++i;
+            }
+            String word = text.substring(begin, i);
+            if (QUALIFIERS.contains(word)) {
+                s.modifiers.add(symbol(word));
+            } else if (type.length() > 0 || !allow_type) {
+                error(offset, String.format("%s: expected a qualifier such as final or nonneg", word));
+            } else {
+                type.append(word);
+            }
+        }
+        s.type = type.length() == 0 ? null : symbol(type.toString());
+        return s;
+    }
+
+    /**
+     * Parse "[name: spec, name, ...]".
+     */
+    private List<param_decl> params(String text, int offset) {
+        List<param_decl> params = new ArrayList<param_decl>();
+        if (!text.startsWith("[")) {
+            error(offset, "expected [parameters]");
+            return params;
+        }
+        int close = matching(text, 0);
+        String inner = text.substring(1, close == -1 ? text.length() : close);
+        for (String item: split(inner, offset)) {
+            int colon = find_top_level(item, ':');
+            String name = colon == -1 ? item : item.substring(0, colon);
+            spec s = spec(colon == -1 ? "" : item.substring(colon + 1), offset, true);
+            params.add(new param_decl(identifier(name), s.type, s.modifiers, null));
+        }
+        return params;
+    }
+
+    /**
+     * Split a comma-separated list at top-level commas, trimming each item
+     * and dropping empty ones.
+     */
+    private List<String> split(String text, int offset) {
+        List<String> items = new ArrayList<String>();
+        int depth = 0;
+        int begin = 0;
+        for (int i = 0; i <= text.length(); ++i) {
+            char c = i < text.length() ? text.charAt(i) : ',';
+            if (c == '<' || c == '[' || c == '(' || c == '{') {
+                ++depth;
+            } else if ((c == '>' || c == ']' || c == ')' || c == '}') && depth > 0) {
+                --depth;
+            } else if (c == ',' && (depth == 0 || i == text.length())) {
+                String item = text.substring(begin, Math.min(i, text.length())).trim();
+                if (!item.isEmpty()) {
+                    items.add(item);
+                }
+                begin = i + 1;
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @return Index of the first c outside brackets, or -1.
+     */
+    private static int find_top_level(String text, char c) {
+        int depth = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char ch = text.charAt(i);
+            if (ch == '<' || ch == '[' || ch == '(' || ch == '{') {
+                ++depth;
+            } else if ((ch == '>' || ch == ']' || ch == ')' || ch == '}') && depth > 0) {
+                --depth;
+            } else if (ch == c && depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Index of the bracket that closes the one at open, or -1. Only
+     * brackets of the same kind count, so "{x]" is unterminated.
+     */
+    private static int matching(String text, int open) {
+        char opener = text.charAt(open);
+        char closer = opener == '[' ? ']' : opener == '{' ? '}' : opener == '(' ? ')' : '>';
+        int depth = 0;
+        for (int i = open; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == opener) {
+                ++depth;
+            } else if (c == closer && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,30 @@
+package verse.compiler.parse;
+
+/**
+ * Receives what a {@link descriptor_reader} finds, in file order. Values are
+ * the raw text after the colon, trimmed; they are "" when the line has a
+ * colon and nothing after it, and null when it has no colon at all (as in a
+ * bare method name under <code>methods:</code>). Offsets are byte offsets
+ * of the line's key.
+ */
+public interface descriptor_handler {
+
+    /**
+     * A top-level line such as <code>members:</code> or
+     * <code>descrip: allocates resources</code>.
+     */
+    void section(descriptor_key key, String value, int offset);
+
+    /**
+     * A line nested under the current section: a member, method, flag, or
+     * option.
+     */
+    void entry(String name, String value, int offset);
+
+    /**
+     * A line nested under the current entry, such as <code>aliases: h</code>.
+     */
+    void attribute(String name, String value, int offset);
+
+    void error(int offset, String message);
+}
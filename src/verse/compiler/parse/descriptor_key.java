@@ -0,0 +1,33 @@
+package verse.compiler.parse;
+
+/**
+ * The top-level keys a class descriptor (a <code>.yaml</code> file) may use.
+ */
+public enum descriptor_key {
+    DESCRIP("descrip"),
+    IMPLEMENTS("implements"),
+    SEMANTICS("semantics"),
+    MEMBERS("members"),
+    METHODS("methods"),
+    CTOR("ctor"),
+    FLAGS("flags"),
+    OPTIONS("options");
+
+    public final String word;
+
+    descriptor_key(String word) {
+        this.word = word;
+    }
+
+    /**
+     * @return The key spelled word, or null.
+     */
+    public static descriptor_key from_word(String word) {
+        for (descriptor_key k: values()) {
+            if (k.word.equals(word)) {
+                return k;
+            }
+        }
+        return null;
+    }
+}
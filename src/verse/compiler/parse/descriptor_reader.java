@@ -0,0 +1,201 @@
+package verse.compiler.parse;
+
+import verse.compiler.lex.lexer;
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+import verse.dbc.precondition;
+
+/**
+ * Reads class descriptors -- the <code>.yaml</code> files beside verse code,
+ * such as <code>classes/scheduler.yaml</code> -- in one pass over their
+ * bytes, and reports each line to a {@link descriptor_handler} as it goes.
+ *
+ * <p>Descriptors use a small fixed shape: top-level {@link descriptor_key}s,
+ * entries indented under them, and attributes indented under entries. This
+ * reader knows exactly that shape and nothing else of YAML -- no documents,
+ * anchors, flow mappings, or multi-line scalars -- so it builds no tree of
+ * its own: keys are interned straight from the file's bytes, and the only
+ * other strings it makes are the values it hands on. Whole-line
+ * <code>#</code> comments and trailing ones (after whitespace, outside
+ * brackets and backticks) are skipped; tabs count to the next multiple of
+ * {@link lexer#TAB_WIDTH}.</p>
+ */
+public class descriptor_reader {
+
+    private static final int MAX_DEPTH = 3;
+
+    private final source_file file;
+    private final symbol_table symbols;
+    private final descriptor_handler handler;
+
+    public descriptor_reader(source_file file, symbol_table symbols, descriptor_handler handler) {
+        precondition.checkNotNull(file, "file");
+        precondition.checkNotNull(symbols, "symbols");
+        precondition.checkNotNull(handler, "handler");
+        this.file = file;
+        this.symbols = symbols;
+        this.handler = handler;
+    }
+
+    public void run() {
+        int n = file.length();
+        int[] columns = new int[MAX_DEPTH];
+        int depth = -1;
+        boolean in_section = false;
+        boolean in_entry = false;
+        int pos = 0;
+        while (pos < n) {
+            int eol = pos;
+            while (eol < n && file.byte_at(eol) != '\n') {
+                ++eol;
+            }
+            int next = eol + 1;
+            int col = 0;
+            int i = pos;
+            for (; i < eol; ++i) {
+                byte b = file.byte_at(i);
+                if (b == ' ') {
+                    ++col;
+                } else if (b == '\t') {
+                    col = (col / lexer.TAB_WIDTH + 1) * lexer.TAB_WIDTH;
+                } else {
+                    break;
+                }
+            }
+            int end = content_end(i, eol);
+            if (i == end) {
+                pos = next;
+                continue;
+            }
+
+            int level;
+            if (col == 0) {
+                level = 0;
+            } else if (depth >= 0 && col > columns[depth]) {
+                level = depth + 1;
+            } else {
+                level = -1;
+                for (int d = depth; d > 0; --d) {
+                    if (columns[d] == col) {
+                        level = d;
+                        break;
+                    }
+                }
+                if (level == -1) {
+                    handler.error(i, "indentation doesn't match any enclosing line");
+                    pos = next;
+                    continue;
+                }
+            }
+            if (level >= MAX_DEPTH) {
+                handler.error(i, "descriptors nest at most three levels deep");
+                pos = next;
+                continue;
+            }
+            columns[level] = col;
+            depth = level;
+
+            int colon = find_colon(i, end);
+            int key_end = trim_end(i, colon == -1 ? end : colon);
+            String value = null;
+            if (colon != -1) {
+                int v = colon + 1;
+                while (v < end && is_blank(file.byte_at(v))) {
+                    ++v;
+                }
+                value = v < end ? file.get_text(v, end - v) : "";
+            }
+
+            if (level == 0) {
+                in_entry = false;
+                in_section = false;
+                descriptor_key key = descriptor_key.from_word(file.get_text(i, key_end - i));
+                if (colon == -1) {
+                    handler.error(i, "expected key:");
+                } else if (key == null) {
+                    handler.error(i, String.format("%s is not a descriptor key", file.get_text(i, key_end - i)));
+                } else {
+                    handler.section(key, value, i);
+                    in_section = true;
+                }
+            } else if (level == 1) {
+                in_entry = false;
+                if (!in_section) {
+                    handler.error(i, "indented line outside any section");
+                } else {
+                    handler.entry(symbol(i, key_end), value, i);
+                    in_entry = true;
+                }
+            } else if (!in_entry) {
+                handler.error(i, "indented line outside any entry");
+            } else {
+                handler.attribute(symbol(i, key_end), value, i);
+            }
+            pos = next;
+        }
+    }
+
+    private String symbol(int begin, int end) {
+        return symbols.name(symbols.intern(file, begin, end - begin));
+    }
+
+    private static boolean is_blank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private int trim_end(int begin, int end) {
+        while (end > begin && is_blank(file.byte_at(end - 1))) {
+            --end;
+        }
+        return end;
+    }
+
+    /**
+     * @return Where a line's content ends: before a comment, and before
+     * trailing blanks.
+     */
+    private int content_end(int begin, int eol) {
+        int nesting = 0;
+        boolean in_code = false;
+        for (int i = begin; i < eol; ++i) {
+            byte b = file.byte_at(i);
+            if (b == '`') {
+                in_code = !in_code;
+            } else if (in_code) {
+                continue;
+            } else if (b == '[' || b == '{' || b == '(') {
+                ++nesting;
+            } else if ((b == ']' || b == '}' || b == ')') && nesting > 0) {
+                --nesting;
+            } else if (b == '#' && nesting == 0 && (i == begin || is_blank(file.byte_at(i - 1)))) {
+                return trim_end(begin, i);
+            }
+        }
+        return trim_end(begin, eol);
+    }
+
+    /**
+     * @return The colon that ends a line's key -- the first one followed by
+     * a blank or the end of the line, outside brackets and backticks -- or
+     * -1.
+     */
+    private int find_colon(int begin, int end) {
+        int nesting = 0;
+        boolean in_code = false;
+        for (int i = begin; i < end; ++i) {
+            byte b = file.byte_at(i);
+            if (b == '`') {
+                in_code = !in_code;
+            } else if (in_code) {
+                continue;
+            } else if (b == '[' || b == '{' || b == '(' || b == '<') {
+                ++nesting;
+            } else if ((b == ']' || b == '}' || b == ')' || b == '>') && nesting > 0) {
+                --nesting;
+            } else if (b == ':' && nesting == 0 && (i + 1 == end || is_blank(file.byte_at(i + 1)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,108 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Where a declaration's documentation is in its source, rather than the
+ * text itself. Most docs are never read -- only emitters that write
+ * javadoc or usage text ask for them -- so the parser records the
+ * docstring token's offset and length, and {@link #get_text} decodes it
+ * from the file's buffer when asked.
+ *
+ * <p>Descriptor docs are already decoded by the time the builder sees
+ * them, so a ref can also just hold its text.</p>
+ *
+ * <p>A ref reaches its file through a {@link source_ref}, which doesn't keep
+ * the file's buffer alive once no compilation is using it. A ref read back
+ * from the {@link parse_cache} knows its offsets but not its file;
+ * {@link parsed_file#bind} attaches the file the cache matched it to.</p>
+ */
+public final class doc_ref {
+
+    private final int offset;
+    private final int length;
+
+    /** How many quote characters to strip from each end of the token. */
+    private final int quotes;
+
+    /** Set when the text was known up front; otherwise decoded each time. */
+    private final String text;
+
+    private volatile source_ref source;
+
+    private doc_ref(source_ref source, int offset, int length, int quotes, String text) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.quotes = quotes;
+        this.text = text;
+    }
+
+    /**
+     * @param offset Byte offset of a string or docstring token.
+     * @param length Its length in bytes, quotes included.
+     * @param quotes 3 for a docstring, 1 for a string.
+     */
+    static doc_ref at(source_ref source, int offset, int length, int quotes) {
+        return new doc_ref(source, offset, length, quotes, null);
+    }
+
+    /**
+     * @return A ref that holds its text, or null for a null text.
+     */
+    public static doc_ref of(String text) {
+        return text == null ? null : new doc_ref(null, -1, 0, 0, text);
+    }
+
+    /**
+     * @return The doc without its quotes, trimmed.
+     */
+    public String get_text() {
+        if (text != null) {
+            return text;
+        }
+        source_ref s = source;
+        if (s == null) {
+            throw new IllegalStateException("doc at " + offset + " isn't bound to a source file");
+        }
+        return s.get().get_text(offset + quotes, length - 2 * quotes).trim();
+    }
+
+    void bind(source_ref source) {
+        if (text == null) {
+            this.source = source;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return get_text();
+    }
+
+    static void write(DataOutput out, doc_ref doc) throws IOException {
+        if (doc == null) {
+            out.writeByte(0);
+        } else if (doc.text != null) {
+            out.writeByte(1);
+            ast_io.write_string(out, doc.text);
+        } else {
+            out.writeByte(2);
+            out.writeInt(doc.offset);
+            out.writeInt(doc.length);
+            out.writeByte(doc.quotes);
+        }
+    }
+
+    static doc_ref read(DataInput in) throws IOException {
+        switch (in.readByte()) {
+        case 0:
+            return null;
+        case 1:
+            return of(ast_io.read_string(in));
+        default:
+            return new doc_ref(null, in.readInt(), in.readInt(), in.readByte(), null);
+        }
+    }
+}
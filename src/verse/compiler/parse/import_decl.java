@@ -0,0 +1,42 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import verse.compiler.symbol_table;
+
+/**
+ * Names imported from one package. In <code>java.util: Date, Map</code>,
+ * the package is "java.util" and the names are "Date" and "Map". Nested
+ * entries are flattened, so <code>regex: Pattern</code> under
+ * <code>java.util:</code> becomes its own import_decl for "java.util.regex".
+ */
+public class import_decl {
+
+    public final String pkg;
+    public final List<String> names;
+    public final int offset;
+
+    public import_decl(String pkg, List<String> names, int offset) {
+        this.pkg = pkg;
+        this.names = names;
+        this.offset = offset;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(pkg);
+        ast_io.write_strings(out, names);
+        out.writeInt(offset);
+    }
+
+    static import_decl read(DataInput in, symbol_table symbols) throws IOException {
+        return new import_decl(ast_io.read_symbol(in, symbols), ast_io.read_symbols(in, symbols), in.readInt());
+    }
+
+    @Override
+    public String toString() {
+        return pkg + ": " + names;
+    }
+}
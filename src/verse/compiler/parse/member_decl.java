@@ -0,0 +1,60 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import verse.compiler.symbol_table;
+
+/**
+ * A field declared in a <code>members:</code> block, such as
+ * <code>getter: Method -w</code> or <code>annotation: Properties = null</code>.
+ */
+public class member_decl {
+
+    public final String name;
+    public final String type;
+
+    /** Flags such as "-w", sign included. */
+    public final List<String> flags;
+
+    /**
+     * Modifiers such as "+private", sign included; in descriptors, bare
+     * qualifiers such as "final" or "nonneg".
+     */
+    public final List<String> modifiers;
+
+    /** Source text of the initializer, or null. */
+    public final String initializer;
+
+    public final doc_ref doc;
+    public final int offset;
+
+    public member_decl(String name, String type, List<String> flags, List<String> modifiers,
+            String initializer, doc_ref doc, int offset) {
+        this.name = name;
+        this.type = type;
+        this.flags = flags;
+        this.modifiers = modifiers;
+        this.initializer = initializer;
+        this.doc = doc;
+        this.offset = offset;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        ast_io.write_string(out, type);
+        ast_io.write_strings(out, flags);
+        ast_io.write_strings(out, modifiers);
+        ast_io.write_string(out, initializer);
+        doc_ref.write(out, doc);
+        out.writeInt(offset);
+    }
+
+    static member_decl read(DataInput in, symbol_table symbols) throws IOException {
+        return new member_decl(ast_io.read_symbol(in, symbols), ast_io.read_nullable_symbol(in, symbols),
+                ast_io.read_symbols(in, symbols), ast_io.read_symbols(in, symbols), ast_io.read_string(in),
+                doc_ref.read(in), in.readInt());
+    }
+}
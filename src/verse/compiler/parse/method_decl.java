@@ -0,0 +1,75 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import verse.compiler.symbol_table;
+
+/**
+ * A method declared in a <code>methods:</code> block. The body is not parsed
+ * here; it is recorded as a byte range of the source file so that later
+ * phases can parse it when (and if) they need it.
+ */
+public class method_decl {
+
+    public final String name;
+    public final List<param_decl> params;
+
+    /** Return type, or null if the header has no <code>&gt;&gt;</code>. */
+    public final String return_type;
+
+    public final List<String> thrown;
+    public final List<String> modifiers;
+    public final doc_ref doc;
+    public final int offset;
+
+    /** Byte range of the body, or -1/-1 if the method has none. */
+    public final int body_start;
+    public final int body_end;
+
+    public method_decl(String name, List<param_decl> params, String return_type, List<String> thrown,
+            List<String> modifiers, doc_ref doc, int offset, int body_start, int body_end) {
+        this.name = name;
+        this.params = params;
+        this.return_type = return_type;
+        this.thrown = thrown;
+        this.modifiers = modifiers;
+        this.doc = doc;
+        this.offset = offset;
+        this.body_start = body_start;
+        this.body_end = body_end;
+    }
+
+    public boolean has_body() {
+        return body_start >= 0;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeInt(params.size());
+        for (param_decl p: params) {
+            p.write(out);
+        }
+        ast_io.write_string(out, return_type);
+        ast_io.write_strings(out, thrown);
+        ast_io.write_strings(out, modifiers);
+        doc_ref.write(out, doc);
+        out.writeInt(offset);
+        out.writeInt(body_start);
+        out.writeInt(body_end);
+    }
+
+    static method_decl read(DataInput in, symbol_table symbols) throws IOException {
+        String name = ast_io.read_symbol(in, symbols);
+        int n = ast_io.read_count(in);
+        List<param_decl> params = new ArrayList<param_decl>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            params.add(param_decl.read(in, symbols));
+        }
+        return new method_decl(name, params, ast_io.read_nullable_symbol(in, symbols),
+                ast_io.read_symbols(in, symbols), ast_io.read_symbols(in, symbols), doc_ref.read(in), in.readInt(), in.readInt(), in.readInt());
+    }
+}
@@ -0,0 +1,42 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import verse.compiler.symbol_table;
+
+/**
+ * One parameter of a {@link method_decl}. The type is null when the source
+ * leaves it to be inferred, as in <code>handle_annotation(annotation)</code>.
+ */
+public class param_decl {
+
+    public final String name;
+    public final String type;
+
+    /** Qualifiers such as "nonnull"; descriptors only. */
+    public final List<String> modifiers;
+
+    public final doc_ref doc;
+
+    public param_decl(String name, String type, List<String> modifiers, doc_ref doc) {
+        this.name = name;
+        this.type = type;
+        this.modifiers = modifiers;
+        this.doc = doc;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        ast_io.write_string(out, type);
+        ast_io.write_strings(out, modifiers);
+        doc_ref.write(out, doc);
+    }
+
+    static param_decl read(DataInput in, symbol_table symbols) throws IOException {
+        return new param_decl(ast_io.read_symbol(in, symbols), ast_io.read_nullable_symbol(in, symbols),
+                ast_io.read_symbols(in, symbols), doc_ref.read(in));
+    }
+}
@@ -0,0 +1,224 @@
+package verse.compiler.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import verse.compiler.content_hash;
+import verse.compiler.source_file;
+import verse.compiler.source_kind;
+import verse.compiler.symbol_table;
+
+/**
+ * Remembers the {@link parsed_file} for each source path, keyed by the
+ * {@link content_hash} of the text it was parsed from. A file whose hash
+ * hasn't changed is never lexed or parsed again.
+ *
+ * <p>A cache lives as long as whoever owns it: a one-shot build loads it from
+ * disk, uses it, and saves it back; a daemon or watch loop keeps one instance
+ * in memory across all of its compilations. Lookups and updates are
+ * thread-safe.</p>
+ */
+public class parse_cache {
+
+    /** Bump whenever the serialized form of the syntax tree changes. */
+    static final int FORMAT_VERSION = 5;
+    private static final int MAGIC = 0x56504331; // "VPC1"
+
+    private final ConcurrentHashMap<String, parsed_file> by_path = new ConcurrentHashMap<String, parsed_file>();
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final symbol_table symbols = new symbol_table();
+
+    /**
+     * @return The table every name and type in this cache's syntax trees was
+     * interned through. Symbol ids are stable for the cache's lifetime.
+     */
+    public symbol_table get_symbols() {
+        return symbols;
+    }
+
+    /**
+     * @return The cached parse of a file, or null if there isn't one for this
+     * exact content.
+     */
+    public parsed_file get(String path, long hash) {
+        parsed_file p = by_path.get(path);
+        return (p != null && p.hash == hash) ? p : null;
+    }
+
+    public void put(parsed_file p) {
+        parsed_file old = by_path.put(p.path, p);
+        if (old != p) {
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Return the cached parse of a file, or parse it and remember the result.
+     * Descriptors go through {@link descriptor_builder}; their entries
+     * describe the same kind of class a .v file declares.
+     */
+    public parsed_file parse(source_file file) {
+        long hash = content_hash.of(file);
+        parsed_file p = get(file.path, hash);
+        if (p != null) {
+            hits.incrementAndGet();
+            p.bind(file);
+            return p;
+        }
+        misses.incrementAndGet();
+        p = file.kind == source_kind.DESCRIPTOR
+                ? descriptor_builder.build(file, hash, symbols)
+                : parser.parse(file, hash, symbols);
+        put(p);
+        return p;
+    }
+
+    /**
+     * Forget entries for paths that are no longer part of the tree, so the
+     * cache doesn't grow without bound as files are deleted or renamed.
+     */
+    public void retain(Iterable<String> live_paths) {
+        Set<String> live = new HashSet<String>();
+        for (String p: live_paths) {
+            live.add(p);
+        }
+        if (by_path.keySet().retainAll(live)) {
+            dirty.set(true);
+        }
+    }
+
+    public int size() {
+        return by_path.size();
+    }
+
+    public long get_hits() {
+        return hits.get();
+    }
+
+    public long get_misses() {
+        return misses.get();
+    }
+
+    /**
+     * Write one entry the way {@link #save} does, for a process that needs a
+     * few of a cache's entries but not the rest of its file.
+     */
+    public static void write_entry(DataOutput out, parsed_file p) throws IOException {
+        p.write(out);
+    }
+
+    /**
+     * Read an entry written by {@link #write_entry}, interning its names
+     * through this cache's table, and remember it.
+     */
+    public parsed_file read_entry(DataInput in) throws IOException {
+        parsed_file p = parsed_file.read(in, symbols);
+        put(p);
+        return p;
+    }
+
+    /**
+     * Load a cache written by {@link #save}. A missing, truncated,
+     * corrupt, or out-of-date file just yields an empty cache -- the price
+     * is a full parse, not a failed build.
+     */
+    public static parse_cache load(Path file) {
+        parse_cache cache = new parse_cache();
+        if (!Files.isRegularFile(file)) {
+            return cache;
+        }
+        try {
+            InputStream in = Files.newInputStream(file);
+            try {
+                DataInputStream din = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+                if (din.readInt() != MAGIC || din.readInt() != FORMAT_VERSION) {
+                    return cache;
+                }
+                int n = din.readInt();
+                for (int i = 0; i < n; ++i) {
+                    parsed_file p = parsed_file.read(din, cache.symbols);
+                    cache.by_path.put(p.path, p);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            cache.by_path.clear();
+        } catch (RuntimeException e) {
+            // Garbage can get past the reads and trip up what is built from
+            // them; it's still just a bad cache.
+            cache.by_path.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Write the cache if it has changed since it was loaded or last saved.
+     * The new content goes to a temp file that is then renamed over the old
+     * one, so a crash can't leave a half-written cache behind.
+     *
+     * @return true if anything was written.
+     */
+    public boolean save(Path file) throws IOException {
+        if (!dirty.getAndSet(false)) {
+            return false;
+        }
+        boolean ok = false;
+        try {
+            write(file);
+            ok = true;
+        } finally {
+            if (!ok) {
+                dirty.set(true);
+            }
+        }
+        return true;
+    }
+
+    private void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        List<parsed_file> entries = new ArrayList<parsed_file>(by_path.values());
+        Collections.sort(entries, new Comparator<parsed_file>() {
+            @Override
+            public int compare(parsed_file a, parsed_file b) {
+                return a.path.compareTo(b.path);
+            }
+        });
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        OutputStream out = Files.newOutputStream(tmp);
+        try {
+            DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            dout.writeInt(MAGIC);
+            dout.writeInt(FORMAT_VERSION);
+            dout.writeInt(entries.size());
+            for (parsed_file p: entries) {
+                p.write(dout);
+            }
+            dout.flush();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,134 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import verse.compiler.diagnostic;
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+
+/**
+ * Everything the parser learned from one <code>.v</code> file. Its syntax
+ * tree doesn't change once built, so it can be shared between compilations
+ * and between threads, and it can be written to and read back from the
+ * {@link parse_cache}. The one thing that does change is which copy of the
+ * source its docs read from; see {@link #bind}.
+ */
+public class parsed_file {
+
+    public final String path;
+
+    /** {@link verse.compiler.content_hash} of the source this was parsed from. */
+    public final long hash;
+
+    public final List<import_decl> imports;
+    public final List<class_decl> classes;
+
+    /** Tasks declared in a root build.v; empty in every other file. */
+    public final List<task_decl> tasks;
+
+    public final List<diagnostic> diagnostics;
+
+    /** How this file's {@link doc_ref}s find the text they read from. */
+    private volatile source_ref bound;
+
+    public parsed_file(String path, long hash, List<import_decl> imports, List<class_decl> classes,
+            List<task_decl> tasks, List<diagnostic> diagnostics) {
+        this.path = path;
+        this.hash = hash;
+        this.imports = imports;
+        this.classes = classes;
+        this.tasks = tasks;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Point this file's docs at the text they were parsed from. The
+     * {@link parse_cache} calls this when it hands out a cached parse, so
+     * that docs read back from disk, or parsed from a since-reloaded copy
+     * of the same content, decode from the current file.
+     */
+    void bind(source_file file) {
+        source_ref b = bound;
+        if (b != null && b.is(file)) {
+            return;
+        }
+        source_ref source = new source_ref(file, hash);
+        for (class_decl c: classes) {
+            bind(c.doc, source);
+            for (member_decl m: c.members) {
+                bind(m.doc, source);
+            }
+            for (method_decl m: c.methods) {
+                bind(m.doc, source);
+                for (param_decl p: m.params) {
+                    bind(p.doc, source);
+                }
+            }
+            for (switch_decl s: c.switches) {
+                bind(s.doc, source);
+            }
+        }
+        for (task_decl t: tasks) {
+            bind(t.doc, source);
+        }
+        bound = source;
+    }
+
+    private static void bind(doc_ref doc, source_ref source) {
+        if (doc != null) {
+            doc.bind(source);
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(hash);
+        out.writeInt(imports.size());
+        for (import_decl d: imports) {
+            d.write(out);
+        }
+        out.writeInt(classes.size());
+        for (class_decl c: classes) {
+            c.write(out);
+        }
+        out.writeInt(tasks.size());
+        for (task_decl t: tasks) {
+            t.write(out);
+        }
+        out.writeInt(diagnostics.size());
+        for (diagnostic d: diagnostics) {
+            out.writeInt(d.offset);
+            out.writeUTF(d.message);
+        }
+    }
+
+    static parsed_file read(DataInput in, symbol_table symbols) throws IOException {
+        String path = in.readUTF();
+        long hash = in.readLong();
+        int n = ast_io.read_count(in);
+        List<import_decl> imports = new ArrayList<import_decl>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            imports.add(import_decl.read(in, symbols));
+        }
+        n = ast_io.read_count(in);
+        List<class_decl> classes = new ArrayList<class_decl>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            classes.add(class_decl.read(in, symbols));
+        }
+        n = ast_io.read_count(in);
+        List<task_decl> tasks = new ArrayList<task_decl>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            tasks.add(task_decl.read(in, symbols));
+        }
+        n = ast_io.read_count(in);
+        List<diagnostic> diagnostics = new ArrayList<diagnostic>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            diagnostics.add(new diagnostic(path, in.readInt(), in.readUTF()));
+        }
+        return new parsed_file(path, hash, imports, classes, tasks, diagnostics);
+    }
+}
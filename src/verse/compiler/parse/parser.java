@@ -0,0 +1,716 @@
+package verse.compiler.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import verse.compiler.content_hash;
+import verse.compiler.diagnostic;
+import verse.compiler.lex.lexer;
+import verse.compiler.lex.token_kind;
+import verse.compiler.lex.token_stream;
+import verse.compiler.phase;
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+
+/**
+ * Builds a {@link parsed_file} from the tokens of a <code>.v</code> file.
+ *
+ * <p>The parser handles declarations -- the <code>import:</code> block,
+ * classes, and their <code>implements:</code>, <code>semantics:</code>,
+ * <code>members:</code> and <code>methods:</code> blocks, and the
+ * <code>task</code>s of a root build.v. Method bodies are skipped and
+ * recorded as byte ranges. When a line doesn't parse, the parser
+ * reports it, skips the line along with any block nested under it, and
+ * carries on.</p>
+ */
+public class parser {
+
+    private final token_stream ts;
+    private final source_file file;
+    private final symbol_table symbols;
+    private final List<diagnostic> diagnostics = new ArrayList<diagnostic>();
+    private int i;
+    private doc_ref pending_doc;
+    private source_ref source;
+
+    public parser(token_stream ts) {
+        this(ts, new symbol_table());
+    }
+
+    /**
+     * @param symbols Table that names and types are interned through, so the
+     *                trees of a whole build share one String for each.
+     */
+    public parser(token_stream ts, symbol_table symbols) {
+        this.ts = ts;
+        this.file = ts.file;
+        this.symbols = symbols;
+    }
+
+    public static parsed_file parse(source_file file) {
+        return parse(file, content_hash.of(file));
+    }
+
+    /**
+     * @param hash The file's {@link content_hash}, if the caller already has it.
+     */
+    public static parsed_file parse(source_file file, long hash) {
+        return parse(file, hash, new symbol_table());
+    }
+
+    public static parsed_file parse(source_file file, long hash, symbol_table symbols) {
+        token_stream ts;
+        long t = phase.LEX.enter();
+        try {
+            ts = lexer.lex(file);
+        } finally {
+            phase.LEX.exit(t);
+        }
+        t = phase.PARSE.enter();
+        try {
+            return new parser(ts, symbols).run(hash);
+        } finally {
+            phase.PARSE.exit(t);
+        }
+    }
+
+    public parsed_file run(long hash) {
+        source = new source_ref(file, hash);
+        for (int j = 0; j < ts.size(); ++j) {
+            if (ts.kind(j) == token_kind.ERROR) {
+                error_at(ts.start(j), ts.length(j) == 0 ? "inconsistent dedent" : "unexpected or unterminated text");
+            }
+        }
+        List<import_decl> imports = new ArrayList<import_decl>();
+        List<class_decl> classes = new ArrayList<class_decl>();
+        List<task_decl> tasks = new ArrayList<task_decl>();
+        i = 0;
+        skip_errors();
+        while (kind() != token_kind.EOF) {
+            if (kind() == token_kind.NEWLINE) {
+                advance();
+            } else if (take_doc()) {
+                continue;
+            } else if (at_keyword("import")) {
+                parse_imports(imports);
+            } else if (is("class")) {
+                class_decl c = parse_class();
+                if (c != null) {
+                    classes.add(c);
+                }
+            } else if (is("task")) {
+                task_decl t = parse_task();
+                if (t != null) {
+                    tasks.add(t);
+                }
+            } else {
+                error("expected import: or class");
+                skip_statement();
+            }
+        }
+        return new parsed_file(file.path, hash, imports, classes, tasks, diagnostics);
+    }
+
+    // ---- cursor ----
+
+    private int kind() {
+        return ts.kind(i);
+    }
+
+    private int kind(int ahead) {
+        int j = i + ahead;
+        return j < ts.size() ? ts.kind(j) : token_kind.EOF;
+    }
+
+    private boolean is(String text) {
+        return ts.kind(i) == token_kind.IDENT && ts.is(i, text);
+    }
+
+    /**
+     * @return true if the cursor is on <code>text:</code>.
+     */
+    private boolean at_keyword(String text) {
+        return is(text) && kind(1) == token_kind.COLON;
+    }
+
+    private void advance() {
+        if (ts.kind(i) != token_kind.EOF) {
+            ++i;
+        }
+        skip_errors();
+    }
+
+    /**
+     * Lexer errors were already reported; don't let them derail parsing.
+     */
+    private void skip_errors() {
+        while (ts.kind(i) == token_kind.ERROR) {
+            ++i;
+        }
+    }
+
+    private boolean accept(int k) {
+        if (kind() == k) {
+            advance();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean expect(int k) {
+        if (accept(k)) {
+            return true;
+        }
+        error("expected " + token_kind.name(k).toLowerCase());
+        return false;
+    }
+
+    /**
+     * @return The canonical String for a token's text.
+     */
+    private String symbol(int tok) {
+        return symbols.name(symbols.intern(file, ts.start(tok), ts.length(tok)));
+    }
+
+    private String symbol(CharSequence s) {
+        return symbols.name(symbols.intern(s));
+    }
+
+    private String ident() {
+        if (kind() != token_kind.IDENT) {
+            error("expected a name");
+            return null;
+        }
+        String s = symbol(i);
+        advance();
+        return s;
+    }
+
+    private void error(String msg) {
+        error_at(ts.start(i), msg);
+    }
+
+    private void error_at(int offset, String msg) {
+        diagnostics.add(new diagnostic(file.path, offset, msg));
+    }
+
+    /**
+     * Skip the rest of the current line and any block nested under it.
+     */
+    private void skip_statement() {
+        while (kind() != token_kind.NEWLINE && kind() != token_kind.EOF
+                && kind() != token_kind.DEDENT && kind() != token_kind.INDENT) {
+            advance();
+        }
+        accept(token_kind.NEWLINE);
+        if (accept(token_kind.INDENT)) {
+            skip_block();
+        }
+    }
+
+    /**
+     * Skip to the DEDENT that closes a block whose INDENT has been consumed.
+     *
+     * @return End offset of the last real token in the block, or -1.
+     */
+    private int skip_block() {
+        int depth = 1;
+        int last_end = -1;
+        while (kind() != token_kind.EOF) {
+            int k = kind();
+            if (k == token_kind.INDENT) {
+                ++depth;
+            } else if (k == token_kind.DEDENT) {
+                if (--depth == 0) {
+                    advance();
+                    break;
+                }
+            } else if (k != token_kind.NEWLINE) {
+                last_end = ts.end(i);
+            }
+            advance();
+        }
+        return last_end;
+    }
+
+    // ---- docs ----
+
+    /**
+     * If the cursor is on a string that stands alone on its line, remember it
+     * as documentation for the next declaration.
+     */
+    private boolean take_doc() {
+        int k = kind();
+        if ((k == token_kind.STRING || k == token_kind.DOCSTRING) && kind(1) == token_kind.NEWLINE) {
+            pending_doc = doc_text(i);
+            advance();
+            advance();
+            return true;
+        }
+        return false;
+    }
+
+    private doc_ref claim_doc() {
+        doc_ref doc = pending_doc;
+        pending_doc = null;
+        return doc;
+    }
+
+    private doc_ref doc_text(int tok) {
+        return doc_ref.at(source, ts.start(tok), ts.length(tok), ts.kind(tok) == token_kind.DOCSTRING ? 3 : 1);
+    }
+
+    // ---- imports ----
+
+    private void parse_imports(List<import_decl> imports) {
+        pending_doc = null;
+        advance();
+        advance();
+        expect(token_kind.NEWLINE);
+        if (!expect(token_kind.INDENT)) {
+            return;
+        }
+        parse_import_entries("", imports);
+        expect(token_kind.DEDENT);
+    }
+
+    private void parse_import_entries(String prefix, List<import_decl> imports) {
+        while (kind() != token_kind.DEDENT && kind() != token_kind.EOF) {
+            if (accept(token_kind.NEWLINE)) {
+                continue;
+            }
+            int offset = ts.start(i);
+            String dotted = dotted_name();
+            if (dotted == null) {
+                skip_statement();
+                continue;
+            }
+            String full = prefix.isEmpty() ? dotted : symbol(prefix + "." + dotted);
+            if (accept(token_kind.COLON)) {
+                List<String> names = new ArrayList<String>();
+                while (kind() == token_kind.IDENT) {
+                    names.add(symbol(i));
+                    advance();
+                    if (!accept(token_kind.COMMA)) {
+                        break;
+                    }
+                }
+                accept(token_kind.SEMI);
+                if (!names.isEmpty()) {
+                    imports.add(new import_decl(full, names, offset));
+                }
+                if (!expect(token_kind.NEWLINE)) {
+                    skip_statement();
+                    continue;
+                }
+                if (accept(token_kind.INDENT)) {
+                    parse_import_entries(full, imports);
+                    expect(token_kind.DEDENT);
+                }
+            } else {
+                int dot = full.lastIndexOf('.');
+                if (dot == -1) {
+                    error_at(offset, "expected a package and a name");
+                } else {
+                    List<String> names = new ArrayList<String>(1);
+                    names.add(symbol(full.substring(dot + 1)));
+                    imports.add(new import_decl(symbol(full.substring(0, dot)), names, offset));
+                }
+                accept(token_kind.SEMI);
+                if (!expect(token_kind.NEWLINE)) {
+                    skip_statement();
+                }
+            }
+        }
+    }
+
+    private String dotted_name() {
+        String s = ident();
+        if (s == null) {
+            return null;
+        }
+        if (kind() != token_kind.DOT || kind(1) != token_kind.IDENT) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s);
+        while (kind() == token_kind.DOT && kind(1) == token_kind.IDENT) {
+            advance();
+            sb.append('.').append(ts.text(i));
+            advance();
+        }
+        return symbol(sb);
+    }
+
+    // ---- types ----
+
+    /**
+     * Parse a type such as <code>Class&lt;? extends resource&gt;</code> or
+     * <code>Annotation[]</code>, and return it in canonical spelling.
+     */
+    private String type() {
+        StringBuilder sb = new StringBuilder();
+        return type(sb) ? symbol(sb) : null;
+    }
+
+    private boolean type(StringBuilder sb) {
+        String name = dotted_name();
+        if (name == null) {
+            return false;
+        }
+        sb.append(name);
+        if (accept(token_kind.LT)) {
+            sb.append('<');
+            boolean first = true;
+            while (kind() != token_kind.GT) {
+                if (!first) {
+                    if (!expect(token_kind.COMMA)) {
+                        return false;
+                    }
+                    sb.append(", ");
+                }
+                first = false;
+                if (accept(token_kind.QUESTION)) {
+                    sb.append('?');
+                    if (is("extends") || is("super")) {
+                        sb.append(' ').append(ts.text(i)).append(' ');
+                        advance();
+                        if (!type(sb)) {
+                            return false;
+                        }
+                    }
+                } else if (!type(sb)) {
+                    return false;
+                }
+            }
+            advance();
+            sb.append('>');
+        }
+        while (kind() == token_kind.LBRACKET && kind(1) == token_kind.RBRACKET) {
+            advance();
+            advance();
+            sb.append("[]");
+        }
+        return true;
+    }
+
+    private List<String> type_list() {
+        List<String> types = new ArrayList<String>();
+        do {
+            String t = type();
+            if (t == null) {
+                break;
+            }
+            types.add(t);
+        } while (accept(token_kind.COMMA));
+        return types;
+    }
+
+    private List<String> ident_list() {
+        List<String> names = new ArrayList<String>();
+        do {
+            String s = ident();
+            if (s == null) {
+                break;
+            }
+            names.add(s);
+        } while (accept(token_kind.COMMA));
+        return names;
+    }
+
+    // ---- classes ----
+
+    private class_decl parse_class() {
+        doc_ref doc = claim_doc();
+        int offset = ts.start(i);
+        advance();
+        String name = ident();
+        if (name == null || !expect(token_kind.COLON) || !expect(token_kind.NEWLINE)) {
+            skip_statement();
+            return null;
+        }
+        List<String> interfaces = new ArrayList<String>();
+        List<String> semantics = new ArrayList<String>();
+        List<member_decl> members = new ArrayList<member_decl>();
+        List<method_decl> methods = new ArrayList<method_decl>();
+        if (!expect(token_kind.INDENT)) {
+            return new class_decl(name, interfaces, semantics, members, methods,
+                    Collections.<switch_decl>emptyList(), doc, offset);
+        }
+        while (kind() != token_kind.DEDENT && kind() != token_kind.EOF) {
+            if (accept(token_kind.NEWLINE) || take_doc()) {
+                continue;
+            }
+            if (at_keyword("implements")) {
+                advance();
+                advance();
+                interfaces.addAll(type_list());
+                end_line();
+            } else if (at_keyword("semantics")) {
+                advance();
+                advance();
+                semantics.addAll(ident_list());
+                end_line();
+            } else if (at_keyword("members")) {
+                if (open_block()) {
+                    parse_members(members);
+                }
+            } else if (at_keyword("methods")) {
+                if (open_block()) {
+                    parse_methods(methods);
+                }
+            } else {
+                error("expected implements:, semantics:, members: or methods:");
+                skip_statement();
+            }
+        }
+        accept(token_kind.DEDENT);
+        return new class_decl(name, interfaces, semantics, members, methods,
+                Collections.<switch_decl>emptyList(), doc, offset);
+    }
+
+    /**
+     * Consume <code>keyword: NEWLINE INDENT</code>.
+     */
+    private boolean open_block() {
+        pending_doc = null;
+        advance();
+        advance();
+        if (!expect(token_kind.NEWLINE)) {
+            skip_statement();
+            return false;
+        }
+        return expect(token_kind.INDENT);
+    }
+
+    private void end_line() {
+        if (!expect(token_kind.NEWLINE)) {
+            skip_statement();
+        }
+    }
+
+    private void parse_members(List<member_decl> members) {
+        while (kind() != token_kind.DEDENT && kind() != token_kind.EOF) {
+            if (accept(token_kind.NEWLINE) || take_doc()) {
+                continue;
+            }
+            doc_ref doc = claim_doc();
+            int offset = ts.start(i);
+            String name = ident();
+            if (name == null || !expect(token_kind.COLON)) {
+                skip_statement();
+                continue;
+            }
+            String type = type();
+            List<String> flags = new ArrayList<String>();
+            List<String> modifiers = new ArrayList<String>();
+            collect_signs(flags, modifiers);
+            String initializer = null;
+            if (accept(token_kind.ASSIGN)) {
+                int start = ts.start(i);
+                int end = start;
+                while (kind() != token_kind.NEWLINE && kind() != token_kind.EOF) {
+                    end = ts.end(i);
+                    advance();
+                }
+                initializer = file.get_text(start, end - start);
+            }
+            if (type == null && initializer == null) {
+                skip_statement();
+                continue;
+            }
+            members.add(new member_decl(name, type, flags, modifiers, initializer, doc, offset));
+            end_line();
+        }
+        accept(token_kind.DEDENT);
+    }
+
+    private void collect_signs(List<String> flags, List<String> modifiers) {
+        while (true) {
+            if (kind() == token_kind.FLAG) {
+                flags.add(symbol(i));
+            } else if (kind() == token_kind.MODIFIER) {
+                modifiers.add(symbol(i));
+            } else {
+                return;
+            }
+            advance();
+        }
+    }
+
+    private void parse_methods(List<method_decl> methods) {
+        while (kind() != token_kind.DEDENT && kind() != token_kind.EOF) {
+            if (accept(token_kind.NEWLINE) || take_doc()) {
+                continue;
+            }
+            method_decl m = parse_method();
+            if (m != null) {
+                methods.add(m);
+            }
+        }
+        accept(token_kind.DEDENT);
+    }
+
+    private method_decl parse_method() {
+        doc_ref doc = claim_doc();
+        int offset = ts.start(i);
+        String name = ident();
+        if (name == null || !expect(token_kind.LPAREN)) {
+            skip_statement();
+            return null;
+        }
+        List<param_decl> params = new ArrayList<param_decl>();
+        doc_ref pdoc = null;
+        while (kind() != token_kind.RPAREN && kind() != token_kind.EOF) {
+            int k = kind();
+            if (k == token_kind.STRING || k == token_kind.DOCSTRING) {
+                pdoc = doc_text(i);
+                advance();
+            } else if (k == token_kind.COMMA) {
+                advance();
+            } else if (k == token_kind.IDENT) {
+                String pname = symbol(i);
+                advance();
+                String ptype = accept(token_kind.COLON) ? type() : null;
+                params.add(new param_decl(pname, ptype, Collections.<String>emptyList(), pdoc));
+                pdoc = null;
+            } else {
+                error("expected a parameter");
+                while (kind() != token_kind.RPAREN && kind() != token_kind.NEWLINE && kind() != token_kind.EOF) {
+                    advance();
+                }
+                break;
+            }
+        }
+        if (!expect(token_kind.RPAREN)) {
+            skip_statement();
+            return null;
+        }
+        List<String> modifiers = new ArrayList<String>();
+        List<String> flags = new ArrayList<String>();
+        collect_signs(flags, modifiers);
+        String return_type = null;
+        if (accept(token_kind.ARROW)) {
+            return_type = type();
+        }
+        collect_signs(flags, modifiers);
+        List<String> thrown = new ArrayList<String>();
+        int body_start = -1;
+        int body_end = -1;
+        if (!expect(token_kind.NEWLINE)) {
+            skip_statement();
+        } else if (accept(token_kind.INDENT)) {
+            while (kind() != token_kind.DEDENT && kind() != token_kind.EOF) {
+                if (accept(token_kind.NEWLINE)) {
+                    continue;
+                }
+                if (at_keyword("throws")) {
+                    advance();
+                    advance();
+                    thrown.addAll(type_list());
+                    end_line();
+                } else if (kind() == token_kind.COLON && kind(1) == token_kind.NEWLINE && kind(2) == token_kind.INDENT) {
+                    advance();
+                    advance();
+                    advance();
+                    body_start = ts.start(i);
+                    body_end = Math.max(skip_block(), body_start);
+                } else {
+                    // A body that starts right under the header, with no ':' line.
+                    body_start = ts.start(i);
+                    body_end = Math.max(skip_block(), body_start);
+                    return new method_decl(name, params, return_type, thrown, modifiers, doc, offset,
+                            body_start, body_end);
+                }
+            }
+            accept(token_kind.DEDENT);
+        }
+        return new method_decl(name, params, return_type, thrown, modifiers, doc, offset, body_start, body_end);
+    }
+
+    // ---- tasks ----
+
+    private task_decl parse_task() {
+        doc_ref doc = claim_doc();
+        int offset = ts.start(i);
+        advance();
+        String name = ident();
+        if (name == null || !expect(token_kind.COLON) || !expect(token_kind.NEWLINE)) {
+            skip_statement();
+            return null;
+        }
+        List<String> after = new ArrayList<String>();
+        List<String> inputs = new ArrayList<String>();
+        List<String> outputs = new ArrayList<String>();
+        List<String> commands = new ArrayList<String>();
+        if (accept(token_kind.INDENT)) {
+            while (kind() != token_kind.DEDENT && kind() != token_kind.EOF) {
+                if (accept(token_kind.NEWLINE)) {
+                    continue;
+                }
+                if (at_keyword("after")) {
+                    advance();
+                    advance();
+                    after.addAll(ident_list());
+                    end_line();
+                } else if (at_keyword("inputs")) {
+                    quoted_list(inputs);
+                } else if (at_keyword("outputs")) {
+                    quoted_list(outputs);
+                } else if (at_keyword("run")) {
+                    quoted_list(commands);
+                } else {
+                    error("expected after:, inputs:, outputs: or run:");
+                    skip_statement();
+                }
+            }
+            accept(token_kind.DEDENT);
+        }
+        if (!file.path.equals("build.v")) {
+            error_at(offset, "tasks belong in the root build.v");
+            return null;
+        }
+        return new task_decl(name, after, inputs, outputs, commands, doc, offset);
+    }
+
+    /**
+     * Parse <code>keyword: "a", "b"</code>, adding the strings' values.
+     */
+    private void quoted_list(List<String> into) {
+        advance();
+        advance();
+        do {
+            String s = kind() == token_kind.STRING ? unquote(ts.text(i)) : null;
+            if (s == null) {
+                error("expected a quoted string");
+                skip_statement();
+                return;
+            }
+            into.add(s);
+            advance();
+        } while (accept(token_kind.COMMA));
+        end_line();
+    }
+
+    /**
+     * @return The value of a string token, or null if it has an escape
+     * other than <code>\\ \" \' \n \t</code>.
+     */
+    private static String unquote(String token) {
+        StringBuilder sb = new StringBuilder(token.length());
+        for (int j = 1; j < token.length() - 1; ++j) {
+            char c = token.charAt(j);
+            if (c == '\\' && ++j < token.length() - 1) {
+                c = token.charAt(j);
+                switch (c) {
+                case 'n': c = '\n'; break;
+                case 't': c = '\t'; break;
+                case '\\': case '"': case '\'': break;
+                default: return null;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
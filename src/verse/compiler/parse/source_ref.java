@@ -0,0 +1,67 @@
+package verse.compiler.parse;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+
+import verse.compiler.content_hash;
+import verse.compiler.source_file;
+import verse.compiler.source_loader;
+
+/**
+ * How the {@link doc_ref}s of one file find its text without keeping it
+ * alive. A {@link parse_cache} can outlive every compilation that read a
+ * file; if its entries held the file, they would hold its buffer too. So a
+ * ref holds the file weakly -- the compilation that is using it holds it
+ * strongly -- plus its path and hash, to read it again if it has been
+ * collected. A file that only exists in memory has no path to go back to,
+ * and is held strongly.
+ */
+final class source_ref {
+
+    private final String path;
+    private final Path full_path;
+    private final long hash;
+    private final source_file in_memory;
+    private volatile WeakReference<source_file> last;
+
+    /**
+     * @param hash {@link content_hash} of the file's content.
+     */
+    source_ref(source_file file, long hash) {
+        this.path = file.path;
+        this.full_path = file.full_path;
+        this.hash = hash;
+        this.in_memory = file.full_path == null ? file : null;
+        this.last = new WeakReference<source_file>(file);
+    }
+
+    boolean is(source_file file) {
+        return last.get() == file;
+    }
+
+    /**
+     * @return The file, read again if no one holds it any more.
+     * @throws IllegalStateException if it can't be read, or has changed
+     *                               since it was parsed.
+     */
+    source_file get() {
+        if (in_memory != null) {
+            return in_memory;
+        }
+        source_file f = last.get();
+        if (f != null) {
+            return f;
+        }
+        try {
+            f = source_loader.read(full_path.getParent(), full_path);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("can't read %s again for its docs", path), e);
+        }
+        if (content_hash.of(f) != hash) {
+            throw new IllegalStateException(String.format("%s has changed since it was parsed", path));
+        }
+        last = new WeakReference<source_file>(f);
+        return f;
+    }
+}
@@ -0,0 +1,95 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import verse.compiler.symbol_table;
+
+/**
+ * A flag or option of a cmdline descriptor, such as
+ * <code>log level:</code> under <code>options:</code>. Flags are true when
+ * given and false otherwise; options take a value.
+ */
+public class switch_decl {
+
+    /** Identifier, such as "log_level"; on the command line, "--log-level". */
+    public final String name;
+
+    public final boolean is_flag;
+
+    /** Other names, such as "v" for "verbose"; dashes not included. */
+    public final List<String> aliases;
+
+    public final doc_ref doc;
+
+    /** What the help calls the value, such as "path"; or null. */
+    public final String placeholder;
+
+    /** Value when the option isn't given; null if it has none. */
+    public final String default_value;
+
+    /** The only values the option accepts, or empty for any. */
+    public final List<String> values;
+
+    /** Code (<code>`...`</code>) or regex (<code>/.../</code>) that values must pass, or null. */
+    public final String validator;
+
+    /** 1-based position for a value given without a switch, or 0. */
+    public final int position;
+
+    public final boolean repeatable;
+    public final boolean required;
+
+    /** Left out of help. */
+    public final boolean hidden;
+
+    /** Value shown as asterisks rather than echoed. */
+    public final boolean masked;
+
+    public final int offset;
+
+    public switch_decl(String name, boolean is_flag, List<String> aliases, doc_ref doc, String placeholder,
+            String default_value, List<String> values, String validator, int position, boolean repeatable,
+            boolean required, boolean hidden, boolean masked, int offset) {
+        this.name = name;
+        this.is_flag = is_flag;
+        this.aliases = aliases;
+        this.doc = doc;
+        this.placeholder = placeholder;
+        this.default_value = default_value;
+        this.values = values;
+        this.validator = validator;
+        this.position = position;
+        this.repeatable = repeatable;
+        this.required = required;
+        this.hidden = hidden;
+        this.masked = masked;
+        this.offset = offset;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeBoolean(is_flag);
+        ast_io.write_strings(out, aliases);
+        doc_ref.write(out, doc);
+        ast_io.write_string(out, placeholder);
+        ast_io.write_string(out, default_value);
+        ast_io.write_strings(out, values);
+        ast_io.write_string(out, validator);
+        out.writeInt(position);
+        out.writeBoolean(repeatable);
+        out.writeBoolean(required);
+        out.writeBoolean(hidden);
+        out.writeBoolean(masked);
+        out.writeInt(offset);
+    }
+
+    static switch_decl read(DataInput in, symbol_table symbols) throws IOException {
+        return new switch_decl(ast_io.read_symbol(in, symbols), in.readBoolean(), ast_io.read_symbols(in, symbols),
+                doc_ref.read(in), ast_io.read_string(in), ast_io.read_string(in),
+                ast_io.read_symbols(in, symbols), ast_io.read_string(in), in.readInt(), in.readBoolean(),
+                in.readBoolean(), in.readBoolean(), in.readBoolean(), in.readInt());
+    }
+}
@@ -0,0 +1,84 @@
+package verse.compiler.parse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import verse.compiler.symbol_table;
+
+/**
+ * A <code>task</code> declared in a tree's root build.v:
+ *
+ * <pre>
+ * "Package the compiled classes."
+ * task jar:
+ *  after: compile
+ *  inputs: "built.linux_x86-64/verse/classes"
+ *  outputs: "dist/bistro.jar"
+ *  run: "jar cf dist/bistro.jar -C built.linux_x86-64/verse/classes ."
+ * </pre>
+ *
+ * Inputs are root-relative globs; outputs are root-relative files or
+ * folders. Each <code>run:</code> is a shell command, run in the root, in
+ * order. Every section is optional and may repeat.
+ */
+public class task_decl {
+
+    public final String name;
+
+    /** Names of the tasks that must finish first. */
+    public final List<String> after;
+
+    public final List<String> inputs;
+    public final List<String> outputs;
+    public final List<String> commands;
+    public final doc_ref doc;
+    public final int offset;
+
+    public task_decl(String name, List<String> after, List<String> inputs, List<String> outputs,
+            List<String> commands, doc_ref doc, int offset) {
+        this.name = name;
+        this.after = after;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.commands = commands;
+        this.doc = doc;
+        this.offset = offset;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        ast_io.write_strings(out, after);
+        write_texts(out, inputs);
+        write_texts(out, outputs);
+        write_texts(out, commands);
+        doc_ref.write(out, doc);
+        out.writeInt(offset);
+    }
+
+    static task_decl read(DataInput in, symbol_table symbols) throws IOException {
+        return new task_decl(ast_io.read_symbol(in, symbols), ast_io.read_symbols(in, symbols), read_texts(in),
+                read_texts(in), read_texts(in), doc_ref.read(in), in.readInt());
+    }
+
+    /**
+     * Commands can be longer than writeUTF allows.
+     */
+    private static void write_texts(DataOutput out, List<String> items) throws IOException {
+        out.writeInt(items.size());
+        for (String s: items) {
+            ast_io.write_string(out, s);
+        }
+    }
+
+    private static List<String> read_texts(DataInput in) throws IOException {
+        int n = ast_io.read_count(in);
+        List<String> items = new ArrayList<String>(ast_io.reserve(n));
+        for (int i = 0; i < n; ++i) {
+            items.add(ast_io.read_string(in));
+        }
+        return items;
+    }
+}
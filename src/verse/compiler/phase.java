@@ -0,0 +1,165 @@
+package verse.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import verse.util.Profiler;
+
+/**
+ * The phases of a compilation, each timed by a {@link Profiler} and charged
+ * with the bytes its threads allocate, for <code>--timings</code>. Phases
+ * don't nest: lexing a file isn't also counted as parsing it.
+ *
+ * <pre>
+ * long t = phase.LEX.enter();
+ * try {
+ *     ...
+ * } finally {
+ *     phase.LEX.exit(t);
+ * }
+ * </pre>
+ *
+ * <p>Work on pool threads is summed, so a phase that runs on 8 threads at
+ * once can report more time than the build's wall clock. Allocation comes
+ * from HotSpot's per-thread counters, read on the thread doing the work;
+ * on a VM without them, it is reported as -1. Like the Profiler, the
+ * counters are global, so the timings of builds a daemon runs at the same
+ * time are mixed.</p>
+ */
+public enum phase {
+
+    /** Finding and reading source files. */
+    LOAD,
+
+    /** Turning .v files into tokens. */
+    LEX,
+
+    /** Building declarations from tokens and descriptors. */
+    PARSE,
+
+    /** Building the unit graph and matching imports to declarations. */
+    RESOLVE,
+
+    /** Checking declarations and planning the classes to generate. */
+    CHECK,
+
+    /** Writing classes and source, and compiling generated source. */
+    EMIT;
+
+    private static final com.sun.management.ThreadMXBean THREADS = open_threads();
+
+    /** Allocation counters at entry, by phase, for the current thread. */
+    private static final ThreadLocal<long[]> STARTS = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[values().length];
+        }
+    };
+
+    private final Profiler profiler = new Profiler("verse." + name().toLowerCase());
+    private final AtomicLong allocated = new AtomicLong();
+
+    private static com.sun.management.ThreadMXBean open_threads() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        return threads.isThreadAllocatedMemorySupported() ? threads : null;
+    }
+
+    private static boolean counts_allocation() {
+        return THREADS != null && THREADS.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * @return A start time to pass to {@link #exit}; 0 if timing is off.
+     */
+    public long enter() {
+        long t = profiler.enter();
+        if (t != 0 && counts_allocation()) {
+            STARTS.get()[ordinal()] = THREADS.getCurrentThreadAllocatedBytes();
+        }
+        return t;
+    }
+
+    public void exit(long start) {
+        if (start == 0) {
+            return;
+        }
+        if (counts_allocation()) {
+            allocated.addAndGet(THREADS.getCurrentThreadAllocatedBytes() - STARTS.get()[ordinal()]);
+        }
+        profiler.exit(start);
+    }
+
+    public long get_calls() {
+        return profiler.getCallCount();
+    }
+
+    public long get_nanos() {
+        return profiler.getNanosecs();
+    }
+
+    /**
+     * @return Bytes allocated in the phase, or -1 if the VM can't say.
+     */
+    public long get_allocated() {
+        return counts_allocation() ? allocated.get() : -1;
+    }
+
+    /**
+     * Zero every phase's counters and turn timing on.
+     */
+    public static void start() {
+        for (phase p: values()) {
+            p.profiler.reset();
+            p.allocated.set(0);
+        }
+        Profiler.setEnabled(true);
+    }
+
+    public static void stop() {
+        Profiler.setEnabled(false);
+    }
+
+    /**
+     * @return A table of the phases, one per line, for example
+     * "parse        46      12.3 ms      4.1 MB".
+     */
+    public static String format() {
+        StringBuilder sb = new StringBuilder(String.format("%-8s %6s %12s %12s%n", "phase", "calls", "time",
+                "allocated"));
+        long nanos = 0;
+        long bytes = 0;
+        for (phase p: values()) {
+            sb.append(String.format("%-8s %6d %9.1f ms %s%n", p.name().toLowerCase(), p.get_calls(),
+                    p.get_nanos() / 1000000.0, mb(p.get_allocated())));
+            nanos += p.get_nanos();
+            bytes += p.get_allocated();
+        }
+        sb.append(String.format("%-8s %6s %9.1f ms %s", "total", "", nanos / 1000000.0,
+                mb(counts_allocation() ? bytes : -1)));
+        return sb.toString();
+    }
+
+    private static String mb(long bytes) {
+        return bytes < 0 ? String.format("%12s", "n/a") : String.format("%9.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * @return The same numbers as {@link #format}, as a JSON object:
+     * <code>{"phases": [{"name": "load", "calls": 1, "nanos": ...,
+     * "allocated_bytes": ...}, ...]}</code>.
+     */
+    public static String to_json() {
+        StringBuilder sb = new StringBuilder("{\"phases\": [");
+        for (phase p: values()) {
+            sb.append(p.ordinal() == 0 ? "\n  " : ",\n  ");
+            sb.append(String.format("{\"name\": \"%s\", \"calls\": %d, \"nanos\": %d, \"allocated_bytes\": %d}",
+                    p.name().toLowerCase(), p.get_calls(), p.get_nanos(), p.get_allocated()));
+        }
+        return sb.append("\n]}\n").toString();
+    }
+}
@@ -0,0 +1,167 @@
+package verse.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What happened when the {@link unit_scheduler} ran a graph: when each unit
+ * started and finished, which ones failed, and the critical path.
+ *
+ * <p>The critical path is the chain of dependent units with the greatest
+ * total compile time. No number of cores can finish a build faster than that
+ * chain, so total work divided by critical-path time is the most parallelism
+ * the tree can use; once the build has that many cores, adding more won't
+ * help.</p>
+ */
+public class schedule_report {
+
+    private final unit_graph graph;
+    private final long[] starts;
+    private final long[] ends;
+    private final Throwable[] failures;
+    private final boolean[] skipped;
+    private final long wall_nanos;
+    private final List<unit> critical_path;
+    private final long critical_nanos;
+
+    schedule_report(unit_graph graph, long[] starts, long[] ends, Throwable[] failures, boolean[] skipped,
+            long wall_nanos) {
+        this.graph = graph;
+        this.starts = starts;
+        this.ends = ends;
+        this.failures = failures;
+        this.skipped = skipped;
+        this.wall_nanos = wall_nanos;
+
+        // Longest path by duration; get_order() is topological, so every
+        // dep's value is final before it is read.
+        int n = graph.get_units().size();
+        long[] through = new long[n];
+        unit[] prev = new unit[n];
+        unit last = null;
+        for (unit u: graph.get_order()) {
+            long best = 0;
+            for (unit d: u.deps) {
+                if (through[d.index] > best) {
+                    best = through[d.index];
+                    prev[u.index] = d;
+                }
+            }
+            through[u.index] = best + get_nanos(u);
+            if (last == null || through[u.index] > through[last.index]) {
+                last = u;
+            }
+        }
+        List<unit> path = new ArrayList<unit>();
+        for (unit u = last; u != null; u = prev[u.index]) {
+            path.add(u);
+        }
+        Collections.reverse(path);
+        this.critical_path = path;
+        this.critical_nanos = last == null ? 0 : through[last.index];
+    }
+
+    /**
+     * @return Nanoseconds from the start of the run until u started.
+     */
+    public long get_start(unit u) {
+        return starts[u.index];
+    }
+
+    /**
+     * @return How long u's work took.
+     */
+    public long get_nanos(unit u) {
+        return ends[u.index] - starts[u.index];
+    }
+
+    public long get_wall_nanos() {
+        return wall_nanos;
+    }
+
+    /**
+     * @return Sum of all units' compile times.
+     */
+    public long get_total_work_nanos() {
+        long total = 0;
+        for (unit u: graph.get_order()) {
+            total += get_nanos(u);
+        }
+        return total;
+    }
+
+    public List<unit> get_critical_path() {
+        return Collections.unmodifiableList(critical_path);
+    }
+
+    public long get_critical_nanos() {
+        return critical_nanos;
+    }
+
+    /**
+     * @return Total work over critical-path time: the core count beyond which
+     * this tree stops building faster.
+     */
+    public double get_max_parallelism() {
+        return critical_nanos == 0 ? 1.0 : (double) get_total_work_nanos() / critical_nanos;
+    }
+
+    /**
+     * @return Units whose work threw, with what they threw.
+     */
+    public Map<unit, Throwable> get_failures() {
+        Map<unit, Throwable> m = new LinkedHashMap<unit, Throwable>();
+        for (unit u: graph.get_units()) {
+            if (failures[u.index] != null) {
+                m.put(u, failures[u.index]);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @return Units that never ran because something they depend on failed.
+     */
+    public List<unit> get_skipped() {
+        List<unit> list = new ArrayList<unit>();
+        for (unit u: graph.get_units()) {
+            if (skipped[u.index]) {
+                list.add(u);
+            }
+        }
+        return list;
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.1f ms", nanos / 1000000.0);
+    }
+
+    /**
+     * @return A one-line summary, for example "critical path: sched.lib -&gt;
+     * broker.app (3.2 ms); total work 4.0 ms, wall 3.5 ms; more than 1.3 cores
+     * won't help".
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder("critical path: ");
+        for (int i = 0; i < critical_path.size(); ++i) {
+            if (i > 0) {
+                sb.append(" -> ");
+            }
+            sb.append(critical_path.get(i).name);
+        }
+        if (critical_path.isEmpty()) {
+            sb.append("(no units)");
+        }
+        sb.append(String.format(" (%s); total work %s, wall %s; more than %.1f cores won't help",
+                ms(critical_nanos), ms(get_total_work_nanos()), ms(wall_nanos), get_max_parallelism()));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
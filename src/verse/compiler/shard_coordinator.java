@@ -0,0 +1,194 @@
+package verse.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import verse.compiler.parse.parsed_file;
+
+/**
+ * The coordinator end of a sharded build. The {@link unit_scheduler} still
+ * decides when a unit is ready; instead of compiling it, the compilation
+ * hands it to the {@link shard_worker} for its shard and blocks until the
+ * result is back. So a unit never starts before the units it imports from
+ * have been written, whichever worker compiled them, and the results are
+ * the same as an in-process build's however the units are split.
+ *
+ * <p>Workers are started on demand, so a rebuild that recompiles a few
+ * units starts only the workers for their shards. Each gets the heap and GC
+ * settings (-Xmx, -Xms, -Xss, -XX:) this JVM was started with.</p>
+ */
+class shard_coordinator {
+
+    /** One worker JVM and the units it has yet to answer for. */
+    private class worker {
+        final int shard;
+        final Process process;
+        final DataOutputStream to;
+        final Map<String, CompletableFuture<shard_protocol.result>> waiting =
+                new ConcurrentHashMap<String, CompletableFuture<shard_protocol.result>>();
+
+        /** Why the worker can't take more units; null while it can. */
+        String dead;
+
+        worker(int shard) throws IOException {
+            this.shard = shard;
+            ProcessBuilder pb = new ProcessBuilder(get_command());
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            to = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            final DataInputStream from = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            Thread reader = new Thread("verse shard " + shard) {
+                @Override
+                public void run() {
+                    read(from);
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        shard_protocol.result compile(String path, List<parsed_file> files, List<shard_protocol.summary> deps)
+                throws IOException, InterruptedException {
+            CompletableFuture<shard_protocol.result> f = new CompletableFuture<shard_protocol.result>();
+            synchronized (this) {
+                if (dead != null) {
+                    throw new IOException(dead);
+                }
+                waiting.put(path, f);
+                shard_protocol.write_request(to, path, files, deps);
+            }
+            shard_protocol.result r;
+            try {
+                r = f.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+            if (r.failure != null) {
+                throw new IOException(String.format("shard %d: %s", shard, r.failure));
+            }
+            return r;
+        }
+
+        void read(DataInputStream from) {
+            try {
+                if (from.readInt() != shard_protocol.MAGIC) {
+                    throw new IOException("not a verse shard worker");
+                }
+                while (true) {
+                    shard_protocol.result r = shard_protocol.read_result(from);
+                    CompletableFuture<shard_protocol.result> f = waiting.remove(r.path);
+                    if (f != null) {
+                        f.complete(r);
+                    }
+                }
+            } catch (IOException e) {
+                die(String.format("shard %d worker stopped: %s", shard, e));
+            }
+        }
+
+        synchronized void die(String why) {
+            if (dead == null) {
+                dead = why;
+            }
+            for (CompletableFuture<shard_protocol.result> f: waiting.values()) {
+                f.completeExceptionally(new IOException(dead));
+            }
+            waiting.clear();
+        }
+
+        void close() throws InterruptedException {
+            synchronized (this) {
+                try {
+                    to.close();
+                } catch (IOException e) {
+                    // it has already gone
+                }
+            }
+            process.waitFor();
+            die(String.format("shard %d worker closed", shard));
+        }
+    }
+
+    private final compilation c;
+    private final shard_plan plan;
+    private final int jobs;
+    private final worker[] workers;
+
+    shard_coordinator(compilation c, int shards, int jobs) {
+        this.c = c;
+        this.plan = shard_plan.of(c.get_graph(), shards);
+        this.jobs = jobs;
+        this.workers = new worker[shards];
+    }
+
+    /**
+     * Compile a unit in its shard's worker.
+     *
+     * @param files The parse of each of the unit's files.
+     * @param deps  What each of the unit's dependencies declares.
+     */
+    shard_protocol.result compile(unit u, List<parsed_file> files, List<shard_protocol.summary> deps)
+            throws IOException, InterruptedException {
+        return get_worker(plan.get_shard(u)).compile(u.path, files, deps);
+    }
+
+    private synchronized worker get_worker(int shard) throws IOException {
+        if (workers[shard] == null) {
+            workers[shard] = new worker(shard);
+        }
+        return workers[shard];
+    }
+
+    /**
+     * @return The command line that starts a worker for this compilation.
+     */
+    List<String> get_command() {
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg: ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-Xmx") || arg.startsWith("-Xms") || arg.startsWith("-Xss") || arg.startsWith("-XX:")) {
+                command.add(arg);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(shard_worker.class.getName());
+        command.add(c.root.toString());
+        command.add(Integer.toString(jobs));
+        command.add(c.get_backend().name());
+        StringBuilder classpath = new StringBuilder();
+        for (Path p: c.get_classpath()) {
+            if (classpath.length() > 0) {
+                classpath.append(File.pathSeparatorChar);
+            }
+            classpath.append(p);
+        }
+        command.add(classpath.toString());
+        command.add(Boolean.toString(c.get_types() != null));
+        return command;
+    }
+
+    /**
+     * Tell every worker there is no more work, and wait for them to exit.
+     */
+    void close() throws InterruptedException {
+        for (worker w: workers) {
+            if (w != null) {
+                w.close();
+            }
+        }
+    }
+}
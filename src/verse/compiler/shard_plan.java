@@ -0,0 +1,93 @@
+package verse.compiler;
+
+import java.util.Arrays;
+import java.util.List;
+
+import verse.dbc.precondition;
+
+/**
+ * Which shard compiles each unit of a {@link unit_graph}. Units are weighed
+ * by the bytes of source in them and placed in dependency order: a unit
+ * goes to the shard that already holds most of the source it imports from,
+ * so that the classes it needs are usually in that worker's memory, unless
+ * that would make the shard much heavier than its share. Then it goes to
+ * the lightest shard.
+ *
+ * <p>The plan depends only on the graph, so a tree always splits the same
+ * way.</p>
+ */
+public class shard_plan {
+
+    /** How far past an even share a shard may grow to keep a unit near its deps. */
+    static final double SLACK = 1.25;
+
+    private final int count;
+    private final int[] shard_of;
+    private final long[] weights;
+
+    private shard_plan(int count, int[] shard_of, long[] weights) {
+        this.count = count;
+        this.shard_of = shard_of;
+        this.weights = weights;
+    }
+
+    public static shard_plan of(unit_graph graph, int count) {
+        precondition.checkNotNull(graph, "graph");
+        precondition.checkAndExplain(count >= 1, "count must be at least 1");
+        List<unit> units = graph.get_units();
+        long[] unit_weights = new long[units.size()];
+        long total = 0;
+        for (unit u: units) {
+            for (source_file f: u.files) {
+                unit_weights[u.index] += f.length();
+            }
+            // Every unit costs something, even one with nothing in it.
+            unit_weights[u.index] += 1;
+            total += unit_weights[u.index];
+        }
+        long limit = (long) Math.ceil(SLACK * total / count);
+        int[] shard_of = new int[units.size()];
+        long[] weights = new long[count];
+        long[] near = new long[count];
+        for (unit u: graph.get_order()) {
+            Arrays.fill(near, 0);
+            for (unit d: u.deps) {
+                near[shard_of[d.index]] += unit_weights[d.index];
+            }
+            long w = unit_weights[u.index];
+            int best = -1;
+            for (int s = 0; s < count; ++s) {
+                if (near[s] > 0 && weights[s] + w <= limit && (best == -1 || near[s] > near[best])) {
+                    best = s;
+                }
+            }
+            if (best == -1) {
+                best = 0;
+                for (int s = 1; s < count; ++s) {
+                    if (weights[s] < weights[best]) {
+                        best = s;
+                    }
+                }
+            }
+            shard_of[u.index] = best;
+            weights[best] += w;
+        }
+        // Units in a cycle never compile; they stay in shard 0.
+        return new shard_plan(count, shard_of, weights);
+    }
+
+    public int get_count() {
+        return count;
+    }
+
+    public int get_shard(unit u) {
+        return shard_of[u.index];
+    }
+
+    /**
+     * @return Bytes of source in a shard, plus one for each unit.
+     */
+    public long get_weight(int shard) {
+        return weights[shard];
+    }
+}
@@ -0,0 +1,245 @@
+package verse.compiler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import verse.compiler.parse.parse_cache;
+import verse.compiler.parse.parsed_file;
+
+/**
+ * What a {@link shard_coordinator} and its {@link shard_worker}s say to each
+ * other over the worker's stdin and stdout.
+ *
+ * <p>Once it has started, a worker writes a magic number. After that the
+ * coordinator sends UNIT frames: a unit's path, the parse of each of its
+ * files, and a {@link summary} of each unit it depends on. A worker never
+ * sees the rest of the tree. The worker answers each with a RESULT frame -- what the unit declares,
+ * its diagnostics, and the files it generated, by root-relative path -- or a
+ * FAILED frame with the error that stopped it. Answers come in the order
+ * units finish, not the order they were sent. Closing the worker's stdin
+ * tells it to finish what it has and exit.</p>
+ */
+class shard_protocol {
+
+    static final int MAGIC = 0x56534831; // "VSH1"
+
+    static final byte UNIT = 1;
+
+    static final byte RESULT = 1;
+    static final byte FAILED = 2;
+
+    private shard_protocol() {
+    }
+
+    /**
+     * What a unit shows the units that import from it: the classes each
+     * package it provides declares.
+     */
+    static class summary {
+        final String path;
+
+        /** Class names by package. */
+        final Map<String, List<String>> classes;
+
+        /**
+         * False if the unit didn't compile; imports from it aren't checked
+         * then, as they wouldn't be in-process.
+         */
+        final boolean compiled;
+
+        summary(String path, Map<String, List<String>> classes, boolean compiled) {
+            this.path = path;
+            this.classes = classes;
+            this.compiled = compiled;
+        }
+    }
+
+    /** A unit for a worker to compile. */
+    static class request {
+        final String path;
+
+        /**
+         * Root-relative paths of the unit's files, whose parses
+         * {@link #read_request} has put in the worker's cache.
+         */
+        final List<String> files;
+
+        final List<summary> deps;
+
+        request(String path, List<String> files, List<summary> deps) {
+            this.path = path;
+            this.files = files;
+            this.deps = deps;
+        }
+    }
+
+    /** What compiling one unit produced, or why it couldn't. */
+    static class result {
+        final String path;
+        final List<String> declared;
+        final List<diagnostic> diagnostics;
+
+        /** Generated files by root-relative path, in the order written. */
+        final Map<String, byte[]> outputs;
+
+        /** Null unless the worker failed. */
+        final String failure;
+
+        result(String path, List<String> declared, List<diagnostic> diagnostics, Map<String, byte[]> outputs,
+                String failure) {
+            this.path = path;
+            this.declared = declared;
+            this.diagnostics = diagnostics;
+            this.outputs = outputs;
+            this.failure = failure;
+        }
+    }
+
+    static void write_request(DataOutputStream out, String path, List<parsed_file> files, List<summary> deps)
+            throws IOException {
+        out.writeByte(UNIT);
+        out.writeUTF(path);
+        out.writeInt(files.size());
+        for (parsed_file p: files) {
+            parse_cache.write_entry(out, p);
+        }
+        out.writeInt(deps.size());
+        for (summary d: deps) {
+            out.writeUTF(d.path);
+            out.writeBoolean(d.compiled);
+            out.writeInt(d.classes.size());
+            for (Map.Entry<String, List<String>> e: d.classes.entrySet()) {
+                out.writeUTF(e.getKey());
+                write_names(out, e.getValue());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @param parses Where the parses of the unit's files go.
+     * @return The next request, or null once the coordinator has closed
+     * the stream.
+     */
+    static request read_request(DataInputStream in, parse_cache parses) throws IOException {
+        byte tag;
+        try {
+            tag = in.readByte();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (tag != UNIT) {
+            throw new IOException("Unexpected frame " + tag + " from shard coordinator.");
+        }
+        String path = in.readUTF();
+        int n = in.readInt();
+        List<String> files = new ArrayList<String>(n);
+        for (int i = 0; i < n; ++i) {
+            files.add(parses.read_entry(in).path);
+        }
+        n = in.readInt();
+        List<summary> deps = new ArrayList<summary>(n);
+        for (int i = 0; i < n; ++i) {
+            String dep = in.readUTF();
+            boolean compiled = in.readBoolean();
+            int m = in.readInt();
+            Map<String, List<String>> classes = new LinkedHashMap<String, List<String>>(m * 2);
+            for (int j = 0; j < m; ++j) {
+                classes.put(in.readUTF(), read_names(in));
+            }
+            deps.add(new summary(dep, classes, compiled));
+        }
+        return new request(path, files, deps);
+    }
+
+    static void write_result(DataOutputStream out, result r) throws IOException {
+        if (r.failure != null) {
+            out.writeByte(FAILED);
+            out.writeUTF(r.path);
+            write_text(out, r.failure);
+            out.flush();
+            return;
+        }
+        out.writeByte(RESULT);
+        out.writeUTF(r.path);
+        write_names(out, r.declared);
+        out.writeInt(r.diagnostics.size());
+        for (diagnostic d: r.diagnostics) {
+            out.writeUTF(d.path);
+            out.writeInt(d.offset);
+            write_text(out, d.message);
+            out.writeBoolean(d.is_warning);
+        }
+        out.writeInt(r.outputs.size());
+        for (Map.Entry<String, byte[]> e: r.outputs.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue().length);
+            out.write(e.getValue());
+        }
+        out.flush();
+    }
+
+    static result read_result(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        if (tag != RESULT && tag != FAILED) {
+            throw new IOException("Unexpected frame " + tag + " from shard worker.");
+        }
+        String path = in.readUTF();
+        if (tag == FAILED) {
+            return new result(path, null, null, null, read_text(in));
+        }
+        List<String> declared = read_names(in);
+        int n = in.readInt();
+        List<diagnostic> diagnostics = new ArrayList<diagnostic>(n);
+        for (int i = 0; i < n; ++i) {
+            diagnostics.add(new diagnostic(in.readUTF(), in.readInt(), read_text(in), in.readBoolean()));
+        }
+        n = in.readInt();
+        Map<String, byte[]> outputs = new LinkedHashMap<String, byte[]>(n * 2);
+        for (int i = 0; i < n; ++i) {
+            String out = in.readUTF();
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            outputs.put(out, b);
+        }
+        return new result(path, declared, diagnostics, outputs, null);
+    }
+
+    private static void write_names(DataOutputStream out, Collection<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name: names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static List<String> read_names(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<String> names = new ArrayList<String>(n);
+        for (int i = 0; i < n; ++i) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    /**
+     * Messages can be longer than writeUTF allows: javac quotes source.
+     */
+    private static void write_text(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(source_file.UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String read_text(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, source_file.UTF8);
+    }
+}
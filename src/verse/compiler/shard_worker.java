@@ -0,0 +1,119 @@
+package verse.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import verse.compiler.parse.parse_cache;
+
+/**
+ * The worker end of a sharded build: a JVM that a {@link shard_coordinator}
+ * starts with
+ *
+ * <pre>
+ * java -cp ... verse.compiler.shard_worker root jobs backend classpath types
+ * </pre>
+ *
+ * <p>It compiles each unit it is sent, on <code>jobs</code> threads. A
+ * request carries the unit's parses and summaries of the units it imports
+ * from, so a worker reads only its units' files and never parses the rest
+ * of the tree. It writes nothing to the build folder; what a
+ * unit generates goes back to the coordinator, which writes it. See
+ * {@link shard_protocol}.</p>
+ */
+public class shard_worker {
+
+    private final compilation c;
+    private final DataOutputStream out;
+
+    shard_worker(compilation c, DataOutputStream out) {
+        this.c = c;
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        // stdout carries frames; anything else printed goes to stderr.
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        try {
+            Path root = Paths.get(args[0]);
+            ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(args[1]));
+            compilation c = new compilation(root, pool, new parse_cache());
+            c.set_backend(backend.valueOf(args[2]));
+            List<Path> classpath = new ArrayList<Path>();
+            for (String entry: args[3].split(File.pathSeparator)) {
+                if (!entry.isEmpty()) {
+                    classpath.add(Paths.get(entry));
+                }
+            }
+            c.set_classpath(classpath);
+            c.keep_output();
+            c.prepare_worker(Boolean.parseBoolean(args[4]));
+            out.writeInt(shard_protocol.MAGIC);
+            out.flush();
+            new shard_worker(c, out).serve(new DataInputStream(new BufferedInputStream(System.in)), pool);
+            System.exit(0);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compile units as requests arrive, until the coordinator closes the stream.
+     */
+    void serve(DataInputStream in, ForkJoinPool pool) throws IOException, InterruptedException {
+        shard_protocol.request r;
+        while ((r = shard_protocol.read_request(in, c.get_parse_cache())) != null) {
+            final shard_protocol.request request = r;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    shard_protocol.result result;
+                    try {
+                        result = compile(request);
+                    } catch (Throwable t) {
+                        result = new shard_protocol.result(request.path, null, null, null, t.toString());
+                    }
+                    try {
+                        synchronized (out) {
+                            shard_protocol.write_result(out, result);
+                        }
+                    } catch (IOException e) {
+                        // The coordinator is gone; it will see the unit as failed.
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    shard_protocol.result compile(shard_protocol.request r) throws IOException {
+        unit u = c.prepare_unit(r);
+        try {
+            c.compile_unit(u);
+            Map<String, byte[]> outputs = new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<Path, byte[]> e: c.take_output(u).entrySet()) {
+                outputs.put(c.root.relativize(e.getKey()).toString(), e.getValue());
+            }
+            return new shard_protocol.result(u.path, new ArrayList<String>(c.get_declared(u)),
+                    c.get_unit_diagnostics(u), outputs, null);
+        } finally {
+            c.release_unit(u);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package verse.compiler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * One file from a verse source tree. The content is held as a read-only
+ * {@link ByteBuffer} -- memory-mapped for large files, heap-backed for small
+ * ones -- and is never copied into a String unless a caller explicitly asks
+ * for text. Offsets used throughout the compiler are byte offsets into this
+ * buffer; verse syntax is ASCII, so UTF-8 only matters inside literals and
+ * docstrings.
+ */
+public class source_file {
+
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Path relative to the root of the tree, always using '/' as separator --
+     * for example, "broker.app/classes/scheduler.yaml".
+     */
+    public final String path;
+
+    public final Path full_path;
+
+    public final source_kind kind;
+
+    private final ByteBuffer bytes;
+
+    /** Offsets at which lines begin; null until first asked for. */
+    private volatile int[] line_starts;
+
+    source_file(String path, Path full_path, source_kind kind, ByteBuffer bytes) {
+        this.path = path;
+        this.full_path = full_path;
+        this.kind = kind;
+        this.bytes = bytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * Wrap content that didn't come from disk -- generated sources, tests,
+     * benchmarks. The kind is inferred from the path's extension.
+     */
+    public static source_file in_memory(String path, byte[] content) {
+        return new source_file(path, null, source_kind.from_file_name(path), ByteBuffer.wrap(content));
+    }
+
+    /**
+     * @return Size of the file in bytes.
+     */
+    public int length() {
+        return bytes.capacity();
+    }
+
+    /**
+     * @return A private view of the content, positioned at 0. The view is
+     * cheap (no copy), so each thread should ask for its own rather than
+     * sharing one buffer's position.
+     */
+    public ByteBuffer get_bytes() {
+        return bytes.duplicate();
+    }
+
+    /**
+     * Absolute read; does not disturb any buffer position, so it is safe to
+     * call from many threads at once.
+     */
+    public byte byte_at(int offset) {
+        return bytes.get(offset);
+    }
+
+    /**
+     * @return The offset of each line's first byte: 0, then one past each
+     * '\n'. Worked out on the first lookup and kept, exactly sized, rather
+     * than as split lines: most files never need it, and a tree's worth of
+     * line Strings would cost more than its content.
+     */
+    int[] get_line_starts() {
+        int[] starts = line_starts;
+        if (starts == null) {
+            int n = length();
+            int count = 1;
+            for (int i = 0; i < n; ++i) {
+                if (bytes.get(i) == '\n') {
+                    ++count;
+                }
+            }
+            starts = new int[count];
+            count = 1;
+            for (int i = 0; i < n; ++i) {
+                if (bytes.get(i) == '\n') {
+                    starts[count++] = i + 1;
+                }
+            }
+            line_starts = starts;
+        }
+        return starts;
+    }
+
+    /**
+     * @return The 1-based line an offset is on, by binary search. Offsets
+     * past the end are on the last line.
+     */
+    public int get_line(int offset) {
+        int[] starts = get_line_starts();
+        int lo = 0;
+        int hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo + 1;
+    }
+
+    /**
+     * @return The 1-based column of an offset, counted in bytes.
+     */
+    public int get_column(int offset) {
+        return offset - get_line_starts()[get_line(offset) - 1] + 1;
+    }
+
+    /**
+     * @return How many lines the file has; a final line without a '\n'
+     * counts, and so does the empty line after a final '\n'.
+     */
+    public int get_line_count() {
+        return get_line_starts().length;
+    }
+
+    /**
+     * Decode a range of the file. This allocates; use it for diagnostics,
+     * literals and docs, not for scanning.
+     */
+    public String get_text(int offset, int length) {
+        byte[] b = new byte[length];
+        ByteBuffer view = bytes.duplicate();
+        view.position(offset);
+        view.get(b, 0, length);
+        return new String(b, UTF8);
+    }
+
+    /**
+     * Decode the whole file.
+     */
+    public String get_text() {
+        return get_text(0, length());
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,37 @@
+package verse.compiler;
+
+/**
+ * Distinguishes the kinds of files that make up a verse source tree.
+ */
+public enum source_kind {
+
+    /** A <code>.v</code> file -- code in the indentation-based verse syntax. */
+    CODE("v"),
+
+    /** A <code>.yaml</code> class descriptor, cmdline descriptor, etc. */
+    DESCRIPTOR("yaml");
+
+    public final String extension;
+
+    source_kind(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return The kind of source that a file name implies, or null if the
+     * file is not something the compiler reads.
+     */
+    public static source_kind from_file_name(String name) {
+        int i = name.lastIndexOf('.');
+        if (i == -1) {
+            return null;
+        }
+        String ext = name.substring(i + 1);
+        for (source_kind k: values()) {
+            if (k.extension.equals(ext)) {
+                return k;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,250 @@
+package verse.compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import verse.dbc.precondition;
+import verse.io.path_util;
+
+/**
+ * Reads every <code>.v</code> and <code>.yaml</code> file under the root of a
+ * verse tree (a folder such as <code>sample/bistro.verse</code>) into a
+ * {@link source_pool}. Files are read in parallel on a fork-join pool; each
+ * one costs a single open plus either a memory mapping or a single bulk read
+ * into an exactly-sized buffer. Nothing is decoded to chars at this stage.
+ */
+public class source_loader {
+
+    /**
+     * Files at least this big are memory-mapped. Smaller files are read into
+     * the heap instead: a mapping costs at least a page plus a kernel VMA, which
+     * is pure overhead for the typical few-hundred-byte descriptor.
+     */
+    public static final int MAP_THRESHOLD = 16 * 1024;
+
+    /**
+     * Below this many files, a fork-join task reads its slice sequentially
+     * instead of splitting further.
+     */
+    static final int SLICE_SIZE = 64;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool Where reads run. Loading is I/O-bound, so a caller may want
+     *             a pool with more threads than cores.
+     */
+    public source_loader(ForkJoinPool pool) {
+        precondition.checkNotNull(pool, "pool");
+        this.pool = pool;
+    }
+
+    public source_loader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Walk a tree and load all of its sources.
+     *
+     * @param root Folder to walk -- normally one whose name ends in ".verse".
+     * @throws IOException if the tree can't be walked or any file can't be
+     *                     read. If several files fail, the first failure is
+     *                     thrown and the others are attached as suppressed.
+     */
+    public source_pool load(Path root) throws IOException {
+        precondition.checkNotNull(root, "root");
+        if (!Files.isDirectory(root)) {
+            throw new IOException(String.format("%s is not a folder.", root));
+        }
+        root = root.toAbsolutePath().normalize();
+        return new source_pool(root, read_all(root, find_sources(root)));
+    }
+
+    /**
+     * Bring a pool up to date after some of its tree changed, rereading only
+     * what changed. Files that are not under a changed path keep their
+     * {@link source_file} objects, so later phases can tell by identity that
+     * they are unchanged.
+     *
+     * @param changed Root-relative paths of files or folders that were
+     *                created, modified, or deleted. "" means the whole tree.
+     */
+    public source_pool reload(source_pool previous, Collection<String> changed) throws IOException {
+        precondition.checkNotNull(previous, "previous");
+        precondition.checkNotNull(changed, "changed");
+        Path root = previous.root;
+        Map<String, source_file> kept = new LinkedHashMap<String, source_file>();
+        for (source_file f: previous) {
+            kept.put(f.path, f);
+        }
+        Set<Path> paths = new LinkedHashSet<Path>();
+        for (String c: changed) {
+            Iterator<String> it = kept.keySet().iterator();
+            while (it.hasNext()) {
+                String path = it.next();
+                if (c.isEmpty() || path.equals(c) || path.startsWith(c + "/")) {
+                    it.remove();
+                }
+            }
+            Path p = root.resolve(c);
+            if (Files.isDirectory(p)) {
+                if (!is_ignored_path(c, true)) {
+                    paths.addAll(find_sources(p));
+                }
+            } else if (Files.isRegularFile(p) && !is_ignored_path(c, false)
+                    && source_kind.from_file_name(p.getFileName().toString()) != null) {
+                paths.add(p);
+            }
+        }
+        source_file[] read = read_all(root, new ArrayList<Path>(paths));
+        List<source_file> files = new ArrayList<source_file>(kept.values());
+        files.addAll(Arrays.asList(read));
+        return new source_pool(root, files.toArray(new source_file[files.size()]));
+    }
+
+    private source_file[] read_all(Path root, List<Path> paths) throws IOException {
+        source_file[] files = new source_file[paths.size()];
+        AtomicReference<IOException> error = new AtomicReference<IOException>();
+        pool.invoke(new read_slice(root, paths, files, 0, files.length, error));
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return files;
+    }
+
+    /**
+     * @return Paths of all compilable files under root. Hidden folders and
+     * "built.*" output folders are not entered.
+     */
+    public static List<Path> find_sources(Path root) throws IOException {
+        final List<Path> found = new ArrayList<Path>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                Path name = dir.getFileName();
+                if (name != null && is_ignored_folder(name.toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && source_kind.from_file_name(file.getFileName().toString()) != null) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return found;
+    }
+
+    static boolean is_ignored_folder(String name) {
+        return name.startsWith(".") || name.startsWith("built.");
+    }
+
+    /**
+     * @return True if a root-relative path is inside (or, for a folder, is)
+     * a folder that {@link #find_sources} doesn't enter.
+     */
+    static boolean is_ignored_path(String rel, boolean is_folder) {
+        String[] segments = rel.split("/");
+        int folders = is_folder ? segments.length : segments.length - 1;
+        for (int i = 0; i < folders; ++i) {
+            if (!segments[i].isEmpty() && is_ignored_folder(segments[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read one file. Safe to call from any thread.
+     */
+    public static source_file read(Path root, Path file) throws IOException {
+        String rel = path_util.normSeparators(root.relativize(file).toString());
+        source_kind kind = source_kind.from_file_name(file.getFileName().toString());
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too big to compile.", file));
+            }
+            ByteBuffer bytes;
+            if (size >= MAP_THRESHOLD) {
+                // The mapping stays valid after the channel is closed.
+                bytes = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining()) {
+                    if (ch.read(bytes) == -1) {
+                        break;
+                    }
+                }
+                bytes.flip();
+            }
+            return new source_file(rel, file, kind, bytes);
+        } finally {
+            ch.close();
+        }
+    }
+
+    private static class read_slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final List<Path> paths;
+        private final source_file[] out;
+        private final int begin;
+        private final int end;
+        private final AtomicReference<IOException> error;
+
+        read_slice(Path root, List<Path> paths, source_file[] out, int begin, int end,
+                AtomicReference<IOException> error) {
+            this.root = root;
+            this.paths = paths;
+            this.out = out;
+            this.begin = begin;
+            this.end = end;
+            this.error = error;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin > SLICE_SIZE) {
+                int mid = (begin + end) >>> 1;
+                invokeAll(new read_slice(root, paths, out, begin, mid, error),
+                        new read_slice(root, paths, out, mid, end, error));
+                return;
+            }
+            for (int i = begin; i < end; ++i) {
+                try {
+                    out[i] = read(root, paths.get(i));
+                } catch (IOException e) {
+                    if (!error.compareAndSet(null, e)) {
+                        error.get().addSuppressed(e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package verse.compiler;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The complete, read-only set of sources in a verse tree. Once built by
+ * {@link source_loader}, a pool is never modified, so any number of compiler
+ * threads may read it without locking. Files are kept sorted by path so that
+ * everything derived from the pool is deterministic.
+ */
+public class source_pool implements Iterable<source_file> {
+
+    public final Path root;
+
+    private final source_file[] files;
+    private final Map<String, source_file> by_path;
+    private final long total_bytes;
+
+    source_pool(Path root, source_file[] files) {
+        this.root = root;
+        this.files = files;
+        Arrays.sort(this.files, new Comparator<source_file>() {
+            @Override
+            public int compare(source_file a, source_file b) {
+                return a.path.compareTo(b.path);
+            }
+        });
+        Map<String, source_file> m = new HashMap<String, source_file>(files.length * 2);
+        long total = 0;
+        for (source_file f: files) {
+            m.put(f.path, f);
+            total += f.length();
+        }
+        this.by_path = Collections.unmodifiableMap(m);
+        this.total_bytes = total;
+    }
+
+    /**
+     * @return The file at a root-relative path such as "build.v", or null.
+     */
+    public source_file get(String path) {
+        return by_path.get(path);
+    }
+
+    public source_file get(int index) {
+        return files[index];
+    }
+
+    public int size() {
+        return files.length;
+    }
+
+    public long get_total_bytes() {
+        return total_bytes;
+    }
+
+    @Override
+    public Iterator<source_file> iterator() {
+        return Collections.unmodifiableList(Arrays.asList(files)).iterator();
+    }
+}
@@ -0,0 +1,238 @@
+package verse.compiler;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Interns identifiers -- names, dotted packages, canonical type spellings --
+ * into dense int ids. A tree repeats the same few thousand names hundreds of
+ * thousands of times; with a table, each is stored once, and later phases
+ * can compare ids with == and keep sets of them in a {@link java.util.BitSet}.
+ *
+ * <p>The characters of every symbol live end to end in one shared arena,
+ * indexed by an open-addressing hash table of ids. Interning straight from
+ * a {@link source_file}'s bytes allocates nothing unless the symbol is new.
+ * Each id also has one canonical String, so ASTs built through the table
+ * share their strings instead of holding a copy per occurrence.</p>
+ *
+ * <p>Lookups don't lock; they read a table that is only ever published
+ * whole. Inserts take a lock. Hashes are {@link String#hashCode()}, which
+ * Strings cache, so interning a String that is already canonical costs one
+ * probe and an identity check.</p>
+ */
+public class symbol_table {
+
+    /** Returned by {@link #find} for a name that was never interned. */
+    public static final int NONE = -1;
+
+    private final Object lock = new Object();
+
+    // Slots hold id + 1; 0 is empty. Replaced, never resized in place.
+    private volatile AtomicIntegerArray slots = new AtomicIntegerArray(1024);
+
+    // Per-id data. Written before the id is published to a slot.
+    private volatile char[] arena = new char[8192];
+    private volatile int[] starts = new int[512];
+    private volatile int[] hashes = new int[512];
+    private volatile String[] names = new String[512];
+
+    private int count;
+    private int arena_used;
+
+    /**
+     * @return How many distinct symbols have been interned; ids run from 0 to
+     * this minus one.
+     */
+    public int size() {
+        synchronized (lock) {
+            return count;
+        }
+    }
+
+    /**
+     * @return The canonical String for an id.
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return How many chars the arena holds, for measurement.
+     */
+    public int get_arena_chars() {
+        synchronized (lock) {
+            return arena_used;
+        }
+    }
+
+    /**
+     * @return The id of s, or {@link #NONE} if it was never interned.
+     */
+    public int find(CharSequence s) {
+        return probe(slots, s, hash(s));
+    }
+
+    public int intern(CharSequence s) {
+        int h = hash(s);
+        int id = probe(slots, s, h);
+        return id != NONE ? id : insert(s.toString(), h);
+    }
+
+    /**
+     * Intern the UTF-8 text in a range of a file. ASCII text (nearly every
+     * identifier) is hashed and compared in place.
+     */
+    public int intern(source_file file, int offset, int length) {
+        int h = 0;
+        for (int i = 0; i < length; ++i) {
+            byte b = file.byte_at(offset + i);
+            if (b < 0) {
+                return intern(file.get_text(offset, length));
+            }
+            h = 31 * h + b;
+        }
+        AtomicIntegerArray s = slots;
+        int mask = s.length() - 1;
+        for (int p = mix(h) & mask; ; p = (p + 1) & mask) {
+            int v = s.get(p);
+            if (v == 0) {
+                return insert(file.get_text(offset, length), h);
+            }
+            int id = v - 1;
+            if (hashes[id] == h && matches(id, file, offset, length)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return What {@link String#hashCode()} would return for s.
+     */
+    private static int hash(CharSequence s) {
+        if (s instanceof String) {
+            return s.hashCode();
+        }
+        int h = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    private boolean matches(int id, source_file file, int offset, int length) {
+        int start = starts[id];
+        if (names[id].length() != length) {
+            return false;
+        }
+        char[] a = arena;
+        for (int i = 0; i < length; ++i) {
+            if (a[start + i] != file.byte_at(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matches(int id, CharSequence s) {
+        String name = names[id];
+        if (name == s) {
+            return true;
+        }
+        int length = s.length();
+        if (name.length() != length) {
+            return false;
+        }
+        int start = starts[id];
+        char[] a = arena;
+        for (int i = 0; i < length; ++i) {
+            if (a[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int probe(AtomicIntegerArray s, CharSequence text, int h) {
+        int mask = s.length() - 1;
+        for (int p = mix(h) & mask; ; p = (p + 1) & mask) {
+            int v = s.get(p);
+            if (v == 0) {
+                return NONE;
+            }
+            int id = v - 1;
+            if (hashes[id] == h && matches(id, text)) {
+                return id;
+            }
+        }
+    }
+
+    private int insert(String s, int h) {
+        synchronized (lock) {
+            // Someone may have inserted it since the unlocked probe.
+            int id = probe(slots, s, h);
+            if (id != NONE) {
+                return id;
+            }
+            id = count;
+            if (id == names.length) {
+                int n = id * 2;
+                starts = copy(starts, n);
+                hashes = copy(hashes, n);
+                String[] bigger = new String[n];
+                System.arraycopy(names, 0, bigger, 0, id);
+                names = bigger;
+            }
+            int length = s.length();
+            if (arena_used + length > arena.length) {
+                char[] bigger = new char[Math.max(arena.length * 2, arena_used + length)];
+                System.arraycopy(arena, 0, bigger, 0, arena_used);
+                arena = bigger;
+            }
+            s.getChars(0, length, arena, arena_used);
+            starts[id] = arena_used;
+            hashes[id] = h;
+            names[id] = s;
+            arena_used += length;
+            count = id + 1;
+
+            AtomicIntegerArray s2 = slots;
+            if (count * 2 > s2.length()) {
+                s2 = new AtomicIntegerArray(s2.length() * 2);
+                for (int i = 0; i <= id; ++i) {
+                    place(s2, i);
+                }
+                slots = s2;
+            } else {
+                place(s2, id);
+            }
+            return id;
+        }
+    }
+
+    private void place(AtomicIntegerArray s, int id) {
+        int mask = s.length() - 1;
+        int p = mix(hashes[id]) & mask;
+        while (s.get(p) != 0) {
+            p = (p + 1) & mask;
+        }
+        s.set(p, id + 1);
+    }
+
+    private static int[] copy(int[] a, int n) {
+        int[] b = new int[n];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    /**
+     * String hashes are weak in their low bits, which are all a power-of-two
+     * table looks at; spread them (murmur3's finalizer).
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
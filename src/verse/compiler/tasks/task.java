@@ -0,0 +1,45 @@
+package verse.compiler.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import verse.compiler.parse.task_decl;
+
+/**
+ * A node of the {@link task_graph}: one declared task, and the tasks it
+ * waits on and that wait on it.
+ */
+public class task {
+
+    public final String name;
+    public final task_decl decl;
+
+    /** Position in {@link task_graph#get_tasks()}. */
+    public final int index;
+
+    final List<task> deps = new ArrayList<task>();
+    final List<task> dependents = new ArrayList<task>();
+
+    task(task_decl decl, int index) {
+        this.name = decl.name;
+        this.decl = decl;
+        this.index = index;
+    }
+
+    /**
+     * @return Tasks that must finish before this one starts.
+     */
+    public List<task> get_deps() {
+        return Collections.unmodifiableList(deps);
+    }
+
+    public List<task> get_dependents() {
+        return Collections.unmodifiableList(dependents);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
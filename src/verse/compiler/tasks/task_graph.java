@@ -0,0 +1,188 @@
+package verse.compiler.tasks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import verse.compiler.diagnostic;
+import verse.compiler.parse.parsed_file;
+import verse.compiler.parse.parser;
+import verse.compiler.parse.task_decl;
+import verse.compiler.source_file;
+
+/**
+ * The tasks a tree's root build.v declares, with an edge from each task to
+ * every task it names in <code>after:</code>. Like the {@link
+ * verse.compiler.unit_graph}, tasks caught in a cycle are reported and left
+ * out of {@link #get_order()}, and so are tasks that wait on a name nobody
+ * declares.
+ */
+public class task_graph {
+
+    private final source_file file;
+    private final List<task> tasks;
+    private final List<task> order;
+    private final Map<String, task> by_name;
+    private final List<diagnostic> diagnostics;
+
+    private task_graph(source_file file, List<task> tasks, List<task> order, Map<String, task> by_name,
+            List<diagnostic> diagnostics) {
+        this.file = file;
+        this.tasks = tasks;
+        this.order = order;
+        this.by_name = by_name;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * @return The build.v the tasks came from; null if the tree has none.
+     */
+    public source_file get_file() {
+        return file;
+    }
+
+    public List<task> get_tasks() {
+        return Collections.unmodifiableList(tasks);
+    }
+
+    /**
+     * @return Every task that can run, dependencies first.
+     */
+    public List<task> get_order() {
+        return Collections.unmodifiableList(order);
+    }
+
+    /**
+     * @return The named task, or null.
+     */
+    public task get_task(String name) {
+        return by_name.get(name);
+    }
+
+    /**
+     * @return Problems in build.v, parse errors included.
+     */
+    public List<diagnostic> get_diagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * Read and parse root/build.v. A tree without one has no tasks.
+     */
+    public static task_graph load(Path root) throws IOException {
+        Path p = root.resolve("build.v");
+        if (!Files.isRegularFile(p)) {
+            return build(null, Collections.<task_decl>emptyList(), Collections.<diagnostic>emptyList());
+        }
+        source_file file = source_file.in_memory("build.v", Files.readAllBytes(p));
+        parsed_file parsed = parser.parse(file);
+        return build(file, parsed.tasks, parsed.diagnostics);
+    }
+
+    static task_graph build(source_file file, Collection<task_decl> decls, Collection<diagnostic> problems) {
+        List<diagnostic> diagnostics = new ArrayList<diagnostic>(problems);
+        List<task> tasks = new ArrayList<task>(decls.size());
+        Map<String, task> by_name = new LinkedHashMap<String, task>();
+        for (task_decl d: decls) {
+            if (by_name.containsKey(d.name)) {
+                diagnostics.add(new diagnostic("build.v", d.offset, String.format("task %s is declared twice", d.name)));
+                continue;
+            }
+            task t = new task(d, tasks.size());
+            tasks.add(t);
+            by_name.put(t.name, t);
+        }
+        // Kahn's algorithm, as for units. A task that waits on an undeclared
+        // name gets an extra pending dep that never clears, so it is left out
+        // just like a task in, or after, a cycle.
+        int[] pending = new int[tasks.size()];
+        boolean[] unknown = new boolean[tasks.size()];
+        for (task t: tasks) {
+            for (String name: t.decl.after) {
+                task dep = by_name.get(name);
+                if (dep == null) {
+                    diagnostics.add(new diagnostic("build.v", t.decl.offset, String.format(
+                            "task %s runs after %s, which isn't declared", t.name, name)));
+                    unknown[t.index] = true;
+                } else if (!t.deps.contains(dep)) {
+                    t.deps.add(dep);
+                    dep.dependents.add(t);
+                }
+            }
+        }
+        Deque<task> ready = new ArrayDeque<task>();
+        for (task t: tasks) {
+            pending[t.index] = t.deps.size() + (unknown[t.index] ? 1 : 0);
+            if (pending[t.index] == 0) {
+                ready.add(t);
+            }
+        }
+        List<task> order = new ArrayList<task>(tasks.size());
+        while (!ready.isEmpty()) {
+            task t = ready.poll();
+            order.add(t);
+            for (task d: t.dependents) {
+                if (--pending[d.index] == 0) {
+                    ready.add(d);
+                }
+            }
+        }
+        for (task t: tasks) {
+            if (pending[t.index] > 0 && !unknown[t.index]) {
+                diagnostics.add(new diagnostic("build.v", t.decl.offset, String.format(
+                        "task %s can't run; it waits on a cycle of tasks or one that can't run (%s)", t.name,
+                        describe_waits(t, pending))));
+            }
+        }
+        return new task_graph(file, tasks, order, by_name, diagnostics);
+    }
+
+    private static String describe_waits(task t, int[] pending) {
+        StringBuilder sb = new StringBuilder();
+        for (task d: t.deps) {
+            if (pending[d.index] > 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append("waits on ").append(d.name);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return names and every task they run after, directly or not.
+     */
+    public List<task> get_closure(Collection<String> names) {
+        boolean[] wanted = new boolean[tasks.size()];
+        Deque<task> todo = new ArrayDeque<task>();
+        for (String name: names) {
+            task t = by_name.get(name);
+            if (t != null) {
+                todo.add(t);
+            }
+        }
+        while (!todo.isEmpty()) {
+            task t = todo.poll();
+            if (!wanted[t.index]) {
+                wanted[t.index] = true;
+                todo.addAll(t.deps);
+            }
+        }
+        List<task> closure = new ArrayList<task>();
+        for (task t: order) {
+            if (wanted[t.index]) {
+                closure.add(t);
+            }
+        }
+        return closure;
+    }
+}
@@ -0,0 +1,168 @@
+package verse.compiler.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What happened when the {@link task_runner} ran a set of tasks: how each
+ * one ended, how long it took, and the critical path -- the chain of tasks,
+ * each waiting on the one before, with the greatest total time. As with
+ * {@link verse.compiler.schedule_report}, no number of jobs can finish the
+ * run faster than that chain.
+ */
+public class task_report {
+
+    public enum outcome {
+        /** Nothing it reads or writes changed since it last ran. */
+        UP_TO_DATE,
+        RAN,
+        FAILED,
+        /** A task it runs after failed. */
+        SKIPPED
+    }
+
+    private final List<task> tasks;
+    private final long[] starts;
+    private final long[] ends;
+    private final outcome[] outcomes;
+    private final String[] failures;
+    private final long wall_nanos;
+    private final List<task> critical_path;
+    private final long critical_nanos;
+
+    task_report(List<task> tasks, long[] starts, long[] ends, outcome[] outcomes, String[] failures,
+            long wall_nanos) {
+        this.tasks = tasks;
+        this.starts = starts;
+        this.ends = ends;
+        this.outcomes = outcomes;
+        this.failures = failures;
+        this.wall_nanos = wall_nanos;
+
+        // Longest path by duration; tasks are in topological order, so every
+        // dep's value is final before it is read.
+        long[] through = new long[starts.length];
+        task[] prev = new task[starts.length];
+        task last = null;
+        for (task t: tasks) {
+            long best = 0;
+            for (task d: t.deps) {
+                if (through[d.index] > best) {
+                    best = through[d.index];
+                    prev[t.index] = d;
+                }
+            }
+            through[t.index] = best + get_nanos(t);
+            if (last == null || through[t.index] > through[last.index]) {
+                last = t;
+            }
+        }
+        List<task> path = new ArrayList<task>();
+        for (task t = last; t != null; t = prev[t.index]) {
+            path.add(t);
+        }
+        Collections.reverse(path);
+        this.critical_path = path;
+        this.critical_nanos = last == null ? 0 : through[last.index];
+    }
+
+    /**
+     * @return The tasks that were asked for, dependencies first.
+     */
+    public List<task> get_tasks() {
+        return Collections.unmodifiableList(tasks);
+    }
+
+    public outcome get_outcome(task t) {
+        return outcomes[t.index];
+    }
+
+    /**
+     * @return How long t took, up-to-date check included.
+     */
+    public long get_nanos(task t) {
+        return ends[t.index] - starts[t.index];
+    }
+
+    public long get_wall_nanos() {
+        return wall_nanos;
+    }
+
+    public List<task> get_critical_path() {
+        return Collections.unmodifiableList(critical_path);
+    }
+
+    public long get_critical_nanos() {
+        return critical_nanos;
+    }
+
+    /**
+     * @return How many tasks ended the given way.
+     */
+    public int count(outcome o) {
+        int n = 0;
+        for (task t: tasks) {
+            if (outcomes[t.index] == o) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return Tasks that failed, with why.
+     */
+    public Map<task, String> get_failures() {
+        Map<task, String> m = new LinkedHashMap<task, String>();
+        for (task t: tasks) {
+            if (outcomes[t.index] == outcome.FAILED) {
+                m.put(t, failures[t.index]);
+            }
+        }
+        return m;
+    }
+
+    public boolean succeeded() {
+        return count(outcome.FAILED) == 0 && count(outcome.SKIPPED) == 0;
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.1f ms", nanos / 1000000.0);
+    }
+
+    /**
+     * @return A one-line summary, for example "3 tasks: 1 ran, 2 up to date;
+     * critical path: compile -&gt; jar (812.4 ms); wall 815.0 ms".
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(tasks.size()).append(tasks.size() == 1 ? " task: " : " tasks: ");
+        sb.append(count(outcome.RAN)).append(" ran, ").append(count(outcome.UP_TO_DATE)).append(" up to date");
+        if (count(outcome.FAILED) > 0) {
+            sb.append(", ").append(count(outcome.FAILED)).append(" failed");
+        }
+        if (count(outcome.SKIPPED) > 0) {
+            sb.append(", ").append(count(outcome.SKIPPED)).append(" skipped");
+        }
+        sb.append("; critical path: ");
+        for (int i = 0; i < critical_path.size(); ++i) {
+            if (i > 0) {
+                sb.append(" -> ");
+            }
+            sb.append(critical_path.get(i).name);
+        }
+        if (critical_path.isEmpty()) {
+            sb.append("(no tasks)");
+        }
+        sb.append(String.format(" (%s); wall %s", ms(critical_nanos), ms(wall_nanos)));
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
@@ -0,0 +1,231 @@
+package verse.compiler.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import verse.compiler.source_file;
+import verse.dbc.precondition;
+
+/**
+ * Runs the tasks of a {@link task_graph} on a fork-join pool, the way the
+ * {@link verse.compiler.unit_scheduler} runs units: a task starts the moment
+ * the last task it runs after finishes, so independent tasks run side by
+ * side, up to the pool's parallelism. A task that is up to date, per the
+ * {@link task_state}, is not run again. If a task fails, the tasks after it
+ * are skipped.
+ *
+ * <p>Each <code>run:</code> command goes to the platform shell, in the tree's
+ * root. Its output is captured and printed in one piece when the task
+ * finishes, so the output of tasks that ran at the same time isn't
+ * interleaved.</p>
+ */
+public class task_runner {
+
+    private final ForkJoinPool pool;
+    private final Path root;
+    private final task_state state;
+    private final PrintStream out;
+    private boolean force;
+
+    /**
+     * @param out Where task output goes; each command's stdout and stderr
+     *            are merged.
+     */
+    public task_runner(ForkJoinPool pool, Path root, task_state state, PrintStream out) {
+        precondition.checkNotNull(pool, "pool");
+        precondition.checkNotNull(root, "root");
+        precondition.checkNotNull(state, "state");
+        precondition.checkNotNull(out, "out");
+        this.pool = pool;
+        this.root = root;
+        this.state = state;
+        this.out = out;
+    }
+
+    /**
+     * Run tasks even if they are up to date.
+     */
+    public void set_force(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Run the named tasks and everything they run after; with no names, run
+     * every task.
+     *
+     * @throws IllegalArgumentException if a name isn't a task that can run.
+     */
+    public task_report run(task_graph graph, Collection<String> names) throws InterruptedException {
+        List<task> selected;
+        if (names.isEmpty()) {
+            selected = graph.get_order();
+        } else {
+            for (String name: names) {
+                task t = graph.get_task(name);
+                if (t == null) {
+                    throw new IllegalArgumentException(String.format("no task named %s", name));
+                }
+                if (!graph.get_order().contains(t)) {
+                    throw new IllegalArgumentException(String.format("task %s can't run", name));
+                }
+            }
+            selected = graph.get_closure(names);
+        }
+        run_state rs = new run_state(graph.get_tasks().size(), selected.size());
+        for (task t: selected) {
+            rs.pending[t.index] = new AtomicInteger(t.deps.size());
+        }
+        for (task t: selected) {
+            if (t.deps.isEmpty()) {
+                pool.execute(new task_action(t, rs));
+            }
+        }
+        rs.done.await();
+        long wall = System.nanoTime() - rs.base;
+        task_report.outcome[] outcomes = new task_report.outcome[graph.get_tasks().size()];
+        for (task t: selected) {
+            outcomes[t.index] = rs.blocked.get(t.index) != 0 ? task_report.outcome.SKIPPED : rs.outcomes[t.index];
+        }
+        return new task_report(selected, rs.starts, rs.ends, outcomes, rs.failures, wall);
+    }
+
+    private class run_state {
+        final AtomicInteger[] pending;
+        final AtomicIntegerArray blocked;
+        final long[] starts;
+        final long[] ends;
+        final task_report.outcome[] outcomes;
+        final String[] failures;
+        final CountDownLatch done;
+        final long base = System.nanoTime();
+
+        run_state(int tasks, int runnable) {
+            pending = new AtomicInteger[tasks];
+            blocked = new AtomicIntegerArray(tasks);
+            starts = new long[tasks];
+            ends = new long[tasks];
+            outcomes = new task_report.outcome[tasks];
+            failures = new String[tasks];
+            done = new CountDownLatch(runnable);
+        }
+    }
+
+    private class task_action extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final task t;
+        private final run_state rs;
+
+        task_action(task t, run_state rs) {
+            this.t = t;
+            this.rs = rs;
+        }
+
+        @Override
+        protected void compute() {
+            int i = t.index;
+            rs.starts[i] = System.nanoTime() - rs.base;
+            if (rs.blocked.get(i) == 0) {
+                try {
+                    rs.outcomes[i] = execute(t);
+                } catch (Throwable e) {
+                    rs.outcomes[i] = task_report.outcome.FAILED;
+                    rs.failures[i] = e.toString();
+                }
+                if (rs.outcomes[i] == task_report.outcome.FAILED && rs.failures[i] == null) {
+                    rs.failures[i] = "failed";
+                }
+            }
+            rs.ends[i] = System.nanoTime() - rs.base;
+            boolean ok = rs.outcomes[i] == task_report.outcome.RAN || rs.outcomes[i] == task_report.outcome.UP_TO_DATE;
+            for (task d: t.dependents) {
+                if (!ok) {
+                    rs.blocked.set(d.index, 1);
+                }
+                AtomicInteger p = rs.pending[d.index];
+                if (p != null && p.decrementAndGet() == 0) {
+                    new task_action(d, rs).fork();
+                }
+            }
+            rs.done.countDown();
+        }
+
+        private task_report.outcome execute(task t) throws IOException, InterruptedException {
+            if (!force && state.is_up_to_date(root, t.decl)) {
+                return task_report.outcome.UP_TO_DATE;
+            }
+            // A task that fails half way may have changed its outputs.
+            state.forget(t.name);
+            ByteArrayOutputStream log = new ByteArrayOutputStream();
+            for (String command: t.decl.commands) {
+                int status = run_command(command, log);
+                if (status != 0) {
+                    rs.failures[t.index] = String.format("%s exited with %d", command, status);
+                    print(t, log);
+                    return task_report.outcome.FAILED;
+                }
+            }
+            print(t, log);
+            state.record(root, t.decl);
+            return task_report.outcome.RAN;
+        }
+    }
+
+    private int run_command(String command, ByteArrayOutputStream log) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(get_shell(command));
+        pb.directory(root.toFile());
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        p.getOutputStream().close();
+        InputStream in = p.getInputStream();
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                log.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return p.waitFor();
+    }
+
+    static List<String> get_shell(String command) {
+        List<String> args = new ArrayList<String>(3);
+        if (File.separatorChar == '\\') {
+            args.add("cmd");
+            args.add("/c");
+        } else {
+            args.add("sh");
+            args.add("-c");
+        }
+        args.add(command);
+        return args;
+    }
+
+    private void print(task t, ByteArrayOutputStream log) {
+        synchronized (out) {
+            out.println("> " + t.name);
+            if (log.size() > 0) {
+                String text = new String(log.toByteArray(), source_file.UTF8);
+                out.print(text);
+                if (!text.endsWith("\n")) {
+                    out.println();
+                }
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package verse.compiler.tasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import verse.compiler.compilation;
+import verse.compiler.content_hash;
+import verse.compiler.parse.task_decl;
+import verse.compiler.source_file;
+
+/**
+ * What each task's inputs and outputs looked like the last time it ran
+ * successfully, kept in built.&lt;variant&gt;/verse/tasks.state. A task's
+ * fingerprint hashes its commands and the path and content of every input
+ * and output file; a task whose fingerprint hasn't changed since it last
+ * ran, and whose outputs are all there, is up to date. Content, not
+ * timestamps, decides: touching a file, or checking out a branch and back,
+ * doesn't make a task run again.
+ *
+ * <p>Input globs are root-relative, as for {@link PathMatcher}, except
+ * that <code>**&#47;</code> also matches no folder at all. A glob
+ * without wildcards names a file, or a folder standing for every file
+ * under it. Only the folder before the first wildcard is walked, and
+ * built.* folders are left out unless the glob points into one.</p>
+ */
+public class task_state {
+
+    static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x56545331; // "VTS1"
+
+    private final Map<String, Long> fingerprints = new ConcurrentHashMap<String, Long>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public static Path get_path(Path root) {
+        return compilation.get_built_folder(root).resolve("verse").resolve("tasks.state");
+    }
+
+    /**
+     * @return true if the task ran successfully before, nothing it reads or
+     * writes has changed since, and its outputs are all there. A task that
+     * declares neither inputs nor outputs is never up to date.
+     */
+    public boolean is_up_to_date(Path root, task_decl t) throws IOException {
+        Long last = fingerprints.get(t.name);
+        if (last == null || (t.inputs.isEmpty() && t.outputs.isEmpty())) {
+            return false;
+        }
+        for (String out: t.outputs) {
+            if (!Files.exists(root.resolve(out))) {
+                return false;
+            }
+        }
+        return last.longValue() == fingerprint(root, t);
+    }
+
+    /**
+     * Remember a task's inputs and outputs as they are now, after it ran.
+     */
+    public void record(Path root, task_decl t) throws IOException {
+        fingerprints.put(t.name, fingerprint(root, t));
+        dirty.set(true);
+    }
+
+    /**
+     * Forget a task, so that it runs next time whatever has changed.
+     */
+    public void forget(String name) {
+        if (fingerprints.remove(name) != null) {
+            dirty.set(true);
+        }
+    }
+
+    static long fingerprint(Path root, task_decl t) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String command: t.commands) {
+            out.writeLong(content_hash.of(command.getBytes(source_file.UTF8)));
+        }
+        out.writeByte(0);
+        for (Map.Entry<String, Long> e: hash_files(root, t.inputs).entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeByte(0);
+        for (Map.Entry<String, Long> e: hash_files(root, t.outputs).entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.flush();
+        return content_hash.of(bytes.toByteArray());
+    }
+
+    /**
+     * @return The content hash of every file the globs match, by
+     * root-relative path with '/' separators.
+     */
+    static SortedMap<String, Long> hash_files(Path root, Iterable<String> globs) throws IOException {
+        SortedMap<String, Long> hashes = new TreeMap<String, Long>();
+        for (String glob: globs) {
+            expand(root, glob, hashes);
+        }
+        return hashes;
+    }
+
+    private static void expand(final Path root, String glob, final SortedMap<String, Long> hashes)
+            throws IOException {
+        String[] parts = glob.replace('\\', '/').split("/");
+        StringBuilder prefix = new StringBuilder();
+        int k = 0;
+        for (; k < parts.length && !has_wildcard(parts[k]); ++k) {
+            if (prefix.length() > 0) {
+                prefix.append('/');
+            }
+            prefix.append(parts[k]);
+        }
+        final Path base = root.resolve(prefix.toString()).normalize();
+        if (!Files.exists(base)) {
+            return;
+        }
+        final List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+        if (k < parts.length) {
+            for (String g: spell_out(glob.replace('\\', '/'))) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + g));
+            }
+        }
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(base) && dir.getFileName().toString().startsWith("built.")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path rel = root.relativize(file);
+                if (attrs.isRegularFile() && (matchers.isEmpty() || matches(matchers, rel))) {
+                    String key = rel.toString().replace(File.separatorChar, '/');
+                    if (!hashes.containsKey(key)) {
+                        hashes.put(key, content_hash.of(Files.readAllBytes(file)));
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path rel) {
+        for (PathMatcher m: matchers) {
+            if (m.matches(rel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return glob, and glob with each combination of its "**&#47;"s taken
+     * out: PathMatcher's "**&#47;" needs at least one folder, where a build
+     * file means zero or more.
+     */
+    static Set<String> spell_out(String glob) {
+        Set<String> globs = new LinkedHashSet<String>();
+        globs.add(glob);
+        for (int at = glob.indexOf("**/"); at != -1; at = glob.indexOf("**/", at + 1)) {
+            if (at == 0 || glob.charAt(at - 1) == '/') {
+                globs.addAll(spell_out(glob.substring(0, at) + glob.substring(at + 3)));
+            }
+        }
+        return globs;
+    }
+
+    private static boolean has_wildcard(String part) {
+        for (int i = 0; i < part.length(); ++i) {
+            char c = part.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Load state written by {@link #save}. A missing or unreadable file just
+     * means every task runs.
+     */
+    public static task_state load(Path file) {
+        task_state state = new task_state();
+        if (!Files.isRegularFile(file)) {
+            return state;
+        }
+        try {
+            InputStream in = Files.newInputStream(file);
+            try {
+                DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+                if (din.readInt() != MAGIC || din.readInt() != FORMAT_VERSION) {
+                    return state;
+                }
+                int n = din.readInt();
+                for (int i = 0; i < n; ++i) {
+                    String name = din.readUTF();
+                    state.fingerprints.put(name, din.readLong());
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            state.fingerprints.clear();
+        }
+        return state;
+    }
+
+    /**
+     * Write the state if it has changed, through a temp file renamed over
+     * the old one.
+     *
+     * @return true if anything was written.
+     */
+    public boolean save(Path file) throws IOException {
+        if (!dirty.getAndSet(false)) {
+            return false;
+        }
+        Files.createDirectories(file.getParent());
+        Map<String, Long> sorted = new TreeMap<String, Long>(fingerprints);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        OutputStream out = Files.newOutputStream(tmp);
+        try {
+            DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+            dout.writeInt(MAGIC);
+            dout.writeInt(FORMAT_VERSION);
+            dout.writeInt(sorted.size());
+            for (Map.Entry<String, Long> e: sorted.entrySet()) {
+                dout.writeUTF(e.getKey());
+                dout.writeLong(e.getValue());
+            }
+            dout.flush();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+}
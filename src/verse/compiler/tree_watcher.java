@@ -0,0 +1,121 @@
+package verse.compiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import verse.dbc.precondition;
+import verse.io.path_util;
+
+/**
+ * Watches every folder of a verse tree that {@link source_loader} would read,
+ * and reports what changed as root-relative paths ready for
+ * {@link compilation#next}. Folders created later are watched as soon as
+ * they are noticed.
+ *
+ * <p>Editors and VCS checkouts touch files in bursts (write a temp file,
+ * rename it over the original, update its timestamp), so events are
+ * coalesced: after the first one, collection continues until the tree has
+ * been quiet for the debounce window.</p>
+ */
+public class tree_watcher implements Closeable {
+
+    public final Path root;
+
+    private final WatchService service;
+    private final Map<WatchKey, Path> folders = new HashMap<WatchKey, Path>();
+
+    public tree_watcher(Path root) throws IOException {
+        precondition.checkNotNull(root, "root");
+        this.root = root.toAbsolutePath().normalize();
+        this.service = FileSystems.getDefault().newWatchService();
+        register_tree(this.root);
+    }
+
+    private void register_tree(Path top) throws IOException {
+        Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path name = dir.getFileName();
+                if (!dir.equals(root) && name != null && source_loader.is_ignored_folder(name.toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                folders.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Block until something in the tree changes, then keep collecting changes
+     * until none has arrived for debounce_millis.
+     *
+     * @return Root-relative paths of the files and folders that changed. If
+     * events were lost (the OS queue overflowed), the set holds just "",
+     * meaning the whole tree.
+     */
+    public Set<String> await_changes(long debounce_millis) throws InterruptedException, IOException {
+        Set<String> changed = new TreeSet<String>();
+        WatchKey key = service.take();
+        while (key != null) {
+            collect(key, changed);
+            key = service.poll(debounce_millis, TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    private void collect(WatchKey key, Set<String> changed) throws IOException {
+        Path dir = folders.get(key);
+        for (WatchEvent<?> e: key.pollEvents()) {
+            if (e.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                changed.clear();
+                changed.add("");
+                continue;
+            }
+            Path p = dir.resolve((Path) e.context());
+            String name = p.getFileName().toString();
+            if (Files.isDirectory(p)) {
+                if (source_loader.is_ignored_folder(name)) {
+                    continue;
+                }
+                if (e.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register_tree(p);
+                }
+            } else if (e.kind() != StandardWatchEventKinds.ENTRY_DELETE && source_kind.from_file_name(name) == null) {
+                continue;
+            }
+            if (!changed.contains("")) {
+                changed.add(path_util.normSeparators(root.relativize(p).toString()));
+            }
+        }
+        if (!key.reset()) {
+            folders.remove(key);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            service.close();
+        } catch (ClosedWatchServiceException e) {
+            // already closed
+        }
+    }
+}
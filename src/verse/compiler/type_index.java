@@ -0,0 +1,447 @@
+package verse.compiler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import verse.dbc.precondition;
+
+/**
+ * Which top-level classes exist in which packages, for every package of the
+ * running JDK (its <code>jrt:/</code> image) and of the compile classpath.
+ * Import resolution asks it whether <code>java.lang.reflect: Method</code>
+ * names a real class without loading the class, or even looking for it.
+ *
+ * <p>The index is built once and saved in a compact binary form under the
+ * tree's build folder; later builds memory-map the file and query it in
+ * place. It holds two open-addressing hash tables -- one of packages and
+ * one of "package.Name" strings -- whose slots point into a shared area of
+ * length-prefixed UTF-8 strings. Queries hash and compare the caller's
+ * chars against the mapped bytes directly, so they allocate nothing.</p>
+ *
+ * <p>A saved index records a key derived from the JDK version and from the
+ * path, size, and timestamp of every classpath entry (for a folder, of
+ * every class file in it); when the key no longer matches, the index is
+ * rebuilt. Classes are indexed by file name, so package-private top-level
+ * classes count as present; nested classes (whose file names contain '$')
+ * don't.</p>
+ */
+public class type_index {
+
+    static final int MAGIC = 0x56544931; // "VTI1"
+    static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 36;
+
+    /** The last index built in this process; reused when keys match. */
+    private static volatile type_index last_built;
+
+    /** Identifies the JDK and classpath the index describes. */
+    public final long key;
+
+    private final ByteBuffer buf;
+    private final int package_count;
+    private final int package_capacity;
+    private final int class_count;
+    private final int class_capacity;
+    private final int package_slots;
+    private final int class_slots;
+    private final int strings;
+
+    private type_index(ByteBuffer buf) {
+        this.buf = buf;
+        this.key = buf.getLong(8);
+        this.package_count = buf.getInt(16);
+        this.package_capacity = buf.getInt(20);
+        this.class_count = buf.getInt(24);
+        this.class_capacity = buf.getInt(28);
+        this.package_slots = HEADER_SIZE;
+        this.class_slots = package_slots + 4 * package_capacity;
+        this.strings = class_slots + 4 * class_capacity;
+    }
+
+    public int get_package_count() {
+        return package_count;
+    }
+
+    public int get_class_count() {
+        return class_count;
+    }
+
+    /**
+     * @return The index saved at file if it describes this JDK and
+     * classpath; otherwise a freshly built one, which is saved there first.
+     */
+    public static type_index open(Path file, List<Path> classpath) throws IOException {
+        precondition.checkNotNull(file, "file");
+        precondition.checkNotNull(classpath, "classpath");
+        long key = key_of(classpath);
+        type_index saved = map(file);
+        if (saved != null && saved.key == key) {
+            return saved;
+        }
+        type_index built = last_built;
+        if (built == null || built.key != key) {
+            built = build(classpath, key);
+            last_built = built;
+        }
+        built.save(file);
+        type_index mapped = map(file);
+        return mapped != null ? mapped : built;
+    }
+
+    /**
+     * @return The index saved at file, memory-mapped, or null if there isn't
+     * a readable one.
+     */
+    static type_index map(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = ch.size();
+                if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                    return null;
+                }
+                ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (b.getInt(0) != MAGIC || b.getInt(4) != FORMAT_VERSION) {
+                    return null;
+                }
+                type_index t = new type_index(b);
+                return t.strings <= size ? t : null;
+            } finally {
+                ch.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return A hash of the JDK's identity and of the path, size, and
+     * timestamp of each classpath entry -- for a folder, of each class file
+     * in it, since adding one deep inside changes nothing about the folder.
+     */
+    public static long key_of(List<Path> classpath) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(System.getProperty("java.home")).append('\n');
+        sb.append(System.getProperty("java.runtime.version")).append('\n');
+        for (Path p: classpath) {
+            sb.append(p.toAbsolutePath()).append('\n');
+            if (Files.isDirectory(p)) {
+                for (String line: describe_folder(p)) {
+                    sb.append(line).append('\n');
+                }
+            } else if (Files.exists(p)) {
+                sb.append(Files.size(p)).append(' ').append(Files.getLastModifiedTime(p).toMillis()).append('\n');
+            }
+        }
+        return content_hash.of(sb.toString().getBytes(source_file.UTF8));
+    }
+
+    /**
+     * @return The relative path, size, and timestamp of each class file in
+     * a folder, sorted, so the order the walk found them in doesn't matter.
+     */
+    private static Set<String> describe_folder(final Path top) throws IOException {
+        final Set<String> lines = new TreeSet<String>();
+        Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (file.getFileName().toString().endsWith(".class")) {
+                    lines.add(top.relativize(file) + " " + attrs.size() + " " + attrs.lastModifiedTime().toMillis());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return lines;
+    }
+
+    /**
+     * Scan the JDK image and each classpath entry (a jar or a folder of
+     * class files). Missing entries are skipped.
+     */
+    static type_index build(List<Path> classpath, long key) throws IOException {
+        Map<String, Set<String>> packages = new TreeMap<String, Set<String>>();
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        for (Path module: list(jrt.getPath("/modules"))) {
+            scan_folder(module, packages);
+        }
+        for (Path p: classpath) {
+            if (Files.isDirectory(p)) {
+                scan_folder(p, packages);
+            } else if (Files.isRegularFile(p)) {
+                scan_jar(p, packages);
+            }
+        }
+        return new type_index(encode(packages, key));
+    }
+
+    private static List<Path> list(Path folder) throws IOException {
+        List<Path> items = new ArrayList<Path>();
+        DirectoryStream<Path> ds = Files.newDirectoryStream(folder);
+        try {
+            for (Path p: ds) {
+                items.add(p);
+            }
+        } finally {
+            ds.close();
+        }
+        return items;
+    }
+
+    private static void scan_folder(final Path top, final Map<String, Set<String>> packages) throws IOException {
+        Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                add(top.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"), packages);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void scan_jar(Path jar, Map<String, Set<String>> packages) throws IOException {
+        ZipFile zip = new ZipFile(jar.toFile());
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry e = entries.nextElement();
+                String name = e.getName();
+                // Multi-release jars keep per-version copies under here.
+                if (!e.isDirectory() && !name.startsWith("META-INF/")) {
+                    add(name, packages);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Record a class file given its path relative to a classpath root, such
+     * as "java/util/Map.class".
+     */
+    private static void add(String rel, Map<String, Set<String>> packages) {
+        if (!rel.endsWith(".class")) {
+            return;
+        }
+        int slash = rel.lastIndexOf('/');
+        String name = rel.substring(slash + 1, rel.length() - ".class".length());
+        if (slash < 0 || name.indexOf('$') >= 0 || name.equals("module-info") || name.equals("package-info")) {
+            return;
+        }
+        String pkg = rel.substring(0, slash).replace('/', '.');
+        Set<String> names = packages.get(pkg);
+        if (names == null) {
+            names = new TreeSet<String>();
+            packages.put(pkg, names);
+        }
+        names.add(name);
+    }
+
+    private static ByteBuffer encode(Map<String, Set<String>> packages, long key) {
+        List<String> classes = new ArrayList<String>();
+        for (Map.Entry<String, Set<String>> e: packages.entrySet()) {
+            for (String name: e.getValue()) {
+                classes.add(e.getKey() + "." + name);
+            }
+        }
+        List<String> package_names = new ArrayList<String>(packages.keySet());
+        int package_capacity = capacity_for(package_names.size());
+        int class_capacity = capacity_for(classes.size());
+
+        int string_bytes = 0;
+        List<byte[]> encoded = new ArrayList<byte[]>(package_names.size() + classes.size());
+        for (String s: package_names) {
+            byte[] b = s.getBytes(source_file.UTF8);
+            encoded.add(b);
+            string_bytes += 2 + b.length;
+        }
+        for (String s: classes) {
+            byte[] b = s.getBytes(source_file.UTF8);
+            encoded.add(b);
+            string_bytes += 2 + b.length;
+        }
+        int strings_at = HEADER_SIZE + 4 * (package_capacity + class_capacity);
+        ByteBuffer buf = ByteBuffer.allocate(strings_at + string_bytes);
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, FORMAT_VERSION);
+        buf.putLong(8, key);
+        buf.putInt(16, package_names.size());
+        buf.putInt(20, package_capacity);
+        buf.putInt(24, classes.size());
+        buf.putInt(28, class_capacity);
+        buf.putInt(32, string_bytes);
+
+        int at = 0;
+        for (int i = 0; i < encoded.size(); ++i) {
+            byte[] b = encoded.get(i);
+            buf.putShort(strings_at + at, (short) b.length);
+            for (int j = 0; j < b.length; ++j) {
+                buf.put(strings_at + at + 2 + j, b[j]);
+            }
+            boolean is_package = i < package_names.size();
+            String s = is_package ? package_names.get(i) : classes.get(i - package_names.size());
+            int slots = is_package ? HEADER_SIZE : HEADER_SIZE + 4 * package_capacity;
+            int mask = (is_package ? package_capacity : class_capacity) - 1;
+            int p = mix(s.hashCode()) & mask;
+            while (buf.getInt(slots + 4 * p) != 0) {
+                p = (p + 1) & mask;
+            }
+            buf.putInt(slots + 4 * p, at + 1);
+            at += 2 + b.length;
+        }
+        return buf;
+    }
+
+    /**
+     * @return A power of two at least twice n, so probes stay short.
+     */
+    private static int capacity_for(int n) {
+        int c = 16;
+        while (c < n * 2) {
+            c <<= 1;
+        }
+        return c;
+    }
+
+    private void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE);
+            try {
+                ByteBuffer b = buf.duplicate();
+                b.clear();
+                while (b.hasRemaining()) {
+                    ch.write(b);
+                }
+            } finally {
+                ch.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return True if any indexed class lives in pkg.
+     */
+    public boolean has_package(CharSequence pkg) {
+        int h = hash(0, pkg);
+        int mask = package_capacity - 1;
+        for (int p = mix(h) & mask; ; p = (p + 1) & mask) {
+            int v = buf.getInt(package_slots + 4 * p);
+            if (v == 0) {
+                return false;
+            }
+            if (matches(v - 1, pkg, null)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return True if pkg has a top-level class with this simple name.
+     */
+    public boolean contains(CharSequence pkg, CharSequence name) {
+        int h = hash(31 * hash(0, pkg) + '.', name);
+        int mask = class_capacity - 1;
+        for (int p = mix(h) & mask; ; p = (p + 1) & mask) {
+            int v = buf.getInt(class_slots + 4 * p);
+            if (v == 0) {
+                return false;
+            }
+            if (matches(v - 1, pkg, name)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Continue a {@link String#hashCode()} over more chars.
+     */
+    private static int hash(int h, CharSequence s) {
+        for (int i = 0; i < s.length(); ++i) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    /**
+     * @return True if the string at offset equals first, or first + "." +
+     * second when second isn't null. Decodes UTF-8 as it goes.
+     */
+    private boolean matches(int offset, CharSequence first, CharSequence second) {
+        int at = strings + offset;
+        int end = at + 2 + (buf.getShort(at) & 0xffff);
+        at += 2;
+        int total = first.length() + (second == null ? 0 : 1 + second.length());
+        for (int i = 0; i < total; ++i) {
+            if (at >= end) {
+                return false;
+            }
+            int c = buf.get(at++) & 0xff;
+            if (c >= 0x80) {
+                if (c >= 0xf0) {
+                    // Outside the BMP; no class name in practice.
+                    return false;
+                } else if (c >= 0xe0) {
+                    c = ((c & 0x0f) << 12) | ((buf.get(at) & 0x3f) << 6) | (buf.get(at + 1) & 0x3f);
+                    at += 2;
+                } else {
+                    c = ((c & 0x1f) << 6) | (buf.get(at) & 0x3f);
+                    at += 1;
+                }
+            }
+            char expected;
+            if (i < first.length()) {
+                expected = first.charAt(i);
+            } else if (i == first.length()) {
+                expected = '.';
+            } else {
+                expected = second.charAt(i - first.length() - 1);
+            }
+            if (c != expected) {
+                return false;
+            }
+        }
+        return at == end;
+    }
+
+    /**
+     * Same spreading as {@link symbol_table}: string hashes are weak in the
+     * low bits that a power-of-two table uses.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
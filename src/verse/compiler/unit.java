@@ -0,0 +1,93 @@
+package verse.compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A compilation unit: one <code>.lib</code> or <code>.app</code> folder and
+ * every source beneath it. Units are the nodes of the {@link unit_graph} and
+ * the grain at which the {@link unit_scheduler} runs work in parallel.
+ */
+public class unit {
+
+    /** Folder name, such as "sched.lib". */
+    public final String name;
+
+    /** Root-relative folder path, such as "bistro.verse/sched.lib". */
+    public final String path;
+
+    public final boolean is_app;
+
+    /** Position in {@link unit_graph#get_units()}. */
+    public final int index;
+
+    final List<source_file> files = new ArrayList<source_file>();
+    final Set<String> packages = new TreeSet<String>();
+    final List<unit> deps = new ArrayList<unit>();
+    final List<unit> dependents = new ArrayList<unit>();
+
+    unit(String name, String path, int index) {
+        this.name = name;
+        this.path = path;
+        this.is_app = name.endsWith(".app");
+        this.index = index;
+    }
+
+    /**
+     * @return The unit's name without its ".lib"/".app" suffix.
+     */
+    public String get_base_name() {
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    public List<source_file> get_files() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * @return Packages that the unit's sources live in -- the names of its
+     * ".pkg" folders, and its own base name for files outside any .pkg.
+     */
+    public Set<String> get_packages() {
+        return Collections.unmodifiableSet(packages);
+    }
+
+    /**
+     * @return Units that must be compiled before this one.
+     */
+    public List<unit> get_deps() {
+        return Collections.unmodifiableList(deps);
+    }
+
+    public List<unit> get_dependents() {
+        return Collections.unmodifiableList(dependents);
+    }
+
+    /**
+     * @return The package a file in this unit belongs to. A file inside
+     * "com.moab.alloc.pkg" is in package "com.moab.alloc"; a file outside
+     * any .pkg folder is in the package named after the unit.
+     */
+    public String package_of(source_file f) {
+        String rel = f.path.substring(path.length() + 1);
+        String pkg = get_base_name();
+        int begin = 0;
+        int slash;
+        while ((slash = rel.indexOf('/', begin)) != -1) {
+            String folder = rel.substring(begin, slash);
+            if (folder.endsWith(".pkg")) {
+                pkg = folder.substring(0, folder.length() - 4);
+            }
+            begin = slash + 1;
+        }
+        return pkg;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
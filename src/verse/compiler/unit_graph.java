@@ -0,0 +1,204 @@
+package verse.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import verse.compiler.parse.import_decl;
+import verse.compiler.parse.parsed_file;
+
+/**
+ * The dependency DAG of a verse tree. Nodes are {@link unit}s; there is an
+ * edge from A to B when a file in A imports a package that lives in B.
+ * Imports of packages that no unit provides (java.*, third-party jars) add
+ * no edges. Units caught in an import cycle can't be ordered; they are
+ * reported and left out of {@link #get_order()}.
+ */
+public class unit_graph {
+
+    private final List<unit> units;
+    private final List<unit> order;
+    private final List<unit> cyclic;
+    private final List<source_file> loose;
+    private final Map<String, unit> by_package;
+    private final Map<String, unit> by_path = new HashMap<String, unit>();
+    private final List<diagnostic> diagnostics;
+
+    private unit_graph(List<unit> units, List<unit> order, List<unit> cyclic, List<source_file> loose,
+            Map<String, unit> by_package, List<diagnostic> diagnostics) {
+        this.units = units;
+        this.order = order;
+        this.cyclic = cyclic;
+        this.loose = loose;
+        this.by_package = by_package;
+        this.diagnostics = diagnostics;
+        for (unit u: units) {
+            by_path.put(u.path, u);
+        }
+    }
+
+    public List<unit> get_units() {
+        return Collections.unmodifiableList(units);
+    }
+
+    /**
+     * @return Every unit not caught in a cycle, dependencies first.
+     */
+    public List<unit> get_order() {
+        return Collections.unmodifiableList(order);
+    }
+
+    public List<unit> get_cyclic() {
+        return Collections.unmodifiableList(cyclic);
+    }
+
+    /**
+     * @return Files that belong to no unit, such as the root build.v.
+     */
+    public List<source_file> get_loose_files() {
+        return Collections.unmodifiableList(loose);
+    }
+
+    /**
+     * @return The unit whose sources live in a package, or null.
+     */
+    public unit get_provider(String pkg) {
+        return by_package.get(pkg);
+    }
+
+    /**
+     * @return The unit in a root-relative folder, or null. Paths, unlike
+     * {@link unit} objects, are stable across rebuilds of a tree.
+     */
+    public unit get_unit(String path) {
+        return by_path.get(path);
+    }
+
+    public List<diagnostic> get_diagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * @return Root-relative folder of the outermost .lib or .app that
+     * contains a path, or null if there isn't one.
+     */
+    static String unit_folder(String path) {
+        int begin = 0;
+        int slash;
+        while ((slash = path.indexOf('/', begin)) != -1) {
+            String folder = path.substring(begin, slash);
+            if (folder.endsWith(".lib") || folder.endsWith(".app")) {
+                return path.substring(0, slash);
+            }
+            begin = slash + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @param parsed Parse results for the pool's files, by path.
+     */
+    public static unit_graph build(source_pool sources, Map<String, parsed_file> parsed) {
+        List<diagnostic> diagnostics = new ArrayList<diagnostic>();
+        TreeMap<String, List<source_file>> by_folder = new TreeMap<String, List<source_file>>();
+        List<source_file> loose = new ArrayList<source_file>();
+        for (source_file f: sources) {
+            String folder = unit_folder(f.path);
+            if (folder == null) {
+                loose.add(f);
+                continue;
+            }
+            List<source_file> files = by_folder.get(folder);
+            if (files == null) {
+                files = new ArrayList<source_file>();
+                by_folder.put(folder, files);
+            }
+            files.add(f);
+        }
+
+        List<unit> units = new ArrayList<unit>(by_folder.size());
+        Map<String, unit> by_package = new HashMap<String, unit>();
+        for (Map.Entry<String, List<source_file>> e: by_folder.entrySet()) {
+            String folder = e.getKey();
+            unit u = new unit(folder.substring(folder.lastIndexOf('/') + 1), folder, units.size());
+            units.add(u);
+            u.files.addAll(e.getValue());
+            for (source_file f: u.files) {
+                u.packages.add(u.package_of(f));
+            }
+            for (String pkg: u.packages) {
+                unit other = by_package.get(pkg);
+                if (other == null) {
+                    by_package.put(pkg, u);
+                } else if (other != u) {
+                    diagnostics.add(new diagnostic(u.path, 0, String.format(
+                            "package %s is also provided by %s", pkg, other.path)));
+                }
+            }
+        }
+
+        for (unit u: units) {
+            for (source_file f: u.files) {
+                parsed_file p = parsed.get(f.path);
+                if (p == null) {
+                    continue;
+                }
+                for (import_decl d: p.imports) {
+                    unit dep = by_package.get(d.pkg);
+                    if (dep != null && dep != u && !u.deps.contains(dep)) {
+                        u.deps.add(dep);
+                        dep.dependents.add(u);
+                    }
+                }
+            }
+        }
+
+        // Kahn's algorithm; whatever never reaches zero pending deps is in,
+        // or downstream of, a cycle.
+        int[] pending = new int[units.size()];
+        Deque<unit> ready = new ArrayDeque<unit>();
+        for (unit u: units) {
+            pending[u.index] = u.deps.size();
+            if (pending[u.index] == 0) {
+                ready.add(u);
+            }
+        }
+        List<unit> order = new ArrayList<unit>(units.size());
+        while (!ready.isEmpty()) {
+            unit u = ready.poll();
+            order.add(u);
+            for (unit d: u.dependents) {
+                if (--pending[d.index] == 0) {
+                    ready.add(d);
+                }
+            }
+        }
+        List<unit> cyclic = new ArrayList<unit>();
+        for (unit u: units) {
+            if (pending[u.index] > 0) {
+                cyclic.add(u);
+                diagnostics.add(new diagnostic(u.path, 0, String.format(
+                        "%s can't be compiled; it imports from a cycle of units (%s)", u.name, describe_waits(u, pending))));
+            }
+        }
+        return new unit_graph(units, order, cyclic, loose, by_package, diagnostics);
+    }
+
+    private static String describe_waits(unit u, int[] pending) {
+        StringBuilder sb = new StringBuilder();
+        for (unit d: u.deps) {
+            if (pending[d.index] > 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append("waits on ").append(d.name);
+            }
+        }
+        return sb.toString();
+    }
+}
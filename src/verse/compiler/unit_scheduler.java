@@ -0,0 +1,115 @@
+package verse.compiler;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import verse.dbc.precondition;
+
+/**
+ * Runs per-unit work over a {@link unit_graph} on a fork-join pool. A unit
+ * starts the moment its last dependency finishes -- there are no waves or
+ * barriers -- and it is forked onto the deque of the worker that finished
+ * that dependency, which is usually the one with the most relevant data in
+ * cache. If a unit's work throws, the units that depend on it are skipped.
+ */
+public class unit_scheduler {
+
+    /**
+     * The work to do for each unit. Called at most once per unit, on some
+     * pool thread, after every dependency's call has returned.
+     */
+    public interface unit_work {
+        void compile(unit u) throws Exception;
+    }
+
+    private final ForkJoinPool pool;
+
+    public unit_scheduler(ForkJoinPool pool) {
+        precondition.checkNotNull(pool, "pool");
+        this.pool = pool;
+    }
+
+    public schedule_report run(unit_graph graph, unit_work work) throws InterruptedException {
+        List<unit> units = graph.get_units();
+        List<unit> order = graph.get_order();
+        run_state state = new run_state(units.size(), order.size(), work);
+        for (unit u: order) {
+            state.pending[u.index] = new AtomicInteger(u.deps.size());
+        }
+        for (unit u: order) {
+            if (u.deps.isEmpty()) {
+                pool.execute(new unit_task(u, state));
+            }
+        }
+        state.done.await();
+        long wall = System.nanoTime() - state.base;
+        boolean[] skipped = new boolean[units.size()];
+        for (unit u: order) {
+            skipped[u.index] = state.blocked.get(u.index) != 0;
+        }
+        return new schedule_report(graph, state.starts, state.ends, state.failures, skipped, wall);
+    }
+
+    private static class run_state {
+        final AtomicInteger[] pending;
+        final AtomicIntegerArray blocked;
+        final long[] starts;
+        final long[] ends;
+        final Throwable[] failures;
+        final CountDownLatch done;
+        final unit_work work;
+        final long base = System.nanoTime();
+
+        run_state(int units, int runnable, unit_work work) {
+            pending = new AtomicInteger[units];
+            blocked = new AtomicIntegerArray(units);
+            starts = new long[units];
+            ends = new long[units];
+            failures = new Throwable[units];
+            done = new CountDownLatch(runnable);
+            this.work = work;
+        }
+    }
+
+    private static class unit_task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final unit u;
+        private final run_state state;
+
+        unit_task(unit u, run_state state) {
+            this.u = u;
+            this.state = state;
+        }
+
+        @Override
+        protected void compute() {
+            int i = u.index;
+            boolean ok = false;
+            state.starts[i] = System.nanoTime() - state.base;
+            if (state.blocked.get(i) == 0) {
+                try {
+                    state.work.compile(u);
+                    ok = true;
+                } catch (Throwable t) {
+                    state.failures[i] = t;
+                }
+            }
+            state.ends[i] = System.nanoTime() - state.base;
+            for (unit d: u.dependents) {
+                if (!ok) {
+                    state.blocked.set(d.index, 1);
+                }
+                AtomicInteger p = state.pending[d.index];
+                if (p != null && p.decrementAndGet() == 0) {
+                    new unit_task(d, state).fork();
+                }
+            }
+            state.done.countDown();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package verse.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One member of a generated class, read and written through its get_/set_
+ * accessors by direct calls rather than {@link java.lang.reflect.Method}.
+ * Every generated class with accessible members has a
+ * <code>get_properties()</code> that returns one of these per member, in
+ * declaration order.
+ *
+ * <p>What reflection would find on the accessors' annotations is here as
+ * plain fields, fixed when the class was generated: the member's doc and
+ * its qualifiers, such as <code>-w</code> or <code>nonneg</code>.</p>
+ *
+ * @param <T> The class the member belongs to.
+ */
+public abstract class property<T> {
+
+    public final String name;
+
+    /** The member's erased type; a primitive's class for a primitive. */
+    public final Class<?> type;
+
+    /** False if the member has no setter. */
+    public final boolean writable;
+
+    /** The member's doc, or null. */
+    public final String doc;
+
+    /** Flags and modifiers, sign included, as declared. */
+    public final List<String> qualifiers;
+
+    protected property(String name, Class<?> type, boolean writable, String doc, String... qualifiers) {
+        this.name = name;
+        this.type = type;
+        this.writable = writable;
+        this.doc = doc;
+        this.qualifiers = qualifiers.length == 0 ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(Arrays.asList(qualifiers));
+    }
+
+    /**
+     * @return The member's value in target, boxed if it is a primitive.
+     */
+    public abstract Object get(T target);
+
+    /**
+     * Set the member through its setter, so its checks run. A primitive
+     * member takes exactly its box: an Integer for an int, not a Long.
+     *
+     * @throws UnsupportedOperationException if the member isn't writable.
+     */
+    public void set(T target, Object value) {
+        throw new UnsupportedOperationException(name + " is read-only");
+    }
+
+    /**
+     * @return The property named name in properties, or null.
+     */
+    public static <T> property<T> find(List<property<T>> properties, String name) {
+        for (property<T> p: properties) {
+            if (p.name.equals(name)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,86 @@
+package verse.cli;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementTest {
+
+    private statement serve;
+    private statement build;
+    private menu m;
+
+    @Before
+    public void setUp() throws invalid_menu_exception {
+        option socket = new option();
+        socket.set_names(Arrays.asList("socket", "s"));
+        socket.set_default("/tmp/x.sock");
+        serve = new statement("serve", "serve");
+        serve.add_flag("stop");
+        serve.add_option(socket);
+        build = new statement("build");
+        build.add_flag("no-daemon");
+        build.add_option(socket);
+        build.set_rest_placeholder("root");
+        m = new menu("verse", "Compile.", null, serve, build, menu.global_help);
+        m.validate();
+    }
+
+    @Test
+    public void testSelectsByKeywordThenArgs() throws invalid_cmd_exception {
+        assertSame(serve, m.parse(new String[] { "serve", "--stop" }).statement);
+        assertSame(build, m.parse(new String[0]).statement);
+        assertSame(build, m.parse(new String[] { "a.verse" }).statement);
+        assertSame(menu.global_help, m.parse(new String[] { "-?" }).statement);
+    }
+
+    @Test
+    public void testFlagsOptionsAndRest() throws invalid_cmd_exception {
+        cmd c = m.parse(new String[] { "--no-daemon", "-s", "/a.sock", "--", "-odd" });
+        assertTrue(c.has_flag("no-daemon"));
+        assertEquals("/a.sock", c.get_option("socket"));
+        assertEquals(Arrays.asList("-odd"), c.rest);
+        c = m.parse(new String[] { "serve", "--socket=/b.sock" });
+        assertFalse(c.has_flag("stop"));
+        assertEquals("/b.sock", c.get_option("s"));
+        assertEquals("/tmp/x.sock", m.parse(new String[0]).get_option("socket"));
+    }
+
+    @Test
+    public void testRepeatableOptionKeepsEveryValue() throws invalid_cmd_exception, invalid_menu_exception {
+        option define = new option();
+        define.set_names(Arrays.asList("define", "D"));
+        define.set_repeatable(true);
+        build.add_option(define);
+        m.validate();
+        cmd c = m.parse(new String[] { "-D", "a=1", "--define=b=2", "-D", "a=3" });
+        assertEquals(Arrays.asList("a=1", "b=2", "a=3"), c.get_option_values("define"));
+        assertEquals("a=3", c.get_option("D"));
+        assertEquals(Arrays.asList("/tmp/x.sock"), c.get_option_values("socket"));
+        assertTrue(m.parse(new String[0]).get_option_values("define").isEmpty());
+    }
+
+    @Test(expected = invalid_cmd_exception.class)
+    public void testRepeatedOption() throws invalid_cmd_exception {
+        m.parse(new String[] { "-s", "/a.sock", "-s", "/b.sock" });
+    }
+
+    @Test(expected = invalid_cmd_exception.class)
+    public void testUnknownFlag() throws invalid_cmd_exception {
+        m.parse(new String[] { "--bogus" });
+    }
+
+    @Test(expected = invalid_cmd_exception.class)
+    public void testMissingValue() throws invalid_cmd_exception {
+        m.parse(new String[] { "serve", "--socket" });
+    }
+
+    @Test(expected = invalid_menu_exception.class)
+    public void testDuplicateName() throws invalid_menu_exception {
+        build.add_flag("socket");
+        m.validate();
+    }
+}
@@ -0,0 +1,181 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import verse.compiler.parse.parse_cache;
+import verse.io.path_util;
+
+public class IncrementalTest {
+
+    private Path root;
+    private compilation first;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("incr").resolve("t.verse");
+        write("base.lib/a.v", "class A:\n members:\n  x: int\n");
+        write("mid.lib/b.v", "import:\n base: A\nclass B:\n members:\n  a: A\n");
+        write("top.app/main.v", "import:\n mid: B\nclass Main:\n members:\n  b: B\n");
+        write("other.lib/o.v", "class O:\n members:\n  x: int\n");
+        first = new compilation(root, new parse_cache());
+        first.run();
+    }
+
+    @After
+    public void tearDown() {
+        path_util.delete(root.getParent().toFile());
+    }
+
+    private void write(String rel, String text) throws IOException {
+        Path p = root.resolve(rel);
+        Files.createDirectories(p.getParent());
+        Files.write(p, text.getBytes(source_file.UTF8));
+    }
+
+    private static Set<String> set(String... items) {
+        return new HashSet<String>(Arrays.asList(items));
+    }
+
+    private compilation next(compilation c, String... changed) throws Exception {
+        compilation n = c.next(set(changed));
+        n.run();
+        return n;
+    }
+
+    @Test
+    public void testUnchangedOutputIsNotRewritten() throws Exception {
+        Path main = compilation.get_classes_folder(root).resolve("top/Main.class");
+        assertTrue(Files.isRegularFile(main));
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.setLastModifiedTime(main, old);
+        write("mid.lib/b.v", "import:\n base: A\nclass B:\n members:\n  a: A\n  n: int\n");
+        compilation second = next(first, "mid.lib/b.v");
+        assertEquals(new TreeSet<String>(set("mid.lib", "top.app")), new TreeSet<String>(second.get_recompiled()));
+        assertEquals(old, Files.getLastModifiedTime(main));
+        assertSame(first.get_outputs(), second.get_outputs());
+        assertTrue(second.get_outputs().get_skipped() > 0);
+    }
+
+    @Test
+    public void testPlanProblemsStopEmission() throws Exception {
+        write("other.lib/w.v", "class W:\n members:\n  x: int\n methods:\n  get_x() >> int\n   :\n    return x\n");
+        compilation second = next(first, "other.lib/w.v");
+        List<diagnostic> d = second.get_diagnostics();
+        assertEquals(d.toString(), 2, d.size());
+        assertTrue(d.get(0).is_warning);
+        assertEquals("W: verse method bodies aren't translated yet; get_x throws UnsupportedOperationException",
+                d.get(0).message);
+        assertFalse(d.get(1).is_warning);
+        assertFalse(Files.exists(compilation.get_classes_folder(root).resolve("other/W.class")));
+        assertFalse(Files.exists(compilation.get_generated_folder(root).resolve("other/W.java")));
+    }
+
+    @Test
+    public void testFirstRunCompilesEverything() {
+        assertEquals(4, first.get_recompiled().size());
+    }
+
+    @Test
+    public void testReverseDependenciesRecompile() throws Exception {
+        write("base.lib/a.v", "class A:\n members:\n  y: int\n");
+        compilation c = next(first, "base.lib/a.v");
+        assertEquals(set("base.lib", "mid.lib", "top.app"), c.get_recompiled());
+        assertNotSame(first.get_sources().get("base.lib/a.v"), c.get_sources().get("base.lib/a.v"));
+        assertSame(first.get_sources().get("other.lib/o.v"), c.get_sources().get("other.lib/o.v"));
+        assertSame(first.get_parsed().get("top.app/main.v"), c.get_parsed().get("top.app/main.v"));
+    }
+
+    @Test
+    public void testLeafChangeRecompilesOnlyLeaf() throws Exception {
+        write("other.lib/o.v", "class O:\n members:\n  y: int\n");
+        compilation c = next(first, "other.lib/o.v");
+        assertEquals(set("other.lib"), c.get_recompiled());
+        assertEquals(Collections.singleton("B"), c.get_declared(c.get_graph().get_unit("mid.lib")));
+    }
+
+    @Test
+    public void testRemovedClassIsReportedDownstream() throws Exception {
+        write("base.lib/a.v", "class Z:\n members:\n  x: int\n");
+        compilation c = next(first, "base.lib/a.v");
+        assertEquals(1, c.get_diagnostics().size());
+        assertEquals("mid.lib/b.v", c.get_diagnostics().get(0).path);
+        write("base.lib/a.v", "class A:\n members:\n  x: int\n");
+        c = next(c, "base.lib/a.v");
+        assertTrue(c.get_diagnostics().isEmpty());
+    }
+
+    @Test
+    public void testRenamedClassLeavesNoOutput() throws Exception {
+        Path classes = compilation.get_classes_folder(root);
+        assertTrue(Files.isRegularFile(classes.resolve("other/O.class")));
+        write("other.lib/o.v", "class P:\n members:\n  x: int\n");
+        compilation c = next(first, "other.lib/o.v");
+        assertFalse(Files.exists(classes.resolve("other/O.class")));
+        assertTrue(Files.isRegularFile(classes.resolve("other/P.class")));
+        // A unit with errors keeps what it last generated.
+        write("other.lib/o.v", "class Q:\n members:\n  x: Nope\n");
+        next(c, "other.lib/o.v");
+        assertTrue(Files.isRegularFile(classes.resolve("other/P.class")));
+    }
+
+    @Test
+    public void testDeletedAndCreatedFolders() throws Exception {
+        path_util.delete(root.resolve("other.lib").toFile());
+        write("new.lib/n.v", "import:\n base: A\nclass N:\n");
+        compilation c = next(first, "other.lib", "new.lib");
+        assertNull(c.get_graph().get_unit("other.lib"));
+        assertNull(c.get_sources().get("other.lib/o.v"));
+        assertNotNull(c.get_sources().get("new.lib/n.v"));
+        assertEquals(set("new.lib"), c.get_recompiled());
+        assertFalse(Files.exists(compilation.get_classes_folder(root).resolve("other/O.class")));
+    }
+
+    @Test
+    public void testRebuildDoesntHoldEarlierBuilds() throws Exception {
+        compilation c = next(first, "other.lib/o.v");
+        WeakReference<compilation> gone = new WeakReference<compilation>(first);
+        first = null;
+        c = next(c, "other.lib/o.v");
+        for (int i = 0; i < 50 && gone.get() != null; ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(gone.get());
+        assertEquals(set("other.lib"), c.get_recompiled());
+    }
+
+    @Test
+    public void testWatcherReportsChanges() throws Exception {
+        tree_watcher w = new tree_watcher(root);
+        try {
+            write("other.lib/o.v", "class O:\n");
+            write("other.lib/notes.txt", "ignored");
+            Files.createDirectories(root.resolve("built.x"));
+            Set<String> changed = w.await_changes(200);
+            assertEquals(new TreeSet<String>(Arrays.asList("other.lib/o.v")), changed);
+            write("fresh.lib/f.v", "class F:\n");
+            changed = w.await_changes(200);
+            assertTrue(changed.contains("fresh.lib"));
+            write("fresh.lib/f.v", "class F:\n members:\n  x: int\n");
+            assertTrue(w.await_changes(200).contains("fresh.lib/f.v"));
+        } finally {
+            w.close();
+        }
+    }
+}
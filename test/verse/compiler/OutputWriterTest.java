@@ -0,0 +1,152 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import verse.io.path_util;
+
+public class OutputWriterTest {
+
+    private Path root;
+    private Path out;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("outputs").resolve("t.verse");
+        out = compilation.get_classes_folder(root).resolve("p/A.class");
+    }
+
+    @After
+    public void tearDown() {
+        path_util.delete(root.getParent().toFile());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(source_file.UTF8);
+    }
+
+    /**
+     * Backdate a file, so a rewrite would show in its timestamp.
+     */
+    private static FileTime backdate(Path p) throws Exception {
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Files.setLastModifiedTime(p, old);
+        return old;
+    }
+
+    @Test
+    public void testUnchangedContentIsSkipped() throws Exception {
+        output_writer w = new output_writer(root);
+        assertTrue(w.write(out, bytes("one")));
+        assertArrayEquals(bytes("one"), Files.readAllBytes(out));
+        FileTime old = backdate(out);
+        // The backdated file no longer looks like what was written, so it is read once.
+        assertFalse(w.write(out, bytes("one")));
+        assertFalse(w.write(out, bytes("one")));
+        assertEquals(old, Files.getLastModifiedTime(out));
+        assertTrue(w.write(out, bytes("two")));
+        assertArrayEquals(bytes("two"), Files.readAllBytes(out));
+        assertEquals(2, w.get_written());
+        assertEquals(2, w.get_skipped());
+        List<String> left = new ArrayList<String>();
+        for (Path p: Files.newDirectoryStream(out.getParent())) {
+            left.add(p.getFileName().toString());
+        }
+        assertEquals("[A.class]", left.toString());
+    }
+
+    @Test
+    public void testEditsOnDiskAreNoticed() throws Exception {
+        output_writer w = new output_writer(root);
+        w.write(out, bytes("one"));
+        Files.write(out, bytes("uno"));
+        backdate(out);
+        assertTrue(w.write(out, bytes("one")));
+        assertArrayEquals(bytes("one"), Files.readAllBytes(out));
+        Files.delete(out);
+        assertTrue(w.write(out, bytes("one")));
+    }
+
+    @Test
+    public void testStateIsSaved() throws Exception {
+        output_writer w = new output_writer(root);
+        w.write(out, bytes("one"));
+        assertTrue(w.save());
+        assertFalse(w.save());
+        FileTime old = Files.getLastModifiedTime(out);
+        output_writer again = output_writer.load(root);
+        assertFalse(again.write(out, bytes("one")));
+        assertEquals(old, Files.getLastModifiedTime(out));
+        assertFalse(again.save());
+        // Without state, a file with the same content is still left alone.
+        Files.delete(output_writer.get_path(root));
+        FileTime backdated = backdate(out);
+        assertFalse(output_writer.load(root).write(out, bytes("one")));
+        assertEquals(backdated, Files.getLastModifiedTime(out));
+    }
+
+    @Test
+    public void testCorruptStateIsIgnored() throws Exception {
+        output_writer w = new output_writer(root);
+        w.write("gen", out, bytes("one"));
+        w.save();
+        Path state = output_writer.get_path(root);
+        byte[] good = Files.readAllBytes(state);
+        byte[] negative = good.clone();
+        ByteBuffer.wrap(negative).putInt(8, -1);
+        byte[] bad_key = good.clone();
+        bad_key[14] = 0;
+        byte[] bad_utf = good.clone();
+        bad_utf[14] = (byte) 0xff;
+        for (byte[] b: Arrays.asList(negative, bad_key, bad_utf)) {
+            Files.write(state, b);
+            output_writer again = output_writer.load(root);
+            assertTrue(again.get_owners().isEmpty());
+            assertEquals(0, again.finish("gen", true).size());
+            FileTime backdated = backdate(out);
+            assertFalse(again.write("gen", out, bytes("one")));
+            assertEquals(backdated, Files.getLastModifiedTime(out));
+        }
+    }
+
+    @Test
+    public void testFinishDeletesWhatWasntWrittenAgain() throws Exception {
+        Path b = out.resolveSibling("B.class");
+        Path c = out.resolveSibling("C.class");
+        output_writer w = new output_writer(root);
+        w.write("u.lib", out, bytes("a"));
+        w.write("u.lib", b, bytes("b"));
+        w.write("v.lib", c, bytes("c"));
+        assertEquals(0, w.finish("u.lib", true).size());
+        assertEquals(0, w.finish("v.lib", true).size());
+        w.write("u.lib", out, bytes("a"));
+        assertEquals(0, w.finish("u.lib", false).size());
+        assertTrue(Files.exists(b));
+        w.write("u.lib", out, bytes("a"));
+        assertEquals(1, w.finish("u.lib", true).size());
+        assertFalse(Files.exists(b));
+        // Taken over by another owner, a file isn't its old owner's to delete.
+        w.write("v.lib", out, bytes("a"));
+        assertEquals(0, w.finish("u.lib", true).size());
+        assertTrue(Files.exists(out));
+        assertTrue(w.save());
+
+        w = output_writer.load(root);
+        assertEquals(new HashSet<String>(Arrays.asList("v.lib")), w.get_owners());
+        assertEquals(2, w.finish("v.lib", true).size());
+        assertFalse(Files.exists(out));
+        assertFalse(Files.exists(c));
+    }
+}
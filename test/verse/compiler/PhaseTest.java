@@ -0,0 +1,50 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import verse.compiler.parse.parse_cache;
+import verse.io.path_util;
+
+public class PhaseTest {
+
+    @Test
+    public void testEveryPhaseIsTimed() throws Exception {
+        Path root = Files.createTempDirectory("phase").resolve("t.verse");
+        try {
+            Files.createDirectories(root.resolve("a.lib"));
+            Files.write(root.resolve("a.lib/a.v"), "class A:\n members:\n  x: int\n".getBytes(source_file.UTF8));
+            Files.write(root.resolve("a.lib/m.yaml"), "members:\n\tn: nonneg int\n".getBytes(source_file.UTF8));
+            phase.start();
+            try {
+                new compilation(root, new parse_cache()).run();
+            } finally {
+                phase.stop();
+            }
+            for (phase p: phase.values()) {
+                assertTrue(p.name(), p.get_calls() > 0);
+                assertTrue(p.name(), p.get_nanos() > 0);
+            }
+            // .v files are lexed, descriptors aren't; both are parsed.
+            assertEquals(1, phase.LEX.get_calls());
+            assertEquals(2, phase.PARSE.get_calls());
+            String table = phase.format();
+            assertEquals(table, phase.values().length + 2, table.split("\n").length);
+            assertTrue(table, table.contains("emit "));
+            String json = phase.to_json();
+            assertTrue(json, json.startsWith("{\"phases\": [") && json.trim().endsWith("]}"));
+            assertTrue(json, json.contains("{\"name\": \"lex\", \"calls\": 1, "));
+
+            // Timing off costs nothing and counts nothing.
+            long calls = phase.LOAD.get_calls();
+            assertEquals(0, phase.LOAD.enter());
+            assertEquals(calls, phase.LOAD.get_calls());
+        } finally {
+            path_util.delete(root.getParent().toFile());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import verse.compiler.parse.parse_cache;
+import verse.compiler.parse.parsed_file;
+import verse.io.path_util;
+
+public class ShardTest {
+
+    private Path root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("shard").resolve("t.verse");
+    }
+
+    @After
+    public void tearDown() {
+        path_util.delete(root.getParent().toFile());
+    }
+
+    private void write(String rel, String text) throws IOException {
+        Path p = root.resolve(rel);
+        Files.createDirectories(p.getParent());
+        Files.write(p, text.getBytes(source_file.UTF8));
+    }
+
+    private compilation prepare() throws IOException {
+        compilation c = new compilation(root, new parse_cache());
+        c.prepare();
+        return c;
+    }
+
+    @Test
+    public void testChainStaysTogetherUntilTheShardIsFull() throws Exception {
+        write("a.lib/a.v", "class A:\n members:\n  x: int\n");
+        write("b.lib/b.v", "import:\n a: A\nclass B:\n members:\n  x: A\n");
+        write("c.lib/c.v", "import:\n b: B\nclass C:\n members:\n  x: B\n");
+        write("d.lib/d.v", "import:\n c: C\nclass D:\n members:\n  x: C\n");
+        unit_graph g = prepare().get_graph();
+        shard_plan p = shard_plan.of(g, 2);
+        int a = p.get_shard(g.get_unit("a.lib"));
+        assertEquals(a, p.get_shard(g.get_unit("b.lib")));
+        int c = p.get_shard(g.get_unit("c.lib"));
+        assertNotEquals(a, c);
+        assertEquals(c, p.get_shard(g.get_unit("d.lib")));
+        assertEquals(p.get_weight(0) + p.get_weight(1), weight(g));
+    }
+
+    @Test
+    public void testIndependentUnitsSpread() throws Exception {
+        for (String name: Arrays.asList("a", "b", "c", "d")) {
+            write(name + ".lib/x.v", "class X:\n members:\n  x: int\n");
+        }
+        unit_graph g = prepare().get_graph();
+        shard_plan p = shard_plan.of(g, 2);
+        assertEquals(p.get_weight(0), p.get_weight(1));
+        shard_plan again = shard_plan.of(prepare().get_graph(), 2);
+        for (unit u: g.get_units()) {
+            assertEquals(p.get_shard(u), again.get_shard(u));
+        }
+    }
+
+    private static long weight(unit_graph g) {
+        long total = 0;
+        for (unit u: g.get_units()) {
+            for (source_file f: u.get_files()) {
+                total += f.length();
+            }
+            total += 1;
+        }
+        return total;
+    }
+
+    @Test
+    public void testShardedBuildMatchesInProcess() throws Exception {
+        write("base.lib/a.v", "class A:\n members:\n  x: int\n");
+        // Generated source, compiled by javac against A's class file.
+        write("mid.lib/b.v", "import:\n base: A\nclass B:\n members:\n  a: A\n  t: long = System.nanoTime()\n");
+        write("top.app/main.v", "import:\n mid: B, Nope\nclass Main:\n members:\n  b: B\n");
+        write("other.lib/o.v", "class O:\n members:\n  s: long = System.nanoTime()\n");
+
+        compilation local = new compilation(root, new parse_cache());
+        local.run();
+        Map<String, String> expected = read_built();
+        path_util.delete(compilation.get_built_folder(root).toFile());
+
+        compilation sharded = new compilation(root, new parse_cache());
+        sharded.set_shards(3, 1);
+        sharded.run();
+        assertEquals(expected, read_built());
+        assertEquals(local.get_diagnostics().toString(), sharded.get_diagnostics().toString());
+        assertEquals(1, sharded.get_diagnostics().size());
+        assertEquals(new HashSet<String>(Arrays.asList("B")),
+                sharded.get_declared(sharded.get_graph().get_unit("mid.lib")));
+        assertEquals(4, sharded.get_recompiled().size());
+
+        compilation next = sharded.next(new HashSet<String>(Arrays.asList("other.lib/o.v")));
+        next.run();
+        assertEquals(new HashSet<String>(Arrays.asList("other.lib")), next.get_recompiled());
+        assertEquals(sharded.get_diagnostics().toString(), next.get_diagnostics().toString());
+    }
+
+    @Test
+    public void testWorkerSeesOnlyItsUnit() throws Exception {
+        write("base.lib/a.v", "class A:\n members:\n  x: int\n");
+        write("mid.lib/b.v", "import:\n base: A, Nope\nclass B:\n members:\n  a: A\n");
+        write("other.lib/o.v", "class O:\n members:\n  x: int\n");
+        compilation local = prepare();
+        unit mid = local.get_graph().get_unit("mid.lib");
+        unit base = local.get_graph().get_unit("base.lib");
+        local.set_declared(base, Arrays.asList("A"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        List<parsed_file> files = Collections.singletonList(local.get_parsed().get("mid.lib/b.v"));
+        Map<String, List<String>> classes = Collections.singletonMap("base", Arrays.asList("A"));
+        shard_protocol.write_request(new DataOutputStream(bytes), mid.path, files,
+                Arrays.asList(new shard_protocol.summary(base.path, classes, true)));
+
+        compilation c = new compilation(root, new ForkJoinPool(1), new parse_cache());
+        c.keep_output();
+        c.prepare_worker(false);
+        shard_protocol.request r = shard_protocol.read_request(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), c.get_parse_cache());
+        shard_protocol.result result = new shard_worker(c, null).compile(r);
+        assertEquals(1, c.get_parse_cache().size());
+        assertEquals(0, c.get_parse_cache().get_misses());
+        assertEquals(Arrays.asList("B"), result.declared);
+        assertEquals(1, result.diagnostics.size());
+        assertTrue(result.diagnostics.get(0).message, result.diagnostics.get(0).message.startsWith("Nope is not"));
+        assertTrue(result.outputs.isEmpty());
+    }
+
+    /**
+     * @return Everything generated, except the parse cache, by path.
+     */
+    private Map<String, String> read_built() throws IOException {
+        Map<String, String> files = new TreeMap<String, String>();
+        Path built = compilation.get_built_folder(root);
+        read(built, built, files);
+        return files;
+    }
+
+    private static void read(Path built, Path folder, Map<String, String> files) throws IOException {
+        DirectoryStream<Path> entries = Files.newDirectoryStream(folder);
+        try {
+            for (Path p: entries) {
+                if (Files.isDirectory(p)) {
+                    read(built, p, files);
+                } else if (!p.getFileName().toString().equals("parse.cache")) {
+                    files.put(built.relativize(p).toString(), Arrays.toString(Files.readAllBytes(p)));
+                }
+            }
+        } finally {
+            entries.close();
+        }
+    }
+}
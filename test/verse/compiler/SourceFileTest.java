@@ -0,0 +1,35 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SourceFileTest {
+
+    @Test
+    public void testLinesAndColumns() {
+        source_file f = source_file.in_memory("a.v", "ab\n\ncd\nef".getBytes(source_file.UTF8));
+        assertEquals(4, f.get_line_count());
+        int[] lines = {1, 1, 1, 2, 3, 3, 3, 4, 4, 4};
+        int[] columns = {1, 2, 3, 1, 1, 2, 3, 1, 2, 3};
+        for (int i = 0; i < lines.length; ++i) {
+            assertEquals("line at " + i, lines[i], f.get_line(i));
+            assertEquals("column at " + i, columns[i], f.get_column(i));
+        }
+        assertEquals(4, f.get_line(1000));
+        assertSame(f.get_line_starts(), f.get_line_starts());
+    }
+
+    @Test
+    public void testEdges() {
+        source_file empty = source_file.in_memory("e.v", new byte[0]);
+        assertEquals(1, empty.get_line_count());
+        assertEquals(1, empty.get_line(0));
+        source_file trailing = source_file.in_memory("t.v", "x\n".getBytes(source_file.UTF8));
+        assertEquals(2, trailing.get_line_count());
+        assertEquals(1, trailing.get_line(1));
+        assertEquals(2, trailing.get_line(2));
+        assertEquals("t.v:2: oops", new diagnostic("t.v", 2, "oops").format(trailing));
+        assertEquals("t.v: oops", new diagnostic("t.v", 2, "oops").format(null));
+    }
+}
@@ -0,0 +1,75 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import verse.io.path_util;
+
+public class SourceLoaderTest {
+
+    private Path root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("loader").resolve("x.verse");
+        Files.createDirectories(root.resolve("broker.app/classes"));
+        Files.createDirectories(root.resolve(".hidden"));
+        Files.createDirectories(root.resolve("built.linux_x86-64"));
+        write("build.v", "");
+        write("broker.app/main.v", "import:\n java.util: Date\n");
+        write("broker.app/classes/scheduler.yaml", "semantics: singleton, phoenix\n");
+        write("broker.app/readme.txt", "ignored");
+        write(".hidden/x.v", "ignored");
+        write("built.linux_x86-64/y.v", "ignored");
+        StringBuilder big = new StringBuilder();
+        while (big.length() < source_loader.MAP_THRESHOLD * 2) {
+            big.append("members:\n name: str -w\n");
+        }
+        write("broker.app/big.v", big.toString());
+    }
+
+    @After
+    public void tearDown() {
+        path_util.delete(root.getParent().toFile());
+    }
+
+    private void write(String rel, String text) throws IOException {
+        Files.write(root.resolve(rel), text.getBytes(source_file.UTF8));
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        source_pool pool = new source_loader().load(root);
+        assertEquals(4, pool.size());
+        assertEquals("broker.app/big.v", pool.get(0).path);
+        assertEquals("build.v", pool.get(3).path);
+        assertNull(pool.get("broker.app/readme.txt"));
+        assertNull(pool.get(".hidden/x.v"));
+
+        source_file main = pool.get("broker.app/main.v");
+        assertEquals(source_kind.CODE, main.kind);
+        assertEquals("import:\n java.util: Date\n", main.get_text());
+        assertEquals('i', main.byte_at(0));
+        assertTrue(main.get_bytes().isReadOnly());
+
+        source_file sched = pool.get("broker.app/classes/scheduler.yaml");
+        assertEquals(source_kind.DESCRIPTOR, sched.kind);
+        assertEquals("singleton", sched.get_text(11, 9));
+
+        source_file big = pool.get("broker.app/big.v");
+        assertTrue(big.get_bytes().isDirect());
+        assertTrue(big.get_text().startsWith("members:\n name: str -w\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingRoot() throws IOException {
+        new source_loader().load(root.resolve("nope"));
+    }
+}
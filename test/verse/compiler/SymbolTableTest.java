@@ -0,0 +1,94 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import verse.compiler.parse.parsed_file;
+import verse.compiler.parse.parser;
+
+public class SymbolTableTest {
+
+    @Test
+    public void testBytesStringsAndBuildersAgree() {
+        symbol_table t = new symbol_table();
+        source_file f = source_file.in_memory("a.v", "x: DateUtil\n".getBytes(source_file.UTF8));
+        int id = t.intern(f, 3, 8);
+        assertEquals(id, t.intern("DateUtil"));
+        assertEquals(id, t.intern(new StringBuilder("Date").append("Util")));
+        assertEquals(id, t.find("DateUtil"));
+        assertEquals("DateUtil", t.name(id));
+        assertSame(t.name(id), t.name(t.intern(new String("DateUtil"))));
+        assertEquals(symbol_table.NONE, t.find("get_time"));
+        assertEquals(1, t.size());
+    }
+
+    @Test
+    public void testNonAscii() {
+        symbol_table t = new symbol_table();
+        source_file f = source_file.in_memory("a.v", "caf\u00e9".getBytes(source_file.UTF8));
+        int id = t.intern(f, 0, f.length());
+        assertEquals("caf\u00e9", t.name(id));
+        assertEquals(id, t.intern("caf\u00e9"));
+    }
+
+    @Test
+    public void testGrowth() {
+        symbol_table t = new symbol_table();
+        for (int i = 0; i < 100000; ++i) {
+            assertEquals(i, t.intern("get_time" + i));
+        }
+        for (int i = 0; i < 100000; i += 997) {
+            assertEquals(i, t.find("get_time" + i));
+        }
+        assertEquals(100000, t.size());
+    }
+
+    @Test
+    public void testConcurrentInternsAgree() throws Exception {
+        final symbol_table t = new symbol_table();
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+            for (int k = 0; k < 4; ++k) {
+                results.add(threads.submit(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        int[] ids = new int[20000];
+                        for (int i = 0; i < ids.length; ++i) {
+                            ids[i] = t.intern("m" + i);
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            int[] first = results.get(0).get();
+            for (Future<int[]> r: results) {
+                assertArrayEquals(first, r.get());
+            }
+            assertEquals(20000, t.size());
+            for (int i = 0; i < first.length; ++i) {
+                assertEquals("m" + i, t.name(first[i]));
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    public void testParsesShareStrings() {
+        symbol_table t = new symbol_table();
+        byte[] text = "class A:\n members:\n  m: Class<?>\n".getBytes(source_file.UTF8);
+        parsed_file a = parser.parse(source_file.in_memory("a.v", text), 0, t);
+        parsed_file b = parser.parse(source_file.in_memory("b.v", text), 0, t);
+        assertSame(a.classes.get(0).members.get(0).type, b.classes.get(0).members.get(0).type);
+        assertSame(a.classes.get(0).members.get(0).name, b.classes.get(0).members.get(0).name);
+    }
+}
@@ -0,0 +1,124 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import verse.compiler.parse.parse_cache;
+import verse.io.path_util;
+
+public class TypeIndexTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("types");
+    }
+
+    @After
+    public void tearDown() {
+        path_util.delete(folder.toFile());
+    }
+
+    private Path jar(String name, String... entries) throws IOException {
+        Path p = folder.resolve(name);
+        OutputStream out = Files.newOutputStream(p);
+        ZipOutputStream zip = new ZipOutputStream(out);
+        try {
+            for (String e: entries) {
+                zip.putNextEntry(new ZipEntry(e));
+                zip.write(new byte[] { (byte) 0xca, (byte) 0xfe });
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+        return p;
+    }
+
+    @Test
+    public void testJdk() throws IOException {
+        type_index t = type_index.open(folder.resolve("a.index"), Collections.<Path>emptyList());
+        assertTrue(t.has_package("java.lang.reflect"));
+        assertTrue(t.contains("java.lang.reflect", "Method"));
+        assertTrue(t.contains("java.lang.reflect", new StringBuilder("ParameterizedType")));
+        assertTrue(t.contains("java.util", "Map"));
+        assertFalse(t.contains("java.util", "Entry"));
+        assertFalse(t.contains("java.util", "Map$Entry"));
+        assertFalse(t.contains("java.lang", "Method"));
+        assertFalse(t.has_package("java.lang.refl"));
+        assertFalse(t.has_package("com.acme"));
+        assertTrue(t.get_class_count() > 1000);
+    }
+
+    @Test
+    public void testClasspathAndReuse() throws IOException {
+        Path jar = jar("lib.jar", "com/acme/Thing.class", "com/acme/Thing$Part.class", "com/acme/notes.txt",
+                "META-INF/versions/11/com/acme/Other.class");
+        List<Path> cp = Arrays.asList(jar, folder.resolve("missing.jar"));
+        Path file = folder.resolve("b.index");
+        type_index t = type_index.open(file, cp);
+        assertTrue(t.contains("com.acme", "Thing"));
+        assertFalse(t.contains("com.acme", "Thing$Part"));
+        assertFalse(t.contains("com.acme", "Other"));
+        assertEquals(t.key, type_index.map(file).key);
+
+        jar("lib.jar", "com/acme/Thing.class", "com/acme/Gadget.class");
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(1000));
+        t = type_index.open(file, cp);
+        assertTrue(t.contains("com.acme", "Gadget"));
+    }
+
+    @Test
+    public void testClassAddedDeepInFolder() throws IOException {
+        Path classes = folder.resolve("classes");
+        Path pkg = classes.resolve("com/acme");
+        Files.createDirectories(pkg);
+        Files.write(pkg.resolve("Thing.class"), new byte[] { (byte) 0xca, (byte) 0xfe });
+        List<Path> cp = Arrays.asList(classes);
+        Path file = folder.resolve("d.index");
+        assertFalse(type_index.open(file, cp).contains("com.acme", "Gadget"));
+        FileTime top = Files.getLastModifiedTime(classes);
+        Files.write(pkg.resolve("Gadget.class"), new byte[] { (byte) 0xca, (byte) 0xfe });
+        Files.setLastModifiedTime(classes, top);
+        assertTrue(type_index.open(file, cp).contains("com.acme", "Gadget"));
+    }
+
+    @Test
+    public void testCorruptFileIsRebuilt() throws IOException {
+        Path file = folder.resolve("c.index");
+        Files.write(file, new byte[] { 1, 2, 3 });
+        assertNull(type_index.map(file));
+        assertTrue(type_index.open(file, Collections.<Path>emptyList()).contains("java.util", "List"));
+    }
+
+    @Test
+    public void testImportResolution() throws Exception {
+        Path root = folder.resolve("t.verse");
+        Path src = root.resolve("a.lib/a.v");
+        Files.createDirectories(src.getParent());
+        Files.write(src, ("import:\n java.lang.reflect: Method, Nope\n org.unknown: Whatever\nclass A:\n"
+                + " members:\n  m: Method\n").getBytes(source_file.UTF8));
+        compilation c = new compilation(root, new parse_cache());
+        c.run();
+        assertNotNull(c.get_types());
+        List<diagnostic> d = c.get_diagnostics();
+        assertEquals(1, d.size());
+        assertEquals("Nope is not a class in package java.lang.reflect", d.get(0).message);
+        assertTrue(Files.isRegularFile(compilation.get_type_index_path(root)));
+    }
+}
@@ -0,0 +1,131 @@
+package verse.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import verse.compiler.parse.parse_cache;
+import verse.io.path_util;
+
+public class UnitSchedulerTest {
+
+    private Path root;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("sched").resolve("t.verse");
+        write("build.v", "");
+        write("base.lib/com.acme.base.pkg/a.v", "class A:\n members:\n  x: int\n");
+        write("mid.lib/b.v", "import:\n com.acme.base: A\n java.util: Date\nclass B:\n members:\n  a: A\n");
+        write("top.app/main.v", "import:\n mid: B\n com.acme.base: A, Nope\nclass Main:\n members:\n  b: B\n");
+        write("other.lib/d.yaml", "members:\n\tx: int\n");
+        pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        path_util.delete(root.getParent().toFile());
+    }
+
+    private void write(String rel, String text) throws IOException {
+        Path p = root.resolve(rel);
+        Files.createDirectories(p.getParent());
+        Files.write(p, text.getBytes(source_file.UTF8));
+    }
+
+    private compilation compile() throws Exception {
+        compilation c = new compilation(root, pool, new parse_cache());
+        c.run();
+        return c;
+    }
+
+    @Test
+    public void testGraph() throws Exception {
+        compilation c = compile();
+        unit_graph g = c.get_graph();
+        assertEquals(4, g.get_units().size());
+        assertEquals(1, g.get_loose_files().size());
+        unit base = g.get_provider("com.acme.base");
+        unit mid = g.get_provider("mid");
+        unit top = g.get_provider("top");
+        assertEquals("base.lib", base.name);
+        assertEquals("[base.lib]", mid.get_deps().toString());
+        assertEquals("[mid.lib, base.lib]", top.get_deps().toString());
+        assertTrue(top.is_app);
+        List<unit> order = g.get_order();
+        assertTrue(order.indexOf(base) < order.indexOf(mid));
+        assertTrue(order.indexOf(mid) < order.indexOf(top));
+        assertEquals(Collections.singleton("d"), c.get_declared(g.get_provider("other")));
+    }
+
+    @Test
+    public void testUndeclaredImport() throws Exception {
+        List<diagnostic> d = compile().get_diagnostics();
+        assertEquals(1, d.size());
+        assertEquals("top.app/main.v", d.get(0).path);
+        assertTrue(d.get(0).message.startsWith("Nope is not declared"));
+    }
+
+    @Test
+    public void testCycle() throws Exception {
+        write("x.lib/x.v", "import:\n y: Y\nclass X:\n");
+        write("y.lib/y.v", "import:\n x: X\nclass Y:\n");
+        compilation c = compile();
+        assertEquals(2, c.get_graph().get_cyclic().size());
+        assertEquals(4, c.get_graph().get_order().size());
+    }
+
+    @Test
+    public void testCriticalPathAndFailures() throws Exception {
+        compilation c = compile();
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        schedule_report r = new unit_scheduler(pool).run(c.get_graph(), new unit_scheduler.unit_work() {
+            @Override
+            public void compile(unit u) throws Exception {
+                ran.add(u.name);
+                Thread.sleep(u.name.equals("other.lib") ? 1 : 20);
+                if (u.name.equals("mid.lib")) {
+                    throw new IllegalStateException("boom");
+                }
+            }
+        });
+        assertEquals("[base.lib, mid.lib, top.app]", r.get_critical_path().toString());
+        assertTrue(r.get_critical_nanos() >= 40 * 1000000L);
+        assertEquals(1, r.get_failures().size());
+        assertEquals("[top.app]", r.get_skipped().toString());
+        assertFalse(ran.contains("top.app"));
+        assertTrue(r.format().startsWith("critical path: base.lib -> mid.lib -> top.app"));
+    }
+
+    @Test
+    public void testIndependentUnitsOverlap() throws Exception {
+        compilation c = compile();
+        final CountDownLatch both = new CountDownLatch(2);
+        schedule_report r = new unit_scheduler(pool).run(c.get_graph(), new unit_scheduler.unit_work() {
+            @Override
+            public void compile(unit u) throws Exception {
+                if (u.name.equals("base.lib") || u.name.equals("other.lib")) {
+                    both.countDown();
+                    if (!both.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("independent units did not run concurrently");
+                    }
+                }
+            }
+        });
+        assertTrue(r.get_failures().isEmpty());
+    }
+}
@@ -0,0 +1,136 @@
+package verse.compiler.daemon;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import verse.io.path_util;
+
+public class DaemonTest {
+
+    private Path folder;
+    private Path socket;
+    private daemon_server server;
+    private Thread serving;
+
+    private final daemon_server.request_handler echo = new daemon_server.request_handler() {
+        @Override
+        public int handle(Path cwd, String[] args, PrintStream out, PrintStream err) {
+            out.print("cwd=" + cwd + " args=" + Arrays.toString(args));
+            err.print("warn");
+            return args.length;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("daemon");
+        socket = folder.resolve("d.sock");
+        server = new daemon_server(socket, echo);
+        server.start();
+        serving = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    // reported by the assertions below
+                }
+            }
+        });
+        serving.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        serving.join(5000);
+        path_util.delete(folder.toFile());
+    }
+
+    @Test
+    public void testForward() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Integer code = new daemon_client(socket).forward(Paths.get("/w"), new String[] { "a", "--x" }, out, err);
+        assertEquals(Integer.valueOf(2), code);
+        assertEquals("cwd=/w args=[a, --x]", out.toString("UTF-8"));
+        assertEquals("warn", err.toString("UTF-8"));
+    }
+
+    @Test
+    public void testNoDaemon() throws IOException {
+        daemon_client c = new daemon_client(folder.resolve("nobody.sock"));
+        assertFalse(c.is_running());
+        assertNull(c.forward(folder, new String[0], System.out, System.err));
+    }
+
+    @Test
+    public void testSecondServerRefused() throws IOException {
+        try {
+            new daemon_server(socket, echo).start();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertTrue(new daemon_client(socket).is_running());
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        assertTrue(new daemon_client(socket).stop());
+        serving.join(5000);
+        assertFalse(serving.isAlive());
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    public void testOpenFolderRefused() throws IOException {
+        Path open = Files.createTempDirectory("daemon");
+        try {
+            Files.setPosixFilePermissions(open, PosixFilePermissions.fromString("rwxr-xr-x"));
+            try {
+                new daemon_server(open.resolve("d.sock"), echo).start();
+                fail();
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains("open to other users"));
+            }
+            assertFalse(Files.exists(open.resolve("d.sock")));
+        } finally {
+            path_util.delete(open.toFile());
+        }
+    }
+
+    @Test
+    public void testFolderMade() throws IOException {
+        Path made = folder.resolve("sub").resolve("d.sock");
+        daemon_server s = new daemon_server(made, echo);
+        s.start();
+        try {
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(made.getParent())));
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    public void testClientRefusesOpenFolder() throws IOException {
+        Files.setPosixFilePermissions(folder, PosixFilePermissions.fromString("rwxrwxrwx"));
+        try {
+            new daemon_client(socket).forward(folder, new String[0], System.out, System.err);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("open to other users"));
+        }
+    }
+}
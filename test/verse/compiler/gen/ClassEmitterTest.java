@@ -0,0 +1,328 @@
+package verse.compiler.gen;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import verse.compiler.diagnostic;
+import verse.compiler.parse.descriptor_builder;
+import verse.compiler.parse.import_decl;
+import verse.compiler.parse.parsed_file;
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+import verse.dbc.contract_violation;
+import verse.util.property;
+
+public class ClassEmitterTest {
+
+    static class_plan plan(String name, String yaml, List<diagnostic> diagnostics) {
+        source_file f = source_file.in_memory(name + ".yaml", yaml.getBytes(source_file.UTF8));
+        parsed_file p = descriptor_builder.build(f, new symbol_table());
+        assertEquals(p.diagnostics.toString(), 0, p.diagnostics.size());
+        return class_plan.of("gen", Collections.<import_decl>emptyList(), p.classes.get(0), f.path, diagnostics);
+    }
+
+    /**
+     * Define emitted classes; the JVM verifies them as they link.
+     */
+    static ClassLoader load(final Map<String, byte[]> classes) {
+        return new ClassLoader(ClassEmitterTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+    }
+
+    static Class<?> load(class_plan p) throws Exception {
+        assertTrue(class_emitter.supports(p));
+        return load(class_emitter.emit(p)).loadClass("gen." + p.c.name);
+    }
+
+    @Test
+    public void testChecks() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        Class<?> c = load(plan("meter", "members:\n\tamount: nonneg double\n\tunit: final str\n"
+                + "\tticks: positive long\n\tscale: nonneg float\n\tcount: positive int\n"
+                + "ctor: [amount: positive double, unit: nonnull]\n", d));
+        assertEquals(d.toString(), 0, d.size());
+        Constructor<?> ctor = c.getConstructor(double.class, String.class);
+        Object m = ctor.newInstance(2.0, "kg");
+        assertEquals("kg", c.getMethod("get_unit").invoke(m));
+        assertEquals(2.0, (Double) c.getMethod("get_amount").invoke(m), 0);
+        Method set = c.getMethod("set_amount", double.class);
+        set.invoke(m, 0.0);
+        assertEquals(0.0, (Double) c.getMethod("get_amount").invoke(m), 0);
+        JavaEmitterTest.assert_violates(set, m, -1.0);
+        JavaEmitterTest.assert_violates(set, m, Double.NaN);
+        c.getMethod("set_ticks", long.class).invoke(m, 1L);
+        JavaEmitterTest.assert_violates(c.getMethod("set_ticks", long.class), m, 0L);
+        JavaEmitterTest.assert_violates(c.getMethod("set_scale", float.class), m, Float.NaN);
+        JavaEmitterTest.assert_violates(c.getMethod("set_count", int.class), m, 0);
+        assertFalse(has_method(c, "set_unit"));
+        try {
+            ctor.newInstance(0.0, "kg");
+            fail("a ctor parameter declared positive accepted 0");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof contract_violation);
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("amount should be positive"));
+        }
+        try {
+            ctor.newInstance(1.0, null);
+            fail("a nonnull ctor parameter accepted null");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof contract_violation);
+        }
+    }
+
+    private static boolean has_method(Class<?> c, String name) {
+        for (Method m: c.getMethods()) {
+            if (m.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testInitializersAndWeakrefs() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        class_plan p = plan("cfg", "members:\n\tretries: int = 3\n\tlimit: long = 1_000_000_000_000L\n"
+                + "\tratio: double = 0.5\n\tlabel: str = \"a\\tb\"\n\ton: bool = true\n"
+                + "\towner: weakref obj\n", d);
+        assertEquals(d.toString(), 0, d.size());
+        Class<?> c = load(p);
+        Object o = c.getConstructor().newInstance();
+        assertEquals(3, c.getMethod("get_retries").invoke(o));
+        assertEquals(1000000000000L, c.getMethod("get_limit").invoke(o));
+        assertEquals(0.5, (Double) c.getMethod("get_ratio").invoke(o), 0);
+        assertEquals("a\tb", c.getMethod("get_label").invoke(o));
+        assertEquals(true, c.getMethod("get_on").invoke(o));
+        assertNull(c.getMethod("get_owner").invoke(o));
+        Object owner = new Object();
+        c.getMethod("set_owner", Object.class).invoke(o, owner);
+        assertSame(owner, c.getMethod("get_owner").invoke(o));
+    }
+
+    static final String TEMPLATES = "members:\n\tn: int = 7\n\tc: char = 'x'\n\tname: str = \"pan\"\n"
+            + "\tratio: double = 0.5\n\tkey: str = \"${name}/${n}${c}:${ratio} \\$${\"!\"}\"\n"
+            + "\tsum: obj = \"${n}${c}\"\n\tfixed: str = \"a${1}b\"\n";
+
+    /**
+     * Check an instance of {@link #TEMPLATES}.
+     */
+    static void check_templates(Class<?> c) throws Exception {
+        Object o = c.getConstructor().newInstance();
+        assertEquals("pan/7x:0.5 $!", c.getMethod("get_key").invoke(o));
+        assertEquals("7x", c.getMethod("get_sum").invoke(o));
+        assertEquals("a1b", c.getMethod("get_fixed").invoke(o));
+    }
+
+    @Test
+    public void testTemplates() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        check_templates(load(plan("keys", TEMPLATES, d)));
+        assertEquals(d.toString(), 0, d.size());
+        // A template that calls something goes through javac.
+        assertFalse(class_emitter.supports(plan("calls", "members:\n\ts: str = \"${name.trim()}\"\n", d)));
+        assertFalse(class_emitter.supports(plan("later", "members:\n\ts: str = \"${t}\"\n\tt: str\n", d)));
+        assertEquals(d.toString(), 0, d.size());
+    }
+
+    @Test
+    public void testUnsupportedInitializer() {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        assertFalse(class_emitter.supports(plan("clock", "members:\n\tstart: long = System.nanoTime()\n", d)));
+        assertFalse(class_emitter.supports(plan("tiny", "members:\n\tb: byte = 300\n", d)));
+        assertTrue(class_emitter.supports(plan("small", "members:\n\tb: byte = -12\n\tc: char = 'x'\n", d)));
+    }
+
+    @Test
+    public void testGenericsAndAbstractMethods() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        Class<?> c = load(plan("consumer", "implements: Comparable<consumer>\nmembers:\n\titems: java.util.List<str>\n"
+                + "methods:\n\tcompareTo: [other: consumer]\n\t\treturns: int\n"
+                + "\trequire: [class: Class<? extends consumer>]\n", d));
+        assertEquals(d.toString(), 0, d.size());
+        assertTrue(java.lang.reflect.Modifier.isAbstract(c.getModifiers()));
+        assertEquals("java.lang.Comparable<gen.consumer>", c.getGenericInterfaces()[0].getTypeName());
+        assertEquals("java.util.List<java.lang.String>", c.getMethod("get_items").getGenericReturnType().getTypeName());
+        Method require = c.getMethod("require", Class.class);
+        assertEquals("java.lang.Class<? extends gen.consumer>", require.getGenericParameterTypes()[0].getTypeName());
+    }
+
+    @Test
+    public void testOverrides() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        class_plan p = plan("tag", "members:\n\tname: str\nmethods:\n\tto string: override\n"
+                + "\thash code: override\n\t\treturns: int\n\tequals: [other:] override\n", d);
+        assertEquals(d.toString(), 0, d.size());
+        Class<?> c = load(p);
+        assertEquals(String.class, c.getDeclaredMethod("toString").getReturnType());
+        assertEquals(int.class, c.getDeclaredMethod("hashCode").getReturnType());
+        assertEquals(boolean.class, c.getDeclaredMethod("equals", Object.class).getReturnType());
+        String text = java_emitter.emit(p);
+        assertTrue(text, text.contains("@Override\n    public abstract String toString();"));
+
+        plan("odd", "methods:\n\tdescribe: override\n\thash code: override\n\t\treturns: long\n", d);
+        assertEquals(2, d.size());
+        assertEquals("describe: marked override, but odd has no supertype with a method to override",
+                d.get(0).message);
+        assertEquals("hash_code: overrides hashCode(), which returns int, not long", d.get(1).message);
+    }
+
+    static final String PROPERTIES = "members:\n\tcount: nonneg int\n\t\tdescrip: How many.\n"
+            + "\tname: final str\n\titems: java.util.List<str>\n\tratio: double\n";
+
+    /**
+     * Check the table get_properties() returns for {@link #PROPERTIES}.
+     */
+    @SuppressWarnings("unchecked")
+    static void check_properties(Class<?> c) throws Exception {
+        List<property<Object>> all = (List<property<Object>>) c.getMethod("get_properties").invoke(null);
+        assertEquals("[count, name, items, ratio]", all.toString());
+        property<Object> count = all.get(0);
+        assertSame(int.class, count.type);
+        assertEquals("How many.", count.doc);
+        assertEquals(Collections.singletonList("nonneg"), count.qualifiers);
+        assertTrue(count.writable);
+        property<Object> name = property.find(all, "name");
+        assertSame(String.class, name.type);
+        assertFalse(name.writable);
+        assertNull(name.doc);
+        assertSame(List.class, all.get(2).type);
+        assertSame(double.class, all.get(3).type);
+        assertNull(property.find(all, "size"));
+
+        Object o = c.getConstructor(String.class).newInstance("n");
+        assertEquals("n", name.get(o));
+        count.set(o, 5);
+        assertEquals(5, count.get(o));
+        assertEquals(5, c.getMethod("get_count").invoke(o));
+        all.get(3).set(o, 0.25);
+        assertEquals(0.25, (Double) all.get(3).get(o), 0);
+        List<String> items = Collections.singletonList("x");
+        all.get(2).set(o, items);
+        assertSame(items, all.get(2).get(o));
+        try {
+            count.set(o, -1);
+            fail("a property set skipped the setter's check");
+        } catch (contract_violation e) {
+            // expected
+        }
+        try {
+            name.set(o, "m");
+            fail("a read-only property was set");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("name is read-only", e.getMessage());
+        }
+        try {
+            count.set(o, 5L);
+            fail("an int property took a Long");
+        } catch (ClassCastException e) {
+            // expected
+        }
+        assertSame(all, c.getMethod("get_properties").invoke(null));
+    }
+
+    @Test
+    public void testProperties() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        Class<?> c = load(plan("settings", PROPERTIES, d));
+        assertEquals(d.toString(), 0, d.size());
+        check_properties(c);
+    }
+
+    @Test
+    public void testSingleton() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        Class<?> c = load(plan("registry", "semantics: singleton\nmembers:\n\tsize: int\n", d));
+        assertEquals(d.toString(), 0, d.size());
+        Method get = c.getMethod("get_instance");
+        Object a = get.invoke(null);
+        assertNotNull(a);
+        assertSame(a, get.invoke(null));
+        assertEquals(0, c.getConstructors().length);
+    }
+
+    @Test
+    public void testPhoenix() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        class_plan p = plan("svc", "semantics: singleton, phoenix\nmembers:\n\tname: final str\n", d);
+        assertEquals(d.toString(), 0, d.size());
+        ClassLoader loader = load(class_emitter.emit(p));
+        final Class<?> c = loader.loadClass("gen.svc");
+        Class<?> factory = loader.loadClass("gen.svc$factory");
+        assertTrue(factory.isInterface());
+        assertSame(c, factory.getDeclaringClass());
+        final Method get = c.getMethod("get_instance");
+        Method rebirth = c.getMethod("rebirth", c);
+        try {
+            get.invoke(null);
+            fail("get_instance() worked without a factory");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof contract_violation);
+        }
+        final Constructor<?> ctor = c.getDeclaredConstructor(String.class);
+        ctor.setAccessible(true);
+        final int[] made = new int[1];
+        Object f = Proxy.newProxyInstance(loader, new Class<?>[] {factory}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                synchronized (made) {
+                    ++made[0];
+                }
+                // Give racing callers time to try making one too.
+                Thread.sleep(20);
+                return ctor.newInstance("n" + made[0]);
+            }
+        });
+        c.getMethod("set_factory", factory).invoke(null, f);
+        final Object[] seen = new Object[8];
+        Thread[] threads = new Thread[seen.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int n = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        seen[n] = get.invoke(null);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t: threads) {
+            t.join();
+        }
+        assertEquals(1, made[0]);
+        Object first = get.invoke(null);
+        for (Object s: seen) {
+            assertSame(first, s);
+        }
+        assertEquals("n1", c.getMethod("get_name").invoke(first));
+        assertSame(first, get.invoke(null));
+        Object second = rebirth.invoke(null, first);
+        assertNotSame(first, second);
+        assertSame(second, get.invoke(null));
+        // A stale report doesn't replace the live instance.
+        assertSame(second, rebirth.invoke(null, first));
+        assertEquals(2, made[0]);
+    }
+}
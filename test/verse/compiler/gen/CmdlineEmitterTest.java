@@ -0,0 +1,122 @@
+package verse.compiler.gen;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import verse.cli.invalid_cmd_exception;
+import verse.compiler.diagnostic;
+import verse.compiler.parse.descriptor_builder;
+import verse.compiler.parse.import_decl;
+import verse.compiler.parse.parsed_file;
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+import verse.io.path_util;
+
+public class CmdlineEmitterTest {
+
+    static final String CMDLINE = "descrip: start broker daemon\nflags:\n\thelp requested:\n\t\taliases: h, help\n"
+            + "\tverbose:\n\t\taliases: v\n\ttrace:\n\t\thidden: true\noptions:\n\tlog file:\n"
+            + "\t\tplaceholder: path\n\t\trequired: true\n\t\tvalidator: /\\.log$/\n\tlog level:\n"
+            + "\t\tvalues: error, warning, debug\n\t\tdefault: warning\n\t\tposition: 1\n\tinput file:\n"
+            + "\t\tvalidator: `!it.isEmpty() && !verbose`\n\t\trepeatable: true\n\tpassword:\n\t\tmasked: true\n";
+
+    static String emit(String yaml, List<diagnostic> diagnostics) {
+        source_file f = source_file.in_memory("cmdline.yaml", yaml.getBytes(source_file.UTF8));
+        parsed_file p = descriptor_builder.build(f, new symbol_table());
+        assertEquals(p.diagnostics.toString(), 0, p.diagnostics.size());
+        return cmdline_emitter.emit("gen", Collections.<import_decl>emptyList(), p.classes.get(0), f.path,
+                diagnostics);
+    }
+
+    @Test
+    public void testPerfectHash() {
+        List<String> keys = Arrays.asList("h", "help", "help-requested", "v", "verbose", "log-file", "log-level",
+                "input-file", "trace", "password");
+        perfect_hash h = perfect_hash.find(keys);
+        assertEquals(15, h.mask);
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < keys.size(); ++i) {
+            int slot = perfect_hash.hash(keys.get(i), h.seed) & h.mask;
+            assertTrue(seen.add(slot));
+            assertEquals(i, h.slots[slot]);
+        }
+    }
+
+    @Test
+    public void testGeneratedParser() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit(CMDLINE, d);
+        assertEquals(d.toString(), 0, d.size());
+        assertFalse(text, text.contains("verse.cli.menu"));
+        Path dir = Files.createTempDirectory("cmdline_emitter");
+        try {
+            Class<?> c = JavaEmitterTest.compile(dir, "cmdline", text).loadClass("gen.cmdline");
+            Method parse = c.getMethod("parse", String[].class);
+            String help = (String) c.getField("HELP").get(null);
+            assertTrue(help, help.startsWith("start broker daemon\n"));
+            assertTrue(help, help.contains("-h, --help, --help-requested"));
+            assertFalse(help, help.contains("--trace"));
+
+            Object cmd = parse.invoke(null, (Object) new String[] {"-h", "--log-file=a.log", "debug",
+                    "--input-file", "x", "--input-file=y", "--password", "secret"});
+            assertEquals(Boolean.TRUE, c.getMethod("get_help_requested").invoke(cmd));
+            assertEquals(Boolean.FALSE, c.getMethod("get_verbose").invoke(cmd));
+            assertEquals("a.log", c.getMethod("get_log_file").invoke(cmd));
+            assertEquals("debug", c.getMethod("get_log_level").invoke(cmd));
+            assertEquals(Arrays.asList("x", "y"), c.getMethod("get_input_file").invoke(cmd));
+            assertEquals("--help-requested --log-file=a.log --log-level=debug --input-file=x --input-file=y"
+                    + " --password=****", cmd.toString());
+
+            cmd = parse.invoke(null, (Object) new String[] {"--log-file", "b.log"});
+            assertEquals("warning", c.getMethod("get_log_level").invoke(cmd));
+
+            assert_invalid(parse, "Option --log-file is required.", "-v");
+            assert_invalid(parse, "Unknown flag or option --nope.", "--log-file=a.log", "--nope");
+            assert_invalid(parse, "Flag -v takes no value.", "--log-file=a.log", "-v=1");
+            assert_invalid(parse, "Option --log-file: a.txt is not valid.", "--log-file=a.txt");
+            assert_invalid(parse, "Option --log-file was given more than once.", "--log-file=a.log",
+                    "--log-file=b.log");
+            assert_invalid(parse, "Option loud must be one of error, warning, debug; not loud.",
+                    "--log-file=a.log", "loud");
+            assert_invalid(parse, "Unexpected argument extra.", "--log-file=a.log", "debug", "extra");
+            assert_invalid(parse, "Option --input-file: x is not valid.", "-v", "--log-file=a.log",
+                    "--input-file=x");
+            assert_invalid(parse, "Option --password needs a value.", "--log-file=a.log", "--password");
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    static void assert_invalid(Method parse, String message, String... args) throws Exception {
+        try {
+            parse.invoke(null, (Object) args);
+            fail("expected " + message);
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof invalid_cmd_exception);
+            assertEquals(message, e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testConflicts() {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        emit("flags:\n\tverbose:\n\t\taliases: v\n\tversion:\n\t\taliases: v\noptions:\n\ta:\n\t\tposition: 2\n"
+                + "\tb:\n\t\tvalues: x, y\n\t\tdefault: z\n", d);
+        assertEquals(d.toString(), 3, d.size());
+        assertEquals("-v is already a name of verbose", d.get(0).message);
+        assertEquals("b: default z is not one of its values", d.get(1).message);
+        assertEquals("no option has position 1", d.get(2).message);
+    }
+}
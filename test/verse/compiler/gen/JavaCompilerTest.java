@@ -0,0 +1,95 @@
+package verse.compiler.gen;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import verse.compiler.diagnostic;
+
+public class JavaCompilerTest {
+
+    private static java_compiler open() throws Exception {
+        java_compiler j = java_compiler.open(Collections.<Path>emptyList());
+        assertNotNull("tests need a JDK", j);
+        return j;
+    }
+
+    @Test
+    public void testLaterCompilesSeeEarlierClasses() throws Exception {
+        java_compiler j = open();
+        java_compiler.result a = j.compile(Collections.singletonMap("p.A",
+                "package p;\npublic class A {\n    public static int f() {\n        return 41;\n    }\n}\n"));
+        assertTrue(a.errors.toString(), a.errors.isEmpty());
+        assertTrue(a.classes.containsKey("p.A"));
+
+        // q.B needs p.A, which exists only in memory.
+        java_compiler.result b = j.compile(Collections.singletonMap("q.B",
+                "package q;\npublic class B {\n    public static int g() {\n        return p.A.f() + 1;\n    }\n}\n"));
+        assertTrue(b.errors.toString(), b.errors.isEmpty());
+        assertEquals(Collections.singleton("q.B"), b.classes.keySet());
+
+        Map<String, byte[]> all = new HashMap<String, byte[]>(a.classes);
+        all.putAll(b.classes);
+        Class<?> c = ClassEmitterTest.load(all).loadClass("q.B");
+        assertEquals(42, c.getMethod("g").invoke(null));
+    }
+
+    @Test
+    public void testSourceSeesEmittedClasses() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        class_plan p = ClassEmitterTest.plan("meter", "members:\n\tamount: nonneg double\n", d);
+        java_compiler j = open();
+        j.add_classes(class_emitter.emit(p));
+        java_compiler.result r = j.compile(Collections.singletonMap("gen.user",
+                "package gen;\npublic class user {\n    public static double read(meter m) {\n"
+                + "        return m.get_amount();\n    }\n}\n"));
+        assertTrue(r.errors.toString(), r.errors.isEmpty());
+    }
+
+    @Test
+    public void testBothBackendsWriteOneVersion() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        class_plan p = ClassEmitterTest.plan("meter", "members:\n\tamount: nonneg double\n", d);
+        byte[] emitted = class_emitter.emit(p).get("gen.meter");
+        byte[] compiled = open().compile(Collections.singletonMap("gen.meter", java_emitter.emit(p))).classes
+                .get("gen.meter");
+        assertNotNull(compiled);
+        assertEquals(52, major_version(emitted));
+        assertEquals(major_version(emitted), major_version(compiled));
+    }
+
+    private static int major_version(byte[] c) {
+        return (c[6] & 0xff) << 8 | c[7] & 0xff;
+    }
+
+    @Test
+    public void testErrorsByClass() throws Exception {
+        java_compiler j = open();
+        java_compiler.result r = j.compile(Collections.singletonMap("p.Bad",
+                "package p;\npublic class Bad {\n    nope x;\n}\n"));
+        assertTrue(r.classes.isEmpty());
+        assertEquals(Collections.singleton("p.Bad"), r.errors.keySet());
+        String message = r.errors.get("p.Bad").get(0);
+        assertTrue(message, message.startsWith("line 3 of generated source: "));
+        assertTrue(message, message.contains("nope"));
+    }
+
+    @Test
+    public void testFailedCompileKeepsLastGoodClasses() throws Exception {
+        java_compiler j = open();
+        String a = "package p;\npublic class A {\n    public static int f() {\n        return 41;\n    }\n}\n";
+        String b = "package q;\npublic class B {\n    public static int g() {\n        return p.A.f() + 1;\n    }\n}\n";
+        assertTrue(j.compile(Collections.singletonMap("p.A", a)).errors.isEmpty());
+        assertFalse(j.compile(Collections.singletonMap("p.A", a.replace("41", "nope"))).errors.isEmpty());
+        assertTrue(j.compile(Collections.singletonMap("q.B", b)).errors.isEmpty());
+        j.remove_classes(Collections.singleton("p.A"));
+        assertFalse(j.compile(Collections.singletonMap("q.B", b)).errors.isEmpty());
+    }
+}
@@ -0,0 +1,326 @@
+package verse.compiler.gen;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+import verse.compiler.diagnostic;
+import verse.compiler.parse.descriptor_builder;
+import verse.compiler.parse.import_decl;
+import verse.compiler.parse.parsed_file;
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+import verse.dbc.contract_violation;
+import verse.io.path_util;
+
+public class JavaEmitterTest {
+
+    static String emit(String name, String yaml, List<diagnostic> diagnostics) {
+        source_file f = source_file.in_memory(name + ".yaml", yaml.getBytes(source_file.UTF8));
+        parsed_file p = descriptor_builder.build(f, new symbol_table());
+        assertEquals(p.diagnostics.toString(), 0, p.diagnostics.size());
+        return java_emitter.emit("gen", Collections.<import_decl>emptyList(), p.classes.get(0), f.path,
+                diagnostics);
+    }
+
+    /**
+     * Compile generated classes and load them.
+     */
+    static ClassLoader compile(Path dir, String... name_and_source) throws IOException {
+        List<String> args = new ArrayList<String>();
+        args.add("-nowarn");
+        args.add("-cp");
+        args.add(System.getProperty("java.class.path"));
+        args.add("-d");
+        args.add(dir.toString());
+        for (int i = 0; i < name_and_source.length; i += 2) {
+            Path src = dir.resolve("gen").resolve(name_and_source[i] + ".java");
+            Files.createDirectories(src.getParent());
+            Files.write(src, name_and_source[i + 1].getBytes(source_file.UTF8));
+            args.add(src.toString());
+        }
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, javac.run(null, null, null, args.toArray(new String[args.size()])));
+        return new URLClassLoader(new URL[] {dir.toUri().toURL()}, JavaEmitterTest.class.getClassLoader());
+    }
+
+    static void assert_violates(Method m, Object target, Object... args) throws Exception {
+        try {
+            m.invoke(target, args);
+            fail("expected a contract violation");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof contract_violation);
+        }
+    }
+
+    @Test
+    public void testInlineChecks() {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit("account", "members:\n\tbalance: nonneg double\n\tlimit: final positive long\n"
+                + "\towner: nonnull str\n\tparent: weakref obj\n", d);
+        assertEquals(0, d.size());
+        assertTrue(text, text.contains("private java.lang.ref.WeakReference<Object> parent;"));
+        assertTrue(text, text.contains("if (!(value >= 0)) {"));
+        assertTrue(text, text.contains("if (limit <= 0L) {"));
+        assertTrue(text, text.contains("precondition.checkNotNull(value, \"owner\");"));
+        assertTrue(text, text.contains("public account(long limit) {"));
+        assertFalse(text, text.contains("set_limit"));
+        assertFalse(text, text.contains("satisfied_by"));
+    }
+
+    @Test
+    public void testMisfitQualifiers() {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        emit("bad", "members:\n\tname: nonneg str\n\tcount: unsigned double\n\tn: nonnull int\n"
+                + "ctor: [name]\n", d);
+        assertEquals(d.toString(), 3, d.size());
+        assertEquals("name: nonneg needs a primitive number, not String", d.get(0).message);
+        assertEquals("count: unsigned needs an integral type, not double", d.get(1).message);
+        assertEquals("n: nonnull doesn't apply to int, which is never null", d.get(2).message);
+    }
+
+    @Test
+    public void testGeneratedCodeRuns() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit("meter", "members:\n\tamount: nonneg double\n\tunit: final str\n"
+                + "ctor: [amount: positive double, unit: nonnull]\n", d);
+        assertEquals(d.toString(), 0, d.size());
+        Path dir = Files.createTempDirectory("java_emitter");
+        try {
+            Class<?> c = compile(dir, "meter", text).loadClass("gen.meter");
+            Constructor<?> ctor = c.getConstructor(double.class, String.class);
+            Object m = ctor.newInstance(2.0, "kg");
+            Method set = c.getMethod("set_amount", double.class);
+            set.invoke(m, 0.0);
+            assertEquals(0.0, (Double) c.getMethod("get_amount").invoke(m), 0);
+            assert_violates(set, m, -1.0);
+            assert_violates(set, m, Double.NaN);
+            try {
+                ctor.newInstance(0.0, "kg");
+                fail("a ctor parameter declared positive accepted 0");
+            } catch (InvocationTargetException e) {
+                assertTrue(e.getCause() instanceof contract_violation);
+            }
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testCtorParamOfWiderTypeIsChecked() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit("tally", "members:\n\tcount: nonneg long\nctor: [count: int]\n", d);
+        assertEquals(d.toString(), 0, d.size());
+        Path dir = Files.createTempDirectory("java_emitter");
+        try {
+            Constructor<?> ctor = compile(dir, "tally", text).loadClass("gen.tally").getConstructor(int.class);
+            ctor.newInstance(0);
+            try {
+                ctor.newInstance(-1);
+                fail("a ctor parameter set a nonneg member to -1");
+            } catch (InvocationTargetException e) {
+                assertTrue(e.getCause() instanceof contract_violation);
+            }
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testProperties() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit("settings", ClassEmitterTest.PROPERTIES, d);
+        assertEquals(d.toString(), 0, d.size());
+        assertTrue(text, text.contains("case 0: target.set_count((Integer) value); return;"));
+        assertTrue(text, text.contains("@SuppressWarnings(\"unchecked\")"));
+        String plain = emit("plain", "members:\n\tcount: int\n\titems: java.util.List<?>\n", d);
+        assertEquals(d.toString(), 0, d.size());
+        assertFalse(plain, plain.contains("@SuppressWarnings"));
+        Path dir = Files.createTempDirectory("java_emitter");
+        try {
+            ClassEmitterTest.check_properties(compile(dir, "settings", text).loadClass("gen.settings"));
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testTemplates() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit("keys", ClassEmitterTest.TEMPLATES, d);
+        assertEquals(d.toString(), 0, d.size());
+        assertTrue(text, text.contains("private String key = (name) + \"/\" + (n) + (c) + \":\" + (ratio) + \" $!\";"));
+        assertTrue(text, text.contains("private Object sum = \"\" + (n) + (c);"));
+        assertTrue(text, text.contains("private String fixed = \"a1b\";"));
+        Path dir = Files.createTempDirectory("java_emitter");
+        try {
+            ClassEmitterTest.check_templates(compile(dir, "keys", text).loadClass("gen.keys"));
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+        emit("bad", "members:\n\ts: str = \"${\"\n\tn: int = \"${s}\"\n", d);
+        assertEquals(d.toString(), 2, d.size());
+        assertEquals("s: ${ isn't closed", d.get(0).message);
+        assertEquals("n: a string can't initialize a member of type int", d.get(1).message);
+    }
+
+    @Test
+    public void testPropertiesClash() {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit("bag", "members:\n\tproperties: java.util.Properties\n", d);
+        assertEquals(d.toString(), 1, d.size());
+        assertEquals("properties: get_properties() is generated; name the member something else",
+                d.get(0).message);
+        assertFalse(text, text.contains("class properties"));
+    }
+
+    @Test
+    public void testGeneratedMethodClash() {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        emit("cache", "semantics: singleton\nmembers:\n\tannotation: java.util.Properties\n"
+                + "methods:\n\tget annotation:\n\t\treturns: str\n\tset annotation: [key: str, value: str]\n"
+                + "\tget instance:\n", d);
+        assertEquals(d.toString(), 2, d.size());
+        assertEquals("get_annotation: get_annotation() is generated for member annotation; "
+                + "name the method something else", d.get(0).message);
+        assertEquals("get_instance: get_instance() is generated for singleton; name the method something else",
+                d.get(1).message);
+    }
+
+    @Test
+    public void testSingleton() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit("registry", "semantics: singleton\nmembers:\n\tsize: int\n", d);
+        assertEquals(d.toString(), 0, d.size());
+        assertTrue(text, text.contains("private registry() {"));
+        assertFalse(text, text.contains("synchronized"));
+        Path dir = Files.createTempDirectory("java_emitter");
+        try {
+            Class<?> c = compile(dir, "registry", text).loadClass("gen.registry");
+            Method get = c.getMethod("get_instance");
+            Object a = get.invoke(null);
+            assertNotNull(a);
+            assertSame(a, get.invoke(null));
+            assertEquals(0, c.getConstructors().length);
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testPhoenix() throws Exception {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        String text = emit("svc", "semantics: singleton, phoenix\nmembers:\n\tname: final str\n", d);
+        assertEquals(d.toString(), 0, d.size());
+        String maker = "package gen;\npublic class maker implements svc.factory {\n"
+                + "    public static final java.util.concurrent.atomic.AtomicInteger made =\n"
+                + "            new java.util.concurrent.atomic.AtomicInteger();\n"
+                + "    public svc create() {\n"
+                + "        int n = made.incrementAndGet();\n"
+                + "        try {\n"
+                + "            Thread.sleep(20);\n"
+                + "        } catch (InterruptedException e) {\n"
+                + "            throw new RuntimeException(e);\n"
+                + "        }\n"
+                + "        return new svc(\"n\" + n);\n"
+                + "    }\n"
+                + "}\n";
+        Path dir = Files.createTempDirectory("java_emitter");
+        try {
+            ClassLoader loader = compile(dir, "svc", text, "maker", maker);
+            Class<?> c = loader.loadClass("gen.svc");
+            Class<?> factory = loader.loadClass("gen.svc$factory");
+            final Method get = c.getMethod("get_instance");
+            final Method rebirth = c.getMethod("rebirth", c);
+            try {
+                get.invoke(null);
+                fail("get_instance() worked without a factory");
+            } catch (InvocationTargetException e) {
+                assertTrue(e.getCause() instanceof contract_violation);
+            }
+            Class<?> maker_class = loader.loadClass("gen.maker");
+            Object made = maker_class.getDeclaredConstructor().newInstance();
+            c.getMethod("set_factory", factory).invoke(null, made);
+
+            // Callers that race for the first instance all get one instance.
+            final Object[] seen = new Object[8];
+            Thread[] threads = new Thread[seen.length];
+            for (int i = 0; i < threads.length; ++i) {
+                final int n = i;
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            seen[n] = get.invoke(null);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread t: threads) {
+                t.join();
+            }
+            assertEquals(1, ((AtomicInteger) maker_class.getField("made").get(null)).get());
+            final Object first = get.invoke(null);
+            for (Object s: seen) {
+                assertSame(first, s);
+            }
+
+            // Everyone who saw the first instance die gets the same replacement.
+            final Object[] results = new Object[8];
+            threads = new Thread[results.length];
+            for (int i = 0; i < threads.length; ++i) {
+                final int n = i;
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            results[n] = rebirth.invoke(null, first);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread t: threads) {
+                t.join();
+            }
+            Object second = get.invoke(null);
+            assertNotSame(first, second);
+            for (Object r: results) {
+                assertSame(second, r);
+            }
+            // A stale report doesn't replace the live instance.
+            assertSame(second, rebirth.invoke(null, first));
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testPhoenixNeedsSingleton() {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        emit("lone", "semantics: phoenix\n", d);
+        assertEquals(1, d.size());
+        assertEquals("lone: phoenix needs singleton", d.get(0).message);
+    }
+}
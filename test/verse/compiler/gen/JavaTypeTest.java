@@ -0,0 +1,119 @@
+package verse.compiler.gen;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import verse.compiler.diagnostic;
+import verse.compiler.parse.import_decl;
+
+public class JavaTypeTest {
+
+    private static final jvm_types.class_scope THING = jvm_types.only("p", Arrays.asList("Thing"));
+
+    @Test
+    public void testHashConsed() {
+        java_type a = java_type.of("Map<String, List<Class<? extends Enum<?>>>>");
+        java_type b = java_type.of("Map<String,List<Class<? extends Enum<?>>>>");
+        assertSame(a, b);
+        assertEquals("Map<String, List<Class<? extends Enum<?>>>>", b.toString());
+        assertSame(java_type.of("String"), a.args.get(0));
+        java_type list = a.args.get(1);
+        assertSame(java_type.get("List", Arrays.asList(java_type.of("Class<? extends Enum<?>>")), 0), list);
+        assertSame(java_type.of("Annotation[][]"), java_type.get("Annotation", Collections.<java_type>emptyList(), 2));
+        assertSame(java_types.of("Map<str, int>"), java_type.of("Map<String, Integer>"));
+        assertSame(java_types.of("[]"), java_type.of("java.util.List<Object>"));
+        assertTrue(java_type.of("Comparable<Property>").generic);
+        assertFalse(java_type.of("int[]").generic);
+        assertEquals('[', java_type.of("int[]").kind);
+        assertEquals('I', java_type.of("int[]").element_kind);
+    }
+
+    @Test
+    public void testOpaque() {
+        java_type t = java_type.of("Map<String");
+        assertTrue(t.opaque);
+        assertEquals("Map<String", t.toString());
+        try {
+            new jvm_types("p", Collections.<import_decl>emptyList(), THING).descriptor(t);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSignatures() {
+        jvm_types types = new jvm_types("p", Collections.<import_decl>emptyList(), THING);
+        java_type t = java_type.of("java.util.Map<String, Class<? super Integer>>[]");
+        assertEquals("[Ljava/util/Map;", types.descriptor(t));
+        assertEquals("[Ljava/util/Map<Ljava/lang/String;Ljava/lang/Class<-Ljava/lang/Integer;>;>;", types.signature(t));
+        assertNull(types.signature(java_type.of("long[]")));
+        assertEquals("[J", types.descriptor(java_type.of("long[]")));
+        assertEquals("(ILp/Thing;)V", types.method_descriptor(java_type.VOID,
+                Arrays.asList(java_type.of("int"), java_type.of("Thing"))));
+    }
+
+    @Test
+    public void testUnknownClasses() {
+        jvm_types types = new jvm_types("p", Arrays.asList(new import_decl("java.util", Arrays.asList("Map"), 0),
+                new import_decl("q", Arrays.asList("Other"), 0)), THING);
+        assertNull(types.find_unknown(java_type.of("Map.Entry<Thing, Other>[]")));
+        assertEquals("object", types.find_unknown(java_type.of("Class<? extends object>")));
+        assertEquals("Missing", types.find_unknown(java_type.of("Missing.Inner")));
+        assertEquals("p.Gone", types.find_unknown(java_type.of("p.Gone")));
+        // A package nothing knows is taken at its word.
+        assertNull(types.find_unknown(java_type.of("com.example.Gone")));
+        try {
+            types.descriptor(java_type.of("object"));
+            fail("a class that doesn't exist was spelled");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        class_plan p = ClassEmitterTest.plan("guess", "members:\n\towner: thing\n\tself: guess\n"
+                + "methods:\n\tfind: [key: str]\n\t\treturns: Other\n", d);
+        assertEquals(d.toString(), 2, d.size());
+        assertEquals("owner: can't find class thing; it isn't imported, in java.lang, or in package gen",
+                d.get(0).message);
+        assertEquals("find: can't find class Other; it isn't imported, in java.lang, or in package gen",
+                d.get(1).message);
+        assertFalse(class_emitter.supports(p));
+    }
+
+    @Test
+    public void testAssignable() {
+        java_type i = java_type.of("int");
+        java_type l = java_type.of("long");
+        java_type c = java_type.of("char");
+        java_type s = java_type.of("short");
+        assertTrue(java_type.is_assignable(i, l));
+        assertFalse(java_type.is_assignable(l, i));
+        assertTrue(java_type.is_assignable(c, i));
+        assertFalse(java_type.is_assignable(s, c));
+        assertTrue(java_type.is_assignable(i, java_type.of("Integer")));
+        assertTrue(java_type.is_assignable(i, java_type.OBJECT));
+        assertFalse(java_type.is_assignable(i, java_type.of("String")));
+        assertTrue(java_type.is_assignable(java_type.of("Integer"), l));
+        assertFalse(java_type.is_assignable(java_type.of("String"), i));
+        assertTrue(java_type.is_assignable(java_type.of("Thing"), java_type.of("Other")));
+        // Memoized: the same answer again.
+        assertFalse(java_type.is_assignable(l, i));
+    }
+
+    @Test
+    public void testCtorParamThatCantSetItsMember() {
+        List<diagnostic> d = new ArrayList<diagnostic>();
+        class_plan p = ClassEmitterTest.plan("misfit", "members:\n\tcount: final int\n\twide: long\n"
+                + "methods:\n\tctor: [count: str, wide: int]\n", d);
+        assertEquals(d.toString(), 1, d.size());
+        assertEquals("ctor: a parameter of type String can't set member count of type int", d.get(0).message);
+        // A widening javac would insert isn't written as class files.
+        assertFalse(class_emitter.supports(p));
+    }
+}
@@ -0,0 +1,55 @@
+package verse.compiler.gen;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class StringTemplateTest {
+
+    @Test
+    public void testParts() {
+        string_template t = string_template.parse("\"${e}/${e.ordinal}\"");
+        assertEquals(3, t.parts.size());
+        assertTrue(t.parts.get(0).is_expression);
+        assertEquals("e", t.parts.get(0).text);
+        assertEquals("/", t.parts.get(1).text);
+        assertEquals("e.ordinal", t.parts.get(2).text);
+        assertNull(t.get_constant());
+        assertEquals(1, t.get_text_length());
+        t = string_template.parse("\"a\\t${ m.get(\"}\") }\\n\"");
+        assertEquals("a\t", t.parts.get(0).text);
+        assertEquals("m.get(\"}\")", t.parts.get(1).text);
+        assertEquals("\n", t.parts.get(2).text);
+        assertEquals("${x}", string_template.parse("'${x}'").toString());
+    }
+
+    @Test
+    public void testFolding() {
+        assertEquals("ab1ctrue", string_template.parse("\"a${\"b\"}${1}c${true}\"").get_constant());
+        string_template t = string_template.parse("\"<${'-'}${x}${\"-\"}>\"");
+        assertEquals("<-${x}->", t.toString());
+        assertEquals(3, t.parts.size());
+        assertEquals("cost $5, ${not}", string_template.parse("\"cost \\$5, \\${not}\"").get_constant());
+        assertEquals("", string_template.parse("\"${\"\"}\"").get_constant());
+    }
+
+    @Test
+    public void testNotTemplates() {
+        assertNull(string_template.parse("\"plain\""));
+        assertNull(string_template.parse("42"));
+        assertNull(string_template.parse("\"a\" + \"${b}\""));
+        assertNull(string_template.parse("fmt(\"${x}\")"));
+    }
+
+    @Test
+    public void testMalformed() {
+        for (String bad: new String[] {"\"${x\"", "\"${ }\"", "\"${x}\\q\""}) {
+            try {
+                string_template.parse(bad);
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package verse.compiler.lex;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import verse.compiler.source_file;
+
+public class LexerTest {
+
+    private static token_stream lex(String text) {
+        return lexer.lex(source_file.in_memory("t.v", text.getBytes(source_file.UTF8)));
+    }
+
+    @Test
+    public void testIndentation() {
+        token_stream ts = lex("class A:\n members:\n  x: int\n\n  # comment\n methods:\n");
+        assertEquals("IDENT(class) IDENT(A) COLON(:) NEWLINE INDENT IDENT(members) COLON(:) NEWLINE "
+                + "INDENT IDENT(x) COLON(:) IDENT(int) NEWLINE DEDENT IDENT(methods) COLON(:) NEWLINE "
+                + "DEDENT EOF", ts.toString());
+    }
+
+    @Test
+    public void testTabsAdvanceToTabStop() {
+        token_stream ts = lex("a:\n        b\n\tc\n");
+        assertEquals("IDENT(a) COLON(:) NEWLINE INDENT IDENT(b) NEWLINE IDENT(c) NEWLINE DEDENT EOF",
+                ts.toString());
+    }
+
+    @Test
+    public void testBadDedent() {
+        token_stream ts = lex("a:\n    b\n  c\n");
+        assertEquals(1, ts.count_errors());
+        int balance = 0;
+        for (int i = 0; i < ts.size(); ++i) {
+            if (ts.kind(i) == token_kind.INDENT) {
+                ++balance;
+            } else if (ts.kind(i) == token_kind.DEDENT) {
+                --balance;
+            }
+        }
+        assertEquals(0, balance);
+    }
+
+    @Test
+    public void testNewlinesInsideParensAreJoined() {
+        token_stream ts = lex("get(\n    \"doc\"\n    obj: Object\n   ) >> str\n");
+        assertEquals("IDENT(get) LPAREN(() STRING(\"doc\") IDENT(obj) COLON(:) IDENT(Object) "
+                + "RPAREN()) ARROW(>>) IDENT(str) NEWLINE EOF", ts.toString());
+    }
+
+    @Test
+    public void testFlagsModifiersAndArrows() {
+        token_stream ts = lex("name: str -w\nf() +private >> void\nx = a - b\nm: Map<K, List<V>>\n");
+        String s = ts.toString();
+        assertTrue(s, s.contains("FLAG(-w)"));
+        assertTrue(s, s.contains("MODIFIER(+private) ARROW(>>) IDENT(void)"));
+        assertTrue(s, s.contains("IDENT(a) OPERATOR(-) IDENT(b)"));
+        assertTrue(s, s.contains("IDENT(V) GT(>) GT(>)"));
+    }
+
+    @Test
+    public void testLiterals() {
+        token_stream ts = lex("###\nheader\n###\n\"\"\"\nmulti\nline\n\"\"\"\ns = \"${e}/${e.ordinal}\" + `File.exists(it)` + 1.5e3 + 0x1F + 10L\n");
+        assertEquals(0, ts.count_errors());
+        assertEquals(token_kind.DOCSTRING, ts.kind(0));
+        assertEquals("\"\"\"\nmulti\nline\n\"\"\"", ts.text(0));
+        String s = ts.toString();
+        assertTrue(s, s.contains("STRING(\"${e}/${e.ordinal}\")"));
+        assertTrue(s, s.contains("CODE(`File.exists(it)`)"));
+        assertTrue(s, s.contains("NUMBER(1.5e3)"));
+        assertTrue(s, s.contains("NUMBER(0x1F)"));
+        assertTrue(s, s.contains("NUMBER(10L)"));
+    }
+
+    @Test
+    public void testUnterminatedString() {
+        token_stream ts = lex("a = \"oops\nb = 1\n");
+        assertEquals(1, ts.count_errors());
+        assertTrue(ts.toString().contains("IDENT(b) ASSIGN(=) NUMBER(1)"));
+    }
+
+    @Test
+    public void testIs() {
+        token_stream ts = lex("members:\n");
+        assertTrue(ts.is(0, "members"));
+        assertFalse(ts.is(0, "member"));
+        assertFalse(ts.is(0, "methods"));
+    }
+}
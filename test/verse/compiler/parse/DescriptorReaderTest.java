@@ -0,0 +1,142 @@
+package verse.compiler.parse;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import verse.compiler.source_file;
+import verse.compiler.symbol_table;
+
+public class DescriptorReaderTest {
+
+    static source_file file(String path, String text) {
+        return source_file.in_memory(path, text.getBytes(source_file.UTF8));
+    }
+
+    static parsed_file build(String path, String text) {
+        return descriptor_builder.build(file(path, text), new symbol_table());
+    }
+
+    /** Records events as strings. */
+    static class recorder implements descriptor_handler {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void section(descriptor_key key, String value, int offset) {
+            events.add(key.word + "=" + value);
+        }
+
+        @Override
+        public void entry(String name, String value, int offset) {
+            events.add("  " + name + "=" + value);
+        }
+
+        @Override
+        public void attribute(String name, String value, int offset) {
+            events.add("    " + name + "=" + value);
+        }
+
+        @Override
+        public void error(int offset, String message) {
+            events.add("! " + message);
+        }
+    }
+
+    @Test
+    public void testEvents() {
+        recorder r = new recorder();
+        String text = "# header\ndescrip: start broker daemon\nflags:\n\thelp requested:\n\t\taliases: h, help\n"
+                + "# between\n\tverbose: \n\t\tvalidator: `a # b`  # trailing\n\n";
+        new descriptor_reader(file("cmdline.yaml", text), new symbol_table(), r).run();
+        assertEquals("[descrip=start broker daemon, flags=,   help requested=,     aliases=h, help,"
+                + "   verbose=,     validator=`a # b`]", r.events.toString());
+    }
+
+    @Test
+    public void testClass() {
+        parsed_file p = build("classes/consumer.yaml", "descrip: a consumer\nimplements: Comparable<consumer>\n"
+                + "semantics: singleton, phoenix\nmembers:\n\tweight: unsigned int = 0\n\tchild id: final str\n"
+                + "\t\tdescrip: the id\n\tparent: weakref\nmethods:\n\tadjust weight: [delta: int]\n"
+                + "\trequire resource: [class: Class<? extends resource>, amount: positive double]\n"
+                + "\t\treturns: task\n\tto string: override\n");
+        assertEquals(p.diagnostics.toString(), 0, p.diagnostics.size());
+        assertTrue(p.imports.isEmpty());
+        class_decl c = p.classes.get(0);
+        assertEquals("consumer", c.name);
+        assertEquals("a consumer", c.doc.get_text());
+        assertEquals("[Comparable<consumer>]", c.interfaces.toString());
+        assertEquals("[singleton, phoenix]", c.semantics.toString());
+
+        assertEquals(3, c.members.size());
+        member_decl weight = c.members.get(0);
+        assertEquals("weight", weight.name);
+        assertEquals("int", weight.type);
+        assertEquals("[unsigned]", weight.modifiers.toString());
+        assertEquals("0", weight.initializer);
+        assertEquals("child_id", c.members.get(1).name);
+        assertEquals("the id", c.members.get(1).doc.get_text());
+        assertNull(c.members.get(2).type);
+        assertEquals("[weakref]", c.members.get(2).modifiers.toString());
+
+        assertEquals(3, c.methods.size());
+        method_decl require = c.methods.get(1);
+        assertEquals("require_resource", require.name);
+        assertEquals("task", require.return_type);
+        assertEquals(2, require.params.size());
+        assertEquals("Class<? extends resource>", require.params.get(0).type);
+        assertEquals("[positive]", require.params.get(1).modifiers.toString());
+        assertEquals("[override]", c.methods.get(2).modifiers.toString());
+    }
+
+    @Test
+    public void testErrors() {
+        parsed_file p = build("resource.yaml", "members:\n\tend time: date\n"
+                + "ctor: [start time, end time: {precondition]\nbogus: x\n");
+        assertEquals(2, p.diagnostics.size());
+        assertEquals("unterminated {", p.diagnostics.get(0).message);
+        assertTrue(p.diagnostics.get(1).message, p.diagnostics.get(1).message.startsWith("bogus"));
+        assertEquals("ctor", p.classes.get(0).methods.get(0).name);
+    }
+
+    @Test
+    public void testSwitches() {
+        parsed_file p = build("cmdline.yaml", "options:\n\tlog level:\n\t\tvalues: error, warning\n"
+                + "\t\tdefault: warning\n\t\tposition: 1\n\t\tdescrip: how much to log\nflags:\n"
+                + "\tverbose: \n\t\taliases: v\n\t\tplaceholder: x\n\ttrace:\n\t\thidden: yes\n");
+        assertEquals(2, p.diagnostics.size());
+        assertEquals("placeholder is not an attribute of a flag", p.diagnostics.get(0).message);
+        assertEquals("hidden: expected true or false, not yes", p.diagnostics.get(1).message);
+        class_decl c = p.classes.get(0);
+        assertEquals(3, c.switches.size());
+        switch_decl verbose = c.switches.get(0);
+        assertTrue(verbose.is_flag);
+        assertEquals("[v]", verbose.aliases.toString());
+        switch_decl level = c.switches.get(2);
+        assertEquals("log_level", level.name);
+        assertFalse(level.is_flag);
+        assertEquals("[error, warning]", level.values.toString());
+        assertEquals("warning", level.default_value);
+        assertEquals(1, level.position);
+        assertEquals("how much to log", level.doc.get_text());
+    }
+
+    @Test
+    public void testRequiredByCode() {
+        parsed_file p = build("cmdline.yaml", "options:\n\tlog file:\n\t\trequired: //url\n");
+        assertEquals(1, p.diagnostics.size());
+        assertEquals("required: //url would decide at run time, which isn't supported; expected true or false",
+                p.diagnostics.get(0).message);
+        assertFalse(p.classes.get(0).switches.get(0).required);
+    }
+
+    @Test
+    public void testParseCache() {
+        parse_cache cache = new parse_cache();
+        parsed_file p = cache.parse(file("lib/job_queue.yaml", "semantics: abstract\n"));
+        assertEquals("job_queue", p.classes.get(0).name);
+        assertSame(p, cache.parse(file("lib/job_queue.yaml", "semantics: abstract\n")));
+    }
+}
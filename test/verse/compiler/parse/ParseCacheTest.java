@@ -0,0 +1,132 @@
+package verse.compiler.parse;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import verse.compiler.source_file;
+import verse.compiler.source_loader;
+import verse.io.path_util;
+
+public class ParseCacheTest {
+
+    private static source_file file(String path, String text) {
+        return source_file.in_memory(path, text.getBytes(source_file.UTF8));
+    }
+
+    @Test
+    public void testReuseUnchanged() {
+        parse_cache cache = new parse_cache();
+        parsed_file a = cache.parse(file("a.v", "class A:\n members:\n  x: int\n"));
+        parsed_file b = cache.parse(file("b.v", "class B:\n members:\n  y: int\n"));
+        assertSame(a, cache.parse(file("a.v", "class A:\n members:\n  x: int\n")));
+        assertEquals(1, cache.get_hits());
+        assertEquals(2, cache.get_misses());
+
+        parsed_file a2 = cache.parse(file("a.v", "class A:\n members:\n  x: long\n"));
+        assertNotSame(a, a2);
+        assertEquals("long", a2.classes.get(0).members.get(0).type);
+        assertSame(b, cache.parse(file("b.v", "class B:\n members:\n  y: int\n")));
+    }
+
+    @Test
+    public void testRetain() {
+        parse_cache cache = new parse_cache();
+        cache.parse(file("a.v", "class A:\n"));
+        cache.parse(file("b.v", "class B:\n"));
+        cache.retain(Arrays.asList("b.v"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        Path dir = Files.createTempDirectory("parse_cache");
+        try {
+            Path path = dir.resolve("verse/parse.cache");
+            parse_cache cache = new parse_cache();
+            source_file a = file("lib/a.v", "import:\n java.util: Date\n\"Doc.\"\nclass A:\n members:\n  x: int -w\n"
+                    + " methods:\n  f(\"p\" p: str) +private >> int\n   :\n    return 1\n  bad\n");
+            parsed_file before = cache.parse(a);
+            assertTrue(cache.save(path));
+            assertFalse(cache.save(path));
+
+            parse_cache loaded = parse_cache.load(path);
+            assertEquals(1, loaded.size());
+            parsed_file after = loaded.parse(a);
+            assertEquals(1, loaded.get_hits());
+            assertEquals(before.hash, after.hash);
+            assertEquals(before.imports.toString(), after.imports.toString());
+            assertEquals(before.diagnostics.toString(), after.diagnostics.toString());
+            class_decl c = after.classes.get(0);
+            assertEquals("Doc.", c.doc.get_text());
+            assertEquals("[-w]", c.members.get(0).flags.toString());
+            method_decl f = c.methods.get(0);
+            assertEquals("p", f.params.get(0).doc.get_text());
+            assertEquals(before.classes.get(0).methods.get(0).body_start, f.body_start);
+            assertEquals(before.classes.get(0).methods.get(0).body_end, f.body_end);
+
+            Files.write(path, new byte[] {1, 2, 3});
+            assertEquals(0, parse_cache.load(path).size());
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testLoadCorrupt() throws IOException {
+        Path dir = Files.createTempDirectory("parse_cache");
+        try {
+            Path path = dir.resolve("verse/parse.cache");
+            parse_cache cache = new parse_cache();
+            cache.parse(file("lib/a.v", "\"Doc.\"\nclass A:\n members:\n  x: int\n"));
+            cache.save(path);
+            byte[] good = Files.readAllBytes(path);
+            // Past the header, overwrite each int-sized window with a huge
+            // length and then a negative one; none of it may escape load().
+            for (int at = 12; at + 4 <= good.length; ++at) {
+                for (int bad: new int[] {Integer.MAX_VALUE, -7}) {
+                    byte[] b = good.clone();
+                    ByteBuffer.wrap(b).putInt(at, bad);
+                    Files.write(path, b);
+                    assertTrue(parse_cache.load(path).size() <= 1);
+                }
+            }
+            byte[] b = good.clone();
+            ByteBuffer.wrap(b).putInt(8, Integer.MAX_VALUE);
+            Files.write(path, b);
+            assertEquals(0, parse_cache.load(path).size());
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testEntriesDontHoldTheirFiles() throws Exception {
+        Path dir = Files.createTempDirectory("parse_cache");
+        try {
+            Path p = dir.resolve("a.v");
+            Files.write(p, "\"Doc.\"\nclass A:\n members:\n  x: int\n".getBytes(source_file.UTF8));
+            parse_cache cache = new parse_cache();
+            source_file a = source_loader.read(dir, p);
+            class_decl c = cache.parse(a).classes.get(0);
+            assertEquals("Doc.", c.doc.get_text());
+            WeakReference<source_file> gone = new WeakReference<source_file>(a);
+            a = null;
+            for (int i = 0; i < 50 && gone.get() != null; ++i) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(gone.get());
+            assertEquals("Doc.", c.doc.get_text());
+        } finally {
+            path_util.delete(dir.toFile());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package verse.compiler.parse;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import verse.compiler.source_file;
+
+public class ParserTest {
+
+    static parsed_file parse(String text) {
+        return parser.parse(source_file.in_memory("t.v", text.getBytes(source_file.UTF8)));
+    }
+
+    @Test
+    public void testImports() {
+        parsed_file p = parse("import:\n java.lang:\n  annotation.Annotation\n  reflect: Method, Type\n"
+                + " java.util: Date, Map\n  regex: Pattern;\n");
+        assertEquals(0, p.diagnostics.size());
+        assertEquals(4, p.imports.size());
+        assertEquals("java.lang.annotation: [Annotation]", p.imports.get(0).toString());
+        assertEquals("java.lang.reflect: [Method, Type]", p.imports.get(1).toString());
+        assertEquals("java.util: [Date, Map]", p.imports.get(2).toString());
+        assertEquals("java.util.regex: [Pattern]", p.imports.get(3).toString());
+    }
+
+    @Test
+    public void testClass() {
+        String text = "\"\"\" Doc. \"\"\"\nclass Property:\n implements: Comparable<Property>\n"
+                + " semantics: singleton, phoenix\n members:\n  \"The name.\"\n  name: str -w\n"
+                + "  kinds: Map<String, List<Class<? extends Enum<?>>>>\n  annotation: Properties = null\n"
+                + " methods:\n  get(\n    \"the object\"\n    obj: Object\n   ) >> str\n   throws: InvocationException\n"
+                + "   :\n    return to_string(obj)\n  f(a) +private >> void\n    g(a)\n    h(a)\n  empty()\n";
+        parsed_file p = parse(text);
+        assertEquals(p.diagnostics.toString(), 0, p.diagnostics.size());
+        class_decl c = p.classes.get(0);
+        assertEquals("Property", c.name);
+        assertEquals("Doc.", c.doc.get_text());
+        assertEquals("[Comparable<Property>]", c.interfaces.toString());
+        assertEquals("[singleton, phoenix]", c.semantics.toString());
+
+        assertEquals(3, c.members.size());
+        member_decl name = c.members.get(0);
+        assertEquals("str", name.type);
+        assertEquals("[-w]", name.flags.toString());
+        assertEquals("The name.", name.doc.get_text());
+        assertEquals("Map<String, List<Class<? extends Enum<?>>>>", c.members.get(1).type);
+        assertEquals("null", c.members.get(2).initializer);
+
+        assertEquals(3, c.methods.size());
+        method_decl get = c.methods.get(0);
+        assertEquals("get", get.name);
+        assertEquals("obj", get.params.get(0).name);
+        assertEquals("Object", get.params.get(0).type);
+        assertEquals("the object", get.params.get(0).doc.get_text());
+        assertEquals("str", get.return_type);
+        assertEquals("[InvocationException]", get.thrown.toString());
+        assertEquals("return to_string(obj)", body(text, get));
+
+        method_decl f = c.methods.get(1);
+        assertNull(f.params.get(0).type);
+        assertEquals("[+private]", f.modifiers.toString());
+        assertEquals("void", f.return_type);
+        assertEquals("g(a)\n    h(a)", body(text, f));
+
+        assertFalse(c.methods.get(2).has_body());
+    }
+
+    private static String body(String text, method_decl m) {
+        return text.substring(m.body_start, m.body_end);
+    }
+
+    @Test
+    public void testRecovery() {
+        parsed_file p = parse("class A:\n members:\n  x int\n  y: int\n bogus\n methods:\n  f() >> int\n");
+        assertEquals(2, p.diagnostics.size());
+        class_decl c = p.classes.get(0);
+        assertEquals(1, c.members.size());
+        assertEquals("y", c.members.get(0).name);
+        assertEquals(1, c.methods.size());
+    }
+
+    @Test
+    public void testTasks() {
+        String text = "\"Package it.\"\ntask jar:\n after: compile, docs\n inputs: \"classes/**\", 'lib'\n"
+                + " outputs: \"dist/t.jar\"\n run: \"mkdir -p dist\"\n run: \"echo \\\"done\\\"\"\n\ntask compile:\n";
+        parsed_file p = parser.parse(source_file.in_memory("build.v", text.getBytes(source_file.UTF8)));
+        assertEquals(p.diagnostics.toString(), 0, p.diagnostics.size());
+        assertEquals(2, p.tasks.size());
+        task_decl t = p.tasks.get(0);
+        assertEquals("jar", t.name);
+        assertEquals("Package it.", t.doc.get_text());
+        assertEquals("[compile, docs]", t.after.toString());
+        assertEquals("[classes/**, lib]", t.inputs.toString());
+        assertEquals("[dist/t.jar]", t.outputs.toString());
+        assertEquals("[mkdir -p dist, echo \"done\"]", t.commands.toString());
+        assertTrue(p.tasks.get(1).commands.isEmpty());
+
+        p = parse("task jar:\n run: \"true\"\n");
+        assertEquals("[t.v@0: tasks belong in the root build.v]", p.diagnostics.toString());
+        assertTrue(p.tasks.isEmpty());
+    }
+}
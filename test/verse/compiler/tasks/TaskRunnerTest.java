@@ -0,0 +1,137 @@
+package verse.compiler.tasks;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import verse.compiler.source_file;
+import verse.io.path_util;
+
+public class TaskRunnerTest {
+
+    private Path root;
+    private ForkJoinPool pool;
+    private ByteArrayOutputStream log;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("tasks").resolve("t.verse");
+        Files.createDirectories(root);
+        pool = new ForkJoinPool(4);
+        log = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        path_util.delete(root.getParent().toFile());
+    }
+
+    private void write(String rel, String text) throws IOException {
+        Path p = root.resolve(rel);
+        Files.createDirectories(p.getParent());
+        Files.write(p, text.getBytes(source_file.UTF8));
+    }
+
+    private String read(String rel) throws IOException {
+        return new String(Files.readAllBytes(root.resolve(rel)), source_file.UTF8);
+    }
+
+    private task_report run(String... names) throws Exception {
+        task_graph g = task_graph.load(root);
+        assertEquals(g.get_diagnostics().toString(), 0, g.get_diagnostics().size());
+        Path state_path = task_state.get_path(root);
+        task_state state = task_state.load(state_path);
+        task_report r = new task_runner(pool, root, state, new PrintStream(log, true)).run(g, Arrays.asList(names));
+        state.save(state_path);
+        return r;
+    }
+
+    private static final String BUILD = "task copy:\n inputs: \"src/**/*.txt\"\n outputs: \"out/a.txt\"\n"
+            + " run: \"mkdir -p out && cp src/a.txt out/a.txt\"\n\n"
+            + "task pack:\n after: copy\n inputs: \"out/a.txt\"\n outputs: \"out/pack.txt\"\n"
+            + " run: \"cat out/a.txt out/a.txt > out/pack.txt\"\n\n"
+            + "task other:\n outputs: \"other.txt\"\n run: \"echo other > other.txt\"\n";
+
+    @Test
+    public void testUpToDateByContent() throws Exception {
+        write("build.v", BUILD);
+        write("src/a.txt", "a\n");
+        task_report r = run();
+        assertTrue(r.format(), r.succeeded());
+        assertEquals(3, r.count(task_report.outcome.RAN));
+        assertEquals("a\na\n", read("out/pack.txt"));
+
+        r = run();
+        assertEquals(3, r.count(task_report.outcome.UP_TO_DATE));
+
+        // Same content, new timestamp: still up to date.
+        write("src/a.txt", "a\n");
+        assertEquals(3, run().count(task_report.outcome.UP_TO_DATE));
+
+        write("src/a.txt", "b\n");
+        r = run("pack");
+        assertEquals(2, r.get_tasks().size());
+        assertEquals(2, r.count(task_report.outcome.RAN));
+        assertEquals("b\nb\n", read("out/pack.txt"));
+
+        Files.delete(root.resolve("other.txt"));
+        r = run();
+        assertEquals(task_report.outcome.RAN, r.get_outcome(task_graph.load(root).get_task("other")));
+        assertEquals(2, r.count(task_report.outcome.UP_TO_DATE));
+    }
+
+    @Test
+    public void testFailureSkipsWhatComesAfter() throws Exception {
+        write("build.v", "task a:\n run: \"echo from a\", \"exit 3\"\ntask b:\n after: a\n run: \"touch b\"\n"
+                + "task c:\n run: \"touch c\"\n");
+        task_report r = run();
+        assertFalse(r.succeeded());
+        task_graph g = task_graph.load(root);
+        assertEquals(task_report.outcome.FAILED, r.get_outcome(g.get_task("a")));
+        assertEquals(task_report.outcome.SKIPPED, r.get_outcome(g.get_task("b")));
+        assertEquals(task_report.outcome.RAN, r.get_outcome(g.get_task("c")));
+        assertEquals("exit 3 exited with 3", r.get_failures().get(r.get_tasks().get(0)));
+        assertFalse(Files.exists(root.resolve("b")));
+        assertTrue(log.toString(), log.toString().contains("> a\nfrom a\n"));
+    }
+
+    @Test
+    public void testIndependentTasksOverlap() throws Exception {
+        write("build.v", "task a:\n run: \"sleep 0.5\"\ntask b:\n run: \"sleep 0.5\"\n"
+                + "task all:\n after: a, b\n");
+        task_report r = run();
+        assertTrue(r.succeeded());
+        assertTrue(r.format(), r.get_wall_nanos() < 900 * 1000000L);
+        List<task> path = r.get_critical_path();
+        assertEquals(2, path.size());
+        assertEquals("all", path.get(1).name);
+    }
+
+    @Test
+    public void testGraphProblems() throws Exception {
+        write("build.v", "task a:\n after: b\ntask b:\n after: a\ntask c:\n after: nope\ntask c:\ntask d:\n");
+        task_graph g = task_graph.load(root);
+        assertEquals(4, g.get_diagnostics().size());
+        assertEquals(Collections.singletonList(g.get_task("d")), g.get_order());
+        assertTrue(g.get_diagnostics().toString(), g.get_diagnostics().toString().contains("declared twice"));
+    }
+
+    @Test
+    public void testSpellOut() {
+        assertEquals("[src/**/*.v, src/*.v]", task_state.spell_out("src/**/*.v").toString());
+        assertEquals("[**/a/**/x, a/**/x, a/x, **/a/x]", task_state.spell_out("**/a/**/x").toString());
+    }
+}